@@ -10,6 +10,9 @@ public final class KafkaTopics {
     public static final String SETTLEMENT_RESULT = "billing.settlement.result";
     public static final String ORCHESTRATION_FAILED = "billing.orchestration.failed";
     public static final String ORCHESTRATION_TIMEOUT = "billing.orchestration.timeout";
+    public static final String USAGE_INGESTED = "billing.usage.ingested";
+    public static final String USAGE_TOTALS_INVALIDATED = "billing.usage.totals.invalidated";
+    public static final String USAGE_THRESHOLD_CROSSED = "billing.usage.threshold.crossed";
     public static final String DEAD_LETTER = "billing.dlq";
 
     private KafkaTopics() {
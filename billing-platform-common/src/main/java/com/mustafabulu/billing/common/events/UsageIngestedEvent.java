@@ -0,0 +1,15 @@
+package com.mustafabulu.billing.common.events;
+
+import java.time.Instant;
+
+public record UsageIngestedEvent(
+        String eventId,
+        String tenantId,
+        String customerId,
+        String idempotencyKey,
+        String metricCode,
+        long quantity,
+        Instant occurredAt,
+        String distinctValue
+) {
+}
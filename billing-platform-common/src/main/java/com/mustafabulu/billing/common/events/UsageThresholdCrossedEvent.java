@@ -0,0 +1,17 @@
+package com.mustafabulu.billing.common.events;
+
+import java.time.Instant;
+
+public record UsageThresholdCrossedEvent(
+        String eventId,
+        String ruleId,
+        String tenantId,
+        String customerId,
+        String metricCode,
+        long quota,
+        int thresholdPercent,
+        long thresholdQuantity,
+        long totalQuantity,
+        Instant occurredAt
+) {
+}
@@ -0,0 +1,18 @@
+package com.mustafabulu.billing.common.events;
+
+import java.time.Instant;
+import java.util.List;
+
+public record UsageTotalsInvalidatedEvent(
+        String eventId,
+        String originId,
+        List<Key> keys,
+        Instant occurredAt
+) {
+    public record Key(
+            String tenantId,
+            String customerId,
+            String metricCode
+    ) {
+    }
+}
@@ -30,7 +30,22 @@ public class ApiSecurityFilter extends OncePerRequestFilter {
     private static final ScopeRule[] SCOPE_RULES = new ScopeRule[]{
             new ScopeRule("POST", "/api/v1/tenants", false, Set.of("tenant:write")),
             new ScopeRule("POST", "/api/v1/usage/events", false, Set.of("usage:write")),
+            new ScopeRule("POST", "/api/v1/usage/events:batch", false, Set.of("usage:write")),
+            new ScopeRule("POST", "/api/v1/usage/events:stream", false, Set.of("usage:write")),
             new ScopeRule("GET", "/api/v1/usage/totals/", true, Set.of("usage:read")),
+            new ScopeRule("POST", "/api/v1/usage/totals:query", false, Set.of("usage:read")),
+            new ScopeRule("GET", "/api/v1/usage/top/", true, Set.of("usage:read")),
+            new ScopeRule("GET", "/api/v1/usage/percentiles/", true, Set.of("usage:read")),
+            new ScopeRule("GET", "/api/v1/usage/dimensions/", true, Set.of("usage:read")),
+            new ScopeRule("GET", "/api/v1/usage/export/", true, Set.of("usage:read")),
+            new ScopeRule("POST", "/api/v1/usage/reconciliations", false, Set.of("usage:admin")),
+            new ScopeRule("GET", "/api/v1/usage/reconciliations/", true, Set.of("usage:admin")),
+            new ScopeRule("GET", "/api/v1/usage/archive/", true, Set.of("usage:admin")),
+            new ScopeRule("POST", "/api/v1/usage/periods", false, Set.of("usage:admin")),
+            new ScopeRule("GET", "/api/v1/usage/periods/", true, Set.of("usage:read")),
+            new ScopeRule("POST", "/api/v1/usage/thresholds", false, Set.of("usage:admin")),
+            new ScopeRule("GET", "/api/v1/usage/thresholds/", true, Set.of("usage:admin")),
+            new ScopeRule("DELETE", "/api/v1/usage/thresholds/", true, Set.of("usage:admin")),
             new ScopeRule("POST", "/api/v1/billing/rate", false, Set.of("billing:write")),
             new ScopeRule("POST", "/api/v1/invoices/generate", false, Set.of("invoice:write")),
             new ScopeRule("POST", "/api/v1/invoices/generate-and-settle", false, Set.of("invoice:settle")),
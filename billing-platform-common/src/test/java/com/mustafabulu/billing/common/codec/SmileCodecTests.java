@@ -0,0 +1,43 @@
+package com.mustafabulu.billing.common.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class SmileCodecTests {
+
+    private final SmileCodec smileCodec = new SmileCodec();
+
+    @Test
+    void shouldRoundTripPayloadWithIsoTimestamps() {
+        Batch batch = new Batch(List.of(new Event("tenant-a", 120L, Instant.parse("2026-02-21T16:30:00Z"))));
+
+        byte[] encoded = smileCodec.encode(batch);
+
+        assertThat(encoded).startsWith((byte) ':', (byte) ')', (byte) '\n');
+        assertThat(smileCodec.decode(encoded, Batch.class)).isEqualTo(batch);
+    }
+
+    @Test
+    void shouldBeSmallerThanJsonForRepetitiveBatches() throws Exception {
+        List<Event> events = IntStream.range(0, 100)
+                .mapToObj(i -> new Event("tenant-a", i, Instant.parse("2026-02-21T16:30:00Z")))
+                .toList();
+        byte[] json = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .writeValueAsBytes(new Batch(events));
+
+        assertThat(smileCodec.encode(new Batch(events)).length).isLessThan(json.length);
+    }
+
+    record Batch(List<Event> events) {
+    }
+
+    record Event(String tenantId, long quantity, Instant occurredAt) {
+    }
+}
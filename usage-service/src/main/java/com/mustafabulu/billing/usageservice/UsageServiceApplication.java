@@ -2,8 +2,10 @@ package com.mustafabulu.billing.usageservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(scanBasePackages = "com.mustafabulu.billing")
+@EnableScheduling
 public class UsageServiceApplication {
 
     public static void main(String[] args) {
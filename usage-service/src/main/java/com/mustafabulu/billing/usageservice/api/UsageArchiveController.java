@@ -0,0 +1,74 @@
+package com.mustafabulu.billing.usageservice.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mustafabulu.billing.common.web.ApiErrorResponse;
+import com.mustafabulu.billing.usageservice.application.UsageArchiveService;
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/usage/archive")
+@Tag(name = "Usage Archive", description = "Read access to usage events moved to cold segment files")
+public class UsageArchiveController {
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final UsageArchiveService usageArchiveService;
+    private final ObjectWriter eventWriter;
+
+    public UsageArchiveController(UsageArchiveService usageArchiveService, ObjectMapper objectMapper) {
+        this.usageArchiveService = usageArchiveService;
+        this.eventWriter = objectMapper.writerFor(UsageEvent.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @GetMapping(value = "/{tenantId}/events", produces = NDJSON)
+    @Operation(
+            summary = "Stream archived usage events",
+            description = "Streams archived events of a tenant that occurred in [from, to) as newline-delimited JSON, "
+                    + "ordered by segment. Events still in the live store are not included."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "One usage event per line",
+            content = @Content(mediaType = NDJSON, schema = @Schema(implementation = UsageEvent.class))
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Invalid period range",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public void events(@Parameter(description = "Tenant identifier", example = "acme-tr")
+                       @PathVariable("tenantId") String tenantId,
+                       @Parameter(description = "Inclusive period start in UTC", example = "2025-01-01T00:00:00Z")
+                       @RequestParam("from") Instant from,
+                       @Parameter(description = "Exclusive period end in UTC", example = "2025-02-01T00:00:00Z")
+                       @RequestParam("to") Instant to,
+                       HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        OutputStream out = response.getOutputStream();
+        usageArchiveService.scan(tenantId, from, to, event -> {
+            try {
+                eventWriter.writeValue(out, event);
+                out.write('\n');
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+}
@@ -1,9 +1,25 @@
 package com.mustafabulu.billing.usageservice.api;
 
 import com.mustafabulu.billing.common.web.ApiErrorResponse;
+import com.mustafabulu.billing.usageservice.api.dto.UsageEventBatchRequest;
 import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import com.mustafabulu.billing.usageservice.api.dto.UsageTotalsQueryRequest;
+import com.mustafabulu.billing.usageservice.application.UsageClosedPeriods;
+import com.mustafabulu.billing.usageservice.application.UsageDimensionService;
+import com.mustafabulu.billing.usageservice.application.UsageHeavyHitters;
 import com.mustafabulu.billing.usageservice.application.UsageIngestionService;
+import com.mustafabulu.billing.usageservice.application.UsagePercentileService;
+import com.mustafabulu.billing.usageservice.application.UsageRollupService;
+import com.mustafabulu.billing.usageservice.application.UsageStreamIngestionService;
+import com.mustafabulu.billing.usageservice.application.UsageTotalsQueryService;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchResult;
+import com.mustafabulu.billing.usageservice.domain.UsageDimensionTotalsResult;
 import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.domain.UsagePercentilesResult;
+import com.mustafabulu.billing.usageservice.domain.UsageStreamChunkResult;
+import com.mustafabulu.billing.usageservice.domain.UsageTopCustomersResult;
+import com.mustafabulu.billing.usageservice.domain.UsageTopWindow;
+import com.mustafabulu.billing.usageservice.domain.UsageTotalsQueryResult;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -11,13 +27,19 @@ import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -25,10 +47,33 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/api/v1/usage")
 @Tag(name = "Usage Management", description = "Usage ingestion and aggregated totals")
 public class UsageController {
+    private static final String NDJSON = "application/x-ndjson";
+
     private final UsageIngestionService usageIngestionService;
+    private final UsageRollupService usageRollupService;
+    private final UsageStreamIngestionService usageStreamIngestionService;
+    private final UsageTotalsQueryService usageTotalsQueryService;
+    private final UsageHeavyHitters usageHeavyHitters;
+    private final UsagePercentileService usagePercentileService;
+    private final UsageDimensionService usageDimensionService;
+    private final UsageClosedPeriods usageClosedPeriods;
 
-    public UsageController(UsageIngestionService usageIngestionService) {
+    public UsageController(UsageIngestionService usageIngestionService,
+                           UsageRollupService usageRollupService,
+                           UsageStreamIngestionService usageStreamIngestionService,
+                           UsageTotalsQueryService usageTotalsQueryService,
+                           UsageHeavyHitters usageHeavyHitters,
+                           UsagePercentileService usagePercentileService,
+                           UsageDimensionService usageDimensionService,
+                           UsageClosedPeriods usageClosedPeriods) {
         this.usageIngestionService = usageIngestionService;
+        this.usageRollupService = usageRollupService;
+        this.usageStreamIngestionService = usageStreamIngestionService;
+        this.usageTotalsQueryService = usageTotalsQueryService;
+        this.usageHeavyHitters = usageHeavyHitters;
+        this.usagePercentileService = usagePercentileService;
+        this.usageDimensionService = usageDimensionService;
+        this.usageClosedPeriods = usageClosedPeriods;
     }
 
     @PostMapping("/events")
@@ -51,12 +96,13 @@ public class UsageController {
     
             @ApiResponse(
                     responseCode = "202",
-                    description = "Usage event accepted",
+                    description = "Usage event accepted. With the write-ahead log enabled the status is PENDING: the "
+                            + "event is acknowledged before the duplicate check and the body echoes the request",
                     content = @Content(
                             schema = @Schema(implementation = UsageEvent.class),
                             examples = @ExampleObject(
                                     name = "AcceptedUsageEvent",
-                                    value = "{\"tenantId\":\"acme-tr\",\"customerId\":\"cust-1001\",\"idempotencyKey\":\"usage-evt-0001\",\"metricCode\":\"api_call\",\"quantity\":120,\"occurredAt\":\"2026-02-21T16:30:00Z\"}"
+                                    value = "{\"tenantId\":\"acme-tr\",\"customerId\":\"cust-1001\",\"idempotencyKey\":\"usage-evt-0001\",\"metricCode\":\"api_call\",\"quantity\":120,\"occurredAt\":\"2026-02-21T16:30:00Z\",\"status\":\"ACCEPTED\"}"
                             )
                     )
             )
@@ -70,8 +116,89 @@ public class UsageController {
         return usageIngestionService.ingest(request);
     }
 
+    @PostMapping("/events:batch")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @Operation(
+            summary = "Ingest usage events in bulk",
+            description = "Stores up to 5000 metered usage events with a single duplicate lookup and bulk writes.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    description = "Usage event batch payload",
+                    content = @Content(
+                            schema = @Schema(implementation = UsageEventBatchRequest.class),
+                            examples = @ExampleObject(
+                                    name = "UsageEventBatch",
+                                    value = "{\"events\":[{\"tenantId\":\"acme-tr\",\"customerId\":\"cust-1001\",\"idempotencyKey\":\"usage-evt-0001\",\"metricCode\":\"api_call\",\"quantity\":120,\"occurredAt\":\"2026-02-21T16:30:00Z\"}]}"
+                            )
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "202",
+            description = "Usage event batch processed",
+            content = @Content(
+                    schema = @Schema(implementation = UsageBatchResult.class),
+                    examples = @ExampleObject(
+                            name = "UsageBatchResult",
+                            value = "{\"accepted\":1,\"duplicates\":0,\"results\":[{\"index\":0,\"tenantId\":\"acme-tr\",\"idempotencyKey\":\"usage-evt-0001\",\"status\":\"ACCEPTED\"}]}"
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Invalid request payload",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsageBatchResult ingestBatch(@Valid @RequestBody UsageEventBatchRequest request) {
+        return usageIngestionService.ingestBatch(request.events());
+    }
+
+    @PostMapping(value = "/events:stream", consumes = NDJSON, produces = NDJSON)
+    @Operation(
+            summary = "Stream usage events",
+            description = "Reads newline-delimited usage events incrementally and stores them in micro-batches. "
+                    + "Each stored chunk is acknowledged with one result line carrying the offset to resume from.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    description = "One usage event JSON object per line",
+                    content = @Content(
+                            mediaType = NDJSON,
+                            examples = @ExampleObject(
+                                    name = "UsageEventStream",
+                                    value = "{\"tenantId\":\"acme-tr\",\"customerId\":\"cust-1001\",\"idempotencyKey\":\"usage-evt-0001\",\"metricCode\":\"api_call\",\"quantity\":120}\n"
+                                            + "{\"tenantId\":\"acme-tr\",\"customerId\":\"cust-1001\",\"idempotencyKey\":\"usage-evt-0002\",\"metricCode\":\"api_call\",\"quantity\":80}"
+                            )
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "One result line per chunk; a FAILED line ends the stream at its nextOffset",
+            content = @Content(
+                    mediaType = NDJSON,
+                    schema = @Schema(implementation = UsageStreamChunkResult.class),
+                    examples = @ExampleObject(
+                            name = "UsageStreamChunkResult",
+                            value = "{\"chunk\":0,\"fromOffset\":0,\"nextOffset\":2,\"accepted\":2,\"duplicates\":0,\"status\":\"OK\"}"
+                    )
+            )
+    )
+    public void ingestStream(@Parameter(description = "Number of leading records to skip when resuming", example = "0")
+                             @RequestParam(name = "fromOffset", defaultValue = "0") long fromOffset,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NDJSON);
+        usageStreamIngestionService.ingest(request.getInputStream(), response.getOutputStream(), fromOffset);
+    }
+
     @GetMapping("/totals/{tenantId}/{customerId}/{metricCode}")
-    @Operation(summary = "Get usage total", description = "Returns aggregated quantity for tenant/customer/metric.")
+    @Operation(
+            summary = "Get usage total",
+            description = "Returns aggregated quantity for tenant/customer/metric. When from/to are given, "
+                    + "returns the quantity that occurred in [from, to) using hourly and daily rollups, or the frozen "
+                    + "snapshot when [from, to) is a closed billing period."
+    )
     
             @ApiResponse(
                     responseCode = "200",
@@ -80,7 +207,7 @@ public class UsageController {
             )
     @ApiResponse(
                     responseCode = "400",
-                    description = "Invalid path parameters",
+                    description = "Invalid path parameters or period range",
                     content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
             )
     
@@ -89,10 +216,176 @@ public class UsageController {
                       @Parameter(description = "Customer identifier", example = "cust-1001")
                       @PathVariable("customerId") String customerId,
                       @Parameter(description = "Metric code", example = "api_call")
-                      @PathVariable("metricCode") String metricCode) {
-        return usageIngestionService.currentTotal(tenantId, customerId, metricCode);
+                      @PathVariable("metricCode") String metricCode,
+                      @Parameter(description = "Inclusive period start in UTC, aligned to an hour", example = "2026-02-01T00:00:00Z")
+                      @RequestParam(name = "from", required = false) Instant from,
+                      @Parameter(description = "Exclusive period end in UTC, aligned to an hour", example = "2026-03-01T00:00:00Z")
+                      @RequestParam(name = "to", required = false) Instant to) {
+        if (from == null && to == null) {
+            return usageIngestionService.currentTotal(tenantId, customerId, metricCode);
+        }
+        Long frozen = usageClosedPeriods.snapshotTotal(tenantId, customerId, metricCode, from, to);
+        if (frozen != null) {
+            return frozen;
+        }
+        return usageRollupService.periodTotal(tenantId, customerId, metricCode, from, to);
     }
-}
 
+    @PostMapping("/totals:query")
+    @Operation(
+            summary = "Get usage totals in bulk",
+            description = "Returns lifetime totals for a list of customer/metric pairs, or for every metric of one customer, "
+                    + "resolved with a single query.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    description = "Tenant plus either customer/metric pairs or a single customer",
+                    content = @Content(
+                            schema = @Schema(implementation = UsageTotalsQueryRequest.class),
+                            examples = {
+                                    @ExampleObject(
+                                            name = "Pairs",
+                                            value = "{\"tenantId\":\"acme-tr\",\"items\":[{\"customerId\":\"cust-1001\",\"metricCode\":\"api_call\"},{\"customerId\":\"cust-1002\",\"metricCode\":\"api_call\"}]}"
+                                    ),
+                                    @ExampleObject(
+                                            name = "AllMetrics",
+                                            value = "{\"tenantId\":\"acme-tr\",\"customerId\":\"cust-1001\"}"
+                                    )
+                            }
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "Totals keyed by customer and metric",
+            content = @Content(
+                    schema = @Schema(implementation = UsageTotalsQueryResult.class),
+                    examples = @ExampleObject(
+                            name = "UsageTotalsQueryResult",
+                            value = "{\"tenantId\":\"acme-tr\",\"totals\":{\"cust-1001\":{\"api_call\":1200},\"cust-1002\":{\"api_call\":0}}}"
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Invalid request payload",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsageTotalsQueryResult totals(@Valid @RequestBody UsageTotalsQueryRequest request) {
+        return usageTotalsQueryService.totals(request);
+    }
+
+    @GetMapping("/top/{tenantId}/{metricCode}")
+    @Operation(
+            summary = "Get heavy-hitter customers",
+            description = "Returns the customers with the largest estimated quantity for a metric, from streaming sketches "
+                    + "kept by this instance. Estimates never undercount and overcount by at most maxOverestimate. "
+                    + "Empty unless heavy-hitter tracking is enabled."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "Largest customers, ordered by estimated quantity",
+            content = @Content(
+                    schema = @Schema(implementation = UsageTopCustomersResult.class),
+                    examples = @ExampleObject(
+                            name = "UsageTopCustomersResult",
+                            value = "{\"tenantId\":\"acme-tr\",\"metricCode\":\"api_call\",\"window\":\"SLIDING\",\"since\":\"2026-02-21T15:30:00Z\",\"maxOverestimate\":14,\"customers\":[{\"customerId\":\"cust-1001\",\"estimatedQuantity\":1200}]}"
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Limit outside the tracked candidate count",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsageTopCustomersResult top(@Parameter(description = "Tenant identifier", example = "acme-tr")
+                                       @PathVariable("tenantId") String tenantId,
+                                       @Parameter(description = "Metric code", example = "api_call")
+                                       @PathVariable("metricCode") String metricCode,
+                                       @Parameter(description = "TOTAL or SLIDING", example = "SLIDING")
+                                       @RequestParam(name = "window", defaultValue = "SLIDING") UsageTopWindow window,
+                                       @Parameter(description = "Number of customers to return", example = "10")
+                                       @RequestParam(name = "limit", defaultValue = "10") int limit) {
+        return usageHeavyHitters.top(tenantId, metricCode, window, limit);
+    }
 
+    @GetMapping("/percentiles/{tenantId}/{customerId}/{metricCode}")
+    @Operation(
+            summary = "Get usage percentiles",
+            description = "Returns percentiles of the event quantities of a PERCENTILE metric, e.g. the 95th percentile of "
+                    + "5-minute bandwidth samples, from mergeable quantile sketches. When from/to are given, only samples "
+                    + "that occurred in [from, to) are counted, using hourly and daily rollups."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "Estimated percentiles, each within relativeAccuracy of the exact sample value",
+            content = @Content(
+                    schema = @Schema(implementation = UsagePercentilesResult.class),
+                    examples = @ExampleObject(
+                            name = "UsagePercentilesResult",
+                            value = "{\"tenantId\":\"acme-tr\",\"customerId\":\"cust-1001\",\"metricCode\":\"bandwidth_mbps\",\"from\":\"2026-02-01T00:00:00Z\",\"to\":\"2026-03-01T00:00:00Z\",\"samples\":8064,\"relativeAccuracy\":0.01,\"percentiles\":{\"p95\":870,\"p99\":1210}}"
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Metric is not a PERCENTILE metric, invalid percentiles or period range",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsagePercentilesResult percentiles(@Parameter(description = "Tenant identifier", example = "acme-tr")
+                                              @PathVariable("tenantId") String tenantId,
+                                              @Parameter(description = "Customer identifier", example = "cust-1001")
+                                              @PathVariable("customerId") String customerId,
+                                              @Parameter(description = "Metric code", example = "bandwidth_mbps")
+                                              @PathVariable("metricCode") String metricCode,
+                                              @Parameter(description = "Percentiles to estimate, in (0, 100]", example = "95,99")
+                                              @RequestParam(name = "percentiles", defaultValue = "95") List<Double> percentiles,
+                                              @Parameter(description = "Inclusive period start in UTC, aligned to an hour", example = "2026-02-01T00:00:00Z")
+                                              @RequestParam(name = "from", required = false) Instant from,
+                                              @Parameter(description = "Exclusive period end in UTC, aligned to an hour", example = "2026-03-01T00:00:00Z")
+                                              @RequestParam(name = "to", required = false) Instant to) {
+        return usagePercentileService.percentiles(tenantId, customerId, metricCode, percentiles, from, to);
+    }
 
+    @GetMapping("/dimensions/{tenantId}/{metricCode}")
+    @Operation(
+            summary = "Get usage totals by dimension",
+            description = "Returns the total of a SUM or PERCENTILE metric in [from, to) grouped by the values of one "
+                    + "dimension tag, for one customer or, without customerId, the whole tenant. Answered from hourly "
+                    + "and daily dimension rollups."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "Totals by dimension value",
+            content = @Content(
+                    schema = @Schema(implementation = UsageDimensionTotalsResult.class),
+                    examples = @ExampleObject(
+                            name = "UsageDimensionTotalsResult",
+                            value = "{\"tenantId\":\"acme-tr\",\"customerId\":null,\"metricCode\":\"api_call\","
+                                    + "\"dimension\":\"region\",\"from\":\"2026-02-01T00:00:00Z\","
+                                    + "\"to\":\"2026-03-01T00:00:00Z\",\"totals\":{\"eu-west-1\":1200,\"us-east-1\":800}}"
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Metric without summed totals or invalid period range",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsageDimensionTotalsResult dimensionTotals(@Parameter(description = "Tenant identifier", example = "acme-tr")
+                                                      @PathVariable("tenantId") String tenantId,
+                                                      @Parameter(description = "Metric code", example = "api_call")
+                                                      @PathVariable("metricCode") String metricCode,
+                                                      @Parameter(description = "Dimension to group by", example = "region")
+                                                      @RequestParam(name = "groupBy") String dimension,
+                                                      @Parameter(description = "Customer identifier; omit for the whole tenant",
+                                                              example = "cust-1001")
+                                                      @RequestParam(name = "customerId", required = false) String customerId,
+                                                      @Parameter(description = "Inclusive period start in UTC, aligned to an hour",
+                                                              example = "2026-02-01T00:00:00Z")
+                                                      @RequestParam(name = "from") Instant from,
+                                                      @Parameter(description = "Exclusive period end in UTC, aligned to an hour",
+                                                              example = "2026-03-01T00:00:00Z")
+                                                      @RequestParam(name = "to") Instant to) {
+        return usageDimensionService.totals(tenantId, customerId, metricCode, dimension, from, to);
+    }
+}
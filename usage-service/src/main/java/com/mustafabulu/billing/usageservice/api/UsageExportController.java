@@ -0,0 +1,99 @@
+package com.mustafabulu.billing.usageservice.api;
+
+import com.mustafabulu.billing.common.web.ApiErrorResponse;
+import com.mustafabulu.billing.usageservice.application.UsageArchiveService;
+import com.mustafabulu.billing.usageservice.application.UsageExportService;
+import com.mustafabulu.billing.usageservice.domain.UsageArchivedRange;
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.domain.UsageExportFormat;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.headers.Header;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/usage/export")
+@Tag(name = "Usage Export", description = "Streaming export of usage events for a billing period")
+public class UsageExportController {
+    static final String ARCHIVED_RANGES_HEADER = "X-Usage-Archived-Ranges";
+
+    private final UsageExportService usageExportService;
+    private final UsageArchiveService usageArchiveService;
+
+    public UsageExportController(UsageExportService usageExportService, UsageArchiveService usageArchiveService) {
+        this.usageExportService = usageExportService;
+        this.usageArchiveService = usageArchiveService;
+    }
+
+    @GetMapping("/{tenantId}/events")
+    @Operation(
+            summary = "Export usage events",
+            description = "Streams the live usage events of a tenant that occurred in [from, to), ordered by occurredAt, "
+                    + "as newline-delimited JSON or CSV. The response is written page by page and gzip-compressed when "
+                    + "the client sends Accept-Encoding: gzip. Archived events are not included: the UTC day ranges of [from, to) "
+                    + "that hold archived events are listed in the X-Usage-Archived-Ranges header, to be read from "
+                    + "/api/v1/usage/archive."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "One usage event per line (CSV starts with a header line)",
+            headers = @Header(name = ARCHIVED_RANGES_HEADER,
+                    description = "Comma-separated ISO 8601 intervals of [from, to) whose archived events are left out; "
+                            + "absent when nothing in the range is archived",
+                    schema = @Schema(type = "string", example = "2025-01-01T00:00:00Z/2025-01-04T00:00:00Z")),
+            content = {
+                    @Content(mediaType = "application/x-ndjson", schema = @Schema(implementation = UsageEvent.class)),
+                    @Content(mediaType = "text/csv")
+            }
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Invalid period range",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public void events(@Parameter(description = "Tenant identifier", example = "acme-tr")
+                       @PathVariable("tenantId") String tenantId,
+                       @Parameter(description = "Inclusive period start in UTC", example = "2026-02-01T00:00:00Z")
+                       @RequestParam("from") Instant from,
+                       @Parameter(description = "Exclusive period end in UTC", example = "2026-03-01T00:00:00Z")
+                       @RequestParam("to") Instant to,
+                       @Parameter(description = "NDJSON or CSV", example = "CSV")
+                       @RequestParam(name = "format", defaultValue = "NDJSON") UsageExportFormat format,
+                       @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                       HttpServletResponse response) throws IOException {
+        // checked before the first byte is written, while an error can still become a 400
+        usageExportService.validate(from, to);
+        List<UsageArchivedRange> archived = usageArchiveService.archivedRanges(tenantId, from, to);
+        if (!archived.isEmpty()) {
+            response.setHeader(ARCHIVED_RANGES_HEADER,
+                    archived.stream().map(range -> range.from() + "/" + range.to()).collect(Collectors.joining(",")));
+        }
+        response.setContentType(format.contentType());
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            usageExportService.export(tenantId, from, to, format, response.getOutputStream());
+            return;
+        }
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        // sync flush, so every page reaches the client as it is written instead of when the deflater fills up
+        try (GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream(), 65_536, true)) {
+            usageExportService.export(tenantId, from, to, format, out);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.mustafabulu.billing.usageservice.api;
+
+import com.mustafabulu.billing.common.exception.ResourceNotFoundException;
+import com.mustafabulu.billing.common.web.ApiErrorResponse;
+import com.mustafabulu.billing.usageservice.api.dto.UsagePeriodCloseRequest;
+import com.mustafabulu.billing.usageservice.application.UsagePeriodService;
+import com.mustafabulu.billing.usageservice.domain.UsagePeriod;
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodTotal;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import java.util.List;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/usage/periods")
+@Tag(name = "Usage Periods", description = "Close billing periods into immutable usage snapshots")
+public class UsagePeriodController {
+
+    private final UsagePeriodService usagePeriodService;
+
+    public UsagePeriodController(UsagePeriodService usagePeriodService) {
+        this.usagePeriodService = usagePeriodService;
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @Operation(
+            summary = "Close usage period",
+            description = "Freezes per customer/metric totals of the tenant's period into a snapshot once the cutoff "
+                    + "has passed. Events of the period received after the cutoff are recorded as adjustments. "
+                    + "Closing the same period again returns it and resumes an unfinished snapshot.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    description = "Tenant and period to close",
+                    content = @Content(
+                            schema = @Schema(implementation = UsagePeriodCloseRequest.class),
+                            examples = @ExampleObject(
+                                    name = "UsagePeriodClose",
+                                    value = "{\"tenantId\":\"acme-tr\",\"from\":\"2026-02-01T00:00:00Z\",\"to\":\"2026-03-01T00:00:00Z\"}"
+                            )
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "202",
+            description = "Period close started",
+            content = @Content(schema = @Schema(implementation = UsagePeriod.class))
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Invalid or unfinished period, or period close disabled",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "409",
+            description = "Period overlaps another period of the tenant",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsagePeriod close(@Valid @RequestBody UsagePeriodCloseRequest request) {
+        return usagePeriodService.close(request);
+    }
+
+    @GetMapping("/{periodId}")
+    @Operation(summary = "Get usage period", description = "Returns the status of a period close.")
+    @ApiResponse(
+            responseCode = "200",
+            description = "Usage period found",
+            content = @Content(schema = @Schema(implementation = UsagePeriod.class))
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "Usage period not found",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsagePeriod getById(@PathVariable("periodId") String periodId) {
+        UsagePeriod period = usagePeriodService.getById(periodId);
+        if (period == null) {
+            throw new ResourceNotFoundException("Usage period not found: " + periodId);
+        }
+        return period;
+    }
+
+    @GetMapping("/{periodId}/totals/{customerId}")
+    @Operation(
+            summary = "Get closed period totals",
+            description = "Returns the frozen totals of a customer per metric, with late usage received after the "
+                    + "close reported separately as adjustments."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "Frozen totals by metric",
+            content = @Content(array = @ArraySchema(schema = @Schema(implementation = UsagePeriodTotal.class)))
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "Usage period not found",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "409",
+            description = "Usage period is still closing",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public List<UsagePeriodTotal> totals(@PathVariable("periodId") String periodId,
+                                         @Parameter(description = "Customer identifier", example = "cust-1001")
+                                         @PathVariable("customerId") String customerId) {
+        List<UsagePeriodTotal> totals = usagePeriodService.totals(periodId, customerId);
+        if (totals == null) {
+            throw new ResourceNotFoundException("Usage period not found: " + periodId);
+        }
+        return totals;
+    }
+}
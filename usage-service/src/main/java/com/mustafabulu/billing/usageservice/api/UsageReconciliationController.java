@@ -0,0 +1,86 @@
+package com.mustafabulu.billing.usageservice.api;
+
+import com.mustafabulu.billing.common.exception.ResourceNotFoundException;
+import com.mustafabulu.billing.common.web.ApiErrorResponse;
+import com.mustafabulu.billing.usageservice.api.dto.UsageReconciliationRequest;
+import com.mustafabulu.billing.usageservice.application.UsageReconciliationService;
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationRun;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/usage/reconciliations")
+@Tag(name = "Usage Reconciliation", description = "Rebuild and verify usage aggregates from raw events")
+public class UsageReconciliationController {
+
+    private final UsageReconciliationService usageReconciliationService;
+
+    public UsageReconciliationController(UsageReconciliationService usageReconciliationService) {
+        this.usageReconciliationService = usageReconciliationService;
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @Operation(
+            summary = "Start usage reconciliation",
+            description = "Recomputes totals from usage events per tenant and compares them with stored aggregates. "
+                    + "Resumes an abandoned run from its checkpoints. With repair enabled, confirmed drift is corrected.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    description = "Reconciliation options",
+                    content = @Content(
+                            schema = @Schema(implementation = UsageReconciliationRequest.class),
+                            examples = @ExampleObject(
+                                    name = "UsageReconciliation",
+                                    value = "{\"repair\":false,\"tenantIds\":[\"acme-tr\"]}"
+                            )
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "202",
+            description = "Reconciliation run started",
+            content = @Content(schema = @Schema(implementation = UsageReconciliationRun.class))
+    )
+    @ApiResponse(
+            responseCode = "409",
+            description = "Another reconciliation run is in progress",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsageReconciliationRun start(@Valid @RequestBody UsageReconciliationRequest request) {
+        return usageReconciliationService.start(request);
+    }
+
+    @GetMapping("/{runId}")
+    @Operation(summary = "Get usage reconciliation run", description = "Returns progress and discrepancies of a run.")
+    @ApiResponse(
+            responseCode = "200",
+            description = "Reconciliation run found",
+            content = @Content(schema = @Schema(implementation = UsageReconciliationRun.class))
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "Reconciliation run not found",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsageReconciliationRun getById(@PathVariable("runId") String runId) {
+        UsageReconciliationRun run = usageReconciliationService.getById(runId);
+        if (run == null) {
+            throw new ResourceNotFoundException("Usage reconciliation run not found: " + runId);
+        }
+        return run;
+    }
+}
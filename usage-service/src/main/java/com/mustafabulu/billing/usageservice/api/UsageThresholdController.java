@@ -0,0 +1,107 @@
+package com.mustafabulu.billing.usageservice.api;
+
+import com.mustafabulu.billing.common.exception.ResourceNotFoundException;
+import com.mustafabulu.billing.common.web.ApiErrorResponse;
+import com.mustafabulu.billing.usageservice.api.dto.UsageThresholdRuleRequest;
+import com.mustafabulu.billing.usageservice.application.UsageThresholdAlerts;
+import com.mustafabulu.billing.usageservice.domain.UsageThresholdRule;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import java.util.List;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/usage/thresholds")
+@Tag(name = "Usage Thresholds", description = "Quota threshold rules alerted on as usage is ingested")
+public class UsageThresholdController {
+
+    private final UsageThresholdAlerts usageThresholdAlerts;
+
+    public UsageThresholdController(UsageThresholdAlerts usageThresholdAlerts) {
+        this.usageThresholdAlerts = usageThresholdAlerts;
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    @Operation(
+            summary = "Create threshold rule",
+            description = "Publishes a usage threshold crossed event the moment a customer's total for the metric "
+                    + "crosses each percentage of the quota. Omitting customerId applies the rule to every customer.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    description = "Threshold rule",
+                    content = @Content(
+                            schema = @Schema(implementation = UsageThresholdRuleRequest.class),
+                            examples = @ExampleObject(
+                                    name = "UsageThresholdRule",
+                                    value = "{\"tenantId\":\"acme-tr\",\"metricCode\":\"api_call\","
+                                            + "\"customerId\":\"cust-1001\",\"quota\":100000,"
+                                            + "\"thresholdPercents\":[80,100]}"
+                            )
+                    )
+            )
+    )
+    @ApiResponse(
+            responseCode = "201",
+            description = "Threshold rule created",
+            content = @Content(schema = @Schema(implementation = UsageThresholdRule.class))
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "Invalid rule or metric without a summed total",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "409",
+            description = "Tenant threshold rule limit reached",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public UsageThresholdRule create(@Valid @RequestBody UsageThresholdRuleRequest request) {
+        return usageThresholdAlerts.create(request);
+    }
+
+    @GetMapping("/{tenantId}")
+    @Operation(summary = "List threshold rules", description = "Returns the threshold rules of a tenant.")
+    @ApiResponse(
+            responseCode = "200",
+            description = "Threshold rules of the tenant",
+            content = @Content(array = @ArraySchema(schema = @Schema(implementation = UsageThresholdRule.class)))
+    )
+    public List<UsageThresholdRule> list(@Parameter(description = "Tenant identifier", example = "acme-tr")
+                                         @PathVariable("tenantId") String tenantId) {
+        return usageThresholdAlerts.list(tenantId);
+    }
+
+    @DeleteMapping("/{tenantId}/{ruleId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @Operation(summary = "Delete threshold rule", description = "Stops alerting on a threshold rule.")
+    @ApiResponse(responseCode = "204", description = "Threshold rule deleted")
+    @ApiResponse(
+            responseCode = "404",
+            description = "Threshold rule not found",
+            content = @Content(schema = @Schema(implementation = ApiErrorResponse.class))
+    )
+    public void delete(@Parameter(description = "Tenant identifier", example = "acme-tr")
+                       @PathVariable("tenantId") String tenantId,
+                       @Parameter(description = "Rule identifier", example = "thr-5f0c")
+                       @PathVariable("ruleId") String ruleId) {
+        if (!usageThresholdAlerts.delete(tenantId, ruleId)) {
+            throw new ResourceNotFoundException("Usage threshold rule not found: " + ruleId);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.mustafabulu.billing.usageservice.api.dto;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+public record UsageEventBatchRequest(
+        @ArraySchema(
+                arraySchema = @Schema(description = "Usage events to ingest in a single call"),
+                schema = @Schema(implementation = UsageEventRequest.class),
+                maxItems = 5000
+        )
+        @NotEmpty @Size(max = 5000) List<@Valid UsageEventRequest> events
+) {
+}
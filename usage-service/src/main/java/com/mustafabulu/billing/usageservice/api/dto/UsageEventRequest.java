@@ -2,8 +2,11 @@ package com.mustafabulu.billing.usageservice.api.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
 import java.time.Instant;
+import java.util.Map;
 
 public record UsageEventRequest(
         @Schema(description = "Tenant identifier", example = "acme-tr")
@@ -17,6 +20,22 @@ public record UsageEventRequest(
         @Schema(description = "Metered quantity", example = "120")
         @PositiveOrZero long quantity,
         @Schema(description = "Event timestamp in UTC", example = "2026-02-21T16:30:00Z")
-        Instant occurredAt
+        Instant occurredAt,
+        @Schema(description = "Value counted once per period for DISTINCT metrics, such as a user or device id",
+                example = "user-42")
+        @Size(max = 256) String distinctValue,
+        @Schema(description = "Dimension tags of SUM and PERCENTILE metrics, for totals grouped by dimension",
+                example = "{\"region\":\"eu-west-1\",\"route\":\"/v1/chat\"}")
+        @Size(max = 8) Map<@Pattern(regexp = "[a-z][a-z0-9_]{0,31}") String, @NotBlank @Size(max = 128) String> dimensions
 ) {
+
+    public UsageEventRequest(String tenantId,
+                             String customerId,
+                             String idempotencyKey,
+                             String metricCode,
+                             long quantity,
+                             Instant occurredAt,
+                             String distinctValue) {
+        this(tenantId, customerId, idempotencyKey, metricCode, quantity, occurredAt, distinctValue, null);
+    }
 }
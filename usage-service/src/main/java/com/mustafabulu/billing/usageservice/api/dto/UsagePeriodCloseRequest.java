@@ -0,0 +1,16 @@
+package com.mustafabulu.billing.usageservice.api.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import java.time.Instant;
+
+public record UsagePeriodCloseRequest(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        @NotBlank String tenantId,
+        @Schema(description = "Inclusive period start in UTC, aligned to an hour", example = "2026-02-01T00:00:00Z")
+        @NotNull Instant from,
+        @Schema(description = "Exclusive period end in UTC, aligned to an hour", example = "2026-03-01T00:00:00Z")
+        @NotNull Instant to
+) {
+}
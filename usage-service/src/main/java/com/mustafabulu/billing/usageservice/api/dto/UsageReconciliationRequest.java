@@ -0,0 +1,14 @@
+package com.mustafabulu.billing.usageservice.api.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+public record UsageReconciliationRequest(
+        @Schema(description = "Write confirmed discrepancies back to the aggregates", example = "false")
+        boolean repair,
+        @Schema(description = "Tenants to reconcile; omit to reconcile every tenant", example = "[\"acme-tr\"]")
+        @Size(max = 1000) List<@NotBlank String> tenantIds
+) {
+}
@@ -0,0 +1,26 @@
+package com.mustafabulu.billing.usageservice.api.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+public record UsageThresholdRuleRequest(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        @NotBlank String tenantId,
+        @Schema(description = "Metric code", example = "api_call")
+        @NotBlank String metricCode,
+        @Schema(description = "Customer the rule applies to; omit to apply it to every customer of the tenant",
+                example = "cust-1001")
+        @Size(max = 256) String customerId,
+        @Schema(description = "Quota the thresholds are relative to", example = "100000")
+        @Positive long quota,
+        @Schema(description = "Percentages of the quota that raise an alert when crossed; defaults to 80 and 100",
+                example = "[80,100]")
+        @Size(max = 10) List<@NotNull @Min(1) @Max(1000) Integer> thresholdPercents
+) {
+}
@@ -0,0 +1,12 @@
+package com.mustafabulu.billing.usageservice.api.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+
+public record UsageTotalsQueryItem(
+        @Schema(description = "Customer identifier", example = "cust-1001")
+        @NotBlank String customerId,
+        @Schema(description = "Metric code", example = "api_call")
+        @NotBlank String metricCode
+) {
+}
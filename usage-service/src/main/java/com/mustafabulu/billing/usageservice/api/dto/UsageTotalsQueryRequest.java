@@ -0,0 +1,23 @@
+package com.mustafabulu.billing.usageservice.api.dto;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+public record UsageTotalsQueryRequest(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        @NotBlank String tenantId,
+        @Schema(description = "Customer whose totals for all metrics are requested; mutually exclusive with items",
+                example = "cust-1001")
+        String customerId,
+        @ArraySchema(
+                arraySchema = @Schema(description = "Customer and metric pairs to resolve; mutually exclusive with customerId"),
+                schema = @Schema(implementation = UsageTotalsQueryItem.class),
+                maxItems = 1000
+        )
+        @Size(max = 1000) List<@Valid UsageTotalsQueryItem> items
+) {
+}
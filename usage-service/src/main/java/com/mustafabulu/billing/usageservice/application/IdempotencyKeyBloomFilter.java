@@ -0,0 +1,136 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class IdempotencyKeyBloomFilter {
+    private final Map<String, TenantFilter> tenantFilters = new ConcurrentHashMap<>();
+
+    @Value("${platform.usage.insert-first.bloom.expected-keys-per-tenant:100000}")
+    private int expectedKeysPerTenant;
+
+    @Value("${platform.usage.insert-first.bloom.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${platform.usage.insert-first.bloom.max-tenants:1000}")
+    private int maxTenants;
+
+    public boolean mightContain(String tenantId, String idempotencyKey) {
+        TenantFilter filter = tenantFilters.get(tenantId);
+        if (filter == null) {
+            return tenantFilters.size() >= Math.max(maxTenants, 1);
+        }
+        long hash = hash(idempotencyKey);
+        return filter.current.mightContain(hash) || filter.previous.mightContain(hash);
+    }
+
+    public void put(String tenantId, String idempotencyKey) {
+        TenantFilter filter = tenantFilters.get(tenantId);
+        if (filter == null) {
+            if (tenantFilters.size() >= Math.max(maxTenants, 1)) {
+                return;
+            }
+            filter = tenantFilters.computeIfAbsent(tenantId, ignored -> new TenantFilter(newGeneration()));
+        }
+        filter.current.put(hash(idempotencyKey));
+    }
+
+    @Scheduled(fixedDelayString = "${platform.usage.insert-first.bloom.rotation-ms:3600000}",
+            initialDelayString = "${platform.usage.insert-first.bloom.rotation-ms:3600000}")
+    public void rotate() {
+        tenantFilters.forEach((tenantId, filter) -> {
+            if (filter.current.isEmpty() && filter.previous.isEmpty()) {
+                tenantFilters.remove(tenantId, filter);
+                return;
+            }
+            filter.previous = filter.current;
+            filter.current = newGeneration();
+        });
+    }
+
+    int trackedTenants() {
+        return tenantFilters.size();
+    }
+
+    private Generation newGeneration() {
+        double expected = Math.max(expectedKeysPerTenant, 1);
+        double rate = Math.min(Math.max(falsePositiveRate, 1e-6), 0.5);
+        long bits = Math.max(64L, (long) Math.ceil(-expected * Math.log(rate) / (Math.log(2) * Math.log(2))));
+        int hashes = Math.max(1, (int) Math.round(bits / expected * Math.log(2)));
+        return new Generation(Math.toIntExact(Math.min((bits + 63) / 64, Integer.MAX_VALUE)), hashes);
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        long mixed = value;
+        mixed = (mixed ^ (mixed >>> 30)) * 0xbf58476d1ce4e5b9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94d049bb133111ebL;
+        return mixed ^ (mixed >>> 31);
+    }
+
+    private static final class TenantFilter {
+        private volatile Generation current;
+        private volatile Generation previous;
+
+        private TenantFilter(Generation initial) {
+            this.current = initial;
+            this.previous = Generation.EMPTY;
+        }
+    }
+
+    private static final class Generation {
+        private static final Generation EMPTY = new Generation(1, 1);
+
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashCount;
+        private final LongAdder insertions = new LongAdder();
+
+        private Generation(int wordCount, int hashCount) {
+            this.words = new AtomicLongArray(wordCount);
+            this.bitCount = wordCount * 64L;
+            this.hashCount = hashCount;
+        }
+
+        private boolean isEmpty() {
+            return insertions.sum() == 0;
+        }
+
+        private void put(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                long mask = 1L << bit;
+                words.accumulateAndGet((int) (bit >>> 6), mask, (word, value) -> word | value);
+            }
+            insertions.increment();
+        }
+
+        private boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
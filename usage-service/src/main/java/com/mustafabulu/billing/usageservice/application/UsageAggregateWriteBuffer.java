@@ -0,0 +1,323 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageAggregateWriteBuffer {
+    private static final Logger log = LoggerFactory.getLogger(UsageAggregateWriteBuffer.class);
+
+    private static final int TOTAL = -1;
+    private static final UsageRollupGranularity[] GRANULARITIES = UsageRollupGranularity.values();
+
+    private final UsageAggregateWriter usageAggregateWriter;
+    private final IdCodes idCodes = new IdCodes();
+    private final PendingCells<UsageAggregateKey> totals = new PendingCells<>(this::totalCell, this::totalKey);
+    private final PendingCells<UsageRollupKey> rollups = new PendingCells<>(this::rollupCell, this::rollupKey);
+    private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock();
+    // a full buffer is drained here rather than on the ingest thread that filled it
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Timer flushTimer;
+    private final Counter flushedKeys;
+
+    @Value("${platform.usage.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${platform.usage.write-behind.max-pending-keys:10000}")
+    private int maxPendingKeys;
+
+    public UsageAggregateWriteBuffer(UsageAggregateWriter usageAggregateWriter) {
+        this.usageAggregateWriter = usageAggregateWriter;
+        Metrics.gauge("platform.usage.aggregate.buffer.pending", totals.cells, Map::size);
+        Metrics.gauge("platform.usage.rollup.buffer.pending", rollups.cells, Map::size);
+        this.flushTimer = Metrics.timer("platform.usage.aggregate.buffer.flush");
+        this.flushedKeys = Metrics.counter("platform.usage.aggregate.buffer.flushed.keys");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void add(UsageAggregateKey key, long quantity, Instant occurredAt) {
+        int tenant = idCodes.intern(key.tenantId());
+        int customer = idCodes.intern(key.customerId());
+        int metric = idCodes.intern(key.metricCode());
+        totals.accumulate(new CellKey(tenant, customer, metric, TOTAL, 0L), quantity);
+        for (UsageRollupGranularity granularity : GRANULARITIES) {
+            rollups.accumulate(new CellKey(tenant, customer, metric, granularity.ordinal(),
+                    granularity.bucketStart(occurredAt).getEpochSecond()), quantity);
+        }
+        if (pendingKeys() >= Math.max(maxPendingKeys, 1) && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flushNow();
+            });
+        }
+    }
+
+    public long totalWithPending(UsageAggregateKey key, LongSupplier persistedTotal) {
+        flushLock.readLock().lock();
+        try {
+            return persistedTotal.getAsLong() + totals.pending(key);
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    public Map<UsageAggregateKey, Long> totalsWithPending(Predicate<UsageAggregateKey> selector,
+                                                          Supplier<Map<UsageAggregateKey, Long>> persistedTotals) {
+        flushLock.readLock().lock();
+        try {
+            Map<UsageAggregateKey, Long> result = new LinkedHashMap<>(persistedTotals.get());
+            totals.cells.forEach((cell, increment) -> {
+                UsageAggregateKey key = totalKey(cell);
+                if (selector.test(key)) {
+                    result.merge(key, increment.quantity.sum(), Long::sum);
+                }
+            });
+            return result;
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    public long rollupTotalWithPending(Collection<UsageRollupKey> buckets, LongSupplier persistedTotal) {
+        flushLock.readLock().lock();
+        try {
+            long pending = 0L;
+            for (UsageRollupKey bucket : buckets) {
+                pending += rollups.pending(bucket);
+            }
+            return persistedTotal.getAsLong() + pending;
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    public int pendingKeys() {
+        return totals.cells.size() + rollups.cells.size();
+    }
+
+    @Scheduled(fixedDelayString = "${platform.usage.write-behind.flush-interval-ms:1000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushNow();
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flusher.shutdown();
+        flushNow();
+    }
+
+    public boolean flushPending() {
+        return flushNow();
+    }
+
+    private boolean flushNow() {
+        flushLock.writeLock().lock();
+        try {
+            return drain();
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    private boolean drain() {
+        Map<UsageAggregateKey, Long> totalDeltas = totals.drain();
+        Map<UsageRollupKey, Long> rollupDeltas = rollups.drain();
+        if (totalDeltas.isEmpty() && rollupDeltas.isEmpty()) {
+            return true;
+        }
+
+        Timer.Sample sample = Timer.start();
+        try {
+            boolean totalsWritten = write(totalDeltas, usageAggregateWriter::incrementAll, totals);
+            boolean rollupsWritten = write(rollupDeltas, usageAggregateWriter::incrementRollups, rollups);
+            return totalsWritten && rollupsWritten;
+        } finally {
+            sample.stop(flushTimer);
+        }
+    }
+
+    private <K> boolean write(Map<K, Long> deltas, Consumer<Map<K, Long>> writer, PendingCells<K> cells) {
+        if (deltas.isEmpty()) {
+            return true;
+        }
+        try {
+            writer.accept(deltas);
+            flushedKeys.increment(deltas.size());
+            return true;
+        } catch (UsageAggregateWriter.PartialWriteException partialWriteException) {
+            requeue(partialWriteException.failedKeys(), deltas, cells);
+            flushedKeys.increment(deltas.size() - (double) partialWriteException.failedKeys().size());
+            log.warn("usage_aggregate_flush_partial failedKeys={} error={}",
+                    partialWriteException.failedKeys().size(), partialWriteException.getMessage());
+            return false;
+        } catch (BulkOperationException bulkOperationException) {
+            List<K> keys = new ArrayList<>(deltas.keySet());
+            for (BulkWriteError error : bulkOperationException.getErrors()) {
+                K key = keys.get(error.getIndex());
+                cells.accumulate(key, deltas.get(key));
+            }
+            flushedKeys.increment(deltas.size() - (double) bulkOperationException.getErrors().size());
+            log.warn("usage_aggregate_flush_partial failedKeys={} error={}",
+                    bulkOperationException.getErrors().size(), bulkOperationException.getMessage());
+            return false;
+        } catch (RuntimeException ex) {
+            deltas.forEach(cells::accumulate);
+            log.error("usage_aggregate_flush_failed keys={} error={}", deltas.size(), ex.getMessage(), ex);
+            return false;
+        }
+    }
+
+    // totals report failed keys rather than bulk indexes, since watched keys are written outside the bulk
+    @SuppressWarnings("unchecked")
+    private static <K> void requeue(Collection<?> failedKeys, Map<K, Long> deltas, PendingCells<K> cells) {
+        for (Object key : failedKeys) {
+            cells.accumulate((K) key, deltas.get(key));
+        }
+    }
+
+    // lookups only resolve ids already interned, so reading an unbuffered key does not grow the codes
+    private CellKey totalCell(UsageAggregateKey key) {
+        int tenant = idCodes.find(key.tenantId());
+        int customer = idCodes.find(key.customerId());
+        int metric = idCodes.find(key.metricCode());
+        return tenant < 0 || customer < 0 || metric < 0 ? null : new CellKey(tenant, customer, metric, TOTAL, 0L);
+    }
+
+    private CellKey rollupCell(UsageRollupKey key) {
+        int tenant = idCodes.find(key.tenantId());
+        int customer = idCodes.find(key.customerId());
+        int metric = idCodes.find(key.metricCode());
+        return tenant < 0 || customer < 0 || metric < 0 ? null : new CellKey(tenant, customer, metric,
+                key.granularity().ordinal(), key.bucketStart().getEpochSecond());
+    }
+
+    private UsageAggregateKey totalKey(CellKey cell) {
+        return new UsageAggregateKey(idCodes.id(cell.tenant()), idCodes.id(cell.customer()), idCodes.id(cell.metric()));
+    }
+
+    private UsageRollupKey rollupKey(CellKey cell) {
+        return new UsageRollupKey(idCodes.id(cell.tenant()), idCodes.id(cell.customer()), idCodes.id(cell.metric()),
+                GRANULARITIES[cell.granularity()], Instant.ofEpochSecond(cell.bucketStart()));
+    }
+
+    // cells are keyed by int codes of the ids instead of the id strings, so the lookup on every add hashes and
+    // compares primitives; totals use TOTAL as granularity
+    private record CellKey(int tenant, int customer, int metric, int granularity, long bucketStart) {
+    }
+
+    // codes are never reclaimed: one entry per tenant, customer and metric id ever buffered, bounded by the customer
+    // base rather than by traffic
+    private static final class IdCodes {
+        private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, String> ids = new ConcurrentHashMap<>();
+        private final AtomicInteger next = new AtomicInteger();
+
+        private int intern(String id) {
+            Integer code = codes.get(id);
+            if (code != null) {
+                return code;
+            }
+            return codes.computeIfAbsent(id, ignored -> {
+                int assigned = next.getAndIncrement();
+                ids.put(assigned, id);
+                return assigned;
+            });
+        }
+
+        private int find(String id) {
+            Integer code = codes.get(id);
+            return code == null ? -1 : code;
+        }
+
+        private String id(int code) {
+            return ids.get(code);
+        }
+    }
+
+    private static final class PendingCells<K> {
+        private final ConcurrentHashMap<CellKey, PendingIncrement> cells = new ConcurrentHashMap<>();
+        private final Function<K, CellKey> cellOf;
+        private final Function<CellKey, K> keyOf;
+
+        private PendingCells(Function<K, CellKey> cellOf, Function<CellKey, K> keyOf) {
+            this.cellOf = cellOf;
+            this.keyOf = keyOf;
+        }
+
+        private void accumulate(K key, long quantity) {
+            accumulate(cellOf.apply(key), quantity);
+        }
+
+        private void accumulate(CellKey key, long quantity) {
+            PendingIncrement increment = cells.computeIfAbsent(key, ignored -> new PendingIncrement());
+            increment.quantity.add(quantity);
+            if (increment.retired) {
+                // drained concurrently with the add above; move whatever is left into a live cell
+                long orphaned = increment.quantity.sumThenReset();
+                if (orphaned != 0) {
+                    accumulate(key, orphaned);
+                }
+            }
+        }
+
+        private long pending(K key) {
+            CellKey cell = cellOf.apply(key);
+            PendingIncrement increment = cell == null ? null : cells.get(cell);
+            return increment == null ? 0L : increment.quantity.sum();
+        }
+
+        private Map<K, Long> drain() {
+            Map<K, Long> deltas = new LinkedHashMap<>();
+            for (Map.Entry<CellKey, PendingIncrement> entry : cells.entrySet()) {
+                PendingIncrement increment = entry.getValue();
+                if (cells.remove(entry.getKey(), increment)) {
+                    increment.retired = true;
+                    deltas.merge(keyOf.apply(entry.getKey()), increment.quantity.sumThenReset(), Long::sum);
+                }
+            }
+            return deltas;
+        }
+    }
+
+    private static final class PendingIncrement {
+        private final LongAdder quantity = new LongAdder();
+        private volatile boolean retired;
+    }
+}
@@ -0,0 +1,354 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageDimensionRollupKey;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionRollupDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.types.Decimal128;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageAggregateWriter {
+    private final MongoTemplate mongoTemplate;
+    private final UsageTotalsCache usageTotalsCache;
+    private final UsageCounterShards usageCounterShards;
+    private final UsageThresholdAlerts usageThresholdAlerts;
+
+    public UsageAggregateWriter(MongoTemplate mongoTemplate,
+                                UsageTotalsCache usageTotalsCache,
+                                UsageCounterShards usageCounterShards,
+                                UsageThresholdAlerts usageThresholdAlerts) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageTotalsCache = usageTotalsCache;
+        this.usageCounterShards = usageCounterShards;
+        this.usageThresholdAlerts = usageThresholdAlerts;
+    }
+
+    public void increment(UsageAggregateKey key, long quantity, Instant occurredAt) {
+        long sequence = usageTotalsCache.beginWrite(key);
+        try {
+            if (usageThresholdAlerts.watches(key)) {
+                incrementWatched(key, quantity, Instant.now());
+            } else {
+                Integer shard = usageCounterShards.pickShard(key);
+                mongoTemplate.upsert(aggregateQuery(key, shard), aggregateIncrement(key, shard, quantity, Instant.now()),
+                        UsageAggregateDocument.class);
+            }
+        } catch (RuntimeException ex) {
+            usageTotalsCache.invalidate(List.of(key));
+            throw ex;
+        }
+        usageTotalsCache.completeWrite(key, quantity, sequence);
+        incrementRollups(rollupDeltas(key, quantity, occurredAt));
+    }
+
+    // unwatched keys go in one bulk write, watched keys one findAndModify each; a key that was not applied is
+    // reported in the exception, so a retry re-applies exactly those and nothing that already landed
+    public void incrementAll(Map<UsageAggregateKey, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        Map<UsageAggregateKey, Long> sequences = new HashMap<>();
+        Map<UsageAggregateKey, Long> watched = new LinkedHashMap<>();
+        List<UsageAggregateKey> bulkKeys = new ArrayList<>();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class);
+        deltas.forEach((key, quantity) -> {
+            sequences.put(key, usageTotalsCache.beginWrite(key));
+            if (usageThresholdAlerts.watches(key)) {
+                watched.put(key, quantity);
+                return;
+            }
+            Integer shard = usageCounterShards.pickShard(key);
+            operations.upsert(aggregateQuery(key, shard), aggregateIncrement(key, shard, quantity, now));
+            bulkKeys.add(key);
+        });
+
+        Set<UsageAggregateKey> failed = new LinkedHashSet<>();
+        RuntimeException cause = null;
+        if (!bulkKeys.isEmpty()) {
+            try {
+                operations.execute();
+            } catch (BulkOperationException bulkOperationException) {
+                // bulk indexes follow the upserts added above, which leave the watched keys out
+                for (BulkWriteError error : bulkOperationException.getErrors()) {
+                    failed.add(bulkKeys.get(error.getIndex()));
+                }
+                cause = bulkOperationException;
+            } catch (RuntimeException ex) {
+                failed.addAll(bulkKeys);
+                cause = ex;
+            }
+        }
+        for (Map.Entry<UsageAggregateKey, Long> entry : watched.entrySet()) {
+            try {
+                incrementWatched(entry.getKey(), entry.getValue(), now);
+            } catch (RuntimeException ex) {
+                failed.add(entry.getKey());
+                cause = cause == null ? ex : cause;
+            }
+        }
+
+        deltas.forEach((key, quantity) -> {
+            if (!failed.contains(key)) {
+                usageTotalsCache.completeWrite(key, quantity, sequences.get(key));
+            }
+        });
+        if (!failed.isEmpty()) {
+            usageTotalsCache.invalidate(failed);
+            throw new PartialWriteException(failed, cause);
+        }
+    }
+
+    // keys with threshold rules skip counter sharding: findAndModify hands back the post-increment total and the
+    // threshold percents already published for the key, both from one atomic update. Shards written before the key
+    // was watched are added on top; other replicas keep writing those shards until their next rule refresh (up to
+    // platform.usage.thresholds.refresh-interval-ms after the rule is created), and a threshold crossed there is
+    // published by the next watched increment
+    private void incrementWatched(UsageAggregateKey key, long quantity, Instant now) {
+        UsageAggregateDocument updated = mongoTemplate.findAndModify(aggregateQuery(key, null),
+                aggregateIncrement(key, null, quantity, now),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                UsageAggregateDocument.class);
+        long current = updated == null ? quantity : updated.getTotalQuantity();
+        if (usageCounterShards.shardCount(key) > 1) {
+            current += mongoTemplate.find(Query.query(Criteria.where("tenantId").is(key.tenantId())
+                    .and("customerId").is(key.customerId())
+                    .and("metricCode").is(key.metricCode())
+                    .and("shard").ne(null)), UsageAggregateDocument.class).stream()
+                    .mapToLong(UsageAggregateDocument::getTotalQuantity)
+                    .sum();
+        }
+        usageThresholdAlerts.onIncrement(key, current, updated == null ? null : updated.getPublishedPercents());
+    }
+
+    public void incrementRollups(Map<UsageRollupKey, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageRollupDocument.class);
+        deltas.forEach((key, quantity) -> {
+            Integer shard = usageCounterShards.pickShard(
+                    new UsageAggregateKey(key.tenantId(), key.customerId(), key.metricCode()));
+            operations.upsert(rollupQuery(key, shard), rollupIncrement(key, shard, quantity, now));
+        });
+        operations.execute();
+    }
+
+    // only the group-by query reads these, so they skip the write buffer, the dispatcher and counter sharding
+    public void incrementDimensionRollups(Map<UsageDimensionRollupKey, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageDimensionRollupDocument.class);
+        deltas.forEach((key, quantity) ->
+                operations.upsert(dimensionRollupQuery(key), dimensionRollupIncrement(key, quantity, now)));
+        operations.execute();
+    }
+
+    // HyperLogLog registers merge with $max, which is idempotent and order-free, so DISTINCT metrics skip the
+    // write buffer, the dispatcher and the totals cache and go to the unsharded documents directly
+    public void mergeDistinct(Map<UsageAggregateKey, Map<Integer, Integer>> registers,
+                              Map<UsageRollupKey, Map<Integer, Integer>> rollupRegisters,
+                              int precision) {
+        Instant now = Instant.now();
+        if (!registers.isEmpty()) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class);
+            registers.forEach((key, ranks) -> operations.upsert(aggregateQuery(key, null),
+                    registerMax(aggregateIncrement(key, null, 0L, now), ranks, precision)));
+            operations.execute();
+        }
+        if (!rollupRegisters.isEmpty()) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageRollupDocument.class);
+            rollupRegisters.forEach((key, ranks) -> operations.upsert(rollupQuery(key, null),
+                    registerMax(rollupIncrement(key, null, 0L, now), ranks, precision)));
+            operations.execute();
+        }
+    }
+
+    // quantile sketch buckets of PERCENTILE metrics; the sum of the same events still goes through the increment path
+    public void addSamples(Map<UsageAggregateKey, Map<Integer, Long>> buckets,
+                           Map<UsageRollupKey, Map<Integer, Long>> rollupBuckets,
+                           double accuracy) {
+        Instant now = Instant.now();
+        String sketch = "quantileBuckets." + UsageQuantileSketch.key(accuracy) + ".";
+        if (!buckets.isEmpty()) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class);
+            buckets.forEach((key, counts) -> operations.upsert(aggregateQuery(key, null),
+                    bucketIncrement(aggregateIncrement(key, null, 0L, now), sketch, counts)));
+            operations.execute();
+        }
+        if (!rollupBuckets.isEmpty()) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageRollupDocument.class);
+            rollupBuckets.forEach((key, counts) -> operations.upsert(rollupQuery(key, null),
+                    bucketIncrement(rollupIncrement(key, null, 0L, now), sketch, counts)));
+            operations.execute();
+        }
+    }
+
+    // the stored reading is read first and the interval it closes is credited in the same conditional update that
+    // swaps in the new reading, so the area is worked out before any state changes and lands with the swap. The update
+    // only matches the reading it was computed from; losing to a concurrent reading retries against that one, so
+    // concurrent or replayed readings never count an interval twice. Returns false for a late reading.
+    public boolean recordGauge(UsageAggregateKey key, long value, Instant readAt) {
+        while (true) {
+            Query storedQuery = aggregateQuery(key, null);
+            storedQuery.fields().include("gaugeValue").include("gaugeAt");
+            UsageAggregateDocument stored = mongoTemplate.findOne(storedQuery, UsageAggregateDocument.class);
+            Instant from = stored == null ? null : stored.getGaugeAt();
+            if (from != null && !from.isBefore(readAt)) {
+                return false;
+            }
+
+            BigDecimal area = BigDecimal.ZERO;
+            Map<UsageRollupKey, BigDecimal> rollupAreas = new LinkedHashMap<>();
+            if (from != null) {
+                area = UsageGauges.area(stored.getGaugeValue(), from, readAt);
+                for (UsageRollupGranularity granularity : UsageRollupGranularity.values()) {
+                    UsageGauges.split(granularity, stored.getGaugeValue(), from, readAt).forEach((bucket, bucketArea) ->
+                            rollupAreas.put(new UsageRollupKey(
+                                    key.tenantId(), key.customerId(), key.metricCode(), granularity, bucket), bucketArea));
+                }
+            }
+
+            Instant now = Instant.now();
+            Query swap = aggregateQuery(key, null).addCriteria(from == null
+                    ? Criteria.where("gaugeAt").exists(false)
+                    : Criteria.where("gaugeAt").is(from));
+            Update update = aggregateIncrement(key, null, 0L, now).set("gaugeValue", value).set("gaugeAt", readAt);
+            if (area.signum() != 0) {
+                update.inc("gaugeArea", new Decimal128(area));
+            }
+            try {
+                mongoTemplate.upsert(swap, update, UsageAggregateDocument.class);
+            } catch (DuplicateKeyException duplicateKeyException) {
+                // another reading was swapped in after the read, so the upsert tried to insert a second document
+                continue;
+            }
+
+            if (!rollupAreas.isEmpty()) {
+                BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageRollupDocument.class);
+                rollupAreas.forEach((rollupKey, bucketArea) -> operations.upsert(rollupQuery(rollupKey, null),
+                        rollupIncrement(rollupKey, null, 0L, now).inc("gaugeArea", new Decimal128(bucketArea))));
+                operations.execute();
+            }
+            return true;
+        }
+    }
+
+    static Map<UsageRollupKey, Long> rollupDeltas(UsageAggregateKey key, long quantity, Instant occurredAt) {
+        Map<UsageRollupKey, Long> deltas = new LinkedHashMap<>();
+        for (UsageRollupGranularity granularity : UsageRollupGranularity.values()) {
+            deltas.put(UsageRollupKey.of(key, granularity, occurredAt), quantity);
+        }
+        return deltas;
+    }
+
+    static Query aggregateQuery(UsageAggregateKey key, Integer shard) {
+        return Query.query(Criteria.where("tenantId").is(key.tenantId())
+                .and("customerId").is(key.customerId())
+                .and("metricCode").is(key.metricCode())
+                .and("shard").is(shard));
+    }
+
+    private static Update aggregateIncrement(UsageAggregateKey key, Integer shard, long quantity, Instant updatedAt) {
+        return new Update()
+                .setOnInsert("tenantId", key.tenantId())
+                .setOnInsert("customerId", key.customerId())
+                .setOnInsert("metricCode", key.metricCode())
+                .setOnInsert("shard", shard)
+                .inc("totalQuantity", quantity)
+                .set("updatedAt", updatedAt);
+    }
+
+    private static Update registerMax(Update update, Map<Integer, Integer> ranks, int precision) {
+        ranks.forEach((index, rank) -> update.max("distinctRegisters." + precision + "." + index, rank));
+        return update;
+    }
+
+    private static Update bucketIncrement(Update update, String sketch, Map<Integer, Long> counts) {
+        counts.forEach((index, count) -> update.inc(sketch + index, count));
+        return update;
+    }
+
+    private static Query rollupQuery(UsageRollupKey key, Integer shard) {
+        return Query.query(Criteria.where("tenantId").is(key.tenantId())
+                .and("customerId").is(key.customerId())
+                .and("metricCode").is(key.metricCode())
+                .and("granularity").is(key.granularity())
+                .and("bucketStart").is(key.bucketStart())
+                .and("shard").is(shard));
+    }
+
+    private static Update rollupIncrement(UsageRollupKey key, Integer shard, long quantity, Instant updatedAt) {
+        return new Update()
+                .setOnInsert("tenantId", key.tenantId())
+                .setOnInsert("customerId", key.customerId())
+                .setOnInsert("metricCode", key.metricCode())
+                .setOnInsert("granularity", key.granularity())
+                .setOnInsert("bucketStart", key.bucketStart())
+                .setOnInsert("shard", shard)
+                .inc("totalQuantity", quantity)
+                .set("updatedAt", updatedAt);
+    }
+
+    private static Query dimensionRollupQuery(UsageDimensionRollupKey key) {
+        return Query.query(Criteria.where("tenantId").is(key.tenantId())
+                .and("metricCode").is(key.metricCode())
+                .and("dimension").is(key.dimension())
+                .and("granularity").is(key.granularity())
+                .and("bucketStart").is(key.bucketStart())
+                .and("customerId").is(key.customerId())
+                .and("valueCode").is(key.valueCode()));
+    }
+
+    private static Update dimensionRollupIncrement(UsageDimensionRollupKey key, long quantity, Instant updatedAt) {
+        return new Update()
+                .setOnInsert("tenantId", key.tenantId())
+                .setOnInsert("customerId", key.customerId())
+                .setOnInsert("metricCode", key.metricCode())
+                .setOnInsert("dimension", key.dimension())
+                .setOnInsert("valueCode", key.valueCode())
+                .setOnInsert("granularity", key.granularity())
+                .setOnInsert("bucketStart", key.bucketStart())
+                .inc("totalQuantity", quantity)
+                .set("updatedAt", updatedAt);
+    }
+
+    // the keys of an incrementAll that were not applied; every other key of the call was
+    static final class PartialWriteException extends RuntimeException {
+        private final Set<UsageAggregateKey> failedKeys;
+
+        PartialWriteException(Set<UsageAggregateKey> failedKeys, RuntimeException cause) {
+            super("usage aggregate write failed for " + failedKeys.size() + " keys", cause);
+            this.failedKeys = failedKeys;
+        }
+
+        Set<UsageAggregateKey> failedKeys() {
+            return failedKeys;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageArchivedRange;
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.persistence.UsageArchiveSegmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import com.mustafabulu.billing.usageservice.persistence.UsageSegmentReader;
+import com.mustafabulu.billing.usageservice.persistence.UsageSegmentWriter;
+import io.micrometer.core.instrument.Metrics;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsageArchiveService {
+    private static final Logger log = LoggerFactory.getLogger(UsageArchiveService.class);
+    private static final String JOB = "usage-archive";
+
+    private final MongoTemplate mongoTemplate;
+    private final UsageJobLeases usageJobLeases;
+    private final UsageEventPartitions usageEventPartitions;
+
+    @Value("${platform.usage.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${platform.usage.archive.directory:./data/usage-archive}")
+    private String directory;
+
+    @Value("${platform.usage.archive.retention-days:400}")
+    private int retentionDays;
+
+    @Value("${platform.usage.archive.segment-max-events:50000}")
+    private int segmentMaxEvents;
+
+    @Value("${platform.usage.archive.delete-batch-size:500}")
+    private int deleteBatchSize;
+
+    @Value("${platform.usage.archive.max-deletes-per-second:2000}")
+    private int maxDeletesPerSecond;
+
+    @Value("${platform.usage.archive.lease-ms:600000}")
+    private long leaseMs;
+
+    public UsageArchiveService(MongoTemplate mongoTemplate,
+                               UsageJobLeases usageJobLeases,
+                               UsageEventPartitions usageEventPartitions) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageJobLeases = usageJobLeases;
+        this.usageEventPartitions = usageEventPartitions;
+    }
+
+    @Scheduled(cron = "${platform.usage.archive.cron:0 0 2 * * *}")
+    public void scheduledArchive() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            archive(Instant.now());
+        } catch (RuntimeException ex) {
+            log.error("usage_archive_failed error={}", ex.getMessage(), ex);
+        }
+    }
+
+    int archive(Instant now) {
+        if (!usageJobLeases.tryAcquire(JOB, leaseMs)) {
+            log.info("usage_archive_skipped reason=lease_held");
+            return 0;
+        }
+        try {
+            completePendingDeletes();
+            Instant horizon = now.truncatedTo(ChronoUnit.DAYS).minus(retentionDays, ChronoUnit.DAYS);
+            int tenants = 0;
+            int segments = 0;
+            for (String collection : usageEventPartitions.all()) {
+                List<String> collectionTenants = mongoTemplate.findDistinct(Query.query(Criteria.where("occurredAt").lt(horizon)),
+                        "tenantId", collection, UsageEventDocument.class, String.class);
+                for (String tenantId : collectionTenants) {
+                    segments += archiveTenant(collection, tenantId, horizon);
+                }
+                tenants += collectionTenants.size();
+            }
+            log.info("usage_archive_completed horizon={} tenants={} segments={}", horizon, tenants, segments);
+            return segments;
+        } finally {
+            usageJobLeases.release(JOB);
+        }
+    }
+
+    // reads archived events in [from, to) for audits and re-rating without materialising the segments on the heap
+    public long scan(String tenantId, Instant from, Instant to, Consumer<UsageEvent> visitor) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new DomainValidationException("from must be before to");
+        }
+        Query query = Query.query(Criteria.where("tenantId").is(tenantId)
+                        .and("fromOccurredAt").lt(to)
+                        .and("toOccurredAt").gte(from))
+                .with(Sort.by("fromOccurredAt"));
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+        long visited = 0L;
+        for (UsageArchiveSegmentDocument segment : mongoTemplate.find(query, UsageArchiveSegmentDocument.class)) {
+            try (UsageSegmentReader reader = UsageSegmentReader.open(Path.of(directory).resolve(segment.getPath()))) {
+                UsageSegmentReader.Cursor cursor = reader.cursor();
+                while (cursor.next()) {
+                    long occurredAt = cursor.occurredAtMillis();
+                    if (occurredAt < fromMillis || occurredAt >= toMillis) {
+                        continue;
+                    }
+                    visitor.accept(new UsageEvent(tenantId, cursor.customerId(), cursor.idempotencyKey(),
+                            cursor.metricCode(), cursor.quantity(), cursor.occurredAt()));
+                    visited++;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException("cannot read usage segment " + segment.getId(), ex);
+            }
+        }
+        return visited;
+    }
+
+    // whole UTC days of [from, to) that hold archived events, adjacent days merged; read from segment metadata only
+    public List<UsageArchivedRange> archivedRanges(String tenantId, Instant from, Instant to) {
+        Query query = Query.query(Criteria.where("tenantId").is(tenantId)
+                        .and("fromOccurredAt").lt(to)
+                        .and("toOccurredAt").gte(from))
+                .with(Sort.by("day"));
+        query.fields().include("day");
+        List<UsageArchivedRange> ranges = new ArrayList<>();
+        for (UsageArchiveSegmentDocument segment : mongoTemplate.find(query, UsageArchiveSegmentDocument.class)) {
+            Instant start = segment.getDay().isBefore(from) ? from : segment.getDay();
+            Instant dayEnd = segment.getDay().plus(1, ChronoUnit.DAYS);
+            Instant end = dayEnd.isAfter(to) ? to : dayEnd;
+            UsageArchivedRange last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && !start.isAfter(last.to())) {
+                if (end.isAfter(last.to())) {
+                    ranges.set(ranges.size() - 1, new UsageArchivedRange(last.from(), end));
+                }
+                continue;
+            }
+            ranges.add(new UsageArchivedRange(start, end));
+        }
+        return ranges;
+    }
+
+    private int archiveTenant(String collection, String tenantId, Instant horizon) {
+        int segments = 0;
+        while (true) {
+            if (!usageJobLeases.tryAcquire(JOB, leaseMs)) {
+                throw new IllegalStateException("usage archive lease lost");
+            }
+            Query oldestQuery = Query.query(Criteria.where("tenantId").is(tenantId).and("occurredAt").lt(horizon))
+                    .with(Sort.by("occurredAt"))
+                    .limit(1);
+            oldestQuery.fields().include("occurredAt");
+            UsageEventDocument oldest = mongoTemplate.findOne(oldestQuery, UsageEventDocument.class, collection);
+            if (oldest == null) {
+                return segments;
+            }
+            // one segment never spans a UTC day, so the day is a coarse time index next to the exact range
+            Instant day = oldest.getOccurredAt().truncatedTo(ChronoUnit.DAYS);
+            Instant dayEnd = day.plus(1, ChronoUnit.DAYS).isAfter(horizon) ? horizon : day.plus(1, ChronoUnit.DAYS);
+            List<UsageEventDocument> events = mongoTemplate.find(
+                    Query.query(Criteria.where("tenantId").is(tenantId).and("occurredAt").gte(day).lt(dayEnd))
+                            .with(Sort.by("occurredAt", "_id"))
+                            .limit(Math.max(segmentMaxEvents, 1)),
+                    UsageEventDocument.class, collection);
+            UsageArchiveSegmentDocument segment = writeSegment(collection, tenantId, day, events);
+            deleteArchived(segment, events.stream().map(UsageEventDocument::getId).toList());
+            segments++;
+        }
+    }
+
+    private UsageArchiveSegmentDocument writeSegment(String collection,
+                                                     String tenantId,
+                                                     Instant day,
+                                                     List<UsageEventDocument> events) {
+        String segmentId = "seg-" + UUID.randomUUID();
+        LocalDate date = LocalDate.ofInstant(day, ZoneOffset.UTC);
+        String path = String.join("/", safeName(tenantId), String.valueOf(date.getYear()),
+                "%02d".formatted(date.getMonthValue()), "%02d".formatted(date.getDayOfMonth()), segmentId + ".usg");
+
+        long sizeBytes;
+        try {
+            sizeBytes = UsageSegmentWriter.write(Path.of(directory).resolve(path), tenantId, events);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("cannot write usage segment " + path, ex);
+        }
+
+        Map<UsageAggregateKey, long[]> totals = new LinkedHashMap<>();
+        for (UsageEventDocument event : events) {
+            long[] total = totals.computeIfAbsent(
+                    new UsageAggregateKey(tenantId, event.getCustomerId(), event.getMetricCode()), ignored -> new long[2]);
+            total[0] += event.getQuantity();
+            total[1]++;
+        }
+        List<UsageArchiveSegmentDocument.Total> segmentTotals = new ArrayList<>(totals.size());
+        totals.forEach((key, total) -> segmentTotals.add(
+                new UsageArchiveSegmentDocument.Total(key.customerId(), key.metricCode(), total[0], total[1])));
+
+        UsageArchiveSegmentDocument segment = new UsageArchiveSegmentDocument();
+        segment.setId(segmentId);
+        segment.setTenantId(tenantId);
+        segment.setDay(day);
+        segment.setFromOccurredAt(events.get(0).getOccurredAt());
+        segment.setToOccurredAt(events.get(events.size() - 1).getOccurredAt());
+        segment.setEventCount(events.size());
+        segment.setSizeBytes(sizeBytes);
+        segment.setPath(path);
+        segment.setSourceCollection(collection);
+        segment.setTotals(segmentTotals);
+        segment.setCreatedAt(Instant.now());
+        mongoTemplate.insert(segment);
+
+        Metrics.counter("platform.usage.archive.events").increment(events.size());
+        Metrics.counter("platform.usage.archive.bytes").increment(sizeBytes);
+        log.info("usage_archive_segment_written segmentId={} tenantId={} day={} events={} bytes={}",
+                segmentId, tenantId, date, events.size(), sizeBytes);
+        return segment;
+    }
+
+    // a crash between writing a segment and deleting its events is finished from the segment's own id column
+    private void completePendingDeletes() {
+        Query query = Query.query(Criteria.where("eventsDeleted").is(false));
+        for (UsageArchiveSegmentDocument segment : mongoTemplate.find(query, UsageArchiveSegmentDocument.class)) {
+            List<String> ids = new ArrayList<>(segment.getEventCount());
+            try (UsageSegmentReader reader = UsageSegmentReader.open(Path.of(directory).resolve(segment.getPath()))) {
+                UsageSegmentReader.Cursor cursor = reader.cursor();
+                while (cursor.next()) {
+                    ids.add(cursor.id());
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException("cannot read usage segment " + segment.getId(), ex);
+            }
+            deleteArchived(segment, ids);
+        }
+    }
+
+    private void deleteArchived(UsageArchiveSegmentDocument segment, List<String> ids) {
+        int batchSize = Math.max(deleteBatchSize, 1);
+        long nanosPerDelete = maxDeletesPerSecond <= 0 ? 0L : TimeUnit.SECONDS.toNanos(1) / maxDeletesPerSecond;
+        for (int start = 0; start < ids.size(); start += batchSize) {
+            List<String> batch = ids.subList(start, Math.min(start + batchSize, ids.size()));
+            long startedAt = System.nanoTime();
+            long deleted = mongoTemplate.remove(Query.query(Criteria.where("_id").in(batch)), UsageEventDocument.class,
+                            segment.getSourceCollection() == null
+                                    ? UsageEventPartitions.BASE_COLLECTION
+                                    : segment.getSourceCollection())
+                    .getDeletedCount();
+            Metrics.counter("platform.usage.archive.deleted").increment(deleted);
+            long waitNanos = batch.size() * nanosPerDelete - (System.nanoTime() - startedAt);
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("usage archive interrupted", interruptedException);
+                }
+            }
+        }
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(segment.getId())),
+                new Update().set("eventsDeleted", true), UsageArchiveSegmentDocument.class);
+    }
+
+    private static String safeName(String tenantId) {
+        return tenantId.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+}
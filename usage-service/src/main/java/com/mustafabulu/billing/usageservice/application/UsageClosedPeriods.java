@@ -0,0 +1,143 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodStatus;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodAdjustmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodSnapshotDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// per replica view of the periods being closed or already closed: ingestion routes events received after a period's
+// cutoff to its adjustments, and ranged reads matching a closed period are answered from its snapshot
+@Component
+public class UsageClosedPeriods {
+    private static final Logger log = LoggerFactory.getLogger(UsageClosedPeriods.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final UsagePeriodRepository usagePeriodRepository;
+    private final UsageMetricAggregations usageMetricAggregations;
+    private final boolean enabled;
+    private final Counter lateEvents;
+    // tenant -> periods; replaced wholesale on refresh, so ingestion reads it without locking
+    private volatile Map<String, List<Window>> windows = Map.of();
+
+    public UsageClosedPeriods(MongoTemplate mongoTemplate,
+                              UsagePeriodRepository usagePeriodRepository,
+                              UsageMetricAggregations usageMetricAggregations,
+                              @Value("${platform.usage.periods.enabled:false}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.usagePeriodRepository = usagePeriodRepository;
+        this.usageMetricAggregations = usageMetricAggregations;
+        this.enabled = enabled;
+        this.lateEvents = Metrics.counter("platform.usage.periods.late.events");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // other replicas pick up new periods on their next refresh, which the close delay has to outlast
+    @Scheduled(fixedDelayString = "${platform.usage.periods.refresh-interval-ms:30000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Map<String, List<Window>> compiled = new HashMap<>();
+            for (UsagePeriodDocument period : usagePeriodRepository.findAll()) {
+                compiled.computeIfAbsent(period.getTenantId(), ignored -> new ArrayList<>()).add(new Window(period.getId(),
+                        period.getFrom(), period.getTo(), period.getCutoff(), period.getStatus() == UsagePeriodStatus.CLOSED));
+            }
+            windows = compiled;
+        } catch (RuntimeException ex) {
+            log.warn("usage_periods_refresh_failed error={}", ex.getMessage());
+        }
+    }
+
+    // summed events that occurred in a period but were received from its cutoff on; DISTINCT and GAUGE totals are
+    // not additive, so their late events only reach the live aggregates
+    public void recordLate(List<UsageEventDocument> documents) {
+        Map<String, List<Window>> current = windows;
+        if (current.isEmpty() || documents.isEmpty()) {
+            return;
+        }
+        Map<AdjustmentKey, long[]> deltas = new LinkedHashMap<>();
+        for (UsageEventDocument document : documents) {
+            List<Window> tenantWindows = current.get(document.getTenantId());
+            if (tenantWindows == null || !usageMetricAggregations.isSummed(document.getMetricCode())) {
+                continue;
+            }
+            for (Window window : tenantWindows) {
+                if (window.isLate(document.getOccurredAt(), document.getReceivedAt())) {
+                    long[] delta = deltas.computeIfAbsent(new AdjustmentKey(window.periodId(), document.getTenantId(),
+                            document.getCustomerId(), document.getMetricCode()), ignored -> new long[2]);
+                    delta[0] += document.getQuantity();
+                    delta[1]++;
+                }
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsagePeriodAdjustmentDocument.class);
+        deltas.forEach((key, delta) -> {
+            bulk.upsert(periodKey(key.periodId(), key.customerId(), key.metricCode()), new Update()
+                    .setOnInsert("tenantId", key.tenantId())
+                    .inc("quantity", delta[0])
+                    .inc("events", delta[1])
+                    .set("updatedAt", now));
+            lateEvents.increment(delta[1]);
+        });
+        bulk.execute();
+    }
+
+    // the frozen total when [from, to) is exactly a closed period of the tenant, otherwise null
+    public Long snapshotTotal(String tenantId, String customerId, String metricCode, Instant from, Instant to) {
+        List<Window> tenantWindows = windows.get(tenantId);
+        if (tenantWindows == null) {
+            return null;
+        }
+        for (Window window : tenantWindows) {
+            if (window.closed() && window.from().equals(from) && window.to().equals(to)) {
+                UsagePeriodSnapshotDocument snapshot = mongoTemplate.findOne(
+                        periodKey(window.periodId(), customerId, metricCode), UsagePeriodSnapshotDocument.class);
+                return snapshot == null ? 0L : snapshot.getQuantity();
+            }
+        }
+        return null;
+    }
+
+    static Query periodKey(String periodId, String customerId, String metricCode) {
+        return Query.query(Criteria.where("periodId").is(periodId)
+                .and("customerId").is(customerId)
+                .and("metricCode").is(metricCode));
+    }
+
+    private record Window(String periodId, Instant from, Instant to, Instant cutoff, boolean closed) {
+        boolean isLate(Instant occurredAt, Instant receivedAt) {
+            return !occurredAt.isBefore(from) && occurredAt.isBefore(to) && receivedAt != null && !receivedAt.isBefore(cutoff);
+        }
+    }
+
+    private record AdjustmentKey(String periodId, String tenantId, String customerId, String metricCode) {
+    }
+}
@@ -0,0 +1,253 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.persistence.UsageCompactionCheckpointDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.LiteralOperators;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+// rolls raw events of the listed metrics into per-minute buckets once no duplicate check can read them any more. Work
+// goes one UTC day of receipt at a time, selected by the _id timestamp: the day's buckets are merged in one pipeline
+// over every partition, keeping buckets that already exist, and only then are its events deleted. A crash part way
+// through the deletes is finished by the next run without counting any event twice.
+@Service
+public class UsageCompactionService {
+    private static final Logger log = LoggerFactory.getLogger(UsageCompactionService.class);
+    private static final String JOB = "usage-compaction";
+
+    private final MongoTemplate mongoTemplate;
+    private final UsageJobLeases usageJobLeases;
+    private final UsageEventPartitions usageEventPartitions;
+    // metric -> minimum age of an event's receipt before it is compacted
+    private final Map<String, Duration> policies;
+
+    @Value("${platform.usage.compaction.enabled:false}")
+    private boolean enabled;
+
+    @Value("${platform.usage.compaction.delete-batch-size:1000}")
+    private int deleteBatchSize;
+
+    @Value("${platform.usage.compaction.max-deletes-per-second:5000}")
+    private int maxDeletesPerSecond;
+
+    @Value("${platform.usage.compaction.lease-ms:600000}")
+    private long leaseMs;
+
+    public UsageCompactionService(MongoTemplate mongoTemplate,
+                                  UsageJobLeases usageJobLeases,
+                                  UsageEventPartitions usageEventPartitions,
+                                  UsageMetricAggregations usageMetricAggregations,
+                                  @Value("${platform.usage.compaction.metrics:}") String policies) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageJobLeases = usageJobLeases;
+        this.usageEventPartitions = usageEventPartitions;
+        this.policies = parsePolicies(policies, usageMetricAggregations);
+    }
+
+    @Scheduled(cron = "${platform.usage.compaction.cron:0 0 4 * * *}")
+    public void scheduledCompaction() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            compact(Instant.now());
+        } catch (RuntimeException ex) {
+            log.error("usage_compaction_failed error={}", ex.getMessage(), ex);
+        }
+    }
+
+    long compact(Instant now) {
+        // without partitions every idempotency key is checked forever, so no event is ever past the dedupe window
+        if (!usageEventPartitions.isEnabled()) {
+            log.warn("usage_compaction_skipped reason=partitions_disabled");
+            return 0L;
+        }
+        if (policies.isEmpty()) {
+            return 0L;
+        }
+        if (!usageJobLeases.tryAcquire(JOB, leaseMs)) {
+            log.info("usage_compaction_skipped reason=lease_held");
+            return 0L;
+        }
+        try {
+            long compacted = 0L;
+            for (Map.Entry<String, Duration> policy : policies.entrySet()) {
+                compacted += compactMetric(policy.getKey(), horizon(now, policy.getValue()));
+            }
+            return compacted;
+        } finally {
+            usageJobLeases.release(JOB);
+        }
+    }
+
+    private Instant horizon(Instant now, Duration minAge) {
+        Duration dedupeWindow = usageEventPartitions.dedupeWindow();
+        Duration age = minAge.compareTo(dedupeWindow) > 0 ? minAge : dedupeWindow;
+        return now.minus(age).truncatedTo(ChronoUnit.DAYS);
+    }
+
+    private long compactMetric(String metricCode, Instant horizon) {
+        UsageCompactionCheckpointDocument checkpoint =
+                mongoTemplate.findById(metricCode, UsageCompactionCheckpointDocument.class);
+        Instant day = checkpoint == null ? oldestDay(metricCode) : checkpoint.getCompactedThrough();
+        long compacted = 0L;
+        int days = 0;
+        for (; day != null && day.isBefore(horizon); day = day.plus(1, ChronoUnit.DAYS)) {
+            if (!usageJobLeases.tryAcquire(JOB, leaseMs)) {
+                throw new IllegalStateException("usage compaction lease lost");
+            }
+            long events = compactDay(metricCode, day);
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(metricCode)), new Update()
+                            .set("compactedThrough", day.plus(1, ChronoUnit.DAYS))
+                            .inc("events", events)
+                            .set("updatedAt", Instant.now()),
+                    UsageCompactionCheckpointDocument.class);
+            compacted += events;
+            days++;
+        }
+        if (days > 0) {
+            log.info("usage_compaction_completed metricCode={} days={} events={} horizon={}",
+                    metricCode, days, compacted, horizon);
+        }
+        return compacted;
+    }
+
+    private long compactDay(String metricCode, Instant day) {
+        Criteria received = Criteria.where("_id").gte(objectIdAt(day)).lt(objectIdAt(day.plus(1, ChronoUnit.DAYS)))
+                .and("metricCode").is(metricCode);
+        List<String> collections = usageEventPartitions.all();
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(received));
+        for (String collection : collections.subList(1, collections.size())) {
+            stages.add(UnionWithOperation.unionWith(collection).pipeline(Aggregation.match(received)));
+        }
+        stages.add(Aggregation.project("tenantId", "customerId", "metricCode", "quantity", "receivedAt")
+                .and(DateOperators.dateOf("occurredAt").truncate("minute")).as("occurredAt"));
+        stages.add(Aggregation.group("tenantId", "customerId", "metricCode", "occurredAt")
+                .sum("quantity").as("quantity")
+                .count().as("events")
+                .min("quantity").as("minQuantity")
+                .max("quantity").as("maxQuantity")
+                .max("receivedAt").as("lastReceivedAt"));
+        stages.add(Aggregation.project("tenantId", "customerId", "metricCode", "occurredAt", "quantity", "events",
+                        "minQuantity", "maxQuantity", "lastReceivedAt")
+                .andExclude("_id")
+                .and(LiteralOperators.Literal.asLiteral(Date.from(day))).as("slice")
+                .and(LiteralOperators.Literal.asLiteral(new Date())).as("compactedAt"));
+        stages.add(MergeOperation.builder()
+                .intoCollection(mongoTemplate.getCollectionName(UsageEventBucketDocument.class))
+                .on("tenantId", "customerId", "metricCode", "occurredAt", "slice")
+                .whenMatched(MergeOperation.WhenDocumentsMatch.keepExistingDocument())
+                .whenNotMatched(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                .build());
+        mongoTemplate.aggregate(Aggregation.newAggregation(stages)
+                        .withOptions(AggregationOptions.builder().allowDiskUse(true).build()),
+                collections.get(0), Document.class);
+
+        long deleted = 0L;
+        for (String collection : collections) {
+            deleted += deleteCompacted(collection, received);
+        }
+        return deleted;
+    }
+
+    private long deleteCompacted(String collection, Criteria received) {
+        int batchSize = Math.max(deleteBatchSize, 1);
+        long nanosPerDelete = maxDeletesPerSecond <= 0 ? 0L : TimeUnit.SECONDS.toNanos(1) / maxDeletesPerSecond;
+        long deleted = 0L;
+        while (true) {
+            Query batchQuery = Query.query(received).limit(batchSize);
+            batchQuery.fields().include("_id");
+            List<String> ids = mongoTemplate.find(batchQuery, UsageEventDocument.class, collection).stream()
+                    .map(UsageEventDocument::getId)
+                    .toList();
+            if (ids.isEmpty()) {
+                return deleted;
+            }
+            long startedAt = System.nanoTime();
+            long removed = mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), UsageEventDocument.class,
+                    collection).getDeletedCount();
+            deleted += removed;
+            Metrics.counter("platform.usage.compaction.events").increment(removed);
+            long waitNanos = ids.size() * nanosPerDelete - (System.nanoTime() - startedAt);
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("usage compaction interrupted", interruptedException);
+                }
+            }
+        }
+    }
+
+    // first day holding an event of the metric; the _id index is walked from the oldest id
+    private Instant oldestDay(String metricCode) {
+        Query query = Query.query(Criteria.where("metricCode").is(metricCode)).with(Sort.by("_id")).limit(1);
+        query.fields().include("_id");
+        Instant oldest = null;
+        for (String collection : usageEventPartitions.all()) {
+            UsageEventDocument first = mongoTemplate.findOne(query, UsageEventDocument.class, collection);
+            if (first != null) {
+                Instant createdAt = new ObjectId(first.getId()).getDate().toInstant();
+                if (oldest == null || createdAt.isBefore(oldest)) {
+                    oldest = createdAt;
+                }
+            }
+        }
+        return oldest == null ? null : oldest.truncatedTo(ChronoUnit.DAYS);
+    }
+
+    // the lowest id created at that second, as a range bound
+    private static ObjectId objectIdAt(Instant instant) {
+        return new ObjectId("%08x0000000000000000".formatted(instant.getEpochSecond()));
+    }
+
+    // "api_call,sms:P90D": metric codes, each with an optional minimum age; the dedupe window is always the floor
+    private static Map<String, Duration> parsePolicies(String policies, UsageMetricAggregations usageMetricAggregations) {
+        Map<String, Duration> parsed = new LinkedHashMap<>();
+        for (String entry : policies.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int separator = trimmed.indexOf(':');
+            String metricCode = separator < 0 ? trimmed : trimmed.substring(0, separator).trim();
+            // unique values and gauge readings cannot be rebuilt from a sum, count, min and max
+            if (!usageMetricAggregations.isSummed(metricCode)) {
+                log.warn("usage_compaction_policy_ignored metricCode={} reason=not_summed", metricCode);
+                continue;
+            }
+            parsed.put(metricCode, separator < 0 ? Duration.ZERO : Duration.parse(trimmed.substring(separator + 1).trim()));
+        }
+        return parsed;
+    }
+}
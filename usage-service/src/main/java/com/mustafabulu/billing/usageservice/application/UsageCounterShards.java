@@ -0,0 +1,60 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageCounterShards {
+    private static final int MAX_SHARDS = 64;
+
+    private final Map<String, Integer> shardCounts;
+
+    public UsageCounterShards(@Value("${platform.usage.sharded-counters.shards:}") String rawShardCounts) {
+        this.shardCounts = parse(rawShardCounts);
+    }
+
+    public int shardCount(UsageAggregateKey key) {
+        Integer count = shardCounts.get(key.tenantId() + "/" + key.metricCode());
+        if (count == null) {
+            count = shardCounts.get(key.tenantId());
+        }
+        if (count == null) {
+            count = shardCounts.get("*/" + key.metricCode());
+        }
+        return count == null ? 1 : count;
+    }
+
+    // shard 0 is the original unsharded document, so it is addressed by a missing shard field
+    public Integer pickShard(UsageAggregateKey key) {
+        int count = shardCount(key);
+        int shard = count <= 1 ? 0 : ThreadLocalRandom.current().nextInt(count);
+        return shard == 0 ? null : shard;
+    }
+
+    private static Map<String, Integer> parse(String rawShardCounts) {
+        if (rawShardCounts == null || rawShardCounts.isBlank()) {
+            return Map.of();
+        }
+        Map<String, Integer> parsed = new HashMap<>();
+        Arrays.stream(rawShardCounts.split(";"))
+                .map(String::trim)
+                .filter(entry -> !entry.isBlank())
+                .forEach(entry -> {
+                    String[] keyValue = entry.split("=", 2);
+                    if (keyValue.length != 2 || keyValue[0].isBlank()) {
+                        throw new IllegalArgumentException("invalid sharded counter entry: " + entry);
+                    }
+                    int count = Integer.parseInt(keyValue[1].trim());
+                    if (count < 1 || count > MAX_SHARDS) {
+                        throw new IllegalArgumentException("shard count must be between 1 and " + MAX_SHARDS + ": " + entry);
+                    }
+                    parsed.put(keyValue[0].trim(), count);
+                });
+        return parsed;
+    }
+}
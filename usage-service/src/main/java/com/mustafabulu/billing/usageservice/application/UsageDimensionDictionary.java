@@ -0,0 +1,164 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionDictionaryDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+// per tenant and dimension, values are numbered in the order they are first seen, so events and rollups carry a small
+// integer instead of the string. Past the cardinality limits, new values share the OTHER code and new dimension names
+// are not recorded, which bounds both the dictionaries held here and the rollup index.
+@Component
+public class UsageDimensionDictionary {
+    private static final Logger log = LoggerFactory.getLogger(UsageDimensionDictionary.class);
+    public static final int OTHER = -1;
+    public static final String OTHER_VALUE = "__other__";
+    private static final int APPEND_ATTEMPTS = 3;
+
+    private final MongoTemplate mongoTemplate;
+    private final int maxDimensionsPerTenant;
+    private final int maxValuesPerDimension;
+    private final Cache<Scope, Dictionary> dictionaries;
+    private final Counter overflowValues;
+    private final Counter droppedDimensions;
+
+    public UsageDimensionDictionary(MongoTemplate mongoTemplate,
+                                    @Value("${platform.usage.dimensions.max-per-tenant:16}") int maxDimensionsPerTenant,
+                                    @Value("${platform.usage.dimensions.max-values:1000}") int maxValuesPerDimension,
+                                    @Value("${platform.usage.dimensions.cache-max-entries:1024}") long cacheMaxEntries) {
+        this.mongoTemplate = mongoTemplate;
+        this.maxDimensionsPerTenant = Math.max(maxDimensionsPerTenant, 0);
+        this.maxValuesPerDimension = Math.max(maxValuesPerDimension, 1);
+        this.dictionaries = Caffeine.newBuilder()
+                .maximumSize(Math.max(cacheMaxEntries, 1))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, dictionaries, "usage.dimension.dictionaries");
+        this.overflowValues = Metrics.counter("platform.usage.dimensions.overflow.values");
+        this.droppedDimensions = Metrics.counter("platform.usage.dimensions.dropped");
+    }
+
+    // dimension name -> value code, or null when nothing could be recorded
+    public Map<String, Integer> encode(String tenantId, Map<String, String> dimensions) {
+        if (dimensions == null || dimensions.isEmpty()) {
+            return null;
+        }
+        Map<String, Integer> codes = new TreeMap<>();
+        dimensions.forEach((dimension, value) -> {
+            Integer code = encode(tenantId, dimension, value);
+            if (code != null) {
+                codes.put(dimension, code);
+            }
+        });
+        return codes.isEmpty() ? null : codes;
+    }
+
+    public String decode(String tenantId, String dimension, int code) {
+        if (code == OTHER) {
+            return OTHER_VALUE;
+        }
+        Scope scope = new Scope(tenantId, dimension);
+        Dictionary dictionary = dictionaries.get(scope, this::load);
+        if (code >= dictionary.values().size()) {
+            // appended by another replica after this one cached the dictionary
+            dictionary = load(scope);
+            dictionaries.put(scope, dictionary);
+        }
+        return code < dictionary.values().size() ? dictionary.values().get(code) : OTHER_VALUE;
+    }
+
+    private Integer encode(String tenantId, String dimension, String value) {
+        Scope scope = new Scope(tenantId, dimension);
+        Dictionary dictionary = dictionaries.get(scope, this::load);
+        for (int attempt = 0; attempt < APPEND_ATTEMPTS; attempt++) {
+            Integer code = dictionary.codes().get(value);
+            if (code != null) {
+                return code;
+            }
+            if (dictionary.rejected()) {
+                droppedDimensions.increment();
+                return null;
+            }
+            if (dictionary.values().size() >= maxValuesPerDimension) {
+                overflowValues.increment();
+                return OTHER;
+            }
+            if (!dictionary.stored() && atDimensionLimit(tenantId)) {
+                log.warn("usage_dimension_rejected tenantId={} dimension={} limit={}",
+                        tenantId, dimension, maxDimensionsPerTenant);
+                dictionaries.put(scope, Dictionary.REJECTED);
+                droppedDimensions.increment();
+                return null;
+            }
+            dictionary = append(scope, value);
+            dictionaries.put(scope, dictionary);
+        }
+        Integer code = dictionary.codes().get(value);
+        return code == null ? OTHER : code;
+    }
+
+    // the value is pushed only while absent and the dictionary is below the limit, so concurrent appends from any
+    // number of replicas keep the codes dense and unique
+    private Dictionary append(Scope scope, String value) {
+        Query query = Query.query(Criteria.where("tenantId").is(scope.tenantId())
+                .and("dimension").is(scope.dimension())
+                .and("values").ne(value)
+                .and("values." + (maxValuesPerDimension - 1)).exists(false));
+        try {
+            UsageDimensionDictionaryDocument document = mongoTemplate.findAndModify(query,
+                    new Update().push("values", value).set("updatedAt", Instant.now()),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true),
+                    UsageDimensionDictionaryDocument.class);
+            return document == null ? load(scope) : Dictionary.of(document.getValues());
+        } catch (DuplicateKeyException duplicateKeyException) {
+            // the dictionary exists but already holds the value or is full, so the upsert tried to create another one
+            return load(scope);
+        }
+    }
+
+    private boolean atDimensionLimit(String tenantId) {
+        return mongoTemplate.count(Query.query(Criteria.where("tenantId").is(tenantId)),
+                UsageDimensionDictionaryDocument.class) >= maxDimensionsPerTenant;
+    }
+
+    private Dictionary load(Scope scope) {
+        UsageDimensionDictionaryDocument document = mongoTemplate.findOne(
+                Query.query(Criteria.where("tenantId").is(scope.tenantId()).and("dimension").is(scope.dimension())),
+                UsageDimensionDictionaryDocument.class);
+        return document == null ? Dictionary.EMPTY : Dictionary.of(document.getValues());
+    }
+
+    private record Scope(String tenantId, String dimension) {
+    }
+
+    private record Dictionary(List<String> values, Map<String, Integer> codes, boolean stored, boolean rejected) {
+        static final Dictionary EMPTY = new Dictionary(List.of(), Map.of(), false, false);
+        static final Dictionary REJECTED = new Dictionary(List.of(), Map.of(), false, true);
+
+        static Dictionary of(List<String> values) {
+            List<String> copy = values == null ? List.of() : List.copyOf(values);
+            Map<String, Integer> codes = new HashMap<>(copy.size() * 2);
+            for (int i = 0; i < copy.size(); i++) {
+                codes.putIfAbsent(copy.get(i), i);
+            }
+            return new Dictionary(copy, codes, true, false);
+        }
+    }
+}
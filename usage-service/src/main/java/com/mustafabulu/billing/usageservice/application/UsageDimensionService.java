@@ -0,0 +1,77 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageDimensionTotalsResult;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionRollupDocument;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsageDimensionService {
+    private final MongoTemplate mongoTemplate;
+    private final UsageRollupService usageRollupService;
+    private final UsageDimensionDictionary usageDimensionDictionary;
+    private final UsageMetricAggregations usageMetricAggregations;
+
+    public UsageDimensionService(MongoTemplate mongoTemplate,
+                                 UsageRollupService usageRollupService,
+                                 UsageDimensionDictionary usageDimensionDictionary,
+                                 UsageMetricAggregations usageMetricAggregations) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageRollupService = usageRollupService;
+        this.usageDimensionDictionary = usageDimensionDictionary;
+        this.usageMetricAggregations = usageMetricAggregations;
+    }
+
+    // totals of [from, to) grouped by the values of one dimension, for one customer or the whole tenant; the
+    // hourly and daily rollups are summed per value code on the server and only the codes are decoded here
+    public UsageDimensionTotalsResult totals(String tenantId,
+                                             String customerId,
+                                             String metricCode,
+                                             String dimension,
+                                             Instant from,
+                                             Instant to) {
+        if (!usageMetricAggregations.isSummed(metricCode)) {
+            throw new DomainValidationException("dimensions are only supported for SUM and PERCENTILE metrics: " + metricCode);
+        }
+        usageRollupService.validateRange(from, to);
+        String customer = customerId == null || customerId.isBlank() ? null : customerId;
+        List<UsageRollupKey> buckets = UsageRollupService.coveringBuckets(tenantId, customer, metricCode, from, to);
+        List<Criteria> ranges = UsageRollupService.bucketRanges(buckets);
+
+        Criteria criteria = Criteria.where("tenantId").is(tenantId)
+                .and("metricCode").is(metricCode)
+                .and("dimension").is(dimension);
+        if (customer != null) {
+            criteria = criteria.and("customerId").is(customer);
+        }
+        criteria = ranges.size() == 1
+                ? criteria.andOperator(ranges.get(0))
+                : criteria.orOperator(ranges.toArray(Criteria[]::new));
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("valueCode").sum("totalQuantity").as("total"));
+
+        Map<String, Long> totals = new HashMap<>();
+        for (Document row : mongoTemplate.aggregate(aggregation, UsageDimensionRollupDocument.class, Document.class)) {
+            String value = usageDimensionDictionary.decode(tenantId, dimension, ((Number) row.get("_id")).intValue());
+            totals.merge(value, ((Number) row.get("total")).longValue(), Long::sum);
+        }
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        totals.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return new UsageDimensionTotalsResult(tenantId, customer, metricCode, dimension, from, to, sorted);
+    }
+}
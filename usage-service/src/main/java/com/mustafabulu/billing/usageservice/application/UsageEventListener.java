@@ -0,0 +1,112 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.events.UsageIngestedEvent;
+import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchResult;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageEventListener {
+    private static final Logger log = LoggerFactory.getLogger(UsageEventListener.class);
+
+    private final UsageIngestionService usageIngestionService;
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer;
+    private final UsageMetricAggregations usageMetricAggregations;
+    private final Map<TopicPartition, AtomicLong> partitionLag = new ConcurrentHashMap<>();
+
+    public UsageEventListener(UsageIngestionService usageIngestionService,
+                              UsageAggregateWriteBuffer usageAggregateWriteBuffer,
+                              UsageMetricAggregations usageMetricAggregations) {
+        this.usageIngestionService = usageIngestionService;
+        this.usageAggregateWriteBuffer = usageAggregateWriteBuffer;
+        this.usageMetricAggregations = usageMetricAggregations;
+    }
+
+    @KafkaListener(
+            topics = KafkaTopics.USAGE_INGESTED,
+            groupId = "${spring.kafka.consumer.group-id}",
+            batch = "true",
+            autoStartup = "${platform.usage.kafka-ingest.enabled:false}",
+            properties = "spring.json.value.default.type=com.mustafabulu.billing.common.events.UsageIngestedEvent"
+    )
+    public void onUsageIngested(List<ConsumerRecord<String, UsageIngestedEvent>> records, Consumer<?, ?> consumer) {
+        List<UsageEventRequest> requests = new ArrayList<>(records.size());
+        Map<TopicPartition, Integer> consumed = new LinkedHashMap<>();
+        for (ConsumerRecord<String, UsageIngestedEvent> consumerRecord : records) {
+            consumed.merge(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()), 1, Integer::sum);
+            UsageIngestedEvent event = consumerRecord.value();
+            if (!isValid(event)) {
+                log.warn("usage_ingested_ignored reason=invalid_event partition={} offset={}",
+                        consumerRecord.partition(), consumerRecord.offset());
+                Metrics.counter("platform.usage.kafka.rejected").increment();
+                continue;
+            }
+            requests.add(new UsageEventRequest(
+                    event.tenantId(),
+                    event.customerId(),
+                    event.idempotencyKey(),
+                    event.metricCode(),
+                    event.quantity(),
+                    event.occurredAt(),
+                    event.distinctValue()
+            ));
+        }
+
+        if (!requests.isEmpty()) {
+            UsageBatchResult result = usageIngestionService.ingestBatch(requests);
+            Metrics.counter("platform.usage.kafka.duplicates").increment(result.duplicates());
+        }
+        // aggregates buffered in memory are not durable yet; fail the batch so its offsets are not committed
+        if (usageAggregateWriteBuffer.isEnabled() && !usageAggregateWriteBuffer.flushPending()) {
+            throw new IllegalStateException("usage aggregate flush failed; batch will be redelivered");
+        }
+
+        consumed.forEach((partition, count) -> {
+            Metrics.counter("platform.usage.kafka.consumed", partitionTags(partition)).increment(count);
+            recordLag(consumer, partition);
+        });
+    }
+
+    private void recordLag(Consumer<?, ?> consumer, TopicPartition partition) {
+        OptionalLong lag = consumer.currentLag(partition);
+        if (lag.isEmpty()) {
+            return;
+        }
+        partitionLag.computeIfAbsent(partition, key -> Metrics.gauge(
+                "platform.usage.kafka.lag", partitionTags(key), new AtomicLong())).set(lag.getAsLong());
+    }
+
+    private static Tags partitionTags(TopicPartition partition) {
+        return Tags.of("topic", partition.topic(), "partition", String.valueOf(partition.partition()));
+    }
+
+    private boolean isValid(UsageIngestedEvent event) {
+        return event != null
+                && isNotBlank(event.tenantId())
+                && isNotBlank(event.customerId())
+                && isNotBlank(event.idempotencyKey())
+                && isNotBlank(event.metricCode())
+                && event.quantity() >= 0
+                && (!usageMetricAggregations.isDistinct(event.metricCode()) || isNotBlank(event.distinctValue()));
+    }
+
+    private boolean isNotBlank(String value) {
+        return value != null && !value.isBlank();
+    }
+}
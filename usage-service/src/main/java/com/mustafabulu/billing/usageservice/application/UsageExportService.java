@@ -0,0 +1,188 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.domain.UsageExportFormat;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import io.micrometer.core.instrument.Metrics;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+// pages are keyset-ordered on (occurredAt, _id) over the tenant_occurred_at_id index, each read through its own cursor
+// and written out before the next one is opened, so memory stays at one page per event partition whatever the export
+// size; partitions are merged on the same key, so the output order does not depend on where an event is stored
+@Service
+public class UsageExportService {
+    private static final byte[] CSV_HEADER =
+            "tenantId,customerId,idempotencyKey,metricCode,quantity,occurredAt\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final Comparator<PartitionCursor> ORDER = Comparator
+            .comparing((PartitionCursor cursor) -> cursor.head.getOccurredAt())
+            .thenComparing(cursor -> cursor.head.getId());
+
+    private final MongoTemplate mongoTemplate;
+    private final UsageEventPartitions usageEventPartitions;
+    private final ObjectWriter eventWriter;
+
+    @Value("${platform.usage.export.page-size:5000}")
+    private int pageSize;
+
+    public UsageExportService(MongoTemplate mongoTemplate,
+                              UsageEventPartitions usageEventPartitions,
+                              ObjectMapper objectMapper) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageEventPartitions = usageEventPartitions;
+        this.eventWriter = objectMapper.writerFor(UsageEvent.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    public void validate(Instant from, Instant to) {
+        if (from == null || to == null) {
+            throw new DomainValidationException("from and to must be provided");
+        }
+        if (!from.isBefore(to)) {
+            throw new DomainValidationException("from must be before to");
+        }
+    }
+
+    public long export(String tenantId, Instant from, Instant to, UsageExportFormat format, OutputStream out)
+            throws IOException {
+        validate(from, to);
+        if (format == UsageExportFormat.CSV) {
+            out.write(CSV_HEADER);
+        }
+        long exported = 0L;
+        List<PartitionCursor> cursors = new ArrayList<>();
+        PriorityQueue<PartitionCursor> heads = new PriorityQueue<>(ORDER);
+        try {
+            // compacted minutes are read as events without an idempotency key, one row per bucket
+            List<String> collections = new ArrayList<>(usageEventPartitions.all());
+            collections.add(mongoTemplate.getCollectionName(UsageEventBucketDocument.class));
+            for (String collection : collections) {
+                PartitionCursor cursor = new PartitionCursor(collection);
+                cursors.add(cursor);
+                if (cursor.advance(tenantId, from, to)) {
+                    heads.add(cursor);
+                }
+            }
+            while (!heads.isEmpty()) {
+                PartitionCursor cursor = heads.poll();
+                write(cursor.head, format, out);
+                exported++;
+                if (exported % Math.max(pageSize, 1) == 0) {
+                    out.flush();
+                }
+                if (cursor.advance(tenantId, from, to)) {
+                    heads.add(cursor);
+                }
+            }
+        } finally {
+            cursors.forEach(PartitionCursor::close);
+        }
+        out.flush();
+        Metrics.counter("platform.usage.export.events", "format", format.name()).increment(exported);
+        return exported;
+    }
+
+    // walks one collection page by page; the next page is opened only once the previous one is used up
+    private final class PartitionCursor {
+        private final String collection;
+        private Stream<UsageEventDocument> page;
+        private Iterator<UsageEventDocument> documents;
+        private int pageRows;
+        private UsageEventDocument head;
+
+        private PartitionCursor(String collection) {
+            this.collection = collection;
+        }
+
+        private boolean advance(String tenantId, Instant from, Instant to) {
+            if (documents != null && documents.hasNext()) {
+                head = documents.next();
+                pageRows++;
+                return true;
+            }
+            if (documents != null && pageRows < Math.max(pageSize, 1)) {
+                return false;
+            }
+            close();
+            page = mongoTemplate.stream(pageQuery(tenantId, from, to,
+                    head == null ? null : head.getOccurredAt(), head == null ? null : head.getId()),
+                    UsageEventDocument.class, collection);
+            documents = page.iterator();
+            pageRows = 0;
+            if (!documents.hasNext()) {
+                return false;
+            }
+            head = documents.next();
+            pageRows++;
+            return true;
+        }
+
+        private void close() {
+            if (page != null) {
+                page.close();
+                page = null;
+            }
+        }
+    }
+
+    private Query pageQuery(String tenantId, Instant from, Instant to, Instant lastOccurredAt, String lastId) {
+        Criteria criteria = Criteria.where("tenantId").is(tenantId);
+        if (lastOccurredAt == null) {
+            criteria = criteria.and("occurredAt").gte(from).lt(to);
+        } else {
+            criteria = criteria.and("occurredAt").gte(lastOccurredAt).lt(to)
+                    .orOperator(Criteria.where("occurredAt").gt(lastOccurredAt),
+                            Criteria.where("occurredAt").is(lastOccurredAt).and("_id").gt(lastId));
+        }
+        Query query = Query.query(criteria)
+                .with(Sort.by("occurredAt", "_id"))
+                .limit(Math.max(pageSize, 1));
+        query.fields().include("tenantId").include("customerId").include("idempotencyKey").include("metricCode")
+                .include("quantity").include("occurredAt");
+        return query;
+    }
+
+    private void write(UsageEventDocument document, UsageExportFormat format, OutputStream out) throws IOException {
+        UsageEvent event = new UsageEvent(document.getTenantId(), document.getCustomerId(), document.getIdempotencyKey(),
+                document.getMetricCode(), document.getQuantity(), document.getOccurredAt());
+        if (format == UsageExportFormat.NDJSON) {
+            eventWriter.writeValue(out, event);
+            out.write('\n');
+            return;
+        }
+        String line = csv(event.tenantId()) + ',' + csv(event.customerId()) + ',' + csv(event.idempotencyKey()) + ','
+                + csv(event.metricCode()) + ',' + event.quantity() + ',' + event.occurredAt() + '\n';
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // RFC 4180: fields holding a separator, quote or line break are quoted, with quotes doubled
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,49 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// a gauge holds its last reading until the next one, so each reading closes the interval since the previous reading;
+// areas are exact value x milliseconds (Decimal128 once stored) and only divided into the reporting unit when read
+final class UsageGauges {
+
+    private UsageGauges() {
+    }
+
+    static BigDecimal area(long value, Instant from, Instant to) {
+        if (!to.isAfter(from)) {
+            return BigDecimal.ZERO;
+        }
+        return BigDecimal.valueOf(value).multiply(BigDecimal.valueOf(Duration.between(from, to).toMillis()));
+    }
+
+    // area of [from, to) cut at the bucket boundaries of the granularity, keyed by bucket start
+    static Map<Instant, BigDecimal> split(UsageRollupGranularity granularity, long value, Instant from, Instant to) {
+        Map<Instant, BigDecimal> areas = new LinkedHashMap<>();
+        for (Instant bucket = granularity.bucketStart(from); bucket.isBefore(to); bucket = granularity.nextBucket(bucket)) {
+            Instant start = bucket.isAfter(from) ? bucket : from;
+            Instant next = granularity.nextBucket(bucket);
+            Instant end = next.isBefore(to) ? next : to;
+            BigDecimal area = area(value, start, end);
+            if (area.signum() != 0) {
+                areas.put(bucket, area);
+            }
+        }
+        return areas;
+    }
+
+    // closed area plus the still open interval of the last reading, up to until
+    static long total(BigDecimal closedArea, long lastValue, Instant lastAt, Instant until, long unitMillis) {
+        BigDecimal open = lastAt == null ? BigDecimal.ZERO : area(lastValue, lastAt, until);
+        return inUnits(closedArea.add(open), unitMillis);
+    }
+
+    static long inUnits(BigDecimal area, long unitMillis) {
+        return area.divide(BigDecimal.valueOf(unitMillis), 0, RoundingMode.DOWN).longValueExact();
+    }
+}
@@ -0,0 +1,263 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageTopCustomer;
+import com.mustafabulu.billing.usageservice.domain.UsageTopCustomersResult;
+import com.mustafabulu.billing.usageservice.domain.UsageTopWindow;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// per (tenant, metric) count-min sketches with a bounded candidate set of the largest customers, kept for the lifetime
+// of the instance and for a sliding window of ring buckets; memory per tracked metric is fixed whatever the customer count.
+// counts are local to this instance, so replicas each see the share of traffic they ingested.
+@Component
+public class UsageHeavyHitters {
+    private final boolean enabled;
+    private final int width;
+    private final int depth;
+    private final int maxCandidates;
+    private final int windowBuckets;
+    private final long bucketMillis;
+    private final Cache<TrackerKey, Tracker> trackers;
+    private final Instant startedAt = Instant.now();
+    private final MultiGauge topGauge;
+
+    @Value("${platform.usage.top.gauge-customers:10}")
+    private int gaugeCustomers;
+
+    public UsageHeavyHitters(@Value("${platform.usage.top.enabled:false}") boolean enabled,
+                             @Value("${platform.usage.top.sketch-width:1024}") int width,
+                             @Value("${platform.usage.top.sketch-depth:4}") int depth,
+                             @Value("${platform.usage.top.candidates:32}") int candidates,
+                             @Value("${platform.usage.top.window-ms:3600000}") long windowMs,
+                             @Value("${platform.usage.top.window-buckets:6}") int windowBuckets,
+                             @Value("${platform.usage.top.max-tracked-metrics:256}") long maxTrackedMetrics) {
+        this.enabled = enabled;
+        this.width = Math.max(width, 16);
+        this.depth = Math.max(depth, 1);
+        this.maxCandidates = Math.max(candidates, 1);
+        this.windowBuckets = Math.max(windowBuckets, 1);
+        this.bucketMillis = Math.max(windowMs / this.windowBuckets, 1L);
+        this.trackers = Caffeine.newBuilder().maximumSize(Math.max(maxTrackedMetrics, 1)).build();
+        this.topGauge = MultiGauge.builder("platform.usage.top.customer.quantity")
+                .description("Estimated quantity of the largest customers per tenant and metric over the sliding window")
+                .register(Metrics.globalRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void record(String tenantId, String metricCode, String customerId, long quantity) {
+        record(tenantId, metricCode, customerId, quantity, Instant.now());
+    }
+
+    public UsageTopCustomersResult top(String tenantId, String metricCode, UsageTopWindow window, int limit) {
+        return top(tenantId, metricCode, window, limit, Instant.now());
+    }
+
+    void record(String tenantId, String metricCode, String customerId, long quantity, Instant now) {
+        if (!enabled) {
+            return;
+        }
+        trackers.get(new TrackerKey(tenantId, metricCode), ignored -> new Tracker())
+                .add(customerId, quantity, now.toEpochMilli() / bucketMillis);
+    }
+
+    UsageTopCustomersResult top(String tenantId, String metricCode, UsageTopWindow window, int limit, Instant now) {
+        if (limit < 1 || limit > maxCandidates) {
+            throw new DomainValidationException("limit must be between 1 and " + maxCandidates);
+        }
+        long epoch = now.toEpochMilli() / bucketMillis;
+        Instant since = window == UsageTopWindow.SLIDING
+                ? Instant.ofEpochMilli((epoch - windowBuckets + 1) * bucketMillis)
+                : startedAt;
+        Tracker tracker = enabled ? trackers.getIfPresent(new TrackerKey(tenantId, metricCode)) : null;
+        if (tracker == null) {
+            return new UsageTopCustomersResult(tenantId, metricCode, window, since, 0L, List.of());
+        }
+        return tracker.top(tenantId, metricCode, window, limit, epoch, since);
+    }
+
+    @Scheduled(fixedDelayString = "${platform.usage.top.gauge-interval-ms:15000}")
+    public void publishGauges() {
+        if (!enabled) {
+            return;
+        }
+        int limit = Math.min(Math.max(gaugeCustomers, 1), maxCandidates);
+        List<MultiGauge.Row<?>> rows = new ArrayList<>();
+        Instant now = Instant.now();
+        trackers.asMap().forEach((key, tracker) -> {
+            List<UsageTopCustomer> customers = top(key.tenantId(), key.metricCode(), UsageTopWindow.SLIDING, limit, now).customers();
+            for (int rank = 0; rank < customers.size(); rank++) {
+                UsageTopCustomer customer = customers.get(rank);
+                // no customerId tag: the series stay fixed per rank while the ranking churns; /top names the customers
+                rows.add(MultiGauge.Row.of(Tags.of(
+                        "tenantId", key.tenantId(),
+                        "metricCode", key.metricCode(),
+                        "rank", String.valueOf(rank + 1)), customer.estimatedQuantity()));
+            }
+        });
+        topGauge.register(rows, true);
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        long mixed = value;
+        mixed = (mixed ^ (mixed >>> 30)) * 0xbf58476d1ce4e5b9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94d049bb133111ebL;
+        return mixed ^ (mixed >>> 31);
+    }
+
+    private record TrackerKey(String tenantId, String metricCode) {
+    }
+
+    private final class Tracker {
+        private final Sketch total = new Sketch();
+        private final Sketch[] buckets = new Sketch[windowBuckets];
+        private final long[] bucketEpochs = new long[windowBuckets];
+
+        private Tracker() {
+            for (int i = 0; i < windowBuckets; i++) {
+                buckets[i] = new Sketch();
+            }
+            Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+        }
+
+        private synchronized void add(String customerId, long quantity, long epoch) {
+            long hash = hash(customerId);
+            total.add(customerId, hash, quantity);
+            int index = (int) Math.floorMod(epoch, (long) windowBuckets);
+            if (bucketEpochs[index] != epoch) {
+                buckets[index].clear();
+                bucketEpochs[index] = epoch;
+            }
+            buckets[index].add(customerId, hash, quantity);
+        }
+
+        private synchronized UsageTopCustomersResult top(String tenantId,
+                                                         String metricCode,
+                                                         UsageTopWindow window,
+                                                         int limit,
+                                                         long epoch,
+                                                         Instant since) {
+            List<Sketch> live = new ArrayList<>();
+            if (window == UsageTopWindow.SLIDING) {
+                for (int i = 0; i < windowBuckets; i++) {
+                    if (bucketEpochs[i] <= epoch && bucketEpochs[i] > epoch - windowBuckets) {
+                        live.add(buckets[i]);
+                    }
+                }
+            } else {
+                live.add(total);
+            }
+
+            Set<String> customerIds = new HashSet<>();
+            long streamTotal = 0L;
+            for (Sketch sketch : live) {
+                customerIds.addAll(sketch.candidates.keySet());
+                streamTotal += sketch.streamTotal;
+            }
+            List<UsageTopCustomer> customers = new ArrayList<>(customerIds.size());
+            for (String customerId : customerIds) {
+                long hash = hash(customerId);
+                long estimate = 0L;
+                for (Sketch sketch : live) {
+                    estimate += sketch.estimate(hash);
+                }
+                customers.add(new UsageTopCustomer(customerId, estimate));
+            }
+            customers.sort(Comparator.comparingLong(UsageTopCustomer::estimatedQuantity).reversed()
+                    .thenComparing(UsageTopCustomer::customerId));
+            // count-min overestimates by at most e/width of the counted stream with probability 1 - e^-depth
+            long maxOverestimate = (long) Math.ceil(Math.E / width * streamTotal);
+            return new UsageTopCustomersResult(tenantId, metricCode, window, since, maxOverestimate,
+                    List.copyOf(customers.subList(0, Math.min(limit, customers.size()))));
+        }
+    }
+
+    // count-min sketch with conservative update, plus the customers with the largest estimates seen so far
+    private final class Sketch {
+        private final long[] counters = new long[width * depth];
+        private final Map<String, Long> candidates = new HashMap<>();
+        private long streamTotal;
+        private String smallestCandidate;
+
+        private void add(String customerId, long hash, long quantity) {
+            streamTotal += quantity;
+            long updated = estimate(hash) + quantity;
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int row = 0; row < depth; row++) {
+                int slot = slot(row, h1, h2);
+                if (counters[slot] < updated) {
+                    counters[slot] = updated;
+                }
+            }
+            offer(customerId, updated);
+        }
+
+        private long estimate(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                estimate = Math.min(estimate, counters[slot(row, h1, h2)]);
+            }
+            return estimate;
+        }
+
+        private void offer(String customerId, long estimate) {
+            if (candidates.containsKey(customerId) || candidates.size() < maxCandidates) {
+                candidates.put(customerId, estimate);
+                smallestCandidate = null;
+                return;
+            }
+            if (smallestCandidate == null) {
+                smallestCandidate = candidates.entrySet().stream()
+                        .min(Map.Entry.comparingByValue())
+                        .map(Map.Entry::getKey)
+                        .orElseThrow();
+            }
+            if (estimate > candidates.get(smallestCandidate)) {
+                candidates.remove(smallestCandidate);
+                candidates.put(customerId, estimate);
+                smallestCandidate = null;
+            }
+        }
+
+        private int slot(int row, int h1, int h2) {
+            return row * width + Math.floorMod(h1 + (row + 1) * h2, width);
+        }
+
+        private void clear() {
+            Arrays.fill(counters, 0L);
+            candidates.clear();
+            streamTotal = 0L;
+            smallestCandidate = null;
+        }
+    }
+}
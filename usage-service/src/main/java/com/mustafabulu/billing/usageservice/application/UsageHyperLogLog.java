@@ -0,0 +1,108 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// HyperLogLog over 64-bit hashes, with registers kept sparse (index -> rank) so MongoDB can merge them with $max
+final class UsageHyperLogLog {
+    static final int MIN_PRECISION = 4;
+    static final int MAX_PRECISION = 16;
+
+    private UsageHyperLogLog() {
+    }
+
+    // standard error of HyperLogLog is 1.04 / sqrt(2^precision)
+    static int precisionFor(double relativeError) {
+        double error = Math.min(Math.max(relativeError, 0.004), 0.26);
+        int precision = (int) Math.ceil(Math.log(Math.pow(1.04 / error, 2)) / Math.log(2));
+        return Math.min(Math.max(precision, MIN_PRECISION), MAX_PRECISION);
+    }
+
+    static double relativeError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static int index(long hash, int precision) {
+        return (int) (hash >>> (64 - precision));
+    }
+
+    static int rank(long hash, int precision) {
+        return Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    }
+
+    // registers of a higher-precision sketch folded into a lower one, so sketches written under an older setting still merge
+    static Map<Integer, Integer> fold(Map<Integer, Integer> registers, int from, int to) {
+        if (from == to) {
+            return registers;
+        }
+        int shift = from - to;
+        Map<Integer, Integer> folded = new HashMap<>();
+        registers.forEach((index, rank) -> {
+            int low = index & ((1 << shift) - 1);
+            int foldedRank = low == 0 ? rank + shift : Integer.numberOfLeadingZeros(low) - (Integer.SIZE - shift) + 1;
+            folded.merge(index >>> shift, foldedRank, Math::max);
+        });
+        return folded;
+    }
+
+    // sketches as stored on aggregate/rollup documents (precision -> index -> rank), unioned at the lowest precision present
+    static long estimate(Collection<Map<String, Map<String, Integer>>> sketches) {
+        int precision = MAX_PRECISION + 1;
+        for (Map<String, Map<String, Integer>> sketch : sketches) {
+            for (String stored : sketch.keySet()) {
+                precision = Math.min(precision, Integer.parseInt(stored));
+            }
+        }
+        if (precision > MAX_PRECISION) {
+            return 0L;
+        }
+        Map<Integer, Integer> union = new HashMap<>();
+        for (Map<String, Map<String, Integer>> sketch : sketches) {
+            for (Map.Entry<String, Map<String, Integer>> entry : sketch.entrySet()) {
+                Map<Integer, Integer> registers = new HashMap<>();
+                entry.getValue().forEach((index, rank) -> registers.put(Integer.parseInt(index), rank));
+                fold(registers, Integer.parseInt(entry.getKey()), precision)
+                        .forEach((index, rank) -> union.merge(index, rank, Math::max));
+            }
+        }
+        return estimate(union, precision);
+    }
+
+    static long estimate(Map<Integer, Integer> registers, int precision) {
+        int m = 1 << precision;
+        double sum = m - registers.size();
+        for (int rank : registers.values()) {
+            sum += Math.pow(2.0, -rank);
+        }
+        double alpha = switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+        double estimate = alpha * m * m / sum;
+        int zeros = m - registers.size();
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate while many registers are still empty
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private static long mix(long value) {
+        long mixed = value;
+        mixed = (mixed ^ (mixed >>> 30)) * 0xbf58476d1ce4e5b9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94d049bb133111ebL;
+        return mixed ^ (mixed >>> 31);
+    }
+}
@@ -0,0 +1,194 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// routes aggregate and rollup increments to single-writer partitions by aggregate key; each partition is one virtual
+// thread that coalesces everything queued for it into one bulk write, so same-key upserts never contend
+@Component
+public class UsageIngestionDispatcher {
+    private final UsageAggregateWriter usageAggregateWriter;
+    private final boolean enabled;
+    private final int maxCoalescedTasks;
+    private final Partition[] partitions;
+    private volatile boolean running;
+
+    public UsageIngestionDispatcher(UsageAggregateWriter usageAggregateWriter,
+                                    @Value("${platform.usage.dispatcher.enabled:false}") boolean enabled,
+                                    @Value("${platform.usage.dispatcher.partitions:0}") int partitions,
+                                    @Value("${platform.usage.dispatcher.max-coalesced-tasks:256}") int maxCoalescedTasks) {
+        this.usageAggregateWriter = usageAggregateWriter;
+        this.enabled = enabled;
+        this.maxCoalescedTasks = Math.max(maxCoalescedTasks, 1);
+        int count = partitions > 0 ? partitions : Runtime.getRuntime().availableProcessors();
+        this.partitions = new Partition[enabled ? count : 0];
+        for (int i = 0; i < this.partitions.length; i++) {
+            this.partitions[i] = new Partition(i);
+        }
+        this.running = enabled;
+        for (Partition partition : this.partitions) {
+            Thread.ofVirtual().name("usage-aggregate-partition-" + partition.index).start(partition::drain);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // blocks until every delta has been applied by its partition; a failed write is rethrown to each caller that shared it
+    public void apply(Map<UsageAggregateKey, Long> totals, Map<UsageRollupKey, Long> rollups) {
+        if (!running) {
+            throw stopped();
+        }
+        Task[] tasks = new Task[partitions.length];
+        totals.forEach((key, quantity) -> task(tasks, key).totals.merge(key, quantity, Long::sum));
+        rollups.forEach((key, quantity) -> task(tasks, new UsageAggregateKey(key.tenantId(), key.customerId(), key.metricCode()))
+                .rollups.merge(key, quantity, Long::sum));
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (int i = 0; i < tasks.length; i++) {
+            if (tasks[i] != null) {
+                partitions[i].queue.add(tasks[i]);
+                pending.add(tasks[i].done);
+            }
+        }
+        // a shutdown between the running check and the enqueue can leave a task behind a partition that already
+        // stopped; whichever of this thread and the stopping partition takes it off the queue fails it
+        if (!running) {
+            for (int i = 0; i < tasks.length; i++) {
+                if (tasks[i] != null && partitions[i].queue.remove(tasks[i])) {
+                    tasks[i].done.completeExceptionally(stopped());
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException completionException) {
+            if (completionException.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw completionException;
+        }
+    }
+
+    private static IllegalStateException stopped() {
+        return new IllegalStateException("usage ingestion dispatcher is not running");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Partition partition : partitions) {
+            partition.queue.add(Task.STOP);
+        }
+    }
+
+    private Task task(Task[] tasks, UsageAggregateKey key) {
+        int index = Math.floorMod(key.hashCode(), partitions.length);
+        if (tasks[index] == null) {
+            tasks[index] = new Task();
+        }
+        return tasks[index];
+    }
+
+    // there is no transaction across the two writes: totals and rollups are applied independently and neither is undone
+    // when the other fails. A caller only sees a failure that touched its own deltas: a totals failure when one of its
+    // keys was left unapplied, a rollup failure when it had rollups in the batch.
+    private void write(List<Task> batch, Map<UsageAggregateKey, Long> totals, Map<UsageRollupKey, Long> rollups) {
+        RuntimeException totalsFailure = null;
+        Set<UsageAggregateKey> failedTotals = Set.of();
+        try {
+            usageAggregateWriter.incrementAll(totals);
+        } catch (UsageAggregateWriter.PartialWriteException partialWriteException) {
+            totalsFailure = partialWriteException;
+            failedTotals = partialWriteException.failedKeys();
+        } catch (RuntimeException ex) {
+            totalsFailure = ex;
+            failedTotals = totals.keySet();
+        }
+        RuntimeException rollupsFailure = null;
+        try {
+            usageAggregateWriter.incrementRollups(rollups);
+        } catch (RuntimeException ex) {
+            rollupsFailure = ex;
+        }
+        for (Task task : batch) {
+            if (totalsFailure != null && task.totals.keySet().stream().anyMatch(failedTotals::contains)) {
+                task.done.completeExceptionally(totalsFailure);
+            } else if (rollupsFailure != null && !task.rollups.isEmpty()) {
+                task.done.completeExceptionally(rollupsFailure);
+            } else {
+                task.done.complete(null);
+            }
+        }
+    }
+
+    private final class Partition {
+        private final int index;
+        private final LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+        private final Timer waitTimer;
+
+        private Partition(int index) {
+            this.index = index;
+            Tags tags = Tags.of("partition", String.valueOf(index));
+            Metrics.gauge("platform.usage.dispatcher.queue.depth", tags, queue, Collection::size);
+            this.waitTimer = Metrics.timer("platform.usage.dispatcher.wait", tags);
+        }
+
+        private void drain() {
+            List<Task> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                queue.drainTo(batch, maxCoalescedTasks - 1);
+                boolean stop = batch.remove(Task.STOP);
+
+                long now = System.nanoTime();
+                Map<UsageAggregateKey, Long> totals = new LinkedHashMap<>();
+                Map<UsageRollupKey, Long> rollups = new LinkedHashMap<>();
+                for (Task task : batch) {
+                    waitTimer.record(now - task.enqueuedAt, TimeUnit.NANOSECONDS);
+                    task.totals.forEach((key, quantity) -> totals.merge(key, quantity, Long::sum));
+                    task.rollups.forEach((key, quantity) -> rollups.merge(key, quantity, Long::sum));
+                }
+                write(batch, totals, rollups);
+                batch.clear();
+                if (stop) {
+                    List<Task> stranded = new ArrayList<>();
+                    queue.drainTo(stranded);
+                    stranded.forEach(task -> task.done.completeExceptionally(stopped()));
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Task {
+        private static final Task STOP = new Task();
+
+        private final Map<UsageAggregateKey, Long> totals = new LinkedHashMap<>();
+        private final Map<UsageRollupKey, Long> rollups = new LinkedHashMap<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+    }
+}
@@ -1,85 +1,546 @@
 package com.mustafabulu.billing.usageservice.application;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
 import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchItemResult;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchResult;
+import com.mustafabulu.billing.usageservice.domain.UsageDimensionRollupKey;
 import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.domain.UsageIngestionStatus;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
 import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
 import com.mustafabulu.billing.usageservice.persistence.UsageAggregateRepository;
 import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
 import com.mustafabulu.billing.usageservice.persistence.UsageEventRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsageIdempotencyHash;
+import com.mustafabulu.billing.usageservice.persistence.UsageIdempotencyKeyMigration;
+import com.mustafabulu.billing.usageservice.persistence.UsageWriteAheadLog;
+import io.micrometer.core.instrument.Metrics;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class UsageIngestionService {
     private final UsageEventRepository usageEventRepository;
+    private final UsageEventPartitions usageEventPartitions;
     private final UsageAggregateRepository usageAggregateRepository;
     private final MongoTemplate mongoTemplate;
+    private final UsageAggregateWriter usageAggregateWriter;
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer;
+    private final UsageIngestionDispatcher usageIngestionDispatcher;
+    private final UsageWriteAheadLog usageWriteAheadLog;
+    private final UsageHeavyHitters usageHeavyHitters;
+    private final UsageMetricAggregations usageMetricAggregations;
+    private final IdempotencyKeyBloomFilter idempotencyKeyBloomFilter;
+    private final UsageTotalsCache usageTotalsCache;
+    private final UsageDimensionDictionary usageDimensionDictionary;
+    private final UsageClosedPeriods usageClosedPeriods;
+    private final UsageIdempotencyKeyMigration usageIdempotencyKeyMigration;
+
+    @Value("${platform.usage.insert-first.enabled:false}")
+    private boolean insertFirstEnabled;
+
+    @Value("${platform.usage.idempotency.hashed-keys.enabled:false}")
+    private boolean hashedKeys;
 
     public UsageIngestionService(UsageEventRepository usageEventRepository,
+                                 UsageEventPartitions usageEventPartitions,
                                  UsageAggregateRepository usageAggregateRepository,
-                                 MongoTemplate mongoTemplate) {
+                                 MongoTemplate mongoTemplate,
+                                 UsageAggregateWriter usageAggregateWriter,
+                                 UsageAggregateWriteBuffer usageAggregateWriteBuffer,
+                                 UsageIngestionDispatcher usageIngestionDispatcher,
+                                 UsageWriteAheadLog usageWriteAheadLog,
+                                 UsageHeavyHitters usageHeavyHitters,
+                                 UsageMetricAggregations usageMetricAggregations,
+                                 IdempotencyKeyBloomFilter idempotencyKeyBloomFilter,
+                                 UsageTotalsCache usageTotalsCache,
+                                 UsageDimensionDictionary usageDimensionDictionary,
+                                 UsageClosedPeriods usageClosedPeriods,
+                                 UsageIdempotencyKeyMigration usageIdempotencyKeyMigration) {
         this.usageEventRepository = usageEventRepository;
+        this.usageEventPartitions = usageEventPartitions;
         this.usageAggregateRepository = usageAggregateRepository;
         this.mongoTemplate = mongoTemplate;
+        this.usageAggregateWriter = usageAggregateWriter;
+        this.usageAggregateWriteBuffer = usageAggregateWriteBuffer;
+        this.usageIngestionDispatcher = usageIngestionDispatcher;
+        this.usageWriteAheadLog = usageWriteAheadLog;
+        this.usageHeavyHitters = usageHeavyHitters;
+        this.usageMetricAggregations = usageMetricAggregations;
+        this.idempotencyKeyBloomFilter = idempotencyKeyBloomFilter;
+        this.usageTotalsCache = usageTotalsCache;
+        this.usageDimensionDictionary = usageDimensionDictionary;
+        this.usageClosedPeriods = usageClosedPeriods;
+        this.usageIdempotencyKeyMigration = usageIdempotencyKeyMigration;
     }
 
     @Transactional
     public UsageEvent ingest(UsageEventRequest request) {
-        UsageEventDocument existing = usageEventRepository.findByTenantIdAndIdempotencyKey(
-                        request.tenantId(), request.idempotencyKey())
-                .orElse(null);
-        if (existing != null) {
-            return toDomain(existing);
+        usageMetricAggregations.validate(request.metricCode(), request.distinctValue(), request.dimensions());
+        // the log record has no distinctValue or dimensions, so DISTINCT metrics and tagged events always take the
+        // synchronous path
+        if (usageWriteAheadLog.isEnabled() && !usageMetricAggregations.isDistinct(request.metricCode())
+                && (request.dimensions() == null || request.dimensions().isEmpty())) {
+            // acknowledged once logged, without the duplicate lookup: the response echoes the request as PENDING, and a
+            // duplicate is dropped by the unique index when the log is drained
+            Instant receivedAt = Instant.now();
+            UsageEvent event = new UsageEvent(request.tenantId(), request.customerId(), request.idempotencyKey(),
+                    request.metricCode(), request.quantity(), request.occurredAt() == null ? receivedAt : request.occurredAt());
+            if (usageWriteAheadLog.append(event, receivedAt)) {
+                Metrics.counter("platform.usage.ingest.path", "path", "write-ahead-log").increment();
+                return event.withStatus(UsageIngestionStatus.PENDING);
+            }
         }
 
-        Instant eventTime = request.occurredAt() == null ? Instant.now() : request.occurredAt();
-        UsageEventDocument document = new UsageEventDocument();
-        document.setTenantId(request.tenantId());
-        document.setCustomerId(request.customerId());
-        document.setIdempotencyKey(request.idempotencyKey());
-        document.setMetricCode(request.metricCode());
-        document.setQuantity(request.quantity());
-        document.setOccurredAt(eventTime);
-        document.setReceivedAt(Instant.now());
+        boolean lookupFirst = !insertFirstEnabled
+                || idempotencyKeyBloomFilter.mightContain(request.tenantId(), request.idempotencyKey());
+        Instant receivedAt = Instant.now();
+        // the unique index only covers the partition being written, so insert-first still reads the older ones
+        if (lookupFirst || usageEventPartitions.isEnabled()) {
+            UsageEventDocument existing = findExisting(request.tenantId(), request.idempotencyKey(),
+                    lookupFirst ? dedupeCollections(receivedAt) : olderDedupeCollections(receivedAt));
+            if (existing != null) {
+                return toDomain(existing).withStatus(UsageIngestionStatus.DUPLICATE);
+            }
+        }
+        Metrics.counter("platform.usage.ingest.path", "path", lookupFirst ? "lookup-first" : "insert-first").increment();
+
+        UsageEventDocument document = toDocument(request, receivedAt);
 
         UsageEventDocument persisted;
+        UsageIngestionStatus status = UsageIngestionStatus.ACCEPTED;
         try {
-            persisted = usageEventRepository.save(document);
-            incrementAggregate(request);
+            persisted = usageEventPartitions.isEnabled()
+                    ? mongoTemplate.insert(document, usageEventPartitions.writeCollection(receivedAt))
+                    : usageEventRepository.save(document);
+            incrementAggregate(persisted);
         } catch (DuplicateKeyException duplicateKeyException) {
-            persisted = usageEventRepository.findByTenantIdAndIdempotencyKey(request.tenantId(), request.idempotencyKey())
-                    .orElseThrow(() -> duplicateKeyException);
+            persisted = findExisting(request.tenantId(), request.idempotencyKey(), dedupeCollections(receivedAt));
+            if (persisted == null && hashedKeys) {
+                // an event stored before hashed mode, not yet backfilled; the legacy index is still in place for it
+                persisted = usageEventPartitions.isEnabled()
+                        ? first(usageEventPartitions.findInDedupeWindow(
+                                legacyKey(request.tenantId(), request.idempotencyKey()), dedupeCollections(receivedAt)))
+                        : usageEventRepository.findByTenantIdAndIdempotencyKey(request.tenantId(), request.idempotencyKey())
+                                .orElse(null);
+            }
+            if (persisted == null) {
+                throw duplicateKeyException;
+            }
+            status = UsageIngestionStatus.DUPLICATE;
+        }
+        if (insertFirstEnabled) {
+            idempotencyKeyBloomFilter.put(request.tenantId(), request.idempotencyKey());
         }
 
-        return toDomain(persisted);
+        return toDomain(persisted).withStatus(status);
+    }
+
+    @Transactional
+    public UsageBatchResult ingestBatch(List<UsageEventRequest> requests) {
+        requests.forEach(request ->
+                usageMetricAggregations.validate(request.metricCode(), request.distinctValue(), request.dimensions()));
+        Instant receivedAt = Instant.now();
+        Set<EventKey> knownKeys = findExistingKeys(requests.stream()
+                .map(request -> new EventKey(request.tenantId(), request.idempotencyKey()))
+                .toList(), dedupeCollections(receivedAt));
+
+        List<UsageEventDocument> candidates = new ArrayList<>();
+        List<Integer> candidatePositions = new ArrayList<>();
+        UsageIngestionStatus[] statuses = new UsageIngestionStatus[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            UsageEventRequest request = requests.get(i);
+            if (!knownKeys.add(new EventKey(request.tenantId(), request.idempotencyKey()))) {
+                statuses[i] = UsageIngestionStatus.DUPLICATE;
+                continue;
+            }
+            statuses[i] = UsageIngestionStatus.ACCEPTED;
+            candidates.add(toDocument(request, receivedAt));
+            candidatePositions.add(i);
+        }
+
+        Set<Integer> rejected = insertUnordered(candidates);
+        List<UsageEventDocument> inserted = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            if (rejected.contains(i)) {
+                statuses[candidatePositions.get(i)] = UsageIngestionStatus.DUPLICATE;
+            } else {
+                inserted.add(candidates.get(i));
+            }
+        }
+        incrementAggregates(inserted);
+
+        List<UsageBatchItemResult> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            UsageEventRequest request = requests.get(i);
+            results.add(new UsageBatchItemResult(i, request.tenantId(), request.idempotencyKey(), statuses[i]));
+        }
+        return new UsageBatchResult(inserted.size(), requests.size() - inserted.size(), results);
+    }
+
+    // applies events drained from the write-ahead log; replaying an already applied record is a duplicate-key no-op
+    @Transactional
+    public int applyLogged(List<UsageWriteAheadLog.Entry> entries) {
+        List<UsageEventDocument> documents = new ArrayList<>(entries.size());
+        for (UsageWriteAheadLog.Entry entry : entries) {
+            UsageEvent event = entry.event();
+            documents.add(toDocument(new UsageEventRequest(event.tenantId(), event.customerId(), event.idempotencyKey(),
+                    event.metricCode(), event.quantity(), event.occurredAt(), null), entry.receivedAt()));
+        }
+        if (usageEventPartitions.isEnabled() && !documents.isEmpty()) {
+            // a replay received in a later month than the original is not caught by the partition's unique index
+            Set<EventKey> older = findExistingKeys(documents.stream()
+                    .map(document -> new EventKey(document.getTenantId(), document.getIdempotencyKey()))
+                    .toList(), olderDedupeCollections(documents.get(0).getReceivedAt()));
+            documents.removeIf(document ->
+                    older.contains(new EventKey(document.getTenantId(), document.getIdempotencyKey())));
+        }
+        Set<Integer> rejected = insertUnordered(documents);
+        List<UsageEventDocument> inserted = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            if (!rejected.contains(i)) {
+                inserted.add(documents.get(i));
+            }
+        }
+        incrementAggregates(inserted);
+        if (insertFirstEnabled) {
+            inserted.forEach(document -> idempotencyKeyBloomFilter.put(document.getTenantId(), document.getIdempotencyKey()));
+        }
+        return inserted.size();
     }
 
     @Transactional(readOnly = true)
     public long currentTotal(String tenantId, String customerId, String metricCode) {
-        return usageAggregateRepository.findByTenantIdAndCustomerIdAndMetricCode(tenantId, customerId, metricCode)
-                .map(UsageAggregateDocument::getTotalQuantity)
-                .orElse(0L);
+        if (usageMetricAggregations.isGauge(metricCode)) {
+            Instant now = Instant.now();
+            return usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode(tenantId, customerId, metricCode)
+                    .stream()
+                    .mapToLong(document -> UsageGauges.total(document.getGaugeArea(), document.getGaugeValue(),
+                            document.getGaugeAt(), now, usageMetricAggregations.gaugeUnitMillis()))
+                    .sum();
+        }
+        if (usageMetricAggregations.isDistinct(metricCode)) {
+            return UsageHyperLogLog.estimate(
+                    usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode(tenantId, customerId, metricCode)
+                            .stream()
+                            .map(UsageAggregateDocument::getDistinctRegisters)
+                            .filter(Objects::nonNull)
+                            .toList());
+        }
+        if (usageAggregateWriteBuffer.isEnabled()) {
+            return usageAggregateWriteBuffer.totalWithPending(new UsageAggregateKey(tenantId, customerId, metricCode),
+                    () -> persistedTotal(tenantId, customerId, metricCode));
+        }
+        return persistedTotal(tenantId, customerId, metricCode);
+    }
+
+    private long persistedTotal(String tenantId, String customerId, String metricCode) {
+        return usageTotalsCache.get(new UsageAggregateKey(tenantId, customerId, metricCode),
+                () -> usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode(tenantId, customerId, metricCode)
+                        .stream()
+                        .mapToLong(UsageAggregateDocument::getTotalQuantity)
+                        .sum());
+    }
+
+    private void incrementAggregate(UsageEventDocument document) {
+        if (usageMetricAggregations.isDistinct(document.getMetricCode())) {
+            mergeDistinct(List.of(document));
+            return;
+        }
+        if (usageMetricAggregations.isGauge(document.getMetricCode())) {
+            recordGauge(document);
+            return;
+        }
+        addQuantileSamples(List.of(document));
+        incrementDimensionRollups(List.of(document));
+        usageClosedPeriods.recordLate(List.of(document));
+        UsageAggregateKey key = aggregateKey(document);
+        recordHeavyHitter(document);
+        if (usageAggregateWriteBuffer.isEnabled()) {
+            usageAggregateWriteBuffer.add(key, document.getQuantity(), document.getOccurredAt());
+            return;
+        }
+        if (usageIngestionDispatcher.isEnabled()) {
+            usageIngestionDispatcher.apply(Map.of(key, document.getQuantity()),
+                    UsageAggregateWriter.rollupDeltas(key, document.getQuantity(), document.getOccurredAt()));
+            return;
+        }
+        usageAggregateWriter.increment(key, document.getQuantity(), document.getOccurredAt());
+    }
+
+    private void incrementAggregates(List<UsageEventDocument> inserted) {
+        List<UsageEventDocument> documents = new ArrayList<>(inserted.size());
+        List<UsageEventDocument> distinct = new ArrayList<>();
+        List<UsageEventDocument> gauges = new ArrayList<>();
+        for (UsageEventDocument document : inserted) {
+            switch (usageMetricAggregations.of(document.getMetricCode())) {
+                case DISTINCT -> distinct.add(document);
+                case GAUGE -> gauges.add(document);
+                default -> documents.add(document);
+            }
+        }
+        mergeDistinct(distinct);
+        // oldest first, so readings of one batch chain into intervals instead of arriving late
+        gauges.sort(Comparator.comparing(UsageEventDocument::getOccurredAt));
+        gauges.forEach(this::recordGauge);
+        addQuantileSamples(documents);
+        incrementDimensionRollups(documents);
+        usageClosedPeriods.recordLate(documents);
+        documents.forEach(this::recordHeavyHitter);
+        if (usageAggregateWriteBuffer.isEnabled()) {
+            documents.forEach(document -> usageAggregateWriteBuffer.add(
+                    aggregateKey(document), document.getQuantity(), document.getOccurredAt()));
+            return;
+        }
+
+        Map<UsageAggregateKey, Long> totals = new LinkedHashMap<>();
+        Map<UsageRollupKey, Long> rollups = new LinkedHashMap<>();
+        for (UsageEventDocument document : documents) {
+            UsageAggregateKey key = aggregateKey(document);
+            totals.merge(key, document.getQuantity(), Long::sum);
+            for (UsageRollupGranularity granularity : UsageRollupGranularity.values()) {
+                rollups.merge(UsageRollupKey.of(key, granularity, document.getOccurredAt()), document.getQuantity(), Long::sum);
+            }
+        }
+        if (usageIngestionDispatcher.isEnabled()) {
+            usageIngestionDispatcher.apply(totals, rollups);
+            return;
+        }
+        usageAggregateWriter.incrementAll(totals);
+        usageAggregateWriter.incrementRollups(rollups);
     }
 
-    private void incrementAggregate(UsageEventRequest request) {
-        Query query = Query.query(Criteria.where("tenantId").is(request.tenantId())
-                .and("customerId").is(request.customerId())
-                .and("metricCode").is(request.metricCode()));
+    private void mergeDistinct(List<UsageEventDocument> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        int precision = usageMetricAggregations.distinctPrecision();
+        Map<UsageAggregateKey, Map<Integer, Integer>> registers = new LinkedHashMap<>();
+        Map<UsageRollupKey, Map<Integer, Integer>> rollupRegisters = new LinkedHashMap<>();
+        for (UsageEventDocument document : documents) {
+            UsageAggregateKey key = aggregateKey(document);
+            long hash = UsageHyperLogLog.hash(document.getDistinctValue());
+            int index = UsageHyperLogLog.index(hash, precision);
+            int rank = UsageHyperLogLog.rank(hash, precision);
+            registers.computeIfAbsent(key, ignored -> new HashMap<>()).merge(index, rank, Math::max);
+            for (UsageRollupGranularity granularity : UsageRollupGranularity.values()) {
+                rollupRegisters.computeIfAbsent(UsageRollupKey.of(key, granularity, document.getOccurredAt()),
+                        ignored -> new HashMap<>()).merge(index, rank, Math::max);
+            }
+        }
+        usageAggregateWriter.mergeDistinct(registers, rollupRegisters, precision);
+    }
 
-        Update update = new Update()
-                .setOnInsert("tenantId", request.tenantId())
-                .setOnInsert("customerId", request.customerId())
-                .setOnInsert("metricCode", request.metricCode())
-                .inc("totalQuantity", request.quantity())
-                .set("updatedAt", Instant.now());
+    private void addQuantileSamples(List<UsageEventDocument> documents) {
+        double accuracy = usageMetricAggregations.percentileAccuracy();
+        double gamma = UsageQuantileSketch.gamma(accuracy);
+        Map<UsageAggregateKey, Map<Integer, Long>> buckets = new LinkedHashMap<>();
+        Map<UsageRollupKey, Map<Integer, Long>> rollupBuckets = new LinkedHashMap<>();
+        for (UsageEventDocument document : documents) {
+            if (!usageMetricAggregations.isPercentile(document.getMetricCode())) {
+                continue;
+            }
+            UsageAggregateKey key = aggregateKey(document);
+            int index = UsageQuantileSketch.index(document.getQuantity(), gamma);
+            buckets.computeIfAbsent(key, ignored -> new HashMap<>()).merge(index, 1L, Long::sum);
+            for (UsageRollupGranularity granularity : UsageRollupGranularity.values()) {
+                rollupBuckets.computeIfAbsent(UsageRollupKey.of(key, granularity, document.getOccurredAt()),
+                        ignored -> new HashMap<>()).merge(index, 1L, Long::sum);
+            }
+        }
+        if (!buckets.isEmpty()) {
+            usageAggregateWriter.addSamples(buckets, rollupBuckets, accuracy);
+        }
+    }
 
-        mongoTemplate.upsert(query, update, UsageAggregateDocument.class);
+    private void incrementDimensionRollups(List<UsageEventDocument> documents) {
+        Map<UsageDimensionRollupKey, Long> deltas = new LinkedHashMap<>();
+        for (UsageEventDocument document : documents) {
+            if (document.getDimensions() == null) {
+                continue;
+            }
+            document.getDimensions().forEach((dimension, code) -> {
+                for (UsageRollupGranularity granularity : UsageRollupGranularity.values()) {
+                    deltas.merge(new UsageDimensionRollupKey(document.getTenantId(), document.getCustomerId(),
+                            document.getMetricCode(), dimension, code, granularity,
+                            granularity.bucketStart(document.getOccurredAt())), document.getQuantity(), Long::sum);
+                }
+            });
+        }
+        usageAggregateWriter.incrementDimensionRollups(deltas);
+    }
+
+    private void recordGauge(UsageEventDocument document) {
+        if (!usageAggregateWriter.recordGauge(aggregateKey(document), document.getQuantity(), document.getOccurredAt())) {
+            // kept as an event, but a reading older than the last one cannot reopen an interval already credited
+            Metrics.counter("platform.usage.gauge.late.readings").increment();
+        }
+    }
+
+    private void recordHeavyHitter(UsageEventDocument document) {
+        usageHeavyHitters.record(document.getTenantId(), document.getMetricCode(), document.getCustomerId(),
+                document.getQuantity());
+    }
+
+    private UsageEventDocument findExisting(String tenantId, String idempotencyKey, List<String> collections) {
+        if (usageEventPartitions.isEnabled()) {
+            Criteria criteria = hashedKeys
+                    ? withLegacyKeys(Criteria.where("idempotencyHash").is(UsageIdempotencyHash.of(tenantId, idempotencyKey)),
+                            legacyKey(tenantId, idempotencyKey))
+                    : legacyKey(tenantId, idempotencyKey);
+            return first(usageEventPartitions.findInDedupeWindow(criteria, collections));
+        }
+        if (hashedKeys) {
+            return mongoTemplate.findOne(
+                    Query.query(Criteria.where("idempotencyHash").is(UsageIdempotencyHash.of(tenantId, idempotencyKey))),
+                    UsageEventDocument.class);
+        }
+        return usageEventRepository.findByTenantIdAndIdempotencyKey(tenantId, idempotencyKey).orElse(null);
+    }
+
+    private List<String> dedupeCollections(Instant receivedAt) {
+        return usageEventPartitions.dedupeCollections(receivedAt);
+    }
+
+    // the partitions of the window other than the one being written, whose unique index catches its own duplicates
+    private List<String> olderDedupeCollections(Instant receivedAt) {
+        List<String> collections = usageEventPartitions.dedupeCollections(receivedAt);
+        return collections.subList(1, collections.size());
+    }
+
+    // partitions written before hashed mode hold events without a hash until the backfill has walked them, so their
+    // keys are matched as stored meanwhile; the legacy index those partitions still carry serves that branch
+    private Criteria withLegacyKeys(Criteria hashed, Criteria legacy) {
+        return usageIdempotencyKeyMigration.isBackfilled() ? hashed : new Criteria().orOperator(hashed, legacy);
+    }
+
+    private static Criteria legacyKey(String tenantId, String idempotencyKey) {
+        return Criteria.where("tenantId").is(tenantId).and("idempotencyKey").is(idempotencyKey);
+    }
+
+    private static UsageEventDocument first(List<UsageEventDocument> documents) {
+        return documents.isEmpty() ? null : documents.get(0);
+    }
+
+    private static UsageAggregateKey aggregateKey(UsageEventDocument document) {
+        return new UsageAggregateKey(document.getTenantId(), document.getCustomerId(), document.getMetricCode());
+    }
+
+    private Set<EventKey> findExistingKeys(List<EventKey> eventKeys, List<String> collections) {
+        Map<String, Set<String>> keysByTenant = new LinkedHashMap<>();
+        for (EventKey eventKey : eventKeys) {
+            keysByTenant.computeIfAbsent(eventKey.tenantId(), tenantId -> new HashSet<>()).add(eventKey.idempotencyKey());
+        }
+        if (keysByTenant.isEmpty() || collections.isEmpty()) {
+            return new HashSet<>();
+        }
+        Criteria[] tenantCriteria = keysByTenant.entrySet().stream()
+                .map(entry -> Criteria.where("tenantId").is(entry.getKey()).and("idempotencyKey").in(entry.getValue()))
+                .toArray(Criteria[]::new);
+        Criteria legacy = tenantCriteria.length == 1 ? tenantCriteria[0] : new Criteria().orOperator(tenantCriteria);
+        if (hashedKeys) {
+            List<byte[]> hashes = new ArrayList<>();
+            keysByTenant.forEach((tenantId, keys) -> keys.forEach(key -> hashes.add(UsageIdempotencyHash.of(tenantId, key))));
+            return existingKeys(withLegacyKeys(Criteria.where("idempotencyHash").in(hashes), legacy), collections);
+        }
+        return existingKeys(legacy, collections);
+    }
+
+    private Set<EventKey> existingKeys(Criteria criteria, List<String> collections) {
+        List<UsageEventDocument> documents;
+        if (usageEventPartitions.isEnabled()) {
+            documents = usageEventPartitions.findInDedupeWindow(criteria, collections, "tenantId", "idempotencyKey");
+        } else {
+            Query query = Query.query(criteria);
+            query.fields().include("tenantId").include("idempotencyKey");
+            documents = mongoTemplate.find(query, UsageEventDocument.class);
+        }
+
+        Set<EventKey> existing = new HashSet<>();
+        for (UsageEventDocument document : documents) {
+            existing.add(new EventKey(document.getTenantId(), document.getIdempotencyKey()));
+        }
+        return existing;
+    }
+
+    private Set<Integer> insertUnordered(List<UsageEventDocument> documents) {
+        if (documents.isEmpty()) {
+            return Set.of();
+        }
+        if (!usageEventPartitions.isEnabled()) {
+            return insertUnordered(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class),
+                    documents);
+        }
+        // logged events keep their receipt time, so a drained batch can straddle a month boundary
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            positions.computeIfAbsent(usageEventPartitions.writeCollection(documents.get(i).getReceivedAt()),
+                    collection -> new ArrayList<>()).add(i);
+        }
+        Set<Integer> duplicates = new HashSet<>();
+        positions.forEach((collection, indexes) -> {
+            Set<Integer> rejected = insertUnordered(
+                    mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class, collection),
+                    indexes.stream().map(documents::get).toList());
+            rejected.forEach(index -> duplicates.add(indexes.get(index)));
+        });
+        return duplicates;
+    }
+
+    private static Set<Integer> insertUnordered(BulkOperations operations, List<UsageEventDocument> documents) {
+        try {
+            operations.insert(documents).execute();
+            return Set.of();
+        } catch (BulkOperationException bulkOperationException) {
+            Set<Integer> duplicates = new HashSet<>();
+            for (BulkWriteError error : bulkOperationException.getErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw bulkOperationException;
+                }
+                duplicates.add(error.getIndex());
+            }
+            return duplicates;
+        }
+    }
+
+    private UsageEventDocument toDocument(UsageEventRequest request, Instant receivedAt) {
+        Instant eventTime = request.occurredAt() == null ? receivedAt : request.occurredAt();
+        UsageEventDocument document = new UsageEventDocument();
+        document.setTenantId(request.tenantId());
+        document.setCustomerId(request.customerId());
+        document.setIdempotencyKey(request.idempotencyKey());
+        if (hashedKeys) {
+            document.setIdempotencyHash(UsageIdempotencyHash.of(request.tenantId(), request.idempotencyKey()));
+        }
+        document.setMetricCode(request.metricCode());
+        document.setQuantity(request.quantity());
+        document.setDistinctValue(request.distinctValue());
+        document.setDimensions(usageDimensionDictionary.encode(request.tenantId(), request.dimensions()));
+        document.setOccurredAt(eventTime);
+        document.setReceivedAt(receivedAt);
+        return document;
     }
 
     private UsageEvent toDomain(UsageEventDocument document) {
@@ -92,4 +553,7 @@ public class UsageIngestionService {
                 document.getOccurredAt()
         );
     }
+
+    private record EventKey(String tenantId, String idempotencyKey) {
+    }
 }
@@ -0,0 +1,41 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.persistence.UsageJobLeaseDocument;
+import java.time.Instant;
+import java.util.UUID;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+// single-runner guard for scheduled maintenance jobs that every replica schedules
+@Component
+public class UsageJobLeases {
+    private final MongoTemplate mongoTemplate;
+    private final String ownerId = UUID.randomUUID().toString();
+
+    public UsageJobLeases(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // acquires a free or expired lease, or extends one this replica already holds
+    public boolean tryAcquire(String job, long leaseMs) {
+        Instant now = Instant.now();
+        Query query = Query.query(Criteria.where("_id").is(job)
+                .orOperator(Criteria.where("leaseUntil").lt(now), Criteria.where("ownerId").is(ownerId)));
+        try {
+            mongoTemplate.upsert(query, new Update().set("ownerId", ownerId).set("leaseUntil", now.plusMillis(leaseMs)),
+                    UsageJobLeaseDocument.class);
+            return true;
+        } catch (DuplicateKeyException duplicateKeyException) {
+            return false;
+        }
+    }
+
+    public void release(String job) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(job).and("ownerId").is(ownerId)),
+                new Update().set("leaseUntil", Instant.EPOCH), UsageJobLeaseDocument.class);
+    }
+}
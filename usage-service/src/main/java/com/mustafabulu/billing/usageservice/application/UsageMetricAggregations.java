@@ -0,0 +1,104 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregation;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// metrics are SUM unless listed as DISTINCT, PERCENTILE or GAUGE; a DISTINCT metric counts unique distinctValues per
+// period with HyperLogLog, a PERCENTILE metric keeps its sum and also a quantile sketch of the individual event quantities,
+// a GAUGE metric treats quantities as readings of a level and totals the level integrated over time (e.g. GB-hours)
+@Component
+public class UsageMetricAggregations {
+    private final Set<String> distinctMetrics;
+    private final int distinctPrecision;
+    private final Set<String> percentileMetrics;
+    private final double percentileAccuracy;
+    private final Set<String> gaugeMetrics;
+    private final long gaugeUnitMillis;
+
+    public UsageMetricAggregations(@Value("${platform.usage.metrics.distinct:}") String distinctMetrics,
+                                   @Value("${platform.usage.distinct.relative-error:0.02}") double relativeError,
+                                   @Value("${platform.usage.metrics.percentile:}") String percentileMetrics,
+                                   @Value("${platform.usage.percentile.relative-accuracy:0.01}") double relativeAccuracy,
+                                   @Value("${platform.usage.metrics.gauge:}") String gaugeMetrics,
+                                   @Value("${platform.usage.gauge.time-unit:PT1H}") Duration gaugeTimeUnit) {
+        this.distinctMetrics = metricSet(distinctMetrics);
+        this.distinctPrecision = UsageHyperLogLog.precisionFor(relativeError);
+        this.percentileMetrics = metricSet(percentileMetrics);
+        this.percentileAccuracy = UsageQuantileSketch.accuracyFor(relativeAccuracy);
+        this.gaugeMetrics = metricSet(gaugeMetrics);
+        this.gaugeUnitMillis = Math.max(gaugeTimeUnit.toMillis(), 1L);
+    }
+
+    public UsageAggregation of(String metricCode) {
+        if (distinctMetrics.contains(metricCode)) {
+            return UsageAggregation.DISTINCT;
+        }
+        if (percentileMetrics.contains(metricCode)) {
+            return UsageAggregation.PERCENTILE;
+        }
+        return gaugeMetrics.contains(metricCode) ? UsageAggregation.GAUGE : UsageAggregation.SUM;
+    }
+
+    // totalQuantity of the aggregates is the sum of the event quantities
+    public boolean isSummed(String metricCode) {
+        UsageAggregation aggregation = of(metricCode);
+        return aggregation == UsageAggregation.SUM || aggregation == UsageAggregation.PERCENTILE;
+    }
+
+    public boolean isDistinct(String metricCode) {
+        return of(metricCode) == UsageAggregation.DISTINCT;
+    }
+
+    public boolean isPercentile(String metricCode) {
+        return of(metricCode) == UsageAggregation.PERCENTILE;
+    }
+
+    public double percentileAccuracy() {
+        return percentileAccuracy;
+    }
+
+    public boolean isGauge(String metricCode) {
+        return of(metricCode) == UsageAggregation.GAUGE;
+    }
+
+    // gauge totals are reported in value x this unit, e.g. GB-hours for GB readings
+    public long gaugeUnitMillis() {
+        return gaugeUnitMillis;
+    }
+
+    public Set<String> distinctMetrics() {
+        return distinctMetrics;
+    }
+
+    public Set<String> gaugeMetrics() {
+        return gaugeMetrics;
+    }
+
+    public int distinctPrecision() {
+        return distinctPrecision;
+    }
+
+    public void validate(String metricCode, String distinctValue, Map<String, String> dimensions) {
+        if (isDistinct(metricCode) && (distinctValue == null || distinctValue.isBlank())) {
+            throw new DomainValidationException("distinctValue is required for DISTINCT metric " + metricCode);
+        }
+        // dimension rollups are sums, which unique counts and gauge readings are not
+        if (dimensions != null && !dimensions.isEmpty() && !isSummed(metricCode)) {
+            throw new DomainValidationException("dimensions are only supported for SUM and PERCENTILE metrics: " + metricCode);
+        }
+    }
+
+    private static Set<String> metricSet(String metrics) {
+        return Arrays.stream(metrics.split(","))
+                .map(String::trim)
+                .filter(metric -> !metric.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
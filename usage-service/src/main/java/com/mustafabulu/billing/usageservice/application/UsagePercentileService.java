@@ -0,0 +1,81 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsagePercentilesResult;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsagePercentileService {
+    private final MongoTemplate mongoTemplate;
+    private final UsageRollupService usageRollupService;
+    private final UsageMetricAggregations usageMetricAggregations;
+
+    public UsagePercentileService(MongoTemplate mongoTemplate,
+                                  UsageRollupService usageRollupService,
+                                  UsageMetricAggregations usageMetricAggregations) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageRollupService = usageRollupService;
+        this.usageMetricAggregations = usageMetricAggregations;
+    }
+
+    public UsagePercentilesResult percentiles(String tenantId,
+                                              String customerId,
+                                              String metricCode,
+                                              List<Double> percentiles,
+                                              Instant from,
+                                              Instant to) {
+        if (!usageMetricAggregations.isPercentile(metricCode)) {
+            throw new DomainValidationException("metric " + metricCode + " is not a PERCENTILE metric");
+        }
+        for (double percentile : percentiles) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new DomainValidationException("percentiles must be greater than 0 and at most 100");
+            }
+        }
+
+        List<Map<String, Map<String, Long>>> sketches = new ArrayList<>();
+        if (from == null && to == null) {
+            Query query = Query.query(Criteria.where("tenantId").is(tenantId)
+                    .and("customerId").is(customerId)
+                    .and("metricCode").is(metricCode));
+            query.fields().include("quantileBuckets");
+            for (UsageAggregateDocument document : mongoTemplate.find(query, UsageAggregateDocument.class)) {
+                addSketch(sketches, document.getQuantileBuckets());
+            }
+        } else {
+            Query query = usageRollupService.periodQuery(tenantId, customerId, metricCode, from, to);
+            if (query != null) {
+                query.fields().include("quantileBuckets");
+                for (UsageRollupDocument document : mongoTemplate.find(query, UsageRollupDocument.class)) {
+                    addSketch(sketches, document.getQuantileBuckets());
+                }
+            }
+        }
+
+        UsageQuantileSketch.Merged merged = UsageQuantileSketch.merge(sketches);
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (double percentile : percentiles) {
+            values.put("p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(),
+                    merged.quantile(percentile / 100));
+        }
+        double accuracy = sketches.isEmpty() ? usageMetricAggregations.percentileAccuracy() : merged.accuracy();
+        return new UsagePercentilesResult(tenantId, customerId, metricCode, from, to, merged.samples(), accuracy, values);
+    }
+
+    private static void addSketch(List<Map<String, Map<String, Long>>> sketches, Map<String, Map<String, Long>> sketch) {
+        if (sketch != null && !sketch.isEmpty()) {
+            sketches.add(sketch);
+        }
+    }
+}
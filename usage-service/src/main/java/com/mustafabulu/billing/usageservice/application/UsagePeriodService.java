@@ -0,0 +1,357 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.ConflictException;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.api.dto.UsagePeriodCloseRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsagePeriod;
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodStatus;
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodTotal;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageArchiveSegmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodAdjustmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodSnapshotDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.LiteralOperators;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+// closing a period freezes per customer/metric totals into usage_period_snapshots. Events received before the cutoff
+// are in the snapshot, later ones are adjustments; the cutoff is set one close delay ahead so every replica knows the
+// period before it passes, and the snapshot is taken one settle delay after it so in-flight inserts have landed.
+@Service
+public class UsagePeriodService {
+    private static final Logger log = LoggerFactory.getLogger(UsagePeriodService.class);
+    private static final String RECOVERY_JOB = "usage-period-recovery";
+
+    private final MongoTemplate mongoTemplate;
+    private final UsagePeriodRepository usagePeriodRepository;
+    private final UsageRollupService usageRollupService;
+    private final UsageMetricAggregations usageMetricAggregations;
+    private final UsageEventPartitions usageEventPartitions;
+    private final UsageClosedPeriods usageClosedPeriods;
+    private final UsageJobLeases usageJobLeases;
+    private final ScheduledExecutorService closer;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    @Value("${platform.usage.periods.close-delay-ms:60000}")
+    private long closeDelayMs;
+
+    @Value("${platform.usage.periods.settle-delay-ms:30000}")
+    private long settleDelayMs;
+
+    @Value("${platform.usage.periods.recovery-lease-ms:300000}")
+    private long recoveryLeaseMs;
+
+    public UsagePeriodService(MongoTemplate mongoTemplate,
+                              UsagePeriodRepository usagePeriodRepository,
+                              UsageRollupService usageRollupService,
+                              UsageMetricAggregations usageMetricAggregations,
+                              UsageEventPartitions usageEventPartitions,
+                              UsageClosedPeriods usageClosedPeriods,
+                              UsageJobLeases usageJobLeases,
+                              @Value("${platform.usage.periods.parallelism:2}") int parallelism) {
+        this.mongoTemplate = mongoTemplate;
+        this.usagePeriodRepository = usagePeriodRepository;
+        this.usageRollupService = usageRollupService;
+        this.usageMetricAggregations = usageMetricAggregations;
+        this.usageEventPartitions = usageEventPartitions;
+        this.usageClosedPeriods = usageClosedPeriods;
+        this.usageJobLeases = usageJobLeases;
+        this.closer = Executors.newScheduledThreadPool(Math.max(parallelism, 1));
+    }
+
+    // closing the same period again returns it, and resumes the snapshot if an earlier attempt did not finish
+    public UsagePeriod close(UsagePeriodCloseRequest request) {
+        if (!usageClosedPeriods.isEnabled()) {
+            throw new DomainValidationException("usage period close is disabled");
+        }
+        usageRollupService.validateRange(request.from(), request.to());
+        if (request.to().isAfter(Instant.now())) {
+            throw new DomainValidationException("period has not ended yet");
+        }
+        UsagePeriodDocument period = findOrCreate(request);
+        if (period.getStatus() == UsagePeriodStatus.CLOSING) {
+            schedule(period);
+        }
+        return toDomain(period);
+    }
+
+    public UsagePeriod getById(String periodId) {
+        return usagePeriodRepository.findById(periodId).map(UsagePeriodService::toDomain).orElse(null);
+    }
+
+    // frozen totals of one customer, with the late events received after the close next to them
+    public List<UsagePeriodTotal> totals(String periodId, String customerId) {
+        UsagePeriodDocument period = usagePeriodRepository.findById(periodId).orElse(null);
+        if (period == null) {
+            return null;
+        }
+        if (period.getStatus() != UsagePeriodStatus.CLOSED) {
+            throw new ConflictException("Usage period is not closed yet: " + periodId);
+        }
+        Query query = Query.query(Criteria.where("periodId").is(periodId).and("customerId").is(customerId));
+        Map<String, long[]> totals = new TreeMap<>();
+        for (UsagePeriodSnapshotDocument snapshot : mongoTemplate.find(query, UsagePeriodSnapshotDocument.class)) {
+            totals.computeIfAbsent(snapshot.getMetricCode(), ignored -> new long[2])[0] = snapshot.getQuantity();
+        }
+        for (UsagePeriodAdjustmentDocument adjustment : mongoTemplate.find(query, UsagePeriodAdjustmentDocument.class)) {
+            totals.computeIfAbsent(adjustment.getMetricCode(), ignored -> new long[2])[1] = adjustment.getQuantity();
+        }
+        List<UsagePeriodTotal> result = new ArrayList<>(totals.size());
+        totals.forEach((metricCode, total) -> result.add(new UsagePeriodTotal(metricCode, total[0], total[1])));
+        return result;
+    }
+
+    // a close is only scheduled in memory on the replica that took the request, so one lost to a restart or a crash
+    // stays CLOSING; the leased sweep finishes those whose settle delay has passed. Both snapshot steps keep what an
+    // earlier attempt wrote, so a sweep overlapping the replica's own close only repeats work.
+    @Scheduled(fixedDelayString = "${platform.usage.periods.recovery-interval-ms:60000}")
+    public void recoverClosing() {
+        if (!usageClosedPeriods.isEnabled()) {
+            return;
+        }
+        if (!usageJobLeases.tryAcquire(RECOVERY_JOB, recoveryLeaseMs)) {
+            return;
+        }
+        try {
+            Instant settledCutoff = Instant.now().minusMillis(Math.max(settleDelayMs, 0));
+            for (UsagePeriodDocument period : usagePeriodRepository.findAllByStatusAndCutoffLessThan(
+                    UsagePeriodStatus.CLOSING, settledCutoff)) {
+                if (inFlight.add(period.getId())) {
+                    log.info("usage_period_close_recovered periodId={} cutoff={}", period.getId(), period.getCutoff());
+                    execute(period.getId());
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.error("usage_period_recovery_failed error={}", ex.getMessage(), ex);
+        } finally {
+            usageJobLeases.release(RECOVERY_JOB);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closer.shutdownNow();
+    }
+
+    private UsagePeriodDocument findOrCreate(UsagePeriodCloseRequest request) {
+        List<UsagePeriodDocument> overlapping = usagePeriodRepository.findAllByTenantIdAndFromLessThanAndToGreaterThan(
+                request.tenantId(), request.to(), request.from());
+        for (UsagePeriodDocument period : overlapping) {
+            if (period.getFrom().equals(request.from()) && period.getTo().equals(request.to())) {
+                return period;
+            }
+        }
+        if (!overlapping.isEmpty()) {
+            throw new ConflictException("Usage period overlaps period " + overlapping.get(0).getId());
+        }
+
+        Instant now = Instant.now();
+        UsagePeriodDocument period = new UsagePeriodDocument();
+        period.setId("period-" + UUID.randomUUID());
+        period.setTenantId(request.tenantId());
+        period.setFrom(request.from());
+        period.setTo(request.to());
+        period.setStatus(UsagePeriodStatus.CLOSING);
+        period.setCutoff(now.plusMillis(Math.max(closeDelayMs, 0)));
+        period.setRequestedAt(now);
+        try {
+            period = mongoTemplate.insert(period);
+        } catch (DuplicateKeyException duplicateKeyException) {
+            // closed concurrently by another request
+            return findOrCreate(request);
+        }
+        usageClosedPeriods.refresh();
+        log.info("usage_period_closing periodId={} tenantId={} from={} to={} cutoff={}",
+                period.getId(), period.getTenantId(), period.getFrom(), period.getTo(), period.getCutoff());
+        return period;
+    }
+
+    private void schedule(UsagePeriodDocument period) {
+        if (!inFlight.add(period.getId())) {
+            return;
+        }
+        long delayMs = period.getCutoff().toEpochMilli() + Math.max(settleDelayMs, 0) - System.currentTimeMillis();
+        closer.schedule(() -> execute(period.getId()), Math.max(delayMs, 0), TimeUnit.MILLISECONDS);
+    }
+
+    void execute(String periodId) {
+        try {
+            UsagePeriodDocument period = usagePeriodRepository.findById(periodId).orElse(null);
+            if (period == null || period.getStatus() == UsagePeriodStatus.CLOSED) {
+                return;
+            }
+            snapshotSummed(period);
+            snapshotEstimated(period);
+            Query snapshots = Query.query(Criteria.where("periodId").is(periodId));
+            long keys = mongoTemplate.count(snapshots, UsagePeriodSnapshotDocument.class);
+            Instant now = Instant.now();
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(periodId)), new Update()
+                            .set("status", UsagePeriodStatus.CLOSED)
+                            .set("snapshotKeys", keys)
+                            .unset("error")
+                            .set("closedAt", now),
+                    UsagePeriodDocument.class);
+            usageClosedPeriods.refresh();
+            log.info("usage_period_closed periodId={} tenantId={} keys={}", periodId, period.getTenantId(), keys);
+        } catch (RuntimeException ex) {
+            log.error("usage_period_close_failed periodId={} error={}", periodId, ex.getMessage(), ex);
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(periodId)),
+                    new Update().set("error", ex.getMessage()), UsagePeriodDocument.class);
+        } finally {
+            inFlight.remove(periodId);
+        }
+    }
+
+    // one pipeline over every event partition, the archived segments and the compacted buckets, grouped and written by
+    // the server. Existing snapshot documents are kept as they are, so a resumed close cannot change what an earlier
+    // attempt froze.
+    private void snapshotSummed(UsagePeriodDocument period) {
+        Criteria events = Criteria.where("tenantId").is(period.getTenantId())
+                .and("occurredAt").gte(period.getFrom()).lt(period.getTo())
+                .and("receivedAt").lt(period.getCutoff())
+                .and("metricCode").nin(estimatedMetrics());
+        List<String> collections = usageEventPartitions.all();
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(events));
+        for (String collection : collections.subList(1, collections.size())) {
+            stages.add(UnionWithOperation.unionWith(collection).pipeline(Aggregation.match(events)));
+        }
+        // whole archived days only; the events of a segment not yet deleted are still counted above
+        stages.add(UnionWithOperation.unionWith(mongoTemplate.getCollectionName(UsageArchiveSegmentDocument.class))
+                .pipeline(
+                        Aggregation.match(Criteria.where("tenantId").is(period.getTenantId())
+                                .and("eventsDeleted").is(true)
+                                .and("fromOccurredAt").gte(period.getFrom())
+                                .and("toOccurredAt").lt(period.getTo())),
+                        Aggregation.unwind("totals"),
+                        Aggregation.project("tenantId")
+                                .and("totals.customerId").as("customerId")
+                                .and("totals.metricCode").as("metricCode")
+                                .and("totals.quantity").as("quantity"),
+                        Aggregation.match(Criteria.where("metricCode").nin(estimatedMetrics()))));
+        // buckets keep the event field names, with the receipt of their latest event standing in for receivedAt
+        stages.add(UnionWithOperation.unionWith(mongoTemplate.getCollectionName(UsageEventBucketDocument.class))
+                .pipeline(Aggregation.match(Criteria.where("tenantId").is(period.getTenantId())
+                        .and("occurredAt").gte(period.getFrom()).lt(period.getTo())
+                        .and("lastReceivedAt").lt(period.getCutoff())
+                        .and("metricCode").nin(estimatedMetrics()))));
+        stages.add(Aggregation.group("customerId", "metricCode").sum("quantity").as("quantity"));
+        Instant now = Instant.now();
+        stages.add(Aggregation.project("customerId", "metricCode", "quantity")
+                .andExclude("_id")
+                .and(LiteralOperators.Literal.asLiteral(period.getId())).as("periodId")
+                .and(LiteralOperators.Literal.asLiteral(period.getTenantId())).as("tenantId")
+                .and(LiteralOperators.Literal.asLiteral(Date.from(now))).as("createdAt"));
+        stages.add(MergeOperation.builder()
+                .intoCollection(mongoTemplate.getCollectionName(UsagePeriodSnapshotDocument.class))
+                .on("periodId", "customerId", "metricCode")
+                .whenMatched(MergeOperation.WhenDocumentsMatch.keepExistingDocument())
+                .whenNotMatched(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                .build());
+
+        mongoTemplate.aggregate(Aggregation.newAggregation(stages)
+                        .withOptions(AggregationOptions.builder().allowDiskUse(true).build()),
+                collections.get(0), Document.class);
+    }
+
+    // DISTINCT and GAUGE totals are not sums of event quantities, so they are frozen from the rollups key by key
+    private void snapshotEstimated(UsagePeriodDocument period) {
+        Set<String> metrics = estimatedMetrics();
+        if (metrics.isEmpty()) {
+            return;
+        }
+        List<Criteria> ranges = UsageRollupService.bucketRanges(UsageRollupService.coveringBuckets(
+                period.getTenantId(), null, null, period.getFrom(), period.getTo()));
+        Criteria rollups = Criteria.where("tenantId").is(period.getTenantId()).and("metricCode").in(metrics);
+        rollups = ranges.size() == 1
+                ? rollups.andOperator(ranges.get(0))
+                : rollups.orOperator(ranges.toArray(Criteria[]::new));
+        Set<UsageAggregateKey> keys = new LinkedHashSet<>();
+        collectKeys(keys, period.getTenantId(), rollups, UsageRollupDocument.class);
+        // a gauge level set before the period and never changed during it has no rollup in the period
+        collectKeys(keys, period.getTenantId(), Criteria.where("tenantId").is(period.getTenantId())
+                .and("metricCode").in(metrics)
+                .and("gaugeAt").lt(period.getTo()), UsageAggregateDocument.class);
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        Instant now = Instant.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsagePeriodSnapshotDocument.class);
+        for (UsageAggregateKey key : keys) {
+            long quantity = usageRollupService.periodTotal(key.tenantId(), key.customerId(), key.metricCode(),
+                    period.getFrom(), period.getTo());
+            bulk.upsert(UsageClosedPeriods.periodKey(period.getId(), key.customerId(), key.metricCode()), new Update()
+                    .setOnInsert("tenantId", key.tenantId())
+                    .setOnInsert("quantity", quantity)
+                    .setOnInsert("createdAt", now));
+        }
+        bulk.execute();
+    }
+
+    private void collectKeys(Set<UsageAggregateKey> keys, String tenantId, Criteria criteria, Class<?> collection) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("customerId", "metricCode"));
+        for (Document row : mongoTemplate.aggregate(aggregation, collection, Document.class)) {
+            Document id = row.get("_id", Document.class);
+            keys.add(new UsageAggregateKey(tenantId, id.getString("customerId"), id.getString("metricCode")));
+        }
+    }
+
+    private Set<String> estimatedMetrics() {
+        Set<String> metrics = new LinkedHashSet<>(usageMetricAggregations.distinctMetrics());
+        metrics.addAll(usageMetricAggregations.gaugeMetrics());
+        return metrics;
+    }
+
+    private static UsagePeriod toDomain(UsagePeriodDocument document) {
+        return new UsagePeriod(
+                document.getId(),
+                document.getTenantId(),
+                document.getFrom(),
+                document.getTo(),
+                document.getStatus(),
+                document.getCutoff(),
+                document.getSnapshotKeys(),
+                document.getError(),
+                document.getRequestedAt(),
+                document.getClosedAt()
+        );
+    }
+}
@@ -0,0 +1,92 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// DDSketch over event quantities: bucket i counts samples in (gamma^(i-1), gamma^i], so every quantile comes back within
+// the relative accuracy and sketches merge by adding bucket counts, which MongoDB does with $inc
+final class UsageQuantileSketch {
+    // quantities are whole numbers, so value 1 lands in bucket 0 and -1 is free to count zero samples
+    static final int ZERO_BUCKET = -1;
+
+    private UsageQuantileSketch() {
+    }
+
+    static double accuracyFor(double relativeAccuracy) {
+        // stored under a basis-point key, so the accuracy is kept to whole basis points
+        return Math.round(Math.min(Math.max(relativeAccuracy, 0.0001), 0.5) * 10_000) / 10_000.0;
+    }
+
+    static String key(double accuracy) {
+        return String.valueOf(Math.round(accuracy * 10_000));
+    }
+
+    static double gamma(double accuracy) {
+        return (1 + accuracy) / (1 - accuracy);
+    }
+
+    static int index(long value, double gamma) {
+        return value <= 0 ? ZERO_BUCKET : (int) Math.ceil(Math.log(value) / Math.log(gamma));
+    }
+
+    static double value(int index, double gamma) {
+        return index == ZERO_BUCKET ? 0.0 : 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    // sketches as stored on aggregate/rollup documents (accuracy key -> bucket -> count); finer sketches are re-bucketed
+    // into the coarsest accuracy present, whose error bound then holds for the merged result
+    static Merged merge(Collection<Map<String, Map<String, Long>>> sketches) {
+        long coarsest = 0;
+        for (Map<String, Map<String, Long>> sketch : sketches) {
+            for (String stored : sketch.keySet()) {
+                coarsest = Math.max(coarsest, Long.parseLong(stored));
+            }
+        }
+        double accuracy = coarsest / 10_000.0;
+        NavigableMap<Integer, Long> counts = new TreeMap<>();
+        if (coarsest == 0) {
+            return new Merged(accuracy, counts);
+        }
+        double gamma = gamma(accuracy);
+        for (Map<String, Map<String, Long>> sketch : sketches) {
+            for (Map.Entry<String, Map<String, Long>> entry : sketch.entrySet()) {
+                double storedGamma = gamma(Long.parseLong(entry.getKey()) / 10_000.0);
+                entry.getValue().forEach((bucket, count) -> {
+                    int index = Integer.parseInt(bucket);
+                    int target = index == ZERO_BUCKET || storedGamma == gamma
+                            ? index
+                            : index(Math.round(value(index, storedGamma)), gamma);
+                    counts.merge(target, count, Long::sum);
+                });
+            }
+        }
+        return new Merged(accuracy, counts);
+    }
+
+    record Merged(double accuracy, NavigableMap<Integer, Long> counts) {
+
+        long samples() {
+            return counts.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        // lower quantile: the sample at rank floor(q * (n - 1)) of the sorted samples
+        long quantile(double quantile) {
+            long samples = samples();
+            if (samples == 0) {
+                return 0L;
+            }
+            double rank = quantile * (samples - 1);
+            double gamma = gamma(accuracy);
+            long seen = 0;
+            for (Map.Entry<Integer, Long> bucket : counts.entrySet()) {
+                seen += bucket.getValue();
+                if (seen > rank) {
+                    return Math.round(value(bucket.getKey(), gamma));
+                }
+            }
+            return Math.round(value(counts.lastKey(), gamma));
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.ConflictException;
+import com.mustafabulu.billing.usageservice.api.dto.UsageReconciliationRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationDiscrepancy;
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationRun;
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationStatus;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageArchiveSegmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import com.mustafabulu.billing.usageservice.persistence.UsagePartitionTotalsDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageReconciliationCheckpointDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageReconciliationRunDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageReconciliationRunRepository;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsageReconciliationService {
+    private static final Logger log = LoggerFactory.getLogger(UsageReconciliationService.class);
+    private static final String ACTIVE_SLOT = "active";
+    private static final int MAX_SAMPLES = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final UsageReconciliationRunRepository usageReconciliationRunRepository;
+    private final UsageAggregateWriter usageAggregateWriter;
+    private final UsageMetricAggregations usageMetricAggregations;
+    private final UsageEventPartitions usageEventPartitions;
+    private final String ownerId = UUID.randomUUID().toString();
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor();
+
+    @Value("${platform.usage.reconciliation.scheduled.enabled:false}")
+    private boolean scheduledEnabled;
+
+    @Value("${platform.usage.reconciliation.scheduled.repair:false}")
+    private boolean scheduledRepair;
+
+    @Value("${platform.usage.reconciliation.parallelism:2}")
+    private int parallelism;
+
+    @Value("${platform.usage.reconciliation.page-events:10000}")
+    private int pageEvents;
+
+    @Value("${platform.usage.reconciliation.max-events-per-second:50000}")
+    private long maxEventsPerSecond;
+
+    @Value("${platform.usage.reconciliation.confirm-delay-ms:5000}")
+    private long confirmDelayMs;
+
+    @Value("${platform.usage.reconciliation.lease-ms:120000}")
+    private long leaseMs;
+
+    public UsageReconciliationService(MongoTemplate mongoTemplate,
+                                      UsageReconciliationRunRepository usageReconciliationRunRepository,
+                                      UsageAggregateWriter usageAggregateWriter,
+                                      UsageMetricAggregations usageMetricAggregations,
+                                      UsageEventPartitions usageEventPartitions) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageReconciliationRunRepository = usageReconciliationRunRepository;
+        this.usageAggregateWriter = usageAggregateWriter;
+        this.usageMetricAggregations = usageMetricAggregations;
+        this.usageEventPartitions = usageEventPartitions;
+    }
+
+    public UsageReconciliationRun start(UsageReconciliationRequest request) {
+        UsageReconciliationRunDocument run = claimOrCreate(request);
+        coordinator.submit(() -> execute(run.getId()));
+        return toDomain(run);
+    }
+
+    public UsageReconciliationRun getById(String runId) {
+        return usageReconciliationRunRepository.findById(runId).map(this::toDomain).orElse(null);
+    }
+
+    @Scheduled(cron = "${platform.usage.reconciliation.scheduled.cron:0 30 3 * * *}")
+    public void scheduledRun() {
+        if (!scheduledEnabled) {
+            return;
+        }
+        try {
+            start(new UsageReconciliationRequest(scheduledRepair, List.of()));
+        } catch (ConflictException conflictException) {
+            log.info("usage_reconciliation_skipped reason={}", conflictException.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+    }
+
+    UsageReconciliationRunDocument claimOrCreate(UsageReconciliationRequest request) {
+        UsageReconciliationRunDocument active = usageReconciliationRunRepository
+                .findFirstByStatus(UsageReconciliationStatus.RUNNING)
+                .orElse(null);
+        if (active != null) {
+            // an abandoned run is resumed from its checkpoints instead of starting over
+            UsageReconciliationRunDocument claimed = claim(active.getId());
+            if (claimed == null) {
+                throw new ConflictException("Usage reconciliation already in progress: " + active.getId());
+            }
+            log.info("usage_reconciliation_resumed runId={}", claimed.getId());
+            return claimed;
+        }
+
+        Instant now = Instant.now();
+        UsageReconciliationRunDocument run = new UsageReconciliationRunDocument();
+        run.setId("recon-" + UUID.randomUUID());
+        run.setStatus(UsageReconciliationStatus.RUNNING);
+        run.setActiveSlot(ACTIVE_SLOT);
+        run.setRepair(request.repair());
+        run.setTenantIds(request.tenantIds() == null ? List.of() : List.copyOf(request.tenantIds()));
+        run.setOwnerId(ownerId);
+        run.setLeaseUntil(now.plusMillis(leaseMs));
+        run.setStartedAt(now);
+        run.setUpdatedAt(now);
+        try {
+            return mongoTemplate.insert(run);
+        } catch (DuplicateKeyException duplicateKeyException) {
+            throw new ConflictException("Usage reconciliation already in progress");
+        }
+    }
+
+    void execute(String runId) {
+        UsageReconciliationRunDocument run = usageReconciliationRunRepository.findById(runId).orElse(null);
+        if (run == null) {
+            return;
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(parallelism, 1));
+        try {
+            List<String> tenants = run.getTenantIds().isEmpty() ? distinctTenants() : run.getTenantIds();
+            mongoTemplate.updateFirst(ownedRun(runId), new Update().set("tenantsTotal", tenants.size()),
+                    UsageReconciliationRunDocument.class);
+
+            Throttle throttle = new Throttle(maxEventsPerSecond);
+            List<Future<?>> partitions = new ArrayList<>(tenants.size());
+            for (String tenantId : tenants) {
+                partitions.add(workers.submit(() -> {
+                    reconcileTenant(runId, run.isRepair(), tenantId, throttle);
+                    return null;
+                }));
+            }
+            for (Future<?> partition : partitions) {
+                partition.get();
+            }
+            finish(runId, UsageReconciliationStatus.COMPLETED, null);
+        } catch (ExecutionException executionException) {
+            if (executionException.getCause() instanceof LeaseLostException) {
+                log.warn("usage_reconciliation_lease_lost runId={}", runId);
+                return;
+            }
+            log.error("usage_reconciliation_failed runId={} error={}", runId,
+                    executionException.getCause().getMessage(), executionException.getCause());
+            finish(runId, UsageReconciliationStatus.FAILED, executionException.getCause().getMessage());
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            log.error("usage_reconciliation_failed runId={} error={}", runId, ex.getMessage(), ex);
+            finish(runId, UsageReconciliationStatus.FAILED, ex.getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void reconcileTenant(String runId, boolean repair, String tenantId, Throttle throttle)
+            throws InterruptedException {
+        String checkpointId = runId + ":" + tenantId;
+        UsageReconciliationCheckpointDocument checkpoint =
+                mongoTemplate.findById(checkpointId, UsageReconciliationCheckpointDocument.class);
+        if (checkpoint != null && checkpoint.isCompleted()) {
+            return;
+        }
+        String cursor = checkpoint == null ? null : checkpoint.getCursorCustomerId();
+
+        while (true) {
+            String bound = pageBound(tenantId, cursor);
+            Criteria range = customerRange(tenantId, cursor, bound);
+            PageTotals expected = eventTotals(range);
+            Map<UsageAggregateKey, Long> drift = drift(expected.totals(), aggregateTotals(range));
+
+            Map<UsageAggregateKey, UsageReconciliationDiscrepancy> confirmed = drift.isEmpty()
+                    ? Map.of()
+                    : confirm(tenantId, drift);
+            if (repair && !confirmed.isEmpty()) {
+                Map<UsageAggregateKey, Long> corrections = new LinkedHashMap<>();
+                confirmed.forEach((key, discrepancy) -> corrections.put(key, discrepancy.expected() - discrepancy.actual()));
+                usageAggregateWriter.incrementAll(corrections);
+            }
+
+            checkpoint(runId, checkpointId, tenantId, bound, expected, confirmed.values(), repair);
+            throttle.acquire(expected.events());
+            if (bound == null) {
+                return;
+            }
+            cursor = bound;
+        }
+    }
+
+    // upper customer bound of the next page: the customer of the page-events'th event after the cursor, inclusive.
+    // Across event partitions the lowest bound wins, so a page holds at most page-events events per partition.
+    private String pageBound(String tenantId, String cursor) {
+        Criteria criteria = Criteria.where("tenantId").is(tenantId);
+        if (cursor != null) {
+            criteria = criteria.and("customerId").gt(cursor);
+        }
+        Query query = Query.query(criteria)
+                .with(Sort.by("customerId"))
+                .skip(Math.max(pageEvents, 1) - 1L)
+                .limit(1);
+        query.fields().include("customerId");
+        String bound = null;
+        for (String collection : usageEventPartitions.all()) {
+            UsageEventDocument boundary = mongoTemplate.findOne(query, UsageEventDocument.class, collection);
+            if (boundary != null && (bound == null || boundary.getCustomerId().compareTo(bound) < 0)) {
+                bound = boundary.getCustomerId();
+            }
+        }
+        return bound;
+    }
+
+    private static Criteria customerRange(String tenantId, String cursor, String bound) {
+        Criteria criteria = Criteria.where("tenantId").is(tenantId);
+        if (cursor != null && bound != null) {
+            return criteria.and("customerId").gt(cursor).lte(bound);
+        }
+        if (cursor != null) {
+            return criteria.and("customerId").gt(cursor);
+        }
+        return bound == null ? criteria : criteria.and("customerId").lte(bound);
+    }
+
+    private PageTotals eventTotals(Criteria criteria) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("customerId", "metricCode").sum("quantity").as("total").count().as("events")
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        Map<UsageAggregateKey, Long> totals = new HashMap<>();
+        long events = 0L;
+        String tenantId = tenantOf(criteria);
+        for (String collection : usageEventPartitions.all()) {
+            for (Document row : mongoTemplate.aggregate(aggregation, collection, Document.class)) {
+                totals.merge(groupKey(tenantId, row), number(row, "total"), Long::sum);
+                events += number(row, "events");
+            }
+        }
+
+        // events moved to cold segments still count; each segment keeps its per customer/metric totals
+        Aggregation archived = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("tenantId").is(tenantId)),
+                Aggregation.unwind("totals"),
+                Aggregation.project("tenantId")
+                        .and("totals.customerId").as("customerId")
+                        .and("totals.metricCode").as("metricCode")
+                        .and("totals.quantity").as("quantity")
+                        .and("totals.events").as("events"),
+                Aggregation.match(criteria),
+                Aggregation.group("customerId", "metricCode").sum("quantity").as("total").sum("events").as("events")
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        for (Document row : mongoTemplate.aggregate(archived, UsageArchiveSegmentDocument.class, Document.class)) {
+            totals.merge(groupKey(tenantId, row), number(row, "total"), Long::sum);
+            events += number(row, "events");
+        }
+
+        // compacted minutes keep the sum and count of the events they replaced
+        Aggregation compacted = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("customerId", "metricCode").sum("quantity").as("total").sum("events").as("events")
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        for (Document row : mongoTemplate.aggregate(compacted, UsageEventBucketDocument.class, Document.class)) {
+            totals.merge(groupKey(tenantId, row), number(row, "total"), Long::sum);
+            events += number(row, "events");
+        }
+
+        // partitions and buckets dropped past retention leave their totals behind
+        for (Document row : mongoTemplate.aggregate(compacted, UsagePartitionTotalsDocument.class, Document.class)) {
+            totals.merge(groupKey(tenantId, row), number(row, "total"), Long::sum);
+            events += number(row, "events");
+        }
+        return new PageTotals(totals, events);
+    }
+
+    private Map<UsageAggregateKey, Long> aggregateTotals(Criteria criteria) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("customerId", "metricCode").sum("totalQuantity").as("total")
+        );
+
+        Map<UsageAggregateKey, Long> totals = new HashMap<>();
+        String tenantId = tenantOf(criteria);
+        for (Document row : mongoTemplate.aggregate(aggregation, UsageAggregateDocument.class, Document.class)) {
+            totals.put(groupKey(tenantId, row), number(row, "total"));
+        }
+        return totals;
+    }
+
+    private Map<UsageAggregateKey, Long> drift(Map<UsageAggregateKey, Long> expected,
+                                               Map<UsageAggregateKey, Long> actual) {
+        Set<UsageAggregateKey> keys = new HashSet<>(expected.keySet());
+        keys.addAll(actual.keySet());
+        Map<UsageAggregateKey, Long> drift = new LinkedHashMap<>();
+        for (UsageAggregateKey key : keys) {
+            // DISTINCT and GAUGE aggregates are not a sum of event quantities
+            if (!usageMetricAggregations.isSummed(key.metricCode())) {
+                continue;
+            }
+            long delta = expected.getOrDefault(key, 0L) - actual.getOrDefault(key, 0L);
+            if (delta != 0) {
+                drift.put(key, delta);
+            }
+        }
+        return drift;
+    }
+
+    // in-flight and write-behind increments show up as transient drift; only a delta that survives a re-check is real
+    private Map<UsageAggregateKey, UsageReconciliationDiscrepancy> confirm(String tenantId,
+                                                                           Map<UsageAggregateKey, Long> drift)
+            throws InterruptedException {
+        if (confirmDelayMs > 0) {
+            TimeUnit.MILLISECONDS.sleep(confirmDelayMs);
+        }
+        Set<String> customers = new HashSet<>();
+        drift.keySet().forEach(key -> customers.add(key.customerId()));
+        Criteria criteria = Criteria.where("tenantId").is(tenantId).and("customerId").in(customers);
+        Map<UsageAggregateKey, Long> expected = eventTotals(criteria).totals();
+        Map<UsageAggregateKey, Long> actual = aggregateTotals(criteria);
+
+        Map<UsageAggregateKey, UsageReconciliationDiscrepancy> confirmed = new LinkedHashMap<>();
+        drift.forEach((key, delta) -> {
+            long expectedTotal = expected.getOrDefault(key, 0L);
+            long actualTotal = actual.getOrDefault(key, 0L);
+            if (expectedTotal - actualTotal == delta) {
+                confirmed.put(key, new UsageReconciliationDiscrepancy(
+                        key.tenantId(), key.customerId(), key.metricCode(), expectedTotal, actualTotal));
+            }
+        });
+        return confirmed;
+    }
+
+    private void checkpoint(String runId,
+                            String checkpointId,
+                            String tenantId,
+                            String bound,
+                            PageTotals page,
+                            Collection<UsageReconciliationDiscrepancy> discrepancies,
+                            boolean repair) {
+        Instant now = Instant.now();
+        Update runUpdate = new Update()
+                .inc("eventsScanned", page.events())
+                .inc("keysChecked", page.totals().size())
+                .inc("discrepancies", discrepancies.size())
+                .set("leaseUntil", now.plusMillis(leaseMs))
+                .set("updatedAt", now);
+        if (repair) {
+            runUpdate.inc("repaired", discrepancies.size());
+        }
+        if (bound == null) {
+            runUpdate.inc("tenantsCompleted", 1);
+        }
+        if (!discrepancies.isEmpty()) {
+            runUpdate.push("samples").slice(MAX_SAMPLES).each(discrepancies.toArray());
+        }
+        if (mongoTemplate.updateFirst(ownedRun(runId), runUpdate, UsageReconciliationRunDocument.class)
+                .getMatchedCount() == 0) {
+            throw new LeaseLostException();
+        }
+
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(checkpointId)), new Update()
+                        .setOnInsert("runId", runId)
+                        .setOnInsert("tenantId", tenantId)
+                        .set("cursorCustomerId", bound)
+                        .set("completed", bound == null)
+                        .inc("eventsScanned", page.events())
+                        .set("updatedAt", now),
+                UsageReconciliationCheckpointDocument.class);
+
+        Metrics.counter("platform.usage.reconciliation.events.scanned").increment(page.events());
+        Metrics.counter("platform.usage.reconciliation.discrepancies").increment(discrepancies.size());
+        discrepancies.forEach(discrepancy -> log.warn(
+                "usage_reconciliation_discrepancy runId={} tenantId={} customerId={} metricCode={} expected={} actual={} repaired={}",
+                runId, discrepancy.tenantId(), discrepancy.customerId(), discrepancy.metricCode(),
+                discrepancy.expected(), discrepancy.actual(), repair));
+    }
+
+    private UsageReconciliationRunDocument claim(String runId) {
+        Instant now = Instant.now();
+        Query query = Query.query(Criteria.where("_id").is(runId)
+                .and("status").is(UsageReconciliationStatus.RUNNING)
+                .orOperator(Criteria.where("leaseUntil").lt(now), Criteria.where("ownerId").is(ownerId)));
+        return mongoTemplate.findAndModify(query,
+                new Update().set("ownerId", ownerId).set("leaseUntil", now.plusMillis(leaseMs)).set("updatedAt", now),
+                FindAndModifyOptions.options().returnNew(true),
+                UsageReconciliationRunDocument.class);
+    }
+
+    private void finish(String runId, UsageReconciliationStatus status, String error) {
+        Instant now = Instant.now();
+        mongoTemplate.updateFirst(ownedRun(runId), new Update()
+                        .set("status", status)
+                        .unset("activeSlot")
+                        .set("error", error)
+                        .set("finishedAt", now)
+                        .set("updatedAt", now),
+                UsageReconciliationRunDocument.class);
+        log.info("usage_reconciliation_finished runId={} status={}", runId, status);
+    }
+
+    private Query ownedRun(String runId) {
+        return Query.query(Criteria.where("_id").is(runId).and("ownerId").is(ownerId));
+    }
+
+    private List<String> distinctTenants() {
+        Set<String> tenants = new HashSet<>();
+        for (String collection : usageEventPartitions.all()) {
+            tenants.addAll(mongoTemplate.findDistinct(new Query(), "tenantId", collection, UsageEventDocument.class,
+                    String.class));
+        }
+        return tenants.stream().sorted().toList();
+    }
+
+    private static String tenantOf(Criteria criteria) {
+        return criteria.getCriteriaObject().getString("tenantId");
+    }
+
+    private static UsageAggregateKey groupKey(String tenantId, Document row) {
+        Document id = row.get("_id", Document.class);
+        return new UsageAggregateKey(tenantId, id.getString("customerId"), id.getString("metricCode"));
+    }
+
+    private static long number(Document row, String field) {
+        Object value = row.get(field);
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
+    private UsageReconciliationRun toDomain(UsageReconciliationRunDocument document) {
+        return new UsageReconciliationRun(
+                document.getId(),
+                document.getStatus(),
+                document.isRepair(),
+                document.getTenantIds(),
+                document.getTenantsTotal(),
+                document.getTenantsCompleted(),
+                document.getEventsScanned(),
+                document.getKeysChecked(),
+                document.getDiscrepancies(),
+                document.getRepaired(),
+                document.getSamples(),
+                document.getError(),
+                document.getStartedAt(),
+                document.getFinishedAt()
+        );
+    }
+
+    private record PageTotals(Map<UsageAggregateKey, Long> totals, long events) {
+    }
+
+    private static final class LeaseLostException extends RuntimeException {
+        private LeaseLostException() {
+            super("reconciliation lease lost");
+        }
+    }
+
+    // shared across partitions so the whole run stays under the configured scan rate
+    private static final class Throttle {
+        private final long nanosPerEvent;
+        private long nextFreeNanos = System.nanoTime();
+
+        private Throttle(long eventsPerSecond) {
+            this.nanosPerEvent = eventsPerSecond <= 0 ? 0L : Duration.ofSeconds(1).toNanos() / eventsPerSecond;
+        }
+
+        private void acquire(long events) throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFreeNanos);
+                nextFreeNanos = start + events * nanosPerEvent;
+                waitNanos = start - now;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
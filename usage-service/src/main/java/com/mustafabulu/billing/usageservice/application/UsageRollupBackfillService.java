@@ -0,0 +1,166 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupBackfillCheckpointDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.LiteralOperators;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+// rollups only count increments written since they were rolled out, so ranged totals over older buckets read 0 or a
+// part of the usage. This one-off job sums the events received before that epoch (and compacted buckets of them) into
+// hourly and daily rollups of their own shard, which ranged totals add to the live ones. A rerun after a crash keeps the
+// rollups already merged: each is complete, being grouped over every earlier event before any is written.
+// Distinct, percentile and gauge rollups cannot be rebuilt from summed quantities and are left as they are.
+@Service
+public class UsageRollupBackfillService {
+    private static final Logger log = LoggerFactory.getLogger(UsageRollupBackfillService.class);
+    private static final String JOB = "usage-rollup-backfill";
+    static final int BACKFILL_SHARD = -1;
+
+    private final MongoTemplate mongoTemplate;
+    private final UsageJobLeases usageJobLeases;
+    private final UsageEventPartitions usageEventPartitions;
+    private final UsageMetricAggregations usageMetricAggregations;
+
+    @Value("${platform.usage.rollup.backfill.enabled:false}")
+    private boolean enabled;
+
+    // rollout instant of the rollups when known; blank takes the creation time of the oldest rollup
+    @Value("${platform.usage.rollup.backfill.epoch:}")
+    private String configuredEpoch;
+
+    @Value("${platform.usage.rollup.backfill.lease-ms:3600000}")
+    private long leaseMs;
+
+    public UsageRollupBackfillService(MongoTemplate mongoTemplate,
+                                      UsageJobLeases usageJobLeases,
+                                      UsageEventPartitions usageEventPartitions,
+                                      UsageMetricAggregations usageMetricAggregations) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageJobLeases = usageJobLeases;
+        this.usageEventPartitions = usageEventPartitions;
+        this.usageMetricAggregations = usageMetricAggregations;
+    }
+
+    @Scheduled(fixedDelayString = "${platform.usage.rollup.backfill.interval-ms:600000}")
+    public void scheduledBackfill() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            backfill();
+        } catch (RuntimeException ex) {
+            log.error("usage_rollup_backfill_failed error={}", ex.getMessage(), ex);
+        }
+    }
+
+    boolean backfill() {
+        String checkpointId = mongoTemplate.getCollectionName(UsageRollupDocument.class);
+        UsageRollupBackfillCheckpointDocument checkpoint =
+                mongoTemplate.findById(checkpointId, UsageRollupBackfillCheckpointDocument.class);
+        if (checkpoint != null && checkpoint.isCompleted()) {
+            return false;
+        }
+        if (!usageJobLeases.tryAcquire(JOB, leaseMs)) {
+            log.info("usage_rollup_backfill_skipped reason=lease_held");
+            return false;
+        }
+        try {
+            Instant epoch = checkpoint != null && checkpoint.getEpoch() != null ? checkpoint.getEpoch() : epoch();
+            if (epoch == null) {
+                log.info("usage_rollup_backfill_skipped reason=no_rollups");
+                return false;
+            }
+            // the epoch is kept for reruns: the oldest rollup is a backfilled one once the first merge wrote any
+            Query checkpointQuery = Query.query(Criteria.where("_id").is(checkpointId));
+            mongoTemplate.upsert(checkpointQuery, new Update().setOnInsert("epoch", epoch).set("updatedAt", Instant.now()),
+                    UsageRollupBackfillCheckpointDocument.class);
+            for (UsageRollupGranularity granularity : UsageRollupGranularity.values()) {
+                mergeRollups(granularity, epoch);
+            }
+            mongoTemplate.upsert(checkpointQuery, new Update().set("completed", true).set("updatedAt", Instant.now()),
+                    UsageRollupBackfillCheckpointDocument.class);
+            log.info("usage_rollup_backfill_completed epoch={}", epoch);
+            return true;
+        } finally {
+            usageJobLeases.release(JOB);
+        }
+    }
+
+    private void mergeRollups(UsageRollupGranularity granularity, Instant epoch) {
+        Set<String> unsummed = new HashSet<>(usageMetricAggregations.distinctMetrics());
+        unsummed.addAll(usageMetricAggregations.gaugeMetrics());
+        Criteria received = Criteria.where("_id").lt(objectIdAt(epoch)).and("metricCode").nin(unsummed);
+        // a bucket holds one day of receipts, so it is only taken when all of them came before the epoch
+        Criteria compacted = Criteria.where("lastReceivedAt").lt(epoch).and("metricCode").nin(unsummed);
+
+        List<String> collections = usageEventPartitions.all();
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(received));
+        for (String collection : collections.subList(1, collections.size())) {
+            stages.add(UnionWithOperation.unionWith(collection).pipeline(Aggregation.match(received)));
+        }
+        stages.add(UnionWithOperation.unionWith(mongoTemplate.getCollectionName(UsageEventBucketDocument.class))
+                .pipeline(Aggregation.match(compacted)));
+        stages.add(Aggregation.project("tenantId", "customerId", "metricCode", "quantity")
+                .and(DateOperators.dateOf("occurredAt").truncate(granularity.name().toLowerCase(Locale.ROOT)))
+                .as("bucketStart"));
+        stages.add(Aggregation.group("tenantId", "customerId", "metricCode", "bucketStart")
+                .sum("quantity").as("totalQuantity"));
+        stages.add(Aggregation.project("tenantId", "customerId", "metricCode", "bucketStart", "totalQuantity")
+                .andExclude("_id")
+                .and(LiteralOperators.Literal.asLiteral(granularity.name())).as("granularity")
+                .and(LiteralOperators.Literal.asLiteral(BACKFILL_SHARD)).as("shard")
+                .and(LiteralOperators.Literal.asLiteral(new Date())).as("updatedAt"));
+        stages.add(MergeOperation.builder()
+                .intoCollection(mongoTemplate.getCollectionName(UsageRollupDocument.class))
+                .on("tenantId", "customerId", "metricCode", "granularity", "bucketStart", "shard")
+                .whenMatched(MergeOperation.WhenDocumentsMatch.keepExistingDocument())
+                .whenNotMatched(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                .build());
+        mongoTemplate.aggregate(Aggregation.newAggregation(stages)
+                        .withOptions(AggregationOptions.builder().allowDiskUse(true).build()),
+                collections.get(0), Document.class);
+    }
+
+    private Instant epoch() {
+        if (!configuredEpoch.isBlank()) {
+            return Instant.parse(configuredEpoch.trim());
+        }
+        Query oldest = new Query().with(Sort.by("_id")).limit(1);
+        oldest.fields().include("_id");
+        UsageRollupDocument first = mongoTemplate.findOne(oldest, UsageRollupDocument.class);
+        return first == null ? null : new ObjectId(first.getId()).getDate().toInstant();
+    }
+
+    // the lowest id created at that second, as a range bound
+    private static ObjectId objectIdAt(Instant instant) {
+        return new ObjectId("%08x0000000000000000".formatted(instant.getEpochSecond()));
+    }
+}
@@ -0,0 +1,193 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsageRollupService {
+    private final MongoTemplate mongoTemplate;
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer;
+    private final UsageMetricAggregations usageMetricAggregations;
+
+    @Value("${platform.usage.rollup.max-range-days:1096}")
+    private long maxRangeDays;
+
+    public UsageRollupService(MongoTemplate mongoTemplate,
+                              UsageAggregateWriteBuffer usageAggregateWriteBuffer,
+                              UsageMetricAggregations usageMetricAggregations) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageAggregateWriteBuffer = usageAggregateWriteBuffer;
+        this.usageMetricAggregations = usageMetricAggregations;
+    }
+
+    public long periodTotal(String tenantId, String customerId, String metricCode, Instant from, Instant to) {
+        validateRange(from, to);
+        List<UsageRollupKey> buckets = coveringBuckets(tenantId, customerId, metricCode, from, to);
+        if (usageMetricAggregations.isGauge(metricCode)) {
+            return gaugeTotal(tenantId, customerId, metricCode, buckets, from, to);
+        }
+        if (usageAggregateWriteBuffer.isEnabled() && usageMetricAggregations.isSummed(metricCode)) {
+            return usageAggregateWriteBuffer.rollupTotalWithPending(buckets,
+                    () -> persistedTotal(tenantId, customerId, metricCode, buckets));
+        }
+        return persistedTotal(tenantId, customerId, metricCode, buckets);
+    }
+
+    // rollup documents covering [from, to), or null when the range holds no bucket
+    Query periodQuery(String tenantId, String customerId, String metricCode, Instant from, Instant to) {
+        validateRange(from, to);
+        return bucketQuery(tenantId, customerId, metricCode, coveringBuckets(tenantId, customerId, metricCode, from, to));
+    }
+
+    static List<UsageRollupKey> coveringBuckets(String tenantId,
+                                                String customerId,
+                                                String metricCode,
+                                                Instant from,
+                                                Instant to) {
+        UsageRollupGranularity day = UsageRollupGranularity.DAY;
+        Instant firstFullDay = day.isAligned(from) ? from : day.nextBucket(day.bucketStart(from));
+        Instant fullDaysEnd = day.bucketStart(to);
+
+        List<UsageRollupKey> buckets = new ArrayList<>();
+        if (!firstFullDay.isBefore(fullDaysEnd)) {
+            addBuckets(buckets, tenantId, customerId, metricCode, UsageRollupGranularity.HOUR, from, to);
+            return buckets;
+        }
+        addBuckets(buckets, tenantId, customerId, metricCode, UsageRollupGranularity.HOUR, from, firstFullDay);
+        addBuckets(buckets, tenantId, customerId, metricCode, day, firstFullDay, fullDaysEnd);
+        addBuckets(buckets, tenantId, customerId, metricCode, UsageRollupGranularity.HOUR, fullDaysEnd, to);
+        return buckets;
+    }
+
+    private long persistedTotal(String tenantId, String customerId, String metricCode, List<UsageRollupKey> buckets) {
+        Query query = bucketQuery(tenantId, customerId, metricCode, buckets);
+        if (query == null) {
+            return 0L;
+        }
+        if (usageMetricAggregations.isDistinct(metricCode)) {
+            // unique values across buckets are the union of the bucket sketches, not their sum
+            query.fields().include("distinctRegisters");
+            List<Map<String, Map<String, Integer>>> sketches = new ArrayList<>();
+            for (UsageRollupDocument document : mongoTemplate.find(query, UsageRollupDocument.class)) {
+                if (document.getDistinctRegisters() != null) {
+                    sketches.add(document.getDistinctRegisters());
+                }
+            }
+            return UsageHyperLogLog.estimate(sketches);
+        }
+        query.fields().include("totalQuantity");
+
+        long total = 0L;
+        for (UsageRollupDocument document : mongoTemplate.find(query, UsageRollupDocument.class)) {
+            total += document.getTotalQuantity();
+        }
+        return total;
+    }
+
+    // closed intervals come from the rollups; the interval still open since the last reading is added up to to (or now)
+    private long gaugeTotal(String tenantId,
+                            String customerId,
+                            String metricCode,
+                            List<UsageRollupKey> buckets,
+                            Instant from,
+                            Instant to) {
+        BigDecimal area = BigDecimal.ZERO;
+        Query query = bucketQuery(tenantId, customerId, metricCode, buckets);
+        if (query != null) {
+            query.fields().include("gaugeArea");
+            for (UsageRollupDocument document : mongoTemplate.find(query, UsageRollupDocument.class)) {
+                area = area.add(document.getGaugeArea());
+            }
+        }
+        UsageAggregateDocument last = mongoTemplate.findOne(
+                UsageAggregateWriter.aggregateQuery(new UsageAggregateKey(tenantId, customerId, metricCode), null),
+                UsageAggregateDocument.class);
+        if (last != null && last.getGaugeAt() != null) {
+            Instant now = Instant.now();
+            Instant openFrom = last.getGaugeAt().isAfter(from) ? last.getGaugeAt() : from;
+            area = area.add(UsageGauges.area(last.getGaugeValue(), openFrom, to.isBefore(now) ? to : now));
+        }
+        return UsageGauges.inUnits(area, usageMetricAggregations.gaugeUnitMillis());
+    }
+
+    private static Query bucketQuery(String tenantId, String customerId, String metricCode, List<UsageRollupKey> buckets) {
+        List<Criteria> ranges = bucketRanges(buckets);
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        Criteria criteria = Criteria.where("tenantId").is(tenantId)
+                .and("customerId").is(customerId)
+                .and("metricCode").is(metricCode);
+        return Query.query(ranges.size() == 1
+                ? criteria.andOperator(ranges.get(0))
+                : criteria.orOperator(ranges.toArray(Criteria[]::new)));
+    }
+
+    // one granularity and bucketStart range per run of same-granularity buckets
+    static List<Criteria> bucketRanges(List<UsageRollupKey> buckets) {
+        List<Criteria> ranges = new ArrayList<>();
+        UsageRollupKey rangeStart = null;
+        UsageRollupKey previous = null;
+        for (UsageRollupKey bucket : buckets) {
+            if (rangeStart != null && bucket.granularity() != rangeStart.granularity()) {
+                ranges.add(rangeCriteria(rangeStart, previous));
+                rangeStart = null;
+            }
+            if (rangeStart == null) {
+                rangeStart = bucket;
+            }
+            previous = bucket;
+        }
+        if (rangeStart != null) {
+            ranges.add(rangeCriteria(rangeStart, previous));
+        }
+        return ranges;
+    }
+
+    private static Criteria rangeCriteria(UsageRollupKey first, UsageRollupKey last) {
+        return Criteria.where("granularity").is(first.granularity())
+                .and("bucketStart").gte(first.bucketStart()).lte(last.bucketStart());
+    }
+
+    private static void addBuckets(List<UsageRollupKey> buckets,
+                                   String tenantId,
+                                   String customerId,
+                                   String metricCode,
+                                   UsageRollupGranularity granularity,
+                                   Instant from,
+                                   Instant to) {
+        for (Instant bucket = from; bucket.isBefore(to); bucket = granularity.nextBucket(bucket)) {
+            buckets.add(new UsageRollupKey(tenantId, customerId, metricCode, granularity, bucket));
+        }
+    }
+
+    void validateRange(Instant from, Instant to) {
+        if (from == null || to == null) {
+            throw new DomainValidationException("from and to must be provided together");
+        }
+        if (!from.isBefore(to)) {
+            throw new DomainValidationException("from must be before to");
+        }
+        if (!UsageRollupGranularity.HOUR.isAligned(from) || !UsageRollupGranularity.HOUR.isAligned(to)) {
+            throw new DomainValidationException("from and to must be aligned to whole UTC hours");
+        }
+        if (Duration.between(from, to).toDays() > Math.max(maxRangeDays, 1)) {
+            throw new DomainValidationException("range must not exceed " + maxRangeDays + " days");
+        }
+    }
+}
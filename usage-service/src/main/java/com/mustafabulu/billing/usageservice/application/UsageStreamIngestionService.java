@@ -0,0 +1,146 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageStreamChunkResult;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsageStreamIngestionService {
+    private static final Logger log = LoggerFactory.getLogger(UsageStreamIngestionService.class);
+
+    private final UsageIngestionService usageIngestionService;
+    private final UsageMetricAggregations usageMetricAggregations;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+
+    @Value("${platform.usage.stream.chunk-size:500}")
+    private int chunkSize;
+
+    public UsageStreamIngestionService(UsageIngestionService usageIngestionService,
+                                       UsageMetricAggregations usageMetricAggregations,
+                                       ObjectMapper objectMapper,
+                                       Validator validator) {
+        this.usageIngestionService = usageIngestionService;
+        this.usageMetricAggregations = usageMetricAggregations;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+    }
+
+    public void ingest(InputStream body, OutputStream results, long startOffset) throws IOException {
+        Chunk chunk = new Chunk(Math.max(chunkSize, 1), Math.max(startOffset, 0L));
+        long offset = 0L;
+        String failure = null;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(body);
+             MappingIterator<UsageEventRequest> records = objectMapper.readerFor(UsageEventRequest.class).readValues(parser)) {
+            while (failure == null) {
+                UsageEventRequest request;
+                try {
+                    if (!records.hasNextValue()) {
+                        break;
+                    }
+                    request = records.nextValue();
+                } catch (IOException parseException) {
+                    failure = "malformed JSON";
+                    break;
+                }
+                if (offset < startOffset) {
+                    offset++;
+                    continue;
+                }
+
+                failure = firstViolation(request);
+                if (failure == null) {
+                    offset++;
+                    chunk.records.add(request);
+                    if (chunk.isFull() && !flush(results, chunk)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        if (!flush(results, chunk) || failure == null) {
+            return;
+        }
+        write(results, UsageStreamChunkResult.failed(chunk.number, offset, "record " + offset + ": " + failure));
+    }
+
+    private boolean flush(OutputStream results, Chunk chunk) throws IOException {
+        if (chunk.records.isEmpty()) {
+            return true;
+        }
+        long nextOffset = chunk.fromOffset + chunk.records.size();
+        try {
+            write(results, UsageStreamChunkResult.ok(chunk.number, chunk.fromOffset, nextOffset,
+                    usageIngestionService.ingestBatch(List.copyOf(chunk.records))));
+        } catch (RuntimeException ex) {
+            log.error("usage_stream_chunk_failed chunk={} fromOffset={} error={}",
+                    chunk.number, chunk.fromOffset, ex.getMessage(), ex);
+            write(results, UsageStreamChunkResult.failed(chunk.number, chunk.fromOffset, "chunk write failed"));
+            return false;
+        }
+        chunk.advance(nextOffset);
+        return true;
+    }
+
+    private void write(OutputStream results, UsageStreamChunkResult result) throws IOException {
+        results.write(objectMapper.writeValueAsBytes(result));
+        results.write('\n');
+        results.flush();
+    }
+
+    // the metric rules are checked here too: ingestBatch rejects a whole chunk for one record failing them, which a
+    // resumed stream would hit again at the same offset
+    private String firstViolation(UsageEventRequest request) {
+        Set<ConstraintViolation<UsageEventRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            ConstraintViolation<UsageEventRequest> violation = violations.iterator().next();
+            return violation.getPropertyPath() + " " + violation.getMessage();
+        }
+        try {
+            usageMetricAggregations.validate(request.metricCode(), request.distinctValue(), request.dimensions());
+            return null;
+        } catch (DomainValidationException ex) {
+            return ex.getMessage();
+        }
+    }
+
+    private static final class Chunk {
+        private final int capacity;
+        private final List<UsageEventRequest> records;
+        private int number;
+        private long fromOffset;
+
+        private Chunk(int capacity, long fromOffset) {
+            this.capacity = capacity;
+            this.records = new ArrayList<>(capacity);
+            this.fromOffset = fromOffset;
+        }
+
+        private boolean isFull() {
+            return records.size() >= capacity;
+        }
+
+        private void advance(long nextOffset) {
+            records.clear();
+            number++;
+            fromOffset = nextOffset;
+        }
+    }
+}
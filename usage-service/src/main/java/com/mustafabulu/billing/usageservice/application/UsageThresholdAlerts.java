@@ -0,0 +1,205 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.events.UsageThresholdCrossedEvent;
+import com.mustafabulu.billing.common.exception.ConflictException;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.api.dto.UsageThresholdRuleRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageThresholdRule;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsageThresholdAlerts {
+    private static final Logger log = LoggerFactory.getLogger(UsageThresholdAlerts.class);
+    private static final List<Integer> DEFAULT_PERCENTS = List.of(80, 100);
+
+    private final UsageThresholdRuleRepository usageThresholdRuleRepository;
+    private final MongoTemplate mongoTemplate;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final UsageMetricAggregations usageMetricAggregations;
+    private final boolean enabled;
+    private final int maxRulesPerTenant;
+    private final Counter crossings;
+    // (tenant, metric) -> compiled thresholds; replaced wholesale on refresh, so ingestion reads it without locking
+    private volatile Map<Scope, CompiledRules> index = Map.of();
+
+    public UsageThresholdAlerts(UsageThresholdRuleRepository usageThresholdRuleRepository,
+                                MongoTemplate mongoTemplate,
+                                KafkaTemplate<String, Object> kafkaTemplate,
+                                UsageMetricAggregations usageMetricAggregations,
+                                @Value("${platform.usage.thresholds.enabled:false}") boolean enabled,
+                                @Value("${platform.usage.thresholds.max-rules-per-tenant:1000}") int maxRulesPerTenant) {
+        this.usageThresholdRuleRepository = usageThresholdRuleRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.kafkaTemplate = kafkaTemplate;
+        this.usageMetricAggregations = usageMetricAggregations;
+        this.enabled = enabled;
+        this.maxRulesPerTenant = maxRulesPerTenant;
+        this.crossings = Metrics.counter("platform.usage.threshold.crossings");
+    }
+
+    public UsageThresholdRule create(UsageThresholdRuleRequest request) {
+        // DISTINCT and GAUGE totals are estimated on read rather than incremented, so there is no edge to observe
+        if (!usageMetricAggregations.isSummed(request.metricCode())) {
+            throw new DomainValidationException("Threshold rules are only supported for summed metrics: "
+                    + request.metricCode());
+        }
+        if (usageThresholdRuleRepository.countByTenantId(request.tenantId()) >= maxRulesPerTenant) {
+            throw new ConflictException("Threshold rule limit reached for tenant: " + request.tenantId());
+        }
+        UsageThresholdRuleDocument document = new UsageThresholdRuleDocument();
+        document.setId("thr-" + UUID.randomUUID());
+        document.setTenantId(request.tenantId());
+        document.setMetricCode(request.metricCode());
+        document.setCustomerId(request.customerId() == null || request.customerId().isBlank() ? null : request.customerId());
+        document.setQuota(request.quota());
+        document.setThresholdPercents(request.thresholdPercents() == null || request.thresholdPercents().isEmpty()
+                ? DEFAULT_PERCENTS
+                : request.thresholdPercents().stream().distinct().sorted().toList());
+        document.setCreatedAt(Instant.now());
+        UsageThresholdRule rule = toRule(usageThresholdRuleRepository.save(document));
+        refresh();
+        return rule;
+    }
+
+    public List<UsageThresholdRule> list(String tenantId) {
+        return usageThresholdRuleRepository.findAllByTenantId(tenantId).stream()
+                .sorted(Comparator.comparing(UsageThresholdRuleDocument::getCreatedAt))
+                .map(UsageThresholdAlerts::toRule)
+                .toList();
+    }
+
+    public boolean delete(String tenantId, String ruleId) {
+        if (usageThresholdRuleRepository.findByIdAndTenantId(ruleId, tenantId).isEmpty()) {
+            return false;
+        }
+        usageThresholdRuleRepository.deleteById(ruleId);
+        refresh();
+        return true;
+    }
+
+    // other replicas pick up rule changes on their next refresh
+    @Scheduled(fixedDelayString = "${platform.usage.thresholds.refresh-interval-ms:30000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            index = compile(usageThresholdRuleRepository.findAll());
+        } catch (RuntimeException ex) {
+            log.warn("usage_threshold_rules_refresh_failed error={}", ex.getMessage());
+        }
+    }
+
+    // two hash lookups, so the writer can keep unwatched keys on the bulk path
+    public boolean watches(UsageAggregateKey key) {
+        CompiledRules rules = index.get(new Scope(key.tenantId(), key.metricCode()));
+        return rules != null && (!rules.allCustomers().isEmpty() || rules.byCustomer().containsKey(key.customerId()));
+    }
+
+    // current and the published percents come from the findAndModify that applied the increment. A threshold at or
+    // below current goes out from the replica whose conditional $max moves its rule's published percent past it, so
+    // each edge is published once however many replicas see a total above it, and one crossed by increments that
+    // replicas with stale rules wrote before watching the key goes out with the next watched increment. Thresholds
+    // are never re-armed because totals only grow
+    public void onIncrement(UsageAggregateKey key, long current, Map<String, Integer> publishedPercents) {
+        CompiledRules rules = index.get(new Scope(key.tenantId(), key.metricCode()));
+        if (rules == null) {
+            return;
+        }
+        Map<String, Integer> published = publishedPercents == null ? Map.of() : publishedPercents;
+        publishCrossed(key, rules.byCustomer().getOrDefault(key.customerId(), List.of()), current, published);
+        publishCrossed(key, rules.allCustomers(), current, published);
+    }
+
+    private void publishCrossed(UsageAggregateKey key, List<Threshold> thresholds, long current,
+                                Map<String, Integer> published) {
+        for (Threshold threshold : thresholds) {
+            if (threshold.quantity() > current) {
+                return;
+            }
+            if (published.getOrDefault(threshold.ruleId(), 0) < threshold.percent() && claim(key, threshold)) {
+                publish(key, threshold, current);
+            }
+        }
+    }
+
+    private boolean claim(UsageAggregateKey key, Threshold threshold) {
+        String field = "publishedPercents." + threshold.ruleId();
+        Query unpublished = UsageAggregateWriter.aggregateQuery(key, null)
+                .addCriteria(Criteria.where(field).not().gte(threshold.percent()));
+        return mongoTemplate.updateFirst(unpublished, new Update().max(field, threshold.percent()),
+                UsageAggregateDocument.class).getModifiedCount() > 0;
+    }
+
+    private void publish(UsageAggregateKey key, Threshold threshold, long current) {
+        crossings.increment();
+        log.info("usage_threshold_crossed tenantId={} customerId={} metricCode={} ruleId={} percent={} total={}",
+                key.tenantId(), key.customerId(), key.metricCode(), threshold.ruleId(), threshold.percent(), current);
+        try {
+            kafkaTemplate.send(KafkaTopics.USAGE_THRESHOLD_CROSSED, key.tenantId() + "/" + key.customerId(),
+                    new UsageThresholdCrossedEvent("EVT-" + UUID.randomUUID(), threshold.ruleId(), key.tenantId(),
+                            key.customerId(), key.metricCode(), threshold.quota(), threshold.percent(),
+                            threshold.quantity(), current, Instant.now()));
+        } catch (RuntimeException ex) {
+            log.warn("usage_threshold_publish_failed ruleId={} error={}", threshold.ruleId(), ex.getMessage());
+        }
+    }
+
+    static Map<Scope, CompiledRules> compile(List<UsageThresholdRuleDocument> documents) {
+        Map<Scope, CompiledRules> compiled = new HashMap<>();
+        for (UsageThresholdRuleDocument document : documents) {
+            CompiledRules rules = compiled.computeIfAbsent(new Scope(document.getTenantId(), document.getMetricCode()),
+                    ignored -> new CompiledRules(new HashMap<>(), new ArrayList<>()));
+            List<Threshold> target = document.getCustomerId() == null
+                    ? rules.allCustomers()
+                    : rules.byCustomer().computeIfAbsent(document.getCustomerId(), ignored -> new ArrayList<>());
+            for (Integer percent : document.getThresholdPercents()) {
+                target.add(new Threshold(document.getId(), document.getQuota(), percent,
+                        Math.ceilDiv(Math.multiplyExact(document.getQuota(), (long) percent), 100L)));
+            }
+        }
+        // ascending, so a check stops at the first threshold above the new total
+        compiled.values().forEach(rules -> {
+            rules.allCustomers().sort(Comparator.comparingLong(Threshold::quantity));
+            rules.byCustomer().values().forEach(thresholds -> thresholds.sort(Comparator.comparingLong(Threshold::quantity)));
+        });
+        return compiled;
+    }
+
+    private static UsageThresholdRule toRule(UsageThresholdRuleDocument document) {
+        return new UsageThresholdRule(document.getId(), document.getTenantId(), document.getMetricCode(),
+                document.getCustomerId(), document.getQuota(), document.getThresholdPercents(), document.getCreatedAt());
+    }
+
+    record Scope(String tenantId, String metricCode) {
+    }
+
+    record Threshold(String ruleId, long quota, int percent, long quantity) {
+    }
+
+    record CompiledRules(Map<String, List<Threshold>> byCustomer, List<Threshold> allCustomers) {
+    }
+}
@@ -0,0 +1,144 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.events.UsageTotalsInvalidatedEvent;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageTotalsCache {
+    private static final Logger log = LoggerFactory.getLogger(UsageTotalsCache.class);
+    private static final int WRITE_STRIPES = 1024;
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final Cache<UsageAggregateKey, CachedTotal> totals;
+    // bumped before every aggregate write so a load racing with a write is never cached
+    private final AtomicLongArray writeSequences = new AtomicLongArray(WRITE_STRIPES);
+    private final Set<UsageAggregateKey> changedKeys = ConcurrentHashMap.newKeySet();
+    private final String originId = UUID.randomUUID().toString();
+
+    @Value("${platform.usage.totals-cache.enabled:false}")
+    private boolean enabled;
+
+    public UsageTotalsCache(KafkaTemplate<String, Object> kafkaTemplate,
+                            @Value("${platform.usage.totals-cache.max-entries:100000}") long maxEntries,
+                            @Value("${platform.usage.totals-cache.ttl-ms:30000}") long ttlMs) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.totals = Caffeine.newBuilder()
+                .maximumSize(Math.max(maxEntries, 1))
+                .expireAfterWrite(Duration.ofMillis(Math.max(ttlMs, 1)))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, totals, "usage.totals");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long get(UsageAggregateKey key, LongSupplier loader) {
+        if (!enabled) {
+            return loader.getAsLong();
+        }
+        CachedTotal cached = totals.getIfPresent(key);
+        if (cached != null) {
+            return cached.total();
+        }
+        int stripe = stripe(key);
+        long sequence = writeSequences.get(stripe);
+        long loaded = loader.getAsLong();
+        totals.asMap().compute(key, (ignored, current) ->
+                writeSequences.get(stripe) == sequence ? new CachedTotal(loaded, sequence) : current);
+        return loaded;
+    }
+
+    public long beginWrite(UsageAggregateKey key) {
+        return enabled ? writeSequences.incrementAndGet(stripe(key)) : 0L;
+    }
+
+    public void completeWrite(UsageAggregateKey key, long delta, long sequence) {
+        if (!enabled) {
+            return;
+        }
+        // entries loaded after the write began may already include it; only older ones can be adjusted in place
+        totals.asMap().computeIfPresent(key, (ignored, current) ->
+                current.loadSequence() < sequence ? new CachedTotal(current.total() + delta, current.loadSequence()) : null);
+        changedKeys.add(key);
+    }
+
+    public void invalidate(Collection<UsageAggregateKey> keys) {
+        if (!enabled) {
+            return;
+        }
+        totals.invalidateAll(keys);
+        changedKeys.addAll(keys);
+    }
+
+    @Scheduled(fixedDelayString = "${platform.usage.totals-cache.broadcast-interval-ms:200}")
+    public void broadcastChanges() {
+        if (!enabled || changedKeys.isEmpty()) {
+            return;
+        }
+        List<UsageTotalsInvalidatedEvent.Key> keys = new ArrayList<>();
+        for (UsageAggregateKey key : changedKeys) {
+            if (changedKeys.remove(key)) {
+                keys.add(new UsageTotalsInvalidatedEvent.Key(key.tenantId(), key.customerId(), key.metricCode()));
+            }
+        }
+        try {
+            kafkaTemplate.send(KafkaTopics.USAGE_TOTALS_INVALIDATED, originId,
+                    new UsageTotalsInvalidatedEvent("EVT-" + UUID.randomUUID(), originId, keys, Instant.now()));
+        } catch (RuntimeException ex) {
+            log.warn("usage_totals_broadcast_failed keys={} error={}", keys.size(), ex.getMessage());
+        }
+    }
+
+    // every replica must see every invalidation, so each one consumes in a group of its own; the id is stable across
+    // restarts so a restart resumes that group instead of leaving another one behind on the brokers
+    @KafkaListener(
+            topics = KafkaTopics.USAGE_TOTALS_INVALIDATED,
+            groupId = "usage-service-totals-cache-${platform.usage.totals-cache.instance-id:${HOSTNAME:local}}",
+            autoStartup = "${platform.usage.totals-cache.enabled:false}",
+            properties = {
+                    "auto.offset.reset=latest",
+                    "spring.json.value.default.type=com.mustafabulu.billing.common.events.UsageTotalsInvalidatedEvent"
+            }
+    )
+    public void onTotalsInvalidated(UsageTotalsInvalidatedEvent event) {
+        if (event == null || originId.equals(event.originId()) || event.keys() == null) {
+            return;
+        }
+        for (UsageTotalsInvalidatedEvent.Key key : event.keys()) {
+            UsageAggregateKey aggregateKey = new UsageAggregateKey(key.tenantId(), key.customerId(), key.metricCode());
+            writeSequences.incrementAndGet(stripe(aggregateKey));
+            totals.invalidate(aggregateKey);
+        }
+    }
+
+    private static int stripe(UsageAggregateKey key) {
+        return Math.floorMod(key.hashCode(), WRITE_STRIPES);
+    }
+
+    private record CachedTotal(long total, long loadSequence) {
+    }
+}
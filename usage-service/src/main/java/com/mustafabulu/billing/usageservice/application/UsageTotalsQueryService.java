@@ -0,0 +1,123 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.api.dto.UsageTotalsQueryItem;
+import com.mustafabulu.billing.usageservice.api.dto.UsageTotalsQueryRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageTotalsQueryResult;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+@Service
+public class UsageTotalsQueryService {
+    private final MongoTemplate mongoTemplate;
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer;
+    private final UsageMetricAggregations usageMetricAggregations;
+
+    public UsageTotalsQueryService(MongoTemplate mongoTemplate,
+                                   UsageAggregateWriteBuffer usageAggregateWriteBuffer,
+                                   UsageMetricAggregations usageMetricAggregations) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageAggregateWriteBuffer = usageAggregateWriteBuffer;
+        this.usageMetricAggregations = usageMetricAggregations;
+    }
+
+    public UsageTotalsQueryResult totals(UsageTotalsQueryRequest request) {
+        boolean allMetrics = request.customerId() != null && !request.customerId().isBlank();
+        boolean pairs = request.items() != null && !request.items().isEmpty();
+        if (allMetrics == pairs) {
+            throw new DomainValidationException("exactly one of customerId or items must be provided");
+        }
+        return allMetrics
+                ? customerTotals(request.tenantId(), request.customerId())
+                : pairTotals(request.tenantId(), request.items());
+    }
+
+    private UsageTotalsQueryResult customerTotals(String tenantId, String customerId) {
+        Criteria criteria = Criteria.where("tenantId").is(tenantId).and("customerId").is(customerId);
+        Map<UsageAggregateKey, Long> totals = withPending(
+                key -> key.tenantId().equals(tenantId) && key.customerId().equals(customerId),
+                criteria,
+                key -> true);
+        return toResult(tenantId, totals);
+    }
+
+    private UsageTotalsQueryResult pairTotals(String tenantId, List<UsageTotalsQueryItem> items) {
+        Set<UsageAggregateKey> requested = new LinkedHashSet<>();
+        Set<String> customers = new HashSet<>();
+        Set<String> metrics = new HashSet<>();
+        for (UsageTotalsQueryItem item : items) {
+            requested.add(new UsageAggregateKey(tenantId, item.customerId(), item.metricCode()));
+            customers.add(item.customerId());
+            metrics.add(item.metricCode());
+        }
+
+        // the $in cross product can over-fetch; results are narrowed back to the requested pairs
+        Criteria criteria = Criteria.where("tenantId").is(tenantId)
+                .and("customerId").in(customers)
+                .and("metricCode").in(metrics);
+        Map<UsageAggregateKey, Long> totals = withPending(requested::contains, criteria, requested::contains);
+        requested.forEach(key -> totals.putIfAbsent(key, 0L));
+        return toResult(tenantId, totals);
+    }
+
+    private Map<UsageAggregateKey, Long> withPending(Predicate<UsageAggregateKey> pendingSelector,
+                                                     Criteria criteria,
+                                                     Predicate<UsageAggregateKey> persistedFilter) {
+        if (usageAggregateWriteBuffer.isEnabled()) {
+            return usageAggregateWriteBuffer.totalsWithPending(pendingSelector,
+                    () -> persistedTotals(criteria, persistedFilter));
+        }
+        return persistedTotals(criteria, persistedFilter);
+    }
+
+    private Map<UsageAggregateKey, Long> persistedTotals(Criteria criteria, Predicate<UsageAggregateKey> filter) {
+        Query query = Query.query(criteria);
+        query.fields().include("tenantId").include("customerId").include("metricCode").include("totalQuantity")
+                .include("distinctRegisters").include("gaugeValue").include("gaugeAt").include("gaugeArea");
+
+        Map<UsageAggregateKey, Long> totals = new LinkedHashMap<>();
+        Map<UsageAggregateKey, List<Map<String, Map<String, Integer>>>> sketches = new LinkedHashMap<>();
+        Instant now = Instant.now();
+        for (UsageAggregateDocument document : mongoTemplate.find(query, UsageAggregateDocument.class)) {
+            UsageAggregateKey key = new UsageAggregateKey(
+                    document.getTenantId(), document.getCustomerId(), document.getMetricCode());
+            if (!filter.test(key)) {
+                continue;
+            }
+            if (usageMetricAggregations.isGauge(key.metricCode())) {
+                totals.merge(key, UsageGauges.total(document.getGaugeArea(), document.getGaugeValue(), document.getGaugeAt(),
+                        now, usageMetricAggregations.gaugeUnitMillis()), Long::sum);
+            } else if (usageMetricAggregations.isDistinct(key.metricCode())) {
+                List<Map<String, Map<String, Integer>>> keySketches = sketches.computeIfAbsent(key, ignored -> new ArrayList<>());
+                if (document.getDistinctRegisters() != null) {
+                    keySketches.add(document.getDistinctRegisters());
+                }
+            } else {
+                totals.merge(key, document.getTotalQuantity(), Long::sum);
+            }
+        }
+        sketches.forEach((key, keySketches) -> totals.put(key, UsageHyperLogLog.estimate(keySketches)));
+        return totals;
+    }
+
+    private static UsageTotalsQueryResult toResult(String tenantId, Map<UsageAggregateKey, Long> totals) {
+        Map<String, Map<String, Long>> byCustomer = new TreeMap<>();
+        totals.forEach((key, total) ->
+                byCustomer.computeIfAbsent(key.customerId(), ignored -> new TreeMap<>()).put(key.metricCode(), total));
+        return new UsageTotalsQueryResult(tenantId, byCustomer);
+    }
+}
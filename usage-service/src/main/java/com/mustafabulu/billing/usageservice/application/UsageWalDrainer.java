@@ -0,0 +1,94 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.persistence.UsageWriteAheadLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageWalDrainer {
+    private static final Logger log = LoggerFactory.getLogger(UsageWalDrainer.class);
+
+    private final UsageWriteAheadLog usageWriteAheadLog;
+    private final UsageIngestionService usageIngestionService;
+    private final Timer drainTimer;
+    private final Counter appliedEvents;
+    private final Counter duplicateEvents;
+
+    @Value("${platform.usage.wal.drain-batch-size:1000}")
+    private int drainBatchSize;
+
+    public UsageWalDrainer(UsageWriteAheadLog usageWriteAheadLog, UsageIngestionService usageIngestionService) {
+        this.usageWriteAheadLog = usageWriteAheadLog;
+        this.usageIngestionService = usageIngestionService;
+        this.drainTimer = Metrics.timer("platform.usage.wal.drain");
+        this.appliedEvents = Metrics.counter("platform.usage.wal.applied", "outcome", "inserted");
+        this.duplicateEvents = Metrics.counter("platform.usage.wal.applied", "outcome", "duplicate");
+    }
+
+    // runs until the log is caught up; a batch failing on a transient error stays in the log and is retried on the next
+    // tick, any other failure is replayed record by record and the records failing on their own are quarantined
+    @Scheduled(fixedDelayString = "${platform.usage.wal.drain-interval-ms:50}")
+    public synchronized void drain() {
+        if (!usageWriteAheadLog.isEnabled()) {
+            return;
+        }
+        usageWriteAheadLog.force();
+        while (true) {
+            UsageWriteAheadLog.Batch batch = usageWriteAheadLog.read(Math.max(drainBatchSize, 1));
+            if (batch.entries().isEmpty()) {
+                return;
+            }
+            Timer.Sample sample = Timer.start();
+            try {
+                apply(batch);
+            } catch (RuntimeException ex) {
+                log.warn("usage_wal_drain_failed pending_events={} reason={}", usageWriteAheadLog.pendingEvents(), ex.getMessage());
+                if (isTransient(ex) || !isolate(batch.entries().size())) {
+                    return;
+                }
+            }
+            sample.stop(drainTimer);
+        }
+    }
+
+    private boolean isolate(int records) {
+        for (int i = 0; i < records; i++) {
+            UsageWriteAheadLog.Batch single = usageWriteAheadLog.read(1);
+            if (single.entries().isEmpty()) {
+                return true;
+            }
+            try {
+                apply(single);
+            } catch (RuntimeException ex) {
+                if (isTransient(ex)) {
+                    return false;
+                }
+                UsageEvent event = single.entries().get(0).event();
+                log.error("usage_wal_record_quarantined tenant={} idempotencyKey={} reason={}",
+                        event.tenantId(), event.idempotencyKey(), ex.getMessage());
+                usageWriteAheadLog.quarantine(single);
+            }
+        }
+        return true;
+    }
+
+    private void apply(UsageWriteAheadLog.Batch batch) {
+        int inserted = usageIngestionService.applyLogged(batch.entries());
+        usageWriteAheadLog.markApplied(batch);
+        appliedEvents.increment(inserted);
+        duplicateEvents.increment(batch.entries().size() - inserted);
+    }
+
+    private static boolean isTransient(RuntimeException ex) {
+        return ex instanceof TransientDataAccessException || ex instanceof DataAccessResourceFailureException;
+    }
+}
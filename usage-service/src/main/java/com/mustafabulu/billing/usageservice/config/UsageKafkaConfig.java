@@ -0,0 +1,45 @@
+package com.mustafabulu.billing.usageservice.config;
+
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import io.micrometer.core.instrument.Metrics;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.FixedBackOff;
+
+@Configuration
+public class UsageKafkaConfig {
+    private static final Logger log = LoggerFactory.getLogger(UsageKafkaConfig.class);
+
+    // shared by every listener of the default container factory, the totals-cache invalidations included
+    @Bean
+    public DefaultErrorHandler usageBatchErrorHandler(
+            KafkaTemplate<String, Object> kafkaTemplate,
+            @Value("${platform.usage.kafka.retry-backoff-ms:1000}") long retryBackoffMs,
+            @Value("${platform.usage.kafka.retry-max-attempts:10}") long retryMaxAttempts) {
+        DeadLetterPublishingRecoverer deadLetter = new DeadLetterPublishingRecoverer(kafkaTemplate,
+                (consumerRecord, ex) -> new TopicPartition(KafkaTopics.DEAD_LETTER, -1));
+        // a batch still failing after the retries is parked on the dead-letter topic rather than skipped, and replays
+        // from there as duplicates for the events it did store; a missed invalidation only lets a cached total live
+        // out its ttl, so it is dropped
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler((consumerRecord, ex) -> {
+            if (KafkaTopics.USAGE_INGESTED.equals(consumerRecord.topic())) {
+                deadLetter.accept(consumerRecord, ex);
+                Metrics.counter("platform.usage.kafka.dead_lettered").increment();
+                return;
+            }
+            log.warn("usage_kafka_record_dropped topic={} partition={} offset={} error={}", consumerRecord.topic(),
+                    consumerRecord.partition(), consumerRecord.offset(), ex.getMessage());
+        }, new FixedBackOff(retryBackoffMs, Math.max(retryMaxAttempts, 0)));
+        // redelivering an event its metric rejects cannot succeed
+        errorHandler.addNotRetryableExceptions(DomainValidationException.class);
+        return errorHandler;
+    }
+}
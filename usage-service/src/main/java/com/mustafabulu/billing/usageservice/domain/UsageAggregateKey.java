@@ -0,0 +1,4 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+public record UsageAggregateKey(String tenantId, String customerId, String metricCode) {
+}
@@ -0,0 +1,8 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+public enum UsageAggregation {
+    SUM,
+    DISTINCT,
+    PERCENTILE,
+    GAUGE
+}
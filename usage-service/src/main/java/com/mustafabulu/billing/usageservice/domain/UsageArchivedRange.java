@@ -0,0 +1,6 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import java.time.Instant;
+
+public record UsageArchivedRange(Instant from, Instant to) {
+}
@@ -0,0 +1,15 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+public record UsageBatchItemResult(
+        @Schema(description = "Position of the event in the submitted batch", example = "0")
+        int index,
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Idempotency key", example = "usage-evt-0001")
+        String idempotencyKey,
+        @Schema(description = "Ingestion outcome", example = "ACCEPTED")
+        UsageIngestionStatus status
+) {
+}
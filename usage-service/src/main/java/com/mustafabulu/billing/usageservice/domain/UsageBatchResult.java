@@ -0,0 +1,14 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+
+public record UsageBatchResult(
+        @Schema(description = "Number of newly stored events", example = "2")
+        int accepted,
+        @Schema(description = "Number of events already known for their idempotency key", example = "1")
+        int duplicates,
+        @Schema(description = "Per-event outcome in submission order")
+        List<UsageBatchItemResult> results
+) {
+}
@@ -0,0 +1,12 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import java.time.Instant;
+
+public record UsageDimensionRollupKey(String tenantId,
+                                      String customerId,
+                                      String metricCode,
+                                      String dimension,
+                                      int valueCode,
+                                      UsageRollupGranularity granularity,
+                                      Instant bucketStart) {
+}
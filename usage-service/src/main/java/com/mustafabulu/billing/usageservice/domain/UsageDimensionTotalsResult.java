@@ -0,0 +1,25 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.Map;
+
+public record UsageDimensionTotalsResult(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Customer identifier; null for all customers of the tenant", example = "cust-1001")
+        String customerId,
+        @Schema(description = "Metric code", example = "api_call")
+        String metricCode,
+        @Schema(description = "Dimension the totals are grouped by", example = "region")
+        String dimension,
+        @Schema(description = "Inclusive period start in UTC", example = "2026-02-01T00:00:00Z")
+        Instant from,
+        @Schema(description = "Exclusive period end in UTC", example = "2026-03-01T00:00:00Z")
+        Instant to,
+        @Schema(description = "Total quantity by dimension value, largest first; values past the tenant's cardinality "
+                + "limit are totalled under __other__",
+                example = "{\"eu-west-1\":1200,\"us-east-1\":800,\"__other__\":15}")
+        Map<String, Long> totals
+) {
+}
@@ -1,5 +1,6 @@
 package com.mustafabulu.billing.usageservice.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.v3.oas.annotations.media.Schema;
 import java.time.Instant;
 
@@ -15,6 +16,19 @@ public record UsageEvent(
         @Schema(description = "Consumed quantity", example = "120")
         long quantity,
         @Schema(description = "Event timestamp in UTC", example = "2026-02-21T16:30:00Z")
-        Instant occurredAt
+        Instant occurredAt,
+        @Schema(description = "Ingestion outcome. PENDING when the event was acknowledged from the write-ahead log before "
+                + "the duplicate check: the values echo the request, and a duplicate is dropped when the log is drained, "
+                + "keeping the stored event", example = "ACCEPTED")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        UsageIngestionStatus status
 ) {
+    public UsageEvent(String tenantId, String customerId, String idempotencyKey, String metricCode, long quantity,
+                      Instant occurredAt) {
+        this(tenantId, customerId, idempotencyKey, metricCode, quantity, occurredAt, null);
+    }
+
+    public UsageEvent withStatus(UsageIngestionStatus status) {
+        return new UsageEvent(tenantId, customerId, idempotencyKey, metricCode, quantity, occurredAt, status);
+    }
 }
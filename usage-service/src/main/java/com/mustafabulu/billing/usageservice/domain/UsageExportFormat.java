@@ -0,0 +1,16 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+public enum UsageExportFormat {
+    NDJSON("application/x-ndjson"),
+    CSV("text/csv");
+
+    private final String contentType;
+
+    UsageExportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+}
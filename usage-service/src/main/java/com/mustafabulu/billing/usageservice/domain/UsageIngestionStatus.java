@@ -0,0 +1,7 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+public enum UsageIngestionStatus {
+    ACCEPTED,
+    DUPLICATE,
+    PENDING
+}
@@ -0,0 +1,25 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.Map;
+
+public record UsagePercentilesResult(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Customer identifier", example = "cust-1001")
+        String customerId,
+        @Schema(description = "Metric code", example = "bandwidth_mbps")
+        String metricCode,
+        @Schema(description = "Inclusive period start in UTC; null for the lifetime of the metric", example = "2026-02-01T00:00:00Z")
+        Instant from,
+        @Schema(description = "Exclusive period end in UTC; null for the lifetime of the metric", example = "2026-03-01T00:00:00Z")
+        Instant to,
+        @Schema(description = "Number of samples (usage events) in the period", example = "8064")
+        long samples,
+        @Schema(description = "Relative accuracy every percentile is guaranteed to be within", example = "0.01")
+        double relativeAccuracy,
+        @Schema(description = "Estimated sample value by percentile", example = "{\"p95\":870,\"p99\":1210}")
+        Map<String, Long> percentiles
+) {
+}
@@ -0,0 +1,28 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+
+public record UsagePeriod(
+        @Schema(description = "Period identifier", example = "period-8c1e")
+        String periodId,
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Inclusive period start in UTC", example = "2026-02-01T00:00:00Z")
+        Instant from,
+        @Schema(description = "Exclusive period end in UTC", example = "2026-03-01T00:00:00Z")
+        Instant to,
+        @Schema(description = "Period status", example = "CLOSED")
+        UsagePeriodStatus status,
+        @Schema(description = "Events received from this time on are recorded as adjustments", example = "2026-03-01T00:01:00Z")
+        Instant cutoff,
+        @Schema(description = "Number of customer/metric totals in the snapshot", example = "32000")
+        long snapshotKeys,
+        @Schema(description = "Failure reason of the last close attempt")
+        String error,
+        @Schema(description = "Close request time", example = "2026-03-01T00:00:00Z")
+        Instant requestedAt,
+        @Schema(description = "Snapshot completion time", example = "2026-03-01T00:02:10Z")
+        Instant closedAt
+) {
+}
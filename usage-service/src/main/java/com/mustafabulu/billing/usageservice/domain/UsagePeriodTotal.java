@@ -0,0 +1,13 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+public record UsagePeriodTotal(
+        @Schema(description = "Metric code", example = "api_call")
+        String metricCode,
+        @Schema(description = "Quantity frozen when the period closed", example = "1200")
+        long quantity,
+        @Schema(description = "Quantity of late events received after the close", example = "15")
+        long adjustment
+) {
+}
@@ -0,0 +1,17 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+public record UsageReconciliationDiscrepancy(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Customer identifier", example = "cust-1001")
+        String customerId,
+        @Schema(description = "Metric code", example = "api_call")
+        String metricCode,
+        @Schema(description = "Sum of stored usage events", example = "1200")
+        long expected,
+        @Schema(description = "Aggregated total before repair", example = "1180")
+        long actual
+) {
+}
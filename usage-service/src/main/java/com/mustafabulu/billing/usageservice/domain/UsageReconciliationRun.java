@@ -0,0 +1,37 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.List;
+
+public record UsageReconciliationRun(
+        @Schema(description = "Run identifier", example = "recon-5f0c")
+        String runId,
+        @Schema(description = "Run status", example = "RUNNING")
+        UsageReconciliationStatus status,
+        @Schema(description = "Whether confirmed discrepancies are written back to the aggregates", example = "false")
+        boolean repair,
+        @Schema(description = "Tenants included in the run; empty means all tenants")
+        List<String> tenantIds,
+        @Schema(description = "Number of tenant partitions", example = "12")
+        int tenantsTotal,
+        @Schema(description = "Number of tenant partitions fully reconciled", example = "4")
+        int tenantsCompleted,
+        @Schema(description = "Number of usage events scanned", example = "1500000")
+        long eventsScanned,
+        @Schema(description = "Number of customer/metric totals compared", example = "32000")
+        long keysChecked,
+        @Schema(description = "Number of confirmed discrepancies", example = "3")
+        long discrepancies,
+        @Schema(description = "Number of aggregates rewritten", example = "0")
+        long repaired,
+        @Schema(description = "First discrepancies found, capped")
+        List<UsageReconciliationDiscrepancy> samples,
+        @Schema(description = "Failure reason when status is FAILED")
+        String error,
+        @Schema(description = "Run start time", example = "2026-02-21T03:30:00Z")
+        Instant startedAt,
+        @Schema(description = "Run completion time", example = "2026-02-21T03:52:10Z")
+        Instant finishedAt
+) {
+}
@@ -0,0 +1,27 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+public enum UsageRollupGranularity {
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    UsageRollupGranularity(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    public Instant bucketStart(Instant occurredAt) {
+        return occurredAt.truncatedTo(unit);
+    }
+
+    public Instant nextBucket(Instant bucketStart) {
+        return bucketStart.plus(1, unit);
+    }
+
+    public boolean isAligned(Instant instant) {
+        return bucketStart(instant).equals(instant);
+    }
+}
@@ -0,0 +1,15 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import java.time.Instant;
+
+public record UsageRollupKey(String tenantId,
+                             String customerId,
+                             String metricCode,
+                             UsageRollupGranularity granularity,
+                             Instant bucketStart) {
+
+    public static UsageRollupKey of(UsageAggregateKey key, UsageRollupGranularity granularity, Instant occurredAt) {
+        return new UsageRollupKey(key.tenantId(), key.customerId(), key.metricCode(), granularity,
+                granularity.bucketStart(occurredAt));
+    }
+}
@@ -0,0 +1,30 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record UsageStreamChunkResult(
+        @Schema(description = "Sequence number of the chunk within the stream", example = "0")
+        int chunk,
+        @Schema(description = "Offset of the first record in the chunk", example = "0")
+        long fromOffset,
+        @Schema(description = "Offset to resume from after this chunk", example = "500")
+        long nextOffset,
+        @Schema(description = "Number of newly stored events", example = "498")
+        int accepted,
+        @Schema(description = "Number of duplicate events", example = "2")
+        int duplicates,
+        @Schema(description = "Chunk outcome", example = "OK")
+        String status,
+        @Schema(description = "Failure reason when status is FAILED", example = "record 512: quantity must be greater than or equal to 0")
+        String error
+) {
+    public static UsageStreamChunkResult ok(int chunk, long fromOffset, long nextOffset, UsageBatchResult result) {
+        return new UsageStreamChunkResult(chunk, fromOffset, nextOffset, result.accepted(), result.duplicates(), "OK", null);
+    }
+
+    public static UsageStreamChunkResult failed(int chunk, long resumeOffset, String error) {
+        return new UsageStreamChunkResult(chunk, resumeOffset, resumeOffset, 0, 0, "FAILED", error);
+    }
+}
@@ -0,0 +1,23 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.List;
+
+public record UsageThresholdRule(
+        @Schema(description = "Rule identifier", example = "thr-5f0c")
+        String ruleId,
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Metric code", example = "api_call")
+        String metricCode,
+        @Schema(description = "Customer the rule applies to; null for every customer of the tenant", example = "cust-1001")
+        String customerId,
+        @Schema(description = "Quota the thresholds are relative to", example = "100000")
+        long quota,
+        @Schema(description = "Percentages of the quota that raise an alert when crossed", example = "[80,100]")
+        List<Integer> thresholdPercents,
+        @Schema(description = "Creation timestamp in UTC", example = "2026-02-21T16:30:00Z")
+        Instant createdAt
+) {
+}
@@ -0,0 +1,11 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+public record UsageTopCustomer(
+        @Schema(description = "Customer identifier", example = "cust-1001")
+        String customerId,
+        @Schema(description = "Estimated quantity; never below the true value", example = "1200")
+        long estimatedQuantity
+) {
+}
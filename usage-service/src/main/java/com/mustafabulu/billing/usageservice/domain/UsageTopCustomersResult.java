@@ -0,0 +1,22 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.List;
+
+public record UsageTopCustomersResult(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Metric code", example = "api_call")
+        String metricCode,
+        @Schema(description = "TOTAL since the instance started tracking, or SLIDING for the recent window", example = "SLIDING")
+        UsageTopWindow window,
+        @Schema(description = "Start of the counted period in UTC", example = "2026-02-21T15:30:00Z")
+        Instant since,
+        @Schema(description = "Upper bound of the overestimate in each estimatedQuantity (holds with high probability)",
+                example = "14")
+        long maxOverestimate,
+        @Schema(description = "Customers ordered by estimated quantity, largest first")
+        List<UsageTopCustomer> customers
+) {
+}
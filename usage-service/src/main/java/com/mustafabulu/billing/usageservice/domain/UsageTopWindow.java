@@ -0,0 +1,6 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+public enum UsageTopWindow {
+    TOTAL,
+    SLIDING
+}
@@ -0,0 +1,13 @@
+package com.mustafabulu.billing.usageservice.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.Map;
+
+public record UsageTotalsQueryResult(
+        @Schema(description = "Tenant identifier", example = "acme-tr")
+        String tenantId,
+        @Schema(description = "Total quantity keyed by customer and then by metric code",
+                example = "{\"cust-1001\":{\"api_call\":1200,\"storage_gb\":8}}")
+        Map<String, Map<String, Long>> totals
+) {
+}
@@ -1,12 +1,20 @@
 package com.mustafabulu.billing.usageservice.persistence;
 
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.Map;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
 
 @Document(collection = "usage_aggregates")
-@CompoundIndex(name = "tenant_customer_metric_unique", def = "{'tenantId': 1, 'customerId': 1, 'metricCode': 1}", unique = true)
+@CompoundIndex(
+        name = "tenant_customer_metric_shard_unique",
+        def = "{'tenantId': 1, 'customerId': 1, 'metricCode': 1, 'shard': 1}",
+        unique = true
+)
 @SuppressWarnings("unused")
 public class UsageAggregateDocument {
     @Id
@@ -14,7 +22,19 @@ public class UsageAggregateDocument {
     private String tenantId;
     private String customerId;
     private String metricCode;
+    private Integer shard;
     private long totalQuantity;
+    // HyperLogLog registers of DISTINCT metrics: precision -> register index -> rank
+    private Map<String, Map<String, Integer>> distinctRegisters;
+    // quantile sketch buckets of PERCENTILE metrics: accuracy in basis points -> bucket index -> sample count
+    private Map<String, Map<String, Long>> quantileBuckets;
+    // GAUGE metrics: last reading and the value x milliseconds integrated up to it
+    private long gaugeValue;
+    private Instant gaugeAt;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal gaugeArea = BigDecimal.ZERO;
+    // threshold rule id -> highest percent of it already published, on the unsharded document of a watched key
+    private Map<String, Integer> publishedPercents;
     private Instant updatedAt;
 
     public String getId() {
@@ -49,6 +69,14 @@ public class UsageAggregateDocument {
         this.metricCode = metricCode;
     }
 
+    public Integer getShard() {
+        return shard;
+    }
+
+    public void setShard(Integer shard) {
+        this.shard = shard;
+    }
+
     public long getTotalQuantity() {
         return totalQuantity;
     }
@@ -57,6 +85,54 @@ public class UsageAggregateDocument {
         this.totalQuantity = totalQuantity;
     }
 
+    public Map<String, Map<String, Integer>> getDistinctRegisters() {
+        return distinctRegisters;
+    }
+
+    public void setDistinctRegisters(Map<String, Map<String, Integer>> distinctRegisters) {
+        this.distinctRegisters = distinctRegisters;
+    }
+
+    public Map<String, Map<String, Long>> getQuantileBuckets() {
+        return quantileBuckets;
+    }
+
+    public void setQuantileBuckets(Map<String, Map<String, Long>> quantileBuckets) {
+        this.quantileBuckets = quantileBuckets;
+    }
+
+    public long getGaugeValue() {
+        return gaugeValue;
+    }
+
+    public void setGaugeValue(long gaugeValue) {
+        this.gaugeValue = gaugeValue;
+    }
+
+    public Instant getGaugeAt() {
+        return gaugeAt;
+    }
+
+    public void setGaugeAt(Instant gaugeAt) {
+        this.gaugeAt = gaugeAt;
+    }
+
+    public BigDecimal getGaugeArea() {
+        return gaugeArea;
+    }
+
+    public void setGaugeArea(BigDecimal gaugeArea) {
+        this.gaugeArea = gaugeArea;
+    }
+
+    public Map<String, Integer> getPublishedPercents() {
+        return publishedPercents;
+    }
+
+    public void setPublishedPercents(Map<String, Integer> publishedPercents) {
+        this.publishedPercents = publishedPercents;
+    }
+
     public Instant getUpdatedAt() {
         return updatedAt;
     }
@@ -1,10 +1,10 @@
 package com.mustafabulu.billing.usageservice.persistence;
 
-import java.util.Optional;
+import java.util.List;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 public interface UsageAggregateRepository extends MongoRepository<UsageAggregateDocument, String> {
-    Optional<UsageAggregateDocument> findByTenantIdAndCustomerIdAndMetricCode(String tenantId,
-                                                                               String customerId,
-                                                                               String metricCode);
+    List<UsageAggregateDocument> findAllByTenantIdAndCustomerIdAndMetricCode(String tenantId,
+                                                                             String customerId,
+                                                                             String metricCode);
 }
@@ -0,0 +1,129 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "usage_archive_segments")
+@CompoundIndex(name = "tenant_occurred_range", def = "{'tenantId': 1, 'fromOccurredAt': 1, 'toOccurredAt': 1}")
+@SuppressWarnings("unused")
+public class UsageArchiveSegmentDocument {
+    @Id
+    private String id;
+    private String tenantId;
+    private Instant day;
+    private Instant fromOccurredAt;
+    private Instant toOccurredAt;
+    private int eventCount;
+    private long sizeBytes;
+    private String path;
+    // event collection the segment's events were moved out of; null for segments written before event partitions
+    private String sourceCollection;
+    @Indexed(name = "events_deleted")
+    private boolean eventsDeleted;
+    private List<Total> totals = new ArrayList<>();
+    private Instant createdAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public Instant getDay() {
+        return day;
+    }
+
+    public void setDay(Instant day) {
+        this.day = day;
+    }
+
+    public Instant getFromOccurredAt() {
+        return fromOccurredAt;
+    }
+
+    public void setFromOccurredAt(Instant fromOccurredAt) {
+        this.fromOccurredAt = fromOccurredAt;
+    }
+
+    public Instant getToOccurredAt() {
+        return toOccurredAt;
+    }
+
+    public void setToOccurredAt(Instant toOccurredAt) {
+        this.toOccurredAt = toOccurredAt;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public void setEventCount(int eventCount) {
+        this.eventCount = eventCount;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getSourceCollection() {
+        return sourceCollection;
+    }
+
+    public void setSourceCollection(String sourceCollection) {
+        this.sourceCollection = sourceCollection;
+    }
+
+    public boolean isEventsDeleted() {
+        return eventsDeleted;
+    }
+
+    public void setEventsDeleted(boolean eventsDeleted) {
+        this.eventsDeleted = eventsDeleted;
+    }
+
+    public List<Total> getTotals() {
+        return totals;
+    }
+
+    public void setTotals(List<Total> totals) {
+        this.totals = totals;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public record Total(String customerId, String metricCode, long quantity, long events) {
+    }
+}
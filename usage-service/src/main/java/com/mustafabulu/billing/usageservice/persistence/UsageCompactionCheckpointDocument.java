@@ -0,0 +1,48 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// one per compacted metric: events received before compactedThrough have been rolled into buckets
+@Document(collection = "usage_compaction_checkpoints")
+@SuppressWarnings("unused")
+public class UsageCompactionCheckpointDocument {
+    @Id
+    private String id;
+    private Instant compactedThrough;
+    private long events;
+    private Instant updatedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Instant getCompactedThrough() {
+        return compactedThrough;
+    }
+
+    public void setCompactedThrough(Instant compactedThrough) {
+        this.compactedThrough = compactedThrough;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public void setEvents(long events) {
+        this.events = events;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
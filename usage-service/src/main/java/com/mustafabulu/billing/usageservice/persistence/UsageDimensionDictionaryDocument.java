@@ -0,0 +1,61 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "usage_dimension_dictionaries")
+@CompoundIndex(name = "tenant_dimension_unique", def = "{'tenantId': 1, 'dimension': 1}", unique = true)
+@SuppressWarnings("unused")
+public class UsageDimensionDictionaryDocument {
+    @Id
+    private String id;
+    private String tenantId;
+    private String dimension;
+    // a value's code is its position; values are only ever appended, so codes never change
+    private List<String> values = new ArrayList<>();
+    private Instant updatedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    public void setDimension(String dimension) {
+        this.dimension = dimension;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public void setValues(List<String> values) {
+        this.values = values;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
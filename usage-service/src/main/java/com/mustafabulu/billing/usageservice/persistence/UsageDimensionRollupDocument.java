@@ -0,0 +1,110 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "usage_dimension_rollups")
+@CompoundIndex(
+        name = "tenant_metric_dimension_bucket_customer_value_unique",
+        def = "{'tenantId': 1, 'metricCode': 1, 'dimension': 1, 'granularity': 1, 'bucketStart': 1, 'customerId': 1, "
+                + "'valueCode': 1}",
+        unique = true
+)
+@SuppressWarnings("unused")
+public class UsageDimensionRollupDocument {
+    @Id
+    private String id;
+    private String tenantId;
+    private String customerId;
+    private String metricCode;
+    private String dimension;
+    // dictionary code of the dimension value, see UsageDimensionDictionaryDocument
+    private int valueCode;
+    private UsageRollupGranularity granularity;
+    private Instant bucketStart;
+    private long totalQuantity;
+    private Instant updatedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public String getMetricCode() {
+        return metricCode;
+    }
+
+    public void setMetricCode(String metricCode) {
+        this.metricCode = metricCode;
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    public void setDimension(String dimension) {
+        this.dimension = dimension;
+    }
+
+    public int getValueCode() {
+        return valueCode;
+    }
+
+    public void setValueCode(int valueCode) {
+        this.valueCode = valueCode;
+    }
+
+    public UsageRollupGranularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(UsageRollupGranularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public Instant getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(Instant bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public long getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    public void setTotalQuantity(long totalQuantity) {
+        this.totalQuantity = totalQuantity;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
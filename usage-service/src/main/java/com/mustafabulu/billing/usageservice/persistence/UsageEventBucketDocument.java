@@ -0,0 +1,134 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// compacted raw events of one customer/metric and minute. The field names match UsageEventDocument, occurredAt being
+// the start of the minute and quantity the sum, so event queries read buckets as one event per minute.
+@Document(collection = "usage_event_buckets")
+@CompoundIndexes({
+        @CompoundIndex(
+                name = "tenant_customer_metric_minute_slice_unique",
+                def = "{'tenantId': 1, 'customerId': 1, 'metricCode': 1, 'occurredAt': 1, 'slice': 1}",
+                unique = true
+        ),
+        @CompoundIndex(name = "tenant_occurred_at_id", def = "{'tenantId': 1, 'occurredAt': 1, '_id': 1}")
+})
+@SuppressWarnings("unused")
+public class UsageEventBucketDocument {
+    @Id
+    private String id;
+    private String tenantId;
+    private String customerId;
+    private String metricCode;
+    private Instant occurredAt;
+    // UTC day the compacted events were received on; a late event of the same minute lands in a bucket of its own day
+    @Indexed(name = "slice")
+    private Instant slice;
+    private long quantity;
+    private long events;
+    private long minQuantity;
+    private long maxQuantity;
+    private Instant lastReceivedAt;
+    private Instant compactedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public String getMetricCode() {
+        return metricCode;
+    }
+
+    public void setMetricCode(String metricCode) {
+        this.metricCode = metricCode;
+    }
+
+    public Instant getOccurredAt() {
+        return occurredAt;
+    }
+
+    public void setOccurredAt(Instant occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+
+    public Instant getSlice() {
+        return slice;
+    }
+
+    public void setSlice(Instant slice) {
+        this.slice = slice;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(long quantity) {
+        this.quantity = quantity;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public void setEvents(long events) {
+        this.events = events;
+    }
+
+    public long getMinQuantity() {
+        return minQuantity;
+    }
+
+    public void setMinQuantity(long minQuantity) {
+        this.minQuantity = minQuantity;
+    }
+
+    public long getMaxQuantity() {
+        return maxQuantity;
+    }
+
+    public void setMaxQuantity(long maxQuantity) {
+        this.maxQuantity = maxQuantity;
+    }
+
+    public Instant getLastReceivedAt() {
+        return lastReceivedAt;
+    }
+
+    public void setLastReceivedAt(Instant lastReceivedAt) {
+        this.lastReceivedAt = lastReceivedAt;
+    }
+
+    public Instant getCompactedAt() {
+        return compactedAt;
+    }
+
+    public void setCompactedAt(Instant compactedAt) {
+        this.compactedAt = compactedAt;
+    }
+}
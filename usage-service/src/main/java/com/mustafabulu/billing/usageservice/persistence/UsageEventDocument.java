@@ -1,12 +1,18 @@
 package com.mustafabulu.billing.usageservice.persistence;
 
 import java.time.Instant;
+import java.util.Map;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "usage_events")
-@CompoundIndex(name = "tenant_idempotency_unique", def = "{'tenantId': 1, 'idempotencyKey': 1}", unique = true)
+@CompoundIndexes({
+        @CompoundIndex(name = "tenant_customer_metric", def = "{'tenantId': 1, 'customerId': 1, 'metricCode': 1}"),
+        @CompoundIndex(name = "tenant_occurred_at_id", def = "{'tenantId': 1, 'occurredAt': 1, '_id': 1}")
+})
 @SuppressWarnings("unused")
 public class UsageEventDocument {
     @Id
@@ -14,8 +20,13 @@ public class UsageEventDocument {
     private String tenantId;
     private String customerId;
     private String idempotencyKey;
+    @Indexed(name = "idempotency_hash_unique", unique = true, sparse = true)
+    private byte[] idempotencyHash;
     private String metricCode;
     private long quantity;
+    private String distinctValue;
+    // dimension name -> dictionary code of its value
+    private Map<String, Integer> dimensions;
     private Instant occurredAt;
     private Instant receivedAt;
 
@@ -51,6 +62,14 @@ public class UsageEventDocument {
         this.idempotencyKey = idempotencyKey;
     }
 
+    public byte[] getIdempotencyHash() {
+        return idempotencyHash;
+    }
+
+    public void setIdempotencyHash(byte[] idempotencyHash) {
+        this.idempotencyHash = idempotencyHash;
+    }
+
     public String getMetricCode() {
         return metricCode;
     }
@@ -67,6 +86,22 @@ public class UsageEventDocument {
         this.quantity = quantity;
     }
 
+    public String getDistinctValue() {
+        return distinctValue;
+    }
+
+    public void setDistinctValue(String distinctValue) {
+        this.distinctValue = distinctValue;
+    }
+
+    public Map<String, Integer> getDimensions() {
+        return dimensions;
+    }
+
+    public void setDimensions(Map<String, Integer> dimensions) {
+        this.dimensions = dimensions;
+    }
+
     public Instant getOccurredAt() {
         return occurredAt;
     }
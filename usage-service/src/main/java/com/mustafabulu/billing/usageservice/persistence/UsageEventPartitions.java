@@ -0,0 +1,267 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.LiteralOperators;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// usage events partitioned into one collection per UTC month of receipt. Idempotency keys only have to be unique inside
+// the dedupe window, so duplicate checks read the partitions that window touches, range reads visit every partition
+// (late events land in later months), and a partition past retention is dropped as a whole.
+@Component
+public class UsageEventPartitions {
+    private static final Logger log = LoggerFactory.getLogger(UsageEventPartitions.class);
+    public static final String BASE_COLLECTION = "usage_events";
+    private static final String PREFIX = BASE_COLLECTION + "_";
+    private static final String BUCKETS_PREFIX = "usage_event_buckets_";
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final Duration dedupeWindow;
+    private final Duration retention;
+    private final Set<String> prepared = ConcurrentHashMap.newKeySet();
+    // receipt time of the newest event in the unpartitioned collection, which stops growing once partitioning is on
+    private volatile Instant baseNewest;
+
+    @Value("${platform.usage.idempotency.hashed-keys.enabled:false}")
+    private boolean hashedKeys;
+
+    @Value("${platform.usage.archive.enabled:false}")
+    private boolean archiveEnabled;
+
+    public UsageEventPartitions(MongoTemplate mongoTemplate,
+                                @Value("${platform.usage.partitions.enabled:false}") boolean enabled,
+                                @Value("${platform.usage.partitions.dedupe-window:P35D}") Duration dedupeWindow,
+                                @Value("${platform.usage.partitions.retention:P400D}") Duration retention) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.dedupeWindow = dedupeWindow;
+        this.retention = retention;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration dedupeWindow() {
+        return dedupeWindow;
+    }
+
+    // the partition an event received at this instant goes to; its indexes exist before the first insert
+    public String writeCollection(Instant receivedAt) {
+        if (!enabled) {
+            return BASE_COLLECTION;
+        }
+        String collection = PREFIX + MONTH.format(YearMonth.from(receivedAt.atOffset(ZoneOffset.UTC)));
+        if (!prepared.contains(collection)) {
+            prepare(collection);
+        }
+        return collection;
+    }
+
+    // newest first: the partitions an earlier copy of an event received now could be in
+    public List<String> dedupeCollections(Instant now) {
+        if (!enabled) {
+            return List.of(BASE_COLLECTION);
+        }
+        List<String> collections = new ArrayList<>();
+        YearMonth oldest = YearMonth.from(now.minus(dedupeWindow).atOffset(ZoneOffset.UTC));
+        YearMonth month = YearMonth.from(now.atOffset(ZoneOffset.UTC));
+        while (!month.isBefore(oldest)) {
+            collections.add(PREFIX + MONTH.format(month));
+            month = month.minusMonths(1);
+        }
+        Instant newest = baseNewest();
+        if (newest != null && !newest.isBefore(now.minus(dedupeWindow))) {
+            collections.add(BASE_COLLECTION);
+        }
+        return collections;
+    }
+
+    // every collection holding usage events: the unpartitioned one first, then the partitions oldest first
+    public List<String> all() {
+        if (!enabled) {
+            return List.of(BASE_COLLECTION);
+        }
+        List<String> collections = new ArrayList<>();
+        collections.add(BASE_COLLECTION);
+        mongoTemplate.getCollectionNames().stream()
+                .filter(UsageEventPartitions::isPartition)
+                .sorted()
+                .forEach(collections::add);
+        return collections;
+    }
+
+    // one round trip whatever the number of partitions: the first collection's match is unioned with the others'
+    public List<UsageEventDocument> findInDedupeWindow(Criteria criteria, List<String> collections, String... fields) {
+        if (collections.isEmpty()) {
+            return List.of();
+        }
+        if (collections.size() == 1) {
+            Query query = Query.query(criteria);
+            if (fields.length > 0) {
+                query.fields().include(fields);
+            }
+            return mongoTemplate.find(query, UsageEventDocument.class, collections.get(0));
+        }
+        List<AggregationOperation> stages = new ArrayList<>(stages(criteria, fields));
+        for (String collection : collections.subList(1, collections.size())) {
+            stages.add(UnionWithOperation.unionWith(collection).pipeline(stages(criteria, fields)));
+        }
+        return mongoTemplate.aggregate(Aggregation.newAggregation(stages), collections.get(0), UsageEventDocument.class)
+                .getMappedResults();
+    }
+
+    @Scheduled(cron = "${platform.usage.partitions.drop-cron:0 30 2 * * *}")
+    public void scheduledDrop() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            dropExpired(Instant.now());
+        } catch (RuntimeException ex) {
+            log.error("usage_partition_drop_failed error={}", ex.getMessage(), ex);
+        }
+    }
+
+    // a partition is expired once its whole month is older than the retention; dropping it is one metadata operation
+    // however many events it holds. With the archive on, it first has to have moved every event out; without it, the
+    // partition's per customer/metric totals are kept in usage_partition_totals, which reconciliation counts.
+    public int dropExpired(Instant now) {
+        YearMonth expiredBefore = YearMonth.from(now.minus(retention).atOffset(ZoneOffset.UTC));
+        int dropped = 0;
+        for (String collection : all()) {
+            if (!isPartition(collection)
+                    || !YearMonth.parse(collection.substring(PREFIX.length()), MONTH).isBefore(expiredBefore)) {
+                continue;
+            }
+            if (archiveEnabled && mongoTemplate.exists(new Query(), collection)) {
+                log.warn("usage_partition_drop_deferred collection={} reason=not_archived", collection);
+                continue;
+            }
+            if (!archiveEnabled) {
+                mergeTotals(collection, new Criteria(), LiteralOperators.Literal.asLiteral(collection), false);
+            }
+            mongoTemplate.dropCollection(collection);
+            prepared.remove(collection);
+            dropped++;
+            log.info("usage_partition_dropped collection={}", collection);
+        }
+        dropExpiredBuckets(expiredBefore);
+        return dropped;
+    }
+
+    // compacted buckets expire with the partitions their events were received into, by the same day of receipt. The
+    // archive does not hold them, so with the archive on they are kept like a partition that is not archived yet.
+    private void dropExpiredBuckets(YearMonth expiredBefore) {
+        if (archiveEnabled) {
+            return;
+        }
+        Instant boundary = expiredBefore.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        Criteria expired = Criteria.where("slice").lt(boundary);
+        // labelled by month of receipt, so a rerun after a crash meets the totals it already recorded
+        mergeTotals(mongoTemplate.getCollectionName(UsageEventBucketDocument.class), expired,
+                StringOperators.Concat.stringValue(BUCKETS_PREFIX).concatValueOf(DateOperators.dateOf("slice").toString("%Y%m")),
+                true);
+        long deleted = mongoTemplate.remove(Query.query(expired), UsageEventBucketDocument.class)
+                .getDeletedCount();
+        if (deleted > 0) {
+            log.info("usage_event_buckets_dropped buckets={} receivedBefore={}", deleted, boundary);
+        }
+    }
+
+    // existing totals are kept as they are, so merging the same collection again cannot count it twice
+    private void mergeTotals(String collection, Criteria criteria, AggregationExpression partition, boolean compacted) {
+        ProjectionOperation fields = Aggregation.project("tenantId", "customerId", "metricCode", "quantity")
+                .and(partition).as("partition");
+        fields = compacted ? fields.andInclude("events") : fields.and(LiteralOperators.Literal.asLiteral(1)).as("events");
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                fields,
+                Aggregation.group("partition", "tenantId", "customerId", "metricCode")
+                        .sum("quantity").as("quantity")
+                        .sum("events").as("events"),
+                Aggregation.project("partition", "tenantId", "customerId", "metricCode", "quantity", "events")
+                        .andExclude("_id")
+                        .and(LiteralOperators.Literal.asLiteral(new Date())).as("droppedAt"),
+                MergeOperation.builder()
+                        .intoCollection(mongoTemplate.getCollectionName(UsagePartitionTotalsDocument.class))
+                        .on("partition", "tenantId", "customerId", "metricCode")
+                        .whenMatched(MergeOperation.WhenDocumentsMatch.keepExistingDocument())
+                        .whenNotMatched(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                        .build()
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        mongoTemplate.aggregate(aggregation, collection, Document.class);
+    }
+
+    private void prepare(String collection) {
+        IndexOperations indexOperations = mongoTemplate.indexOps(collection);
+        IndexResolver.create(mongoTemplate.getConverter().getMappingContext())
+                .resolveIndexFor(UsageEventDocument.class)
+                .forEach(indexOperations::ensureIndex);
+        if (!hashedKeys) {
+            indexOperations.ensureIndex(new Index()
+                    .on("tenantId", Sort.Direction.ASC)
+                    .on("idempotencyKey", Sort.Direction.ASC)
+                    .unique()
+                    .named(UsageIdempotencyKeyMigration.LEGACY_INDEX));
+        }
+        prepared.add(collection);
+        log.info("usage_partition_prepared collection={}", collection);
+    }
+
+    private Instant baseNewest() {
+        if (baseNewest == null) {
+            Query query = new Query().with(Sort.by(Sort.Direction.DESC, "_id")).limit(1);
+            query.fields().include("_id");
+            UsageEventDocument newest = mongoTemplate.findOne(query, UsageEventDocument.class, BASE_COLLECTION);
+            baseNewest = newest == null || !ObjectId.isValid(newest.getId())
+                    ? Instant.EPOCH
+                    : new ObjectId(newest.getId()).getDate().toInstant();
+        }
+        return baseNewest;
+    }
+
+    private static List<AggregationOperation> stages(Criteria criteria, String... fields) {
+        return fields.length == 0
+                ? List.of(Aggregation.match(criteria))
+                : List.of(Aggregation.match(criteria), Aggregation.project(fields));
+    }
+
+    static boolean isPartition(String collection) {
+        return collection.length() == PREFIX.length() + 6
+                && collection.startsWith(PREFIX)
+                && collection.substring(PREFIX.length()).chars().allMatch(Character::isDigit);
+    }
+}
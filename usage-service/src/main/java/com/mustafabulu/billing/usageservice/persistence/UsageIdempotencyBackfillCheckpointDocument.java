@@ -0,0 +1,57 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// progress of the idempotency hash backfill of one event collection, shared by every replica
+@Document(collection = "usage_idempotency_backfill_checkpoints")
+@SuppressWarnings("unused")
+public class UsageIdempotencyBackfillCheckpointDocument {
+    @Id
+    private String id;
+    private String lastBackfilledId;
+    private long backfilled;
+    private boolean completed;
+    private Instant updatedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getLastBackfilledId() {
+        return lastBackfilledId;
+    }
+
+    public void setLastBackfilledId(String lastBackfilledId) {
+        this.lastBackfilledId = lastBackfilledId;
+    }
+
+    public long getBackfilled() {
+        return backfilled;
+    }
+
+    public void setBackfilled(long backfilled) {
+        this.backfilled = backfilled;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,31 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+public final class UsageIdempotencyHash {
+    public static final int LENGTH = 16;
+
+    private UsageIdempotencyHash() {
+    }
+
+    // keys are client-chosen, so a cryptographic hash keeps one tenant from forging collisions with another's events
+    public static byte[] of(String tenantId, String idempotencyKey) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        byte[] tenant = tenantId.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (tenant.length >>> 24));
+        digest.update((byte) (tenant.length >>> 16));
+        digest.update((byte) (tenant.length >>> 8));
+        digest.update((byte) tenant.length);
+        digest.update(tenant);
+        digest.update(idempotencyKey.getBytes(StandardCharsets.UTF_8));
+        return Arrays.copyOf(digest.digest(), LENGTH);
+    }
+}
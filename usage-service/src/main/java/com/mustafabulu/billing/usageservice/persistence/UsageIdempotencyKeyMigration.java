@@ -0,0 +1,170 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.application.UsageJobLeases;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Instant;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageIdempotencyKeyMigration {
+    private static final Logger log = LoggerFactory.getLogger(UsageIdempotencyKeyMigration.class);
+    static final String LEGACY_INDEX = "tenant_idempotency_unique";
+    private static final String JOB = "usage-idempotency-backfill";
+
+    private final MongoTemplate mongoTemplate;
+    private final UsageJobLeases usageJobLeases;
+    private final UsageEventPartitions usageEventPartitions;
+    private volatile boolean backfillPending = true;
+
+    @Value("${spring.data.mongodb.auto-index-creation:false}")
+    private boolean autoIndexCreation;
+
+    @Value("${platform.usage.idempotency.hashed-keys.enabled:false}")
+    private boolean hashedKeys;
+
+    // set once every replica runs hashed mode: a replica still in legacy mode writes events without a hash, which only
+    // the legacy index keeps unique
+    @Value("${platform.usage.idempotency.drop-legacy-index.enabled:false}")
+    private boolean dropLegacyIndex;
+
+    @Value("${platform.usage.idempotency.backfill-batch-size:1000}")
+    private int backfillBatchSize;
+
+    @Value("${platform.usage.idempotency.backfill-lease-ms:60000}")
+    private long leaseMs;
+
+    public UsageIdempotencyKeyMigration(MongoTemplate mongoTemplate,
+                                        UsageJobLeases usageJobLeases,
+                                        UsageEventPartitions usageEventPartitions) {
+        this.mongoTemplate = mongoTemplate;
+        this.usageJobLeases = usageJobLeases;
+        this.usageEventPartitions = usageEventPartitions;
+    }
+
+    // until the backfill is done, collections hold events without a hash and lookups also match the raw key
+    public boolean isBackfilled() {
+        return !backfillPending;
+    }
+
+    // the (tenantId, idempotencyKey) index is managed here rather than on the document so hashed mode can retire it
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureLegacyIndex() {
+        if (!autoIndexCreation || hashedKeys) {
+            return;
+        }
+        mongoTemplate.indexOps(UsageEventDocument.class).ensureIndex(new Index()
+                .on("tenantId", Sort.Direction.ASC)
+                .on("idempotencyKey", Sort.Direction.ASC)
+                .unique()
+                .named(LEGACY_INDEX));
+    }
+
+    // walks usage_events and each monthly partition once in _id order under a job lease, so one replica does the walk
+    // and a restart or a new lease holder resumes from the collection's stored cursor. The legacy indexes keep enforcing
+    // uniqueness after the walk and are only dropped once drop-legacy-index is set
+    @Scheduled(fixedDelayString = "${platform.usage.idempotency.backfill-interval-ms:1000}")
+    public synchronized void backfillHashes() {
+        if (!hashedKeys || !backfillPending || !usageJobLeases.tryAcquire(JOB, leaseMs)) {
+            return;
+        }
+        List<String> collections = usageEventPartitions.all();
+        for (String collection : collections) {
+            UsageIdempotencyBackfillCheckpointDocument checkpoint =
+                    mongoTemplate.findById(collection, UsageIdempotencyBackfillCheckpointDocument.class);
+            if (checkpoint == null || !checkpoint.isCompleted()) {
+                backfillPage(collection, checkpoint == null ? null : checkpoint.getLastBackfilledId());
+                return;
+            }
+        }
+        if (dropLegacyIndex && !dropLegacyIndexes(collections)) {
+            return;
+        }
+        backfillPending = false;
+        usageJobLeases.release(JOB);
+        log.info("usage_idempotency_backfill_completed legacy_index_dropped={}", dropLegacyIndex);
+    }
+
+    private void backfillPage(String collection, String lastBackfilledId) {
+        Criteria criteria = lastBackfilledId == null ? new Criteria() : Criteria.where("_id").gt(lastBackfilledId);
+        List<UsageEventDocument> page = page(criteria, collection);
+        if (page.isEmpty()) {
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(collection)),
+                    new Update().set("completed", true).set("updatedAt", Instant.now()),
+                    UsageIdempotencyBackfillCheckpointDocument.class);
+            log.info("usage_idempotency_backfill_collection_completed collection={}", collection);
+            return;
+        }
+        int missing = hash(page, collection);
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(collection)), new Update()
+                        .set("lastBackfilledId", page.get(page.size() - 1).getId())
+                        .inc("backfilled", missing)
+                        .set("updatedAt", Instant.now()),
+                UsageIdempotencyBackfillCheckpointDocument.class);
+    }
+
+    // events written behind the cursor by a replica still in legacy mode have no hash either, so each collection is
+    // scanned again and hashed page by page; the indexes go only once no collection has an event without one
+    private boolean dropLegacyIndexes(List<String> collections) {
+        for (String collection : collections) {
+            List<UsageEventDocument> unhashed = page(Criteria.where("idempotencyHash").exists(false), collection);
+            if (!unhashed.isEmpty()) {
+                hash(unhashed, collection);
+                return false;
+            }
+        }
+        collections.forEach(this::dropLegacyIndex);
+        return true;
+    }
+
+    private List<UsageEventDocument> page(Criteria criteria, String collection) {
+        Query query = Query.query(criteria).with(Sort.by("_id")).limit(Math.max(backfillBatchSize, 1));
+        query.fields().include("tenantId").include("idempotencyKey").include("idempotencyHash");
+        return mongoTemplate.find(query, UsageEventDocument.class, collection);
+    }
+
+    private int hash(List<UsageEventDocument> page, String collection) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class,
+                collection);
+        int missing = 0;
+        for (UsageEventDocument document : page) {
+            if (document.getIdempotencyHash() == null) {
+                bulk.updateOne(Query.query(Criteria.where("_id").is(document.getId())), new Update()
+                        .set("idempotencyHash", UsageIdempotencyHash.of(document.getTenantId(), document.getIdempotencyKey())));
+                missing++;
+            }
+        }
+        if (missing > 0) {
+            bulk.execute();
+            Metrics.counter("platform.usage.idempotency.backfilled").increment(missing);
+        }
+        return missing;
+    }
+
+    private void dropLegacyIndex(String collection) {
+        if (!autoIndexCreation) {
+            return;
+        }
+        IndexOperations indexOperations = mongoTemplate.indexOps(collection);
+        boolean present = indexOperations.getIndexInfo().stream().map(IndexInfo::getName).anyMatch(LEGACY_INDEX::equals);
+        if (present) {
+            indexOperations.dropIndex(LEGACY_INDEX);
+            log.info("usage_legacy_index_dropped collection={} index={}", collection, LEGACY_INDEX);
+        }
+    }
+}
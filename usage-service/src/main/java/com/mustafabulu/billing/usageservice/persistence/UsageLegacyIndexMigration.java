@@ -0,0 +1,61 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UsageLegacyIndexMigration {
+    private static final Logger log = LoggerFactory.getLogger(UsageLegacyIndexMigration.class);
+
+    // legacy index -> its replacement, which must already exist before the legacy one is dropped: shard-aware
+    // uniqueness of aggregates and rollups, and the _id tie-breaker of the keyset-ordered event export
+    private static final Map<Class<?>, Map.Entry<String, String>> REPLACEMENTS = Map.of(
+            UsageAggregateDocument.class,
+            Map.entry("tenant_customer_metric_unique", "tenant_customer_metric_shard_unique"),
+            UsageRollupDocument.class,
+            Map.entry("tenant_customer_metric_bucket_unique", "tenant_customer_metric_bucket_shard_unique"),
+            UsageEventDocument.class,
+            Map.entry("tenant_occurred_at", "tenant_occurred_at_id")
+    );
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${spring.data.mongodb.auto-index-creation:false}")
+    private boolean autoIndexCreation;
+
+    public UsageLegacyIndexMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void dropLegacyIndexes() {
+        if (!autoIndexCreation) {
+            return;
+        }
+        REPLACEMENTS.forEach((documentType, replacement) -> {
+            try {
+                IndexOperations indexOperations = mongoTemplate.indexOps(documentType);
+                Set<String> existing = indexOperations.getIndexInfo().stream()
+                        .map(IndexInfo::getName)
+                        .collect(Collectors.toSet());
+                if (existing.contains(replacement.getKey()) && existing.contains(replacement.getValue())) {
+                    indexOperations.dropIndex(replacement.getKey());
+                    log.info("usage_legacy_index_dropped collection={} index={}",
+                            mongoTemplate.getCollectionName(documentType), replacement.getKey());
+                }
+            } catch (RuntimeException ex) {
+                log.warn("usage_legacy_index_drop_failed index={} error={}", replacement.getKey(), ex.getMessage());
+            }
+        });
+    }
+}
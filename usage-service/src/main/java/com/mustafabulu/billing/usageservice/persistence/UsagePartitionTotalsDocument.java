@@ -0,0 +1,95 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// per customer/metric totals of an event partition dropped past retention without an archive, so the lifetime
+// aggregates those events were counted into still reconcile once the events themselves are gone
+@Document(collection = "usage_partition_totals")
+@CompoundIndexes({
+        @CompoundIndex(
+                name = "partition_tenant_customer_metric_unique",
+                def = "{'partition': 1, 'tenantId': 1, 'customerId': 1, 'metricCode': 1}",
+                unique = true
+        ),
+        @CompoundIndex(name = "tenant_customer", def = "{'tenantId': 1, 'customerId': 1}")
+})
+@SuppressWarnings("unused")
+public class UsagePartitionTotalsDocument {
+    @Id
+    private String id;
+    private String partition;
+    private String tenantId;
+    private String customerId;
+    private String metricCode;
+    private long quantity;
+    private long events;
+    private Instant droppedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getPartition() {
+        return partition;
+    }
+
+    public void setPartition(String partition) {
+        this.partition = partition;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public String getMetricCode() {
+        return metricCode;
+    }
+
+    public void setMetricCode(String metricCode) {
+        this.metricCode = metricCode;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(long quantity) {
+        this.quantity = quantity;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public void setEvents(long events) {
+        this.events = events;
+    }
+
+    public Instant getDroppedAt() {
+        return droppedAt;
+    }
+
+    public void setDroppedAt(Instant droppedAt) {
+        this.droppedAt = droppedAt;
+    }
+}
@@ -0,0 +1,105 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodStatus;
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "usage_periods")
+@CompoundIndex(name = "tenant_period_unique", def = "{'tenantId': 1, 'from': 1, 'to': 1}", unique = true)
+@SuppressWarnings("unused")
+public class UsagePeriodDocument {
+    @Id
+    private String id;
+    private String tenantId;
+    private Instant from;
+    private Instant to;
+    private UsagePeriodStatus status;
+    // events received from the cutoff on are adjustments; earlier ones are frozen into the snapshot
+    private Instant cutoff;
+    private long snapshotKeys;
+    private String error;
+    private Instant requestedAt;
+    private Instant closedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public void setFrom(Instant from) {
+        this.from = from;
+    }
+
+    public Instant getTo() {
+        return to;
+    }
+
+    public void setTo(Instant to) {
+        this.to = to;
+    }
+
+    public UsagePeriodStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(UsagePeriodStatus status) {
+        this.status = status;
+    }
+
+    public Instant getCutoff() {
+        return cutoff;
+    }
+
+    public void setCutoff(Instant cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    public long getSnapshotKeys() {
+        return snapshotKeys;
+    }
+
+    public void setSnapshotKeys(long snapshotKeys) {
+        this.snapshotKeys = snapshotKeys;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Instant getRequestedAt() {
+        return requestedAt;
+    }
+
+    public void setRequestedAt(Instant requestedAt) {
+        this.requestedAt = requestedAt;
+    }
+
+    public Instant getClosedAt() {
+        return closedAt;
+    }
+
+    public void setClosedAt(Instant closedAt) {
+        this.closedAt = closedAt;
+    }
+}
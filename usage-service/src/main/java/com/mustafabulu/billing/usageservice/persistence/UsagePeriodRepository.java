@@ -0,0 +1,12 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodStatus;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface UsagePeriodRepository extends MongoRepository<UsagePeriodDocument, String> {
+    List<UsagePeriodDocument> findAllByTenantIdAndFromLessThanAndToGreaterThan(String tenantId, Instant to, Instant from);
+
+    List<UsagePeriodDocument> findAllByStatusAndCutoffLessThan(UsagePeriodStatus status, Instant cutoff);
+}
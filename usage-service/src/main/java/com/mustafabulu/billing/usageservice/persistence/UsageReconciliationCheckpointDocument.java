@@ -0,0 +1,74 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "usage_reconciliation_checkpoints")
+@SuppressWarnings("unused")
+public class UsageReconciliationCheckpointDocument {
+    @Id
+    private String id;
+    private String runId;
+    private String tenantId;
+    private String cursorCustomerId;
+    private boolean completed;
+    private long eventsScanned;
+    private Instant updatedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getCursorCustomerId() {
+        return cursorCustomerId;
+    }
+
+    public void setCursorCustomerId(String cursorCustomerId) {
+        this.cursorCustomerId = cursorCustomerId;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    public long getEventsScanned() {
+        return eventsScanned;
+    }
+
+    public void setEventsScanned(long eventsScanned) {
+        this.eventsScanned = eventsScanned;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,179 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationDiscrepancy;
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationStatus;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "usage_reconciliation_runs")
+@SuppressWarnings("unused")
+public class UsageReconciliationRunDocument {
+    @Id
+    private String id;
+    private UsageReconciliationStatus status;
+    @Indexed(name = "active_run_unique", unique = true, sparse = true)
+    private String activeSlot;
+    private boolean repair;
+    private List<String> tenantIds = new ArrayList<>();
+    private String ownerId;
+    private Instant leaseUntil;
+    private int tenantsTotal;
+    private int tenantsCompleted;
+    private long eventsScanned;
+    private long keysChecked;
+    private long discrepancies;
+    private long repaired;
+    private List<UsageReconciliationDiscrepancy> samples = new ArrayList<>();
+    private String error;
+    private Instant startedAt;
+    private Instant updatedAt;
+    private Instant finishedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public UsageReconciliationStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(UsageReconciliationStatus status) {
+        this.status = status;
+    }
+
+    public String getActiveSlot() {
+        return activeSlot;
+    }
+
+    public void setActiveSlot(String activeSlot) {
+        this.activeSlot = activeSlot;
+    }
+
+    public boolean isRepair() {
+        return repair;
+    }
+
+    public void setRepair(boolean repair) {
+        this.repair = repair;
+    }
+
+    public List<String> getTenantIds() {
+        return tenantIds;
+    }
+
+    public void setTenantIds(List<String> tenantIds) {
+        this.tenantIds = tenantIds;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    public Instant getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public void setLeaseUntil(Instant leaseUntil) {
+        this.leaseUntil = leaseUntil;
+    }
+
+    public int getTenantsTotal() {
+        return tenantsTotal;
+    }
+
+    public void setTenantsTotal(int tenantsTotal) {
+        this.tenantsTotal = tenantsTotal;
+    }
+
+    public int getTenantsCompleted() {
+        return tenantsCompleted;
+    }
+
+    public void setTenantsCompleted(int tenantsCompleted) {
+        this.tenantsCompleted = tenantsCompleted;
+    }
+
+    public long getEventsScanned() {
+        return eventsScanned;
+    }
+
+    public void setEventsScanned(long eventsScanned) {
+        this.eventsScanned = eventsScanned;
+    }
+
+    public long getKeysChecked() {
+        return keysChecked;
+    }
+
+    public void setKeysChecked(long keysChecked) {
+        this.keysChecked = keysChecked;
+    }
+
+    public long getDiscrepancies() {
+        return discrepancies;
+    }
+
+    public void setDiscrepancies(long discrepancies) {
+        this.discrepancies = discrepancies;
+    }
+
+    public long getRepaired() {
+        return repaired;
+    }
+
+    public void setRepaired(long repaired) {
+        this.repaired = repaired;
+    }
+
+    public List<UsageReconciliationDiscrepancy> getSamples() {
+        return samples;
+    }
+
+    public void setSamples(List<UsageReconciliationDiscrepancy> samples) {
+        this.samples = samples;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
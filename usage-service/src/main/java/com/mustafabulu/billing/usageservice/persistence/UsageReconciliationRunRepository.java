@@ -0,0 +1,9 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationStatus;
+import java.util.Optional;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface UsageReconciliationRunRepository extends MongoRepository<UsageReconciliationRunDocument, String> {
+    Optional<UsageReconciliationRunDocument> findFirstByStatus(UsageReconciliationStatus status);
+}
@@ -0,0 +1,135 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+@Document(collection = "usage_rollups")
+@CompoundIndex(
+        name = "tenant_customer_metric_bucket_shard_unique",
+        def = "{'tenantId': 1, 'customerId': 1, 'metricCode': 1, 'granularity': 1, 'bucketStart': 1, 'shard': 1}",
+        unique = true
+)
+@SuppressWarnings("unused")
+public class UsageRollupDocument {
+    @Id
+    private String id;
+    private String tenantId;
+    private String customerId;
+    private String metricCode;
+    private UsageRollupGranularity granularity;
+    private Instant bucketStart;
+    private Integer shard;
+    private long totalQuantity;
+    // HyperLogLog registers of DISTINCT metrics: precision -> register index -> rank
+    private Map<String, Map<String, Integer>> distinctRegisters;
+    // quantile sketch buckets of PERCENTILE metrics: accuracy in basis points -> bucket index -> sample count
+    private Map<String, Map<String, Long>> quantileBuckets;
+    // GAUGE metrics: value x milliseconds of the closed reading intervals inside the bucket, as Decimal128 since a
+    // long overflows within a day for byte-sized readings
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal gaugeArea = BigDecimal.ZERO;
+    private Instant updatedAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public String getMetricCode() {
+        return metricCode;
+    }
+
+    public void setMetricCode(String metricCode) {
+        this.metricCode = metricCode;
+    }
+
+    public UsageRollupGranularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(UsageRollupGranularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public Instant getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(Instant bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public Integer getShard() {
+        return shard;
+    }
+
+    public void setShard(Integer shard) {
+        this.shard = shard;
+    }
+
+    public long getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    public void setTotalQuantity(long totalQuantity) {
+        this.totalQuantity = totalQuantity;
+    }
+
+    public Map<String, Map<String, Integer>> getDistinctRegisters() {
+        return distinctRegisters;
+    }
+
+    public void setDistinctRegisters(Map<String, Map<String, Integer>> distinctRegisters) {
+        this.distinctRegisters = distinctRegisters;
+    }
+
+    public Map<String, Map<String, Long>> getQuantileBuckets() {
+        return quantileBuckets;
+    }
+
+    public void setQuantileBuckets(Map<String, Map<String, Long>> quantileBuckets) {
+        this.quantileBuckets = quantileBuckets;
+    }
+
+    public BigDecimal getGaugeArea() {
+        return gaugeArea;
+    }
+
+    public void setGaugeArea(BigDecimal gaugeArea) {
+        this.gaugeArea = gaugeArea;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,208 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// scans a segment written by UsageSegmentWriter straight from a read-only mapping; only the dictionaries live on the heap
+public final class UsageSegmentReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final int eventCount;
+    private final Instant minOccurredAt;
+    private final Instant maxOccurredAt;
+    private final String tenantId;
+    private final String[] customers;
+    private final String[] metrics;
+    private final ByteBuffer[] columns = new ByteBuffer[UsageSegmentWriter.COLUMNS];
+
+    private UsageSegmentReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = channel.size();
+        if (size < 33 || size > Integer.MAX_VALUE) {
+            throw new IOException("invalid segment size " + size);
+        }
+        this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+        ByteBuffer body = mapped.duplicate().limit((int) size - 4);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != mapped.getInt((int) size - 4)) {
+            throw new IOException("segment checksum mismatch");
+        }
+        if (body.getInt() != UsageSegmentWriter.MAGIC || body.get() != UsageSegmentWriter.VERSION) {
+            throw new IOException("unsupported segment format");
+        }
+        this.eventCount = body.getInt();
+        this.minOccurredAt = Instant.ofEpochMilli(body.getLong());
+        this.maxOccurredAt = Instant.ofEpochMilli(body.getLong());
+        this.tenantId = string(body);
+        this.customers = dictionary(body);
+        this.metrics = dictionary(body);
+        for (int i = 0; i < columns.length; i++) {
+            int length = body.getInt();
+            columns[i] = body.slice(body.position(), length);
+            body.position(body.position() + length);
+        }
+    }
+
+    public static UsageSegmentReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new UsageSegmentReader(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public int eventCount() {
+        return eventCount;
+    }
+
+    public String tenantId() {
+        return tenantId;
+    }
+
+    public Instant minOccurredAt() {
+        return minOccurredAt;
+    }
+
+    public Instant maxOccurredAt() {
+        return maxOccurredAt;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public final class Cursor {
+        private final ByteBuffer occurredAtColumn = columns[0].duplicate();
+        private final ByteBuffer customerColumn = columns[1].duplicate();
+        private final ByteBuffer metricColumn = columns[2].duplicate();
+        private final ByteBuffer quantityColumn = columns[3].duplicate();
+        private final ByteBuffer idempotencyKeyColumn = columns[4].duplicate();
+        private final ByteBuffer idColumn = columns[5].duplicate();
+        private final ByteBuffer receivedAtColumn = columns[6].duplicate();
+        private final FrontCodedValue idempotencyKey = new FrontCodedValue();
+        private final FrontCodedValue id = new FrontCodedValue();
+        private int position = -1;
+        private long occurredAtMillis;
+        private int customer;
+        private int metric;
+        private long quantity;
+        private long receivedAtOffset;
+
+        private Cursor() {
+        }
+
+        public boolean next() {
+            if (position + 1 >= eventCount) {
+                return false;
+            }
+            position++;
+            occurredAtMillis += zigzag(occurredAtColumn);
+            customer = (int) varLong(customerColumn);
+            metric = (int) varLong(metricColumn);
+            quantity = zigzag(quantityColumn);
+            idempotencyKey.advance(idempotencyKeyColumn);
+            id.advance(idColumn);
+            receivedAtOffset = zigzag(receivedAtColumn);
+            return true;
+        }
+
+        public long occurredAtMillis() {
+            return occurredAtMillis;
+        }
+
+        public Instant occurredAt() {
+            return Instant.ofEpochMilli(occurredAtMillis);
+        }
+
+        public String customerId() {
+            return customers[customer];
+        }
+
+        public String metricCode() {
+            return metrics[metric];
+        }
+
+        public long quantity() {
+            return quantity;
+        }
+
+        public String idempotencyKey() {
+            return idempotencyKey.value();
+        }
+
+        public String id() {
+            return id.value();
+        }
+
+        public Instant receivedAt() {
+            return Instant.ofEpochMilli(occurredAtMillis + receivedAtOffset);
+        }
+    }
+
+    private static final class FrontCodedValue {
+        private byte[] bytes = new byte[64];
+        private int length;
+
+        private void advance(ByteBuffer column) {
+            int shared = (int) varLong(column);
+            int suffix = (int) varLong(column);
+            if (shared + suffix > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(shared + suffix, bytes.length * 2));
+            }
+            column.get(bytes, shared, suffix);
+            length = shared + suffix;
+        }
+
+        private String value() {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String[] dictionary(ByteBuffer buffer) {
+        String[] values = new String[(int) varLong(buffer)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = string(buffer);
+        }
+        return values;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[(int) varLong(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long varLong(ByteBuffer buffer) {
+        long value = 0L;
+        int shift = 0;
+        byte current;
+        do {
+            current = buffer.get();
+            value |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        return value;
+    }
+
+    private static long zigzag(ByteBuffer buffer) {
+        long value = varLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,150 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// columnar segment layout: header, string dictionaries, one length-prefixed block per column, CRC32 trailer.
+// columns use delta/zigzag varints, dictionary indexes and front-coded strings so readers can decode them in place.
+public final class UsageSegmentWriter {
+    static final int MAGIC = 0x55534731;
+    static final byte VERSION = 1;
+    static final int COLUMNS = 7;
+
+    private UsageSegmentWriter() {
+    }
+
+    // events must all belong to tenantId; they are stored in the given order
+    public static long write(Path target, String tenantId, List<UsageEventDocument> events) throws IOException {
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("segment must contain at least one event");
+        }
+        Map<String, Integer> customers = new LinkedHashMap<>();
+        Map<String, Integer> metrics = new LinkedHashMap<>();
+        Block occurredAt = new Block();
+        Block customer = new Block();
+        Block metric = new Block();
+        Block quantity = new Block();
+        Block idempotencyKey = new Block();
+        Block id = new Block();
+        Block receivedAt = new Block();
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long previousOccurredAt = 0L;
+        byte[] previousKey = new byte[0];
+        byte[] previousId = new byte[0];
+        for (UsageEventDocument event : events) {
+            if (!tenantId.equals(event.getTenantId())) {
+                throw new IllegalArgumentException("segment events must belong to tenant " + tenantId);
+            }
+            long eventTime = event.getOccurredAt().toEpochMilli();
+            min = Math.min(min, eventTime);
+            max = Math.max(max, eventTime);
+            occurredAt.zigzag(eventTime - previousOccurredAt);
+            previousOccurredAt = eventTime;
+            customer.varLong(customers.computeIfAbsent(event.getCustomerId(), ignored -> customers.size()));
+            metric.varLong(metrics.computeIfAbsent(event.getMetricCode(), ignored -> metrics.size()));
+            quantity.zigzag(event.getQuantity());
+            previousKey = idempotencyKey.frontCoded(previousKey, event.getIdempotencyKey());
+            previousId = id.frontCoded(previousId, event.getId());
+            receivedAt.zigzag(event.getReceivedAt() == null ? 0L : event.getReceivedAt().toEpochMilli() - eventTime);
+        }
+
+        Block segment = new Block();
+        segment.fixedInt(MAGIC);
+        segment.write(VERSION);
+        segment.fixedInt(events.size());
+        segment.fixedLong(min);
+        segment.fixedLong(max);
+        segment.string(tenantId);
+        segment.dictionary(customers);
+        segment.dictionary(metrics);
+        for (Block column : List.of(occurredAt, customer, metric, quantity, idempotencyKey, id, receivedAt)) {
+            segment.fixedInt(column.size());
+            column.writeTo(segment);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(segment.buffer(), 0, segment.size());
+        segment.fixedInt((int) crc.getValue());
+
+        // segments are immutable: written next to the target, forced to disk, then moved into place
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(segment.buffer(), 0, segment.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        return segment.size();
+    }
+
+    private static final class Block extends ByteArrayOutputStream {
+
+        private byte[] buffer() {
+            return buf;
+        }
+
+        private void fixedInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void fixedLong(long value) {
+            fixedInt((int) (value >>> 32));
+            fixedInt((int) value);
+        }
+
+        private void varLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void zigzag(long value) {
+            varLong((value << 1) ^ (value >> 63));
+        }
+
+        private void string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        private void dictionary(Map<String, Integer> values) {
+            varLong(values.size());
+            values.keySet().forEach(this::string);
+        }
+
+        private byte[] frontCoded(byte[] previous, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int limit = Math.min(previous.length, bytes.length);
+            while (shared < limit && previous[shared] == bytes[shared]) {
+                shared++;
+            }
+            varLong(shared);
+            varLong(bytes.length - shared);
+            write(bytes, shared, bytes.length - shared);
+            return bytes;
+        }
+    }
+}
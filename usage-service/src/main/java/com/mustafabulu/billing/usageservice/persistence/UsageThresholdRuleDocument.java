@@ -0,0 +1,79 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "usage_threshold_rules")
+@SuppressWarnings("unused")
+public class UsageThresholdRuleDocument {
+    @Id
+    private String id;
+    @Indexed(name = "tenant_idx")
+    private String tenantId;
+    private String metricCode;
+    // null applies the rule to every customer of the tenant
+    private String customerId;
+    private long quota;
+    private List<Integer> thresholdPercents = new ArrayList<>();
+    private Instant createdAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getMetricCode() {
+        return metricCode;
+    }
+
+    public void setMetricCode(String metricCode) {
+        this.metricCode = metricCode;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    public void setQuota(long quota) {
+        this.quota = quota;
+    }
+
+    public List<Integer> getThresholdPercents() {
+        return thresholdPercents;
+    }
+
+    public void setThresholdPercents(List<Integer> thresholdPercents) {
+        this.thresholdPercents = thresholdPercents;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
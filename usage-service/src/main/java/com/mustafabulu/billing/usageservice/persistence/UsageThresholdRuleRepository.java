@@ -0,0 +1,13 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface UsageThresholdRuleRepository extends MongoRepository<UsageThresholdRuleDocument, String> {
+    List<UsageThresholdRuleDocument> findAllByTenantId(String tenantId);
+
+    Optional<UsageThresholdRuleDocument> findByIdAndTenantId(String id, String tenantId);
+
+    long countByTenantId(String tenantId);
+}
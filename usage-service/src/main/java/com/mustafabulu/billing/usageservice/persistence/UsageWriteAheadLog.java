@@ -0,0 +1,322 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// append-only segments of fixed size, memory-mapped so an append is a copy into the page cache. header: magic, version,
+// offset of the first unapplied record. records: length, CRC32, payload; the length is written last, so a torn append
+// reads as the end of the segment. Records the drain cannot apply are moved to a quarantine file in the same framing.
+@Component
+public class UsageWriteAheadLog {
+    private static final Logger log = LoggerFactory.getLogger(UsageWriteAheadLog.class);
+    static final int MAGIC = 0x55535731;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final String QUARANTINE_FILE = "wal-quarantine.log";
+    private static final int APPLIED_OFFSET = 8;
+    private static final int RECORD_OVERHEAD = 8;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final AtomicLong pendingEvents = new AtomicLong();
+    private Segment active;
+    private long nextSequence = 1L;
+
+    public UsageWriteAheadLog(@Value("${platform.usage.wal.enabled:false}") boolean enabled,
+                              @Value("${platform.usage.wal.directory:./data/usage-wal}") String directory,
+                              @Value("${platform.usage.wal.segment-bytes:67108864}") int segmentBytes,
+                              @Value("${platform.usage.wal.max-segments:32}") int maxSegments) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(maxSegments, 1);
+        Metrics.gauge("platform.usage.wal.pending.events", pendingEvents, AtomicLong::get);
+        Metrics.gauge("platform.usage.wal.segments", segments, Deque::size);
+        if (enabled) {
+            recover();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long pendingEvents() {
+        return pendingEvents.get();
+    }
+
+    // false when the event cannot be logged (log full or record larger than a segment); callers write it synchronously
+    public synchronized boolean append(UsageEvent event, Instant receivedAt) {
+        byte[] payload = encode(event, receivedAt);
+        int size = RECORD_OVERHEAD + payload.length;
+        if (size > segmentBytes - HEADER_BYTES) {
+            return false;
+        }
+        if (active == null || active.writePosition + size > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                Metrics.counter("platform.usage.wal.rejected").increment();
+                return false;
+            }
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.writePosition;
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.put(position + RECORD_OVERHEAD, payload);
+        buffer.putInt(position, payload.length);
+        active.writePosition += size;
+        pendingEvents.incrementAndGet();
+        return true;
+    }
+
+    // reads up to maxEntries unapplied records from the oldest segment; records stay in the log until markApplied
+    public synchronized Batch read(int maxEntries) {
+        retireDrained();
+        Segment segment = segments.peekFirst();
+        if (segment == null) {
+            return new Batch(0L, 0, List.of());
+        }
+        List<Entry> entries = new ArrayList<>();
+        int position = segment.readPosition;
+        while (entries.size() < maxEntries && position < segment.writePosition) {
+            byte[] payload = new byte[segment.buffer.getInt(position)];
+            segment.buffer.get(position + RECORD_OVERHEAD, payload);
+            entries.add(decode(payload));
+            position += RECORD_OVERHEAD + payload.length;
+        }
+        return new Batch(segment.sequence, position, entries);
+    }
+
+    public synchronized void markApplied(Batch batch) {
+        Segment segment = segments.peekFirst();
+        if (segment == null || segment.sequence != batch.segment() || batch.endPosition() <= segment.readPosition) {
+            return;
+        }
+        segment.readPosition = batch.endPosition();
+        segment.buffer.putInt(APPLIED_OFFSET, batch.endPosition());
+        pendingEvents.addAndGet(-batch.entries().size());
+        retireDrained();
+    }
+
+    // parks the batch's records outside the drained segments and marks them applied, so one record that can never be
+    // stored does not hold back the ones logged after it
+    public synchronized void quarantine(Batch batch) {
+        Path path = directory.resolve(QUARANTINE_FILE);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (Entry entry : batch.entries()) {
+                byte[] payload = encode(entry.event(), entry.receivedAt());
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                channel.write(ByteBuffer.allocate(RECORD_OVERHEAD + payload.length)
+                        .putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip());
+            }
+            channel.force(true);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to quarantine write-ahead log records in " + path, ex);
+        }
+        Metrics.counter("platform.usage.wal.quarantined").increment(batch.entries().size());
+        markApplied(batch);
+    }
+
+    // group flush of the active segment; appends only reach the page cache, so this bounds what an OS crash can lose
+    public void force() {
+        Segment segment;
+        synchronized (this) {
+            segment = active;
+        }
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        force();
+    }
+
+    private void roll() {
+        if (active != null) {
+            active.buffer.force();
+        }
+        long sequence = nextSequence++;
+        Path path = directory.resolve(fileName(sequence));
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(APPLIED_OFFSET, HEADER_BYTES);
+            buffer.force();
+            active = new Segment(sequence, path, buffer, HEADER_BYTES, HEADER_BYTES);
+            segments.addLast(active);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to create write-ahead log segment " + path, ex);
+        }
+    }
+
+    private void retireDrained() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.peekFirst();
+            if (oldest == active || oldest.readPosition < oldest.writePosition) {
+                return;
+            }
+            segments.pollFirst();
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException ex) {
+                log.warn("usage_wal_segment_delete_failed path={} reason={}", oldest.path, ex.getMessage());
+            }
+        }
+    }
+
+    private void recover() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(directory)) {
+                files = listing.filter(path -> path.getFileName().toString().matches("wal-\\d{16}\\.log")).sorted().toList();
+            }
+            for (Path path : files) {
+                long sequence = Long.parseLong(path.getFileName().toString().substring(4, 20));
+                nextSequence = Math.max(nextSequence, sequence + 1);
+                Segment segment = open(sequence, path);
+                if (segment != null) {
+                    segments.addLast(segment);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to recover write-ahead log in " + directory, ex);
+        }
+        if (!segments.isEmpty()) {
+            log.info("usage_wal_recovered segments={} pending_events={}", segments.size(), pendingEvents.get());
+        }
+    }
+
+    // recovered segments are only drained; new appends always go to a fresh segment
+    private Segment open(long sequence, Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            log.error("usage_wal_segment_unreadable path={}", path);
+            return null;
+        }
+        int applied = buffer.getInt(APPLIED_OFFSET);
+        int position = applied;
+        long records = 0L;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_OVERHEAD <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_OVERHEAD + length > buffer.limit()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(position + RECORD_OVERHEAD, payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                log.warn("usage_wal_torn_record path={} offset={}", path, position);
+                break;
+            }
+            position += RECORD_OVERHEAD + length;
+            records++;
+        }
+        pendingEvents.addAndGet(records);
+        return new Segment(sequence, path, buffer, applied, position);
+    }
+
+    private static String fileName(long sequence) {
+        return String.format("wal-%016d.log", sequence);
+    }
+
+    private static byte[] encode(UsageEvent event, Instant receivedAt) {
+        byte[][] strings = {
+                bytes(event.tenantId()), bytes(event.customerId()), bytes(event.idempotencyKey()), bytes(event.metricCode())};
+        int size = Long.BYTES * 3;
+        for (byte[] value : strings) {
+            size += Integer.BYTES + value.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] value : strings) {
+            buffer.putInt(value.length).put(value);
+        }
+        buffer.putLong(event.quantity());
+        buffer.putLong(event.occurredAt().toEpochMilli());
+        buffer.putLong(receivedAt.toEpochMilli());
+        return buffer.array();
+    }
+
+    private static Entry decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        String tenantId = string(buffer);
+        String customerId = string(buffer);
+        String idempotencyKey = string(buffer);
+        String metricCode = string(buffer);
+        long quantity = buffer.getLong();
+        Instant occurredAt = Instant.ofEpochMilli(buffer.getLong());
+        Instant receivedAt = Instant.ofEpochMilli(buffer.getLong());
+        return new Entry(new UsageEvent(tenantId, customerId, idempotencyKey, metricCode, quantity, occurredAt), receivedAt);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    public record Entry(UsageEvent event, Instant receivedAt) {
+    }
+
+    public record Batch(long segment, int endPosition, List<Entry> entries) {
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+
+        private Segment(long sequence, Path path, MappedByteBuffer buffer, int readPosition, int writePosition) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+            this.readPosition = readPosition;
+            this.writePosition = writePosition;
+        }
+    }
+}
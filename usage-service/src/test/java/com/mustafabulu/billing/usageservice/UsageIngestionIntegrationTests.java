@@ -4,6 +4,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
 import com.mustafabulu.billing.usageservice.application.UsageIngestionService;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchResult;
 import com.mustafabulu.billing.usageservice.persistence.UsageAggregateRepository;
 import com.mustafabulu.billing.usageservice.persistence.UsageEventRepository;
 import java.time.Instant;
@@ -62,7 +63,8 @@ class UsageIngestionIntegrationTests {
                 "idem-1",
                 "api_call",
                 5L,
-                Instant.parse("2026-02-21T00:00:00Z")
+                Instant.parse("2026-02-21T00:00:00Z"),
+                null
         );
 
         usageIngestionService.ingest(request);
@@ -89,7 +91,8 @@ class UsageIngestionIntegrationTests {
                         "idem-" + index,
                         "storage_gb",
                         1L,
-                        Instant.now()
+                        Instant.now(),
+                        null
                 );
                 usageIngestionService.ingest(request);
                 return null;
@@ -108,4 +111,24 @@ class UsageIngestionIntegrationTests {
         assertThat(usageEventRepository.count()).isEqualTo(eventCount);
         assertThat(total).isEqualTo(eventCount);
     }
+
+    @Test
+    void shouldIngestBatchOnceAndAggregatePerKey() {
+        usageIngestionService.ingest(new UsageEventRequest(
+                "tenant-c", "customer-c", "idem-0", "api_call", 10L, Instant.parse("2026-02-21T00:00:00Z"), null));
+        List<UsageEventRequest> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new UsageEventRequest(
+                    "tenant-c", "customer-c", "idem-" + i, "api_call", 1L, Instant.parse("2026-02-21T00:00:00Z"), null));
+        }
+
+        UsageBatchResult first = usageIngestionService.ingestBatch(batch);
+        UsageBatchResult replay = usageIngestionService.ingestBatch(batch);
+
+        assertThat(first.accepted()).isEqualTo(19);
+        assertThat(first.duplicates()).isEqualTo(1);
+        assertThat(replay.accepted()).isZero();
+        assertThat(usageEventRepository.count()).isEqualTo(20L);
+        assertThat(usageIngestionService.currentTotal("tenant-c", "customer-c", "api_call")).isEqualTo(29L);
+    }
 }
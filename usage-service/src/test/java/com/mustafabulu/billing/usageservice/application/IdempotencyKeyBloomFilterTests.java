@@ -0,0 +1,72 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class IdempotencyKeyBloomFilterTests {
+
+    private final IdempotencyKeyBloomFilter filter = new IdempotencyKeyBloomFilter();
+
+    @BeforeEach
+    void configure() {
+        ReflectionTestUtils.setField(filter, "expectedKeysPerTenant", 10_000);
+        ReflectionTestUtils.setField(filter, "falsePositiveRate", 0.01);
+        ReflectionTestUtils.setField(filter, "maxTenants", 2);
+    }
+
+    @Test
+    void shouldNeverReportFalseNegatives() {
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("tenant-1", "usage-evt-" + i);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(filter.mightContain("tenant-1", "usage-evt-" + i)).isTrue();
+        }
+    }
+
+    @Test
+    void shouldKeepFalsePositiveRateNearConfiguredBound() {
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("tenant-1", "usage-evt-" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain("tenant-1", "other-evt-" + i)) {
+                falsePositives++;
+            }
+        }
+
+        assertThat(falsePositives).isLessThan(300);
+        assertThat(filter.mightContain("tenant-2", "usage-evt-1")).isFalse();
+    }
+
+    @Test
+    void shouldForgetKeysAfterTwoRotationsAndDropIdleTenants() {
+        filter.put("tenant-1", "usage-evt-1");
+
+        filter.rotate();
+        assertThat(filter.mightContain("tenant-1", "usage-evt-1")).isTrue();
+
+        filter.rotate();
+        assertThat(filter.mightContain("tenant-1", "usage-evt-1")).isFalse();
+
+        filter.rotate();
+        assertThat(filter.trackedTenants()).isZero();
+    }
+
+    @Test
+    void shouldFallBackToLookupWhenTenantCapacityIsExhausted() {
+        filter.put("tenant-1", "usage-evt-1");
+        filter.put("tenant-2", "usage-evt-1");
+
+        filter.put("tenant-3", "usage-evt-1");
+
+        assertThat(filter.trackedTenants()).isEqualTo(2);
+        assertThat(filter.mightContain("tenant-3", "never-seen")).isTrue();
+    }
+}
@@ -0,0 +1,220 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageAggregateWriteBufferTests {
+
+    private static final UsageAggregateKey KEY = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+    private static final Instant OCCURRED_AT = Instant.parse("2026-02-21T16:30:00Z");
+
+    private final UsageAggregateWriter usageAggregateWriter = Mockito.mock(UsageAggregateWriter.class);
+    private final UsageAggregateWriteBuffer buffer = new UsageAggregateWriteBuffer(usageAggregateWriter);
+
+    @BeforeEach
+    void enableBuffer() {
+        ReflectionTestUtils.setField(buffer, "enabled", true);
+        ReflectionTestUtils.setField(buffer, "maxPendingKeys", 100);
+    }
+
+    @Test
+    void shouldCoalesceIncrementsPerKeyIntoSingleFlush() {
+        UsageAggregateKey other = new UsageAggregateKey("tenant-1", "customer-2", "api_call");
+        buffer.add(KEY, 2L, OCCURRED_AT);
+        buffer.add(KEY, 3L, OCCURRED_AT);
+        buffer.add(other, 4L, OCCURRED_AT);
+
+        buffer.flush();
+
+        verify(usageAggregateWriter).incrementAll(Map.of(KEY, 5L, other, 4L));
+        verify(usageAggregateWriter).incrementRollups(Map.of(
+                UsageRollupKey.of(KEY, UsageRollupGranularity.HOUR, OCCURRED_AT), 5L,
+                UsageRollupKey.of(KEY, UsageRollupGranularity.DAY, OCCURRED_AT), 5L,
+                UsageRollupKey.of(other, UsageRollupGranularity.HOUR, OCCURRED_AT), 4L,
+                UsageRollupKey.of(other, UsageRollupGranularity.DAY, OCCURRED_AT), 4L));
+        assertThat(buffer.pendingKeys()).isZero();
+    }
+
+    @Test
+    void shouldAddUnflushedDeltaToPersistedTotal() {
+        buffer.add(KEY, 7L, OCCURRED_AT);
+
+        assertThat(buffer.totalWithPending(KEY, () -> 10L)).isEqualTo(17L);
+        assertThat(buffer.totalWithPending(new UsageAggregateKey("tenant-1", "customer-9", "api_call"), () -> 3L))
+                .isEqualTo(3L);
+        assertThat(buffer.rollupTotalWithPending(
+                List.of(UsageRollupKey.of(KEY, UsageRollupGranularity.DAY, OCCURRED_AT)), () -> 1L)).isEqualTo(8L);
+    }
+
+    @Test
+    void shouldHandAFullBufferToTheFlusherInsteadOfWritingOnTheIngestThread() {
+        ReflectionTestUtils.setField(buffer, "maxPendingKeys", 6);
+        Thread ingestThread = Thread.currentThread();
+        List<Thread> writers = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            synchronized (writers) {
+                writers.add(Thread.currentThread());
+            }
+            return null;
+        }).when(usageAggregateWriter).incrementRollups(anyMap());
+        buffer.add(KEY, 1L, OCCURRED_AT);
+        verify(usageAggregateWriter, never()).incrementAll(anyMap());
+
+        buffer.add(new UsageAggregateKey("tenant-1", "customer-2", "api_call"), 1L, OCCURRED_AT);
+
+        verify(usageAggregateWriter, timeout(5_000)).incrementRollups(anyMap());
+        verify(usageAggregateWriter).incrementAll(anyMap());
+        assertThat(buffer.pendingKeys()).isZero();
+        synchronized (writers) {
+            assertThat(writers).singleElement().isNotSameAs(ingestThread);
+        }
+    }
+
+    @Test
+    void shouldKeepDeltasWhenFlushFails() {
+        buffer.add(KEY, 5L, OCCURRED_AT);
+        doThrow(new IllegalStateException("mongo down")).when(usageAggregateWriter).incrementAll(anyMap());
+
+        buffer.flush();
+
+        assertThat(buffer.totalWithPending(KEY, () -> 0L)).isEqualTo(5L);
+    }
+
+    @Test
+    void shouldFlushOnShutdownEvenWhenSchedulingIsDisabled() {
+        buffer.add(KEY, 1L, OCCURRED_AT);
+        ReflectionTestUtils.setField(buffer, "enabled", false);
+
+        buffer.flush();
+        verify(usageAggregateWriter, never()).incrementAll(anyMap());
+
+        buffer.flushOnShutdown();
+        verify(usageAggregateWriter).incrementAll(Map.of(KEY, 1L));
+    }
+
+    @Test
+    void shouldNotLoseIncrementsWhileFlushingConcurrently() throws Exception {
+        List<Long> flushed = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            Map<UsageAggregateKey, Long> deltas = invocation.getArgument(0);
+            synchronized (flushed) {
+                flushed.add(deltas.getOrDefault(KEY, 0L));
+            }
+            return null;
+        }).when(usageAggregateWriter).incrementAll(anyMap());
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int worker = 0; worker < 4; worker++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    buffer.add(KEY, 1L, OCCURRED_AT);
+                }
+            }));
+        }
+        futures.add(executorService.submit(() -> {
+            for (int i = 0; i < 200; i++) {
+                buffer.flush();
+            }
+        }));
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        buffer.flush();
+
+        assertThat(flushed.stream().mapToLong(Long::longValue).sum()).isEqualTo(40_000L);
+    }
+    @Test
+    void shouldRequeueOnlyTheKeysAPartialBulkFailureLeftUnapplied() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        UsageThresholdRuleRepository ruleRepository = Mockito.mock(UsageThresholdRuleRepository.class);
+        UsageThresholdRuleDocument rule = new UsageThresholdRuleDocument();
+        rule.setId("thr-1");
+        rule.setTenantId("tenant-1");
+        rule.setMetricCode("api_call");
+        rule.setCustomerId("customer-watched");
+        rule.setQuota(1_000L);
+        rule.setThresholdPercents(List.of(100));
+        when(ruleRepository.findAll()).thenReturn(List.of(rule));
+        @SuppressWarnings("unchecked")
+        KafkaTemplate<String, Object> kafkaTemplate = Mockito.mock(KafkaTemplate.class);
+        UsageThresholdAlerts alerts = new UsageThresholdAlerts(ruleRepository, mongoTemplate, kafkaTemplate,
+                new UsageMetricAggregations("", 0.02, "", 0.01, "", Duration.ofHours(1)), true, 10);
+        alerts.refresh();
+        UsageAggregateWriteBuffer realBuffer = new UsageAggregateWriteBuffer(new UsageAggregateWriter(mongoTemplate,
+                new UsageTotalsCache(kafkaTemplate, 100, 30_000), new UsageCounterShards(""), alerts));
+        ReflectionTestUtils.setField(realBuffer, "maxPendingKeys", 100);
+
+        BulkOperations operations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class)).thenReturn(operations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageRollupDocument.class))
+                .thenReturn(Mockito.mock(BulkOperations.class));
+        List<String> bulkCustomers = new ArrayList<>();
+        when(operations.upsert(any(Query.class), any(Update.class))).thenAnswer(invocation -> {
+            bulkCustomers.add(invocation.getArgument(0, Query.class).getQueryObject().getString("customerId"));
+            return operations;
+        });
+        // the second upsert of the bulk fails; with the watched key counted in, index 1 would name the wrong key
+        when(operations.execute()).thenThrow(new BulkOperationException("write failed", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(0, 0, 0, 1, List.of(), List.of()),
+                List.of(new BulkWriteError(91, "shutdown", new BsonDocument(), 1)), null, new ServerAddress(), Set.of())));
+        UsageAggregateKey watched = new UsageAggregateKey("tenant-1", "customer-watched", "api_call");
+        UsageAggregateKey first = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+        UsageAggregateKey second = new UsageAggregateKey("tenant-1", "customer-2", "api_call");
+        realBuffer.add(first, 2L, OCCURRED_AT);
+        realBuffer.add(watched, 3L, OCCURRED_AT);
+        realBuffer.add(second, 5L, OCCURRED_AT);
+
+        realBuffer.flushPending();
+
+        UsageAggregateKey failed = new UsageAggregateKey("tenant-1", bulkCustomers.get(1), "api_call");
+        UsageAggregateKey applied = failed.equals(first) ? second : first;
+        assertThat(realBuffer.totalWithPending(failed, () -> 0L)).isEqualTo(failed.equals(first) ? 2L : 5L);
+        assertThat(realBuffer.totalWithPending(applied, () -> 0L)).isZero();
+        // the watched key is still applied after the bulk failed, and is not queued again
+        verify(mongoTemplate).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(UsageAggregateDocument.class));
+        assertThat(realBuffer.totalWithPending(watched, () -> 0L)).isZero();
+    }
+}
@@ -0,0 +1,145 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageArchivedRange;
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.persistence.UsageArchiveSegmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageArchiveServiceTests {
+
+    private static final Instant NOW = Instant.parse("2026-02-21T16:30:00Z");
+    private static final Instant OLD_DAY = Instant.parse("2024-12-01T00:00:00Z");
+    private static final String EVENTS = UsageEventPartitions.BASE_COLLECTION;
+
+    @TempDir
+    Path directory;
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageJobLeases usageJobLeases = Mockito.mock(UsageJobLeases.class);
+    private final UsageArchiveService usageArchiveService = new UsageArchiveService(mongoTemplate, usageJobLeases,
+            new UsageEventPartitions(mongoTemplate, false, Duration.ofDays(35), Duration.ofDays(400)));
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(usageArchiveService, "directory", directory.toString());
+        ReflectionTestUtils.setField(usageArchiveService, "retentionDays", 400);
+        ReflectionTestUtils.setField(usageArchiveService, "segmentMaxEvents", 1000);
+        ReflectionTestUtils.setField(usageArchiveService, "deleteBatchSize", 1);
+        ReflectionTestUtils.setField(usageArchiveService, "maxDeletesPerSecond", 0);
+        when(usageJobLeases.tryAcquire(eq("usage-archive"), anyLong())).thenReturn(true);
+    }
+
+    @Test
+    void shouldMoveOldEventsIntoSegmentAndDeleteThemInBatches() {
+        List<UsageEventDocument> events = List.of(
+                event("evt-1", "customer-1", 5L, OLD_DAY.plusSeconds(10)),
+                event("evt-2", "customer-1", 7L, OLD_DAY.plusSeconds(20)),
+                event("evt-3", "customer-2", 1L, OLD_DAY.plusSeconds(30)));
+        when(mongoTemplate.findDistinct(
+                any(Query.class), eq("tenantId"), eq(EVENTS), eq(UsageEventDocument.class), eq(String.class)))
+                .thenReturn(List.of("tenant-1"));
+        when(mongoTemplate.find(any(Query.class), eq(UsageArchiveSegmentDocument.class))).thenReturn(List.of());
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageEventDocument.class), eq(EVENTS)))
+                .thenReturn(events.get(0), (UsageEventDocument) null);
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), eq(EVENTS))).thenReturn(events);
+        when(mongoTemplate.remove(any(Query.class), eq(UsageEventDocument.class), eq(EVENTS)))
+                .thenReturn(DeleteResult.acknowledged(1L));
+
+        assertThat(usageArchiveService.archive(NOW)).isEqualTo(1);
+
+        ArgumentCaptor<UsageArchiveSegmentDocument> captor = ArgumentCaptor.forClass(UsageArchiveSegmentDocument.class);
+        verify(mongoTemplate).insert(captor.capture());
+        UsageArchiveSegmentDocument segment = captor.getValue();
+        assertThat(segment.getPath()).startsWith("tenant-1/2024/12/01/");
+        assertThat(segment.getEventCount()).isEqualTo(3);
+        assertThat(segment.getTotals()).containsExactly(
+                new UsageArchiveSegmentDocument.Total("customer-1", "api_call", 12L, 2L),
+                new UsageArchiveSegmentDocument.Total("customer-2", "api_call", 1L, 1L));
+        assertThat(Files.exists(directory.resolve(segment.getPath()))).isTrue();
+        verify(mongoTemplate, Mockito.times(3)).remove(any(Query.class), eq(UsageEventDocument.class), eq(EVENTS));
+        verify(usageJobLeases).release("usage-archive");
+
+        when(mongoTemplate.find(any(Query.class), eq(UsageArchiveSegmentDocument.class))).thenReturn(List.of(segment));
+        List<UsageEvent> scanned = new ArrayList<>();
+        long visited = usageArchiveService.scan("tenant-1", OLD_DAY.plusSeconds(15), OLD_DAY.plusSeconds(30), scanned::add);
+
+        assertThat(visited).isEqualTo(1L);
+        assertThat(scanned).containsExactly(
+                new UsageEvent("tenant-1", "customer-1", "key-evt-2", "api_call", 7L, OLD_DAY.plusSeconds(20)));
+    }
+
+    @Test
+    void shouldSkipRunWhileAnotherReplicaHoldsTheLease() {
+        when(usageJobLeases.tryAcquire(eq("usage-archive"), anyLong())).thenReturn(false);
+
+        assertThat(usageArchiveService.archive(NOW)).isZero();
+        verify(mongoTemplate, never()).findDistinct(
+                any(Query.class), eq("tenantId"), eq(EVENTS), eq(UsageEventDocument.class), eq(String.class));
+    }
+
+    @Test
+    void shouldListTheArchivedDaysOfARangeMergedAndClipped() {
+        when(mongoTemplate.find(any(Query.class), eq(UsageArchiveSegmentDocument.class))).thenReturn(List.of(
+                segment(OLD_DAY), segment(OLD_DAY), segment(OLD_DAY.plus(Duration.ofDays(1))),
+                segment(OLD_DAY.plus(Duration.ofDays(5)))));
+
+        List<UsageArchivedRange> ranges = usageArchiveService.archivedRanges("tenant-1",
+                OLD_DAY.plus(Duration.ofHours(6)), OLD_DAY.plus(Duration.ofDays(5)).plus(Duration.ofHours(12)));
+
+        assertThat(ranges).containsExactly(
+                new UsageArchivedRange(OLD_DAY.plus(Duration.ofHours(6)), OLD_DAY.plus(Duration.ofDays(2))),
+                new UsageArchivedRange(OLD_DAY.plus(Duration.ofDays(5)),
+                        OLD_DAY.plus(Duration.ofDays(5)).plus(Duration.ofHours(12))));
+    }
+
+    @Test
+    void shouldRejectEmptyScanRange() {
+        assertThatThrownBy(() -> usageArchiveService.scan("tenant-1", NOW, NOW, event -> { }))
+                .isInstanceOf(DomainValidationException.class);
+    }
+
+    private static UsageEventDocument event(String id, String customerId, long quantity, Instant occurredAt) {
+        UsageEventDocument document = new UsageEventDocument();
+        document.setId(id);
+        document.setTenantId("tenant-1");
+        document.setCustomerId(customerId);
+        document.setMetricCode("api_call");
+        document.setIdempotencyKey("key-" + id);
+        document.setQuantity(quantity);
+        document.setOccurredAt(occurredAt);
+        document.setReceivedAt(occurredAt);
+        return document;
+    }
+
+    private static UsageArchiveSegmentDocument segment(Instant day) {
+        UsageArchiveSegmentDocument segment = new UsageArchiveSegmentDocument();
+        segment.setDay(day);
+        return segment;
+    }
+}
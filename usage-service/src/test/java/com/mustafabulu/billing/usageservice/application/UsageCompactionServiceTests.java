@@ -0,0 +1,109 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mustafabulu.billing.usageservice.persistence.UsageCompactionCheckpointDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageCompactionServiceTests {
+
+    private static final Instant NOW = Instant.parse("2026-03-10T04:00:00Z");
+    private static final Instant DAY = Instant.parse("2026-02-02T00:00:00Z");
+    private static final String EVENTS = UsageEventPartitions.BASE_COLLECTION;
+    private static final String PARTITION = "usage_events_202602";
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageJobLeases usageJobLeases = Mockito.mock(UsageJobLeases.class);
+    private final UsageMetricAggregations usageMetricAggregations =
+            new UsageMetricAggregations("unique_user", 0.02, "", 0.01, "", Duration.ofHours(1));
+
+    @Test
+    void shouldMergeMinuteBucketsBeforeDeletingTheDayPastTheDedupeWindow() {
+        UsageCompactionService service = service(true, "api_call,unique_user");
+        UsageCompactionCheckpointDocument checkpoint = new UsageCompactionCheckpointDocument();
+        checkpoint.setId("api_call");
+        checkpoint.setCompactedThrough(DAY);
+        when(mongoTemplate.findById("api_call", UsageCompactionCheckpointDocument.class)).thenReturn(checkpoint);
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of(PARTITION));
+        when(mongoTemplate.getCollectionName(UsageEventBucketDocument.class)).thenReturn("usage_event_buckets");
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(EVENTS), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), eq(EVENTS))).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), eq(PARTITION)))
+                .thenReturn(List.of(event("665f00000000000000000001"), event("665f00000000000000000002")), List.of());
+        when(mongoTemplate.remove(any(Query.class), eq(UsageEventDocument.class), eq(PARTITION)))
+                .thenReturn(DeleteResult.acknowledged(2L));
+
+        // dedupe window of 35 days: only 2026-02-02 is old enough
+        assertThat(service.compact(NOW)).isEqualTo(2L);
+
+        InOrder order = Mockito.inOrder(mongoTemplate);
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        order.verify(mongoTemplate).aggregate(aggregation.capture(), eq(EVENTS), eq(Document.class));
+        order.verify(mongoTemplate).remove(any(Query.class), eq(UsageEventDocument.class), eq(PARTITION));
+        List<Document> pipeline = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertThat(pipeline.get(0).get("$match", Document.class)).containsEntry("metricCode", "api_call");
+        assertThat(pipeline.get(1).get("$unionWith", Document.class)).containsEntry("coll", PARTITION);
+        Document merge = pipeline.get(pipeline.size() - 1).get("$merge", Document.class);
+        assertThat(merge).containsEntry("into", "usage_event_buckets").containsEntry("whenMatched", "keepExisting");
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(any(Query.class), update.capture(), eq(UsageCompactionCheckpointDocument.class));
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+                .containsEntry("compactedThrough", DAY.plus(Duration.ofDays(1)));
+        verify(mongoTemplate, never()).findById("unique_user", UsageCompactionCheckpointDocument.class);
+        verify(usageJobLeases).release("usage-compaction");
+    }
+
+    @Test
+    void shouldSkipCompactionWhileEventsAreNotPartitioned() {
+        UsageCompactionService service = service(false, "api_call");
+
+        assertThat(service.compact(NOW)).isZero();
+
+        verify(usageJobLeases, never()).tryAcquire(anyString(), anyLong());
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), anyString(), eq(Document.class));
+    }
+
+    private UsageCompactionService service(boolean partitioned, String policies) {
+        UsageCompactionService service = new UsageCompactionService(mongoTemplate, usageJobLeases,
+                new UsageEventPartitions(mongoTemplate, partitioned, Duration.ofDays(35), Duration.ofDays(400)),
+                usageMetricAggregations, policies);
+        ReflectionTestUtils.setField(service, "deleteBatchSize", 1000);
+        ReflectionTestUtils.setField(service, "maxDeletesPerSecond", 0);
+        ReflectionTestUtils.setField(service, "leaseMs", 60_000L);
+        when(usageJobLeases.tryAcquire(eq("usage-compaction"), anyLong())).thenReturn(true);
+        return service;
+    }
+
+    private static UsageEventDocument event(String id) {
+        UsageEventDocument event = new UsageEventDocument();
+        event.setId(id);
+        return event;
+    }
+}
@@ -0,0 +1,46 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class UsageCounterShardsTests {
+
+    private final UsageCounterShards shards = new UsageCounterShards("acme-tr=8; acme-tr/storage_gb=2; */api_call=4");
+
+    @Test
+    void shouldResolveMostSpecificShardCount() {
+        assertThat(shards.shardCount(new UsageAggregateKey("acme-tr", "cust-1", "storage_gb"))).isEqualTo(2);
+        assertThat(shards.shardCount(new UsageAggregateKey("acme-tr", "cust-1", "api_call"))).isEqualTo(8);
+        assertThat(shards.shardCount(new UsageAggregateKey("globex", "cust-1", "api_call"))).isEqualTo(4);
+        assertThat(shards.shardCount(new UsageAggregateKey("globex", "cust-1", "sms"))).isEqualTo(1);
+    }
+
+    @Test
+    void shouldKeepUnshardedKeysOnLegacyDocument() {
+        UsageAggregateKey key = new UsageAggregateKey("globex", "cust-1", "sms");
+        for (int i = 0; i < 100; i++) {
+            assertThat(shards.pickShard(key)).isNull();
+        }
+    }
+
+    @Test
+    void shouldSpreadShardedKeysAcrossAllShards() {
+        UsageAggregateKey key = new UsageAggregateKey("globex", "cust-1", "api_call");
+        Set<Integer> picked = new HashSet<>();
+        for (int i = 0; i < 1_000; i++) {
+            picked.add(shards.pickShard(key));
+        }
+        assertThat(picked).containsExactlyInAnyOrder(null, 1, 2, 3);
+    }
+
+    @Test
+    void shouldRejectInvalidShardCounts() {
+        assertThatThrownBy(() -> new UsageCounterShards("acme-tr=0")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new UsageCounterShards("acme-tr")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
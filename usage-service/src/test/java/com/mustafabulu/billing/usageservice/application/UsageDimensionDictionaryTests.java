@@ -0,0 +1,67 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionDictionaryDocument;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+class UsageDimensionDictionaryTests {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageDimensionDictionary usageDimensionDictionary = new UsageDimensionDictionary(mongoTemplate, 1, 2, 64);
+
+    @Test
+    void shouldAppendNewValuesOnceAndFoldValuesPastTheLimitIntoOther() {
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageDimensionDictionaryDocument.class))).thenReturn(null);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(UsageDimensionDictionaryDocument.class)))
+                .thenReturn(dictionary("eu-west-1"), dictionary("eu-west-1", "us-east-1"));
+
+        assertThat(usageDimensionDictionary.encode("tenant-1", Map.of("region", "eu-west-1"))).containsEntry("region", 0);
+        assertThat(usageDimensionDictionary.encode("tenant-1", Map.of("region", "us-east-1"))).containsEntry("region", 1);
+        // cached: known values and the full dictionary need no further writes
+        assertThat(usageDimensionDictionary.encode("tenant-1", Map.of("region", "eu-west-1"))).containsEntry("region", 0);
+        assertThat(usageDimensionDictionary.encode("tenant-1", Map.of("region", "ap-south-1")))
+                .containsEntry("region", UsageDimensionDictionary.OTHER);
+
+        verify(mongoTemplate, times(2)).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(UsageDimensionDictionaryDocument.class));
+        assertThat(usageDimensionDictionary.decode("tenant-1", "region", 1)).isEqualTo("us-east-1");
+        assertThat(usageDimensionDictionary.decode("tenant-1", "region", UsageDimensionDictionary.OTHER))
+                .isEqualTo(UsageDimensionDictionary.OTHER_VALUE);
+    }
+
+    @Test
+    void shouldDropDimensionNamesPastTheTenantLimit() {
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageDimensionDictionaryDocument.class))).thenReturn(null);
+        when(mongoTemplate.count(any(Query.class), eq(UsageDimensionDictionaryDocument.class))).thenReturn(1L);
+
+        assertThat(usageDimensionDictionary.encode("tenant-1", Map.of("route", "/v1/chat"))).isNull();
+        assertThat(usageDimensionDictionary.encode("tenant-1", Map.of("route", "/v1/embed"))).isNull();
+
+        verify(mongoTemplate, times(1)).count(any(Query.class), eq(UsageDimensionDictionaryDocument.class));
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(UsageDimensionDictionaryDocument.class));
+    }
+
+    private static UsageDimensionDictionaryDocument dictionary(String... values) {
+        UsageDimensionDictionaryDocument document = new UsageDimensionDictionaryDocument();
+        document.setTenantId("tenant-1");
+        document.setDimension("region");
+        document.setValues(List.of(values));
+        return document;
+    }
+}
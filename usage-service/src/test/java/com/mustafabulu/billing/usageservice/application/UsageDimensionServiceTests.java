@@ -0,0 +1,70 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageDimensionTotalsResult;
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionDictionaryDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionRollupDocument;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageDimensionServiceTests {
+
+    private static final Instant FROM = Instant.parse("2026-02-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2026-02-03T00:00:00Z");
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageMetricAggregations usageMetricAggregations =
+            new UsageMetricAggregations("unique_user", 0.02, "", 0.01, "", Duration.ofHours(1));
+    private final UsageRollupService usageRollupService = new UsageRollupService(
+            mongoTemplate, new UsageAggregateWriteBuffer(Mockito.mock(UsageAggregateWriter.class)), usageMetricAggregations);
+    private final UsageDimensionService usageDimensionService = new UsageDimensionService(mongoTemplate, usageRollupService,
+            new UsageDimensionDictionary(mongoTemplate, 16, 1000, 64), usageMetricAggregations);
+
+    @Test
+    void shouldGroupRollupTotalsByDecodedValueLargestFirst() {
+        ReflectionTestUtils.setField(usageRollupService, "maxRangeDays", 1096L);
+        UsageDimensionDictionaryDocument dictionary = new UsageDimensionDictionaryDocument();
+        dictionary.setValues(List.of("us-east-1", "eu-west-1"));
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageDimensionDictionaryDocument.class))).thenReturn(dictionary);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageDimensionRollupDocument.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(
+                        new Document("_id", 0).append("total", 800L),
+                        new Document("_id", 1).append("total", 1_200L),
+                        new Document("_id", UsageDimensionDictionary.OTHER).append("total", 15L)), new Document()));
+
+        UsageDimensionTotalsResult result = usageDimensionService.totals("tenant-1", null, "api_call", "region", FROM, TO);
+
+        assertThat(result.totals()).containsExactly(
+                Map.entry("eu-west-1", 1_200L),
+                Map.entry("us-east-1", 800L),
+                Map.entry(UsageDimensionDictionary.OTHER_VALUE, 15L));
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(aggregation.capture(), eq(UsageDimensionRollupDocument.class), eq(Document.class));
+        Document match = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$match", Document.class);
+        assertThat(match).containsEntry("dimension", "region").doesNotContainKey("customerId");
+    }
+
+    @Test
+    void shouldRejectMetricsWithoutSummedTotals() {
+        assertThatThrownBy(() -> usageDimensionService.totals("tenant-1", null, "unique_user", "region", FROM, TO))
+                .isInstanceOf(DomainValidationException.class);
+    }
+}
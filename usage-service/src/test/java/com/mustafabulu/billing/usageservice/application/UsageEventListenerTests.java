@@ -0,0 +1,106 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.events.UsageIngestedEvent;
+import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchResult;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.OptionalLong;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+class UsageEventListenerTests {
+
+    private final UsageIngestionService usageIngestionService = Mockito.mock(UsageIngestionService.class);
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer = Mockito.mock(UsageAggregateWriteBuffer.class);
+    private final Consumer<?, ?> consumer = Mockito.mock(Consumer.class);
+    private final UsageEventListener listener = new UsageEventListener(usageIngestionService, usageAggregateWriteBuffer,
+            new UsageMetricAggregations("", 0.02, "", 0.01, "", Duration.ofHours(1)));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        Metrics.addRegistry(meterRegistry);
+        when(usageIngestionService.ingestBatch(anyList())).thenReturn(new UsageBatchResult(1, 0, List.of()));
+        when(consumer.currentLag(any())).thenReturn(OptionalLong.of(42L));
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+
+    @Test
+    void shouldIngestWholeBatchAndSkipInvalidEvents() {
+        listener.onUsageIngested(List.of(
+                record(0, 10L, event("evt-1", 5L)),
+                record(0, 11L, null),
+                record(1, 3L, event("evt-2", -1L)),
+                record(1, 4L, event("evt-3", 2L))
+        ), consumer);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UsageEventRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(usageIngestionService).ingestBatch(captor.capture());
+        assertThat(captor.getValue()).extracting(UsageEventRequest::idempotencyKey).containsExactly("evt-1", "evt-3");
+        assertThat(meterRegistry.get("platform.usage.kafka.consumed").tag("partition", "0").counter().count())
+                .isEqualTo(2.0);
+        assertThat(meterRegistry.get("platform.usage.kafka.consumed").tag("partition", "1").counter().count())
+                .isEqualTo(2.0);
+        assertThat(meterRegistry.get("platform.usage.kafka.lag").tag("partition", "1").gauge().value())
+                .isEqualTo(42.0);
+    }
+
+    @Test
+    void shouldFailBatchWhenBufferedAggregatesCannotBeFlushed() {
+        when(usageAggregateWriteBuffer.isEnabled()).thenReturn(true);
+        when(usageAggregateWriteBuffer.flushPending()).thenReturn(false);
+
+        assertThatThrownBy(() -> listener.onUsageIngested(List.of(record(7, 1L, event("evt-1", 1L))), consumer))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(meterRegistry.find("platform.usage.kafka.consumed").tag("partition", "7").counter()).isNull();
+    }
+
+    @Test
+    void shouldPropagateStorageFailureSoOffsetsAreNotCommitted() {
+        when(usageIngestionService.ingestBatch(anyList())).thenThrow(new IllegalStateException("mongo down"));
+
+        assertThatThrownBy(() -> listener.onUsageIngested(List.of(record(0, 1L, event("evt-1", 1L))), consumer))
+                .isInstanceOf(IllegalStateException.class);
+        verify(usageAggregateWriteBuffer, never()).flushPending();
+    }
+
+    private static ConsumerRecord<String, UsageIngestedEvent> record(int partition, long offset, UsageIngestedEvent event) {
+        return new ConsumerRecord<>(KafkaTopics.USAGE_INGESTED, partition, offset, "tenant-1", event);
+    }
+
+    private static UsageIngestedEvent event(String idempotencyKey, long quantity) {
+        return new UsageIngestedEvent(
+                "EVT-" + idempotencyKey,
+                "tenant-1",
+                "customer-1",
+                idempotencyKey,
+                "api_call",
+                quantity,
+                Instant.parse("2026-02-21T16:30:00Z"),
+                null
+        );
+    }
+}
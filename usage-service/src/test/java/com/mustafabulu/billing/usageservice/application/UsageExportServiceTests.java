@@ -0,0 +1,105 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageExportFormat;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageExportServiceTests {
+
+    private static final Instant FROM = Instant.parse("2026-02-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2026-03-01T00:00:00Z");
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageExportService usageExportService = new UsageExportService(
+            mongoTemplate, new UsageEventPartitions(mongoTemplate, false, Duration.ofDays(35), Duration.ofDays(400)),
+            new ObjectMapper().registerModule(new JavaTimeModule()));
+
+    @BeforeEach
+    void configure() {
+        ReflectionTestUtils.setField(usageExportService, "pageSize", 2);
+        when(mongoTemplate.getCollectionName(UsageEventBucketDocument.class)).thenReturn("usage_event_buckets");
+        when(mongoTemplate.stream(any(Query.class), eq(UsageEventDocument.class), eq("usage_event_buckets")))
+                .thenAnswer(invocation -> Stream.empty());
+    }
+
+    @Test
+    void shouldPageByKeysetAndWriteCsvWithEscaping() throws IOException {
+        when(mongoTemplate.stream(any(Query.class), eq(UsageEventDocument.class), eq("usage_events")))
+                .thenReturn(Stream.of(
+                        document("665f00000000000000000001", "cust-1", "evt,1", "2026-02-03T10:00:00Z"),
+                        document("665f00000000000000000002", "cust-\"2\"", "evt-2", "2026-02-03T10:00:00Z")))
+                .thenReturn(Stream.of(document("665f00000000000000000003", "cust-3", "evt-3", "2026-02-04T00:00:00Z")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long exported = usageExportService.export("tenant-1", FROM, TO, UsageExportFormat.CSV, out);
+
+        assertThat(exported).isEqualTo(3L);
+        assertThat(out.toString(StandardCharsets.UTF_8).lines().toList()).containsExactly(
+                "tenantId,customerId,idempotencyKey,metricCode,quantity,occurredAt",
+                "tenant-1,cust-1,\"evt,1\",api_call,5,2026-02-03T10:00:00Z",
+                "tenant-1,\"cust-\"\"2\"\"\",evt-2,api_call,5,2026-02-03T10:00:00Z",
+                "tenant-1,cust-3,evt-3,api_call,5,2026-02-04T00:00:00Z");
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).stream(queries.capture(), eq(UsageEventDocument.class), eq("usage_events"));
+        List<Query> pages = queries.getAllValues();
+        assertThat(pages.get(0).getQueryObject()).doesNotContainKey("$or");
+        assertThat(pages.get(1).getQueryObject()).containsKey("$or");
+        assertThat(pages.get(1).getSortObject()).containsKeys("occurredAt", "_id");
+        assertThat(pages.get(1).getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldWriteOneJsonObjectPerLine() throws IOException {
+        when(mongoTemplate.stream(any(Query.class), eq(UsageEventDocument.class), eq("usage_events")))
+                .thenReturn(Stream.of(document("665f00000000000000000001", "cust-1", "evt-1", "2026-02-03T10:00:00Z")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        usageExportService.export("tenant-1", FROM, TO, UsageExportFormat.NDJSON, out);
+
+        assertThat(out.toString(StandardCharsets.UTF_8).lines().toList()).singleElement()
+                .satisfies(line -> assertThat(line).contains("\"idempotencyKey\":\"evt-1\"", "\"quantity\":5"));
+    }
+
+    @Test
+    void shouldRejectInvertedRange() {
+        assertThatThrownBy(() -> usageExportService.validate(TO, FROM)).isInstanceOf(DomainValidationException.class);
+    }
+
+    private static UsageEventDocument document(String id, String customerId, String idempotencyKey, String occurredAt) {
+        UsageEventDocument document = new UsageEventDocument();
+        document.setId(id);
+        document.setTenantId("tenant-1");
+        document.setCustomerId(customerId);
+        document.setIdempotencyKey(idempotencyKey);
+        document.setMetricCode("api_call");
+        document.setQuantity(5L);
+        document.setOccurredAt(Instant.parse(occurredAt));
+        return document;
+    }
+}
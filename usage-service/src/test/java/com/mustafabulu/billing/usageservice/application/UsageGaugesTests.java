@@ -0,0 +1,55 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class UsageGaugesTests {
+
+    private static final long HOUR = 3_600_000L;
+
+    @Test
+    void shouldSplitReadingIntervalAtBucketBoundaries() {
+        Map<Instant, BigDecimal> hours = UsageGauges.split(UsageRollupGranularity.HOUR, 10L,
+                Instant.parse("2026-02-21T22:30:00Z"), Instant.parse("2026-02-22T01:15:00Z"));
+        Map<Instant, BigDecimal> days = UsageGauges.split(UsageRollupGranularity.DAY, 10L,
+                Instant.parse("2026-02-21T22:30:00Z"), Instant.parse("2026-02-22T01:15:00Z"));
+
+        assertThat(hours).containsExactly(
+                Map.entry(Instant.parse("2026-02-21T22:00:00Z"), BigDecimal.valueOf(10L * HOUR / 2)),
+                Map.entry(Instant.parse("2026-02-21T23:00:00Z"), BigDecimal.valueOf(10L * HOUR)),
+                Map.entry(Instant.parse("2026-02-22T00:00:00Z"), BigDecimal.valueOf(10L * HOUR)),
+                Map.entry(Instant.parse("2026-02-22T01:00:00Z"), BigDecimal.valueOf(10L * HOUR / 4)));
+        assertThat(days).containsExactly(
+                Map.entry(Instant.parse("2026-02-21T00:00:00Z"), BigDecimal.valueOf(15L * HOUR)),
+                Map.entry(Instant.parse("2026-02-22T00:00:00Z"), BigDecimal.valueOf(125L * HOUR / 10)));
+    }
+
+    @Test
+    void shouldAddOpenIntervalOfLastReadingToClosedArea() {
+        Instant lastAt = Instant.parse("2026-02-21T10:00:00Z");
+
+        long gbHours = UsageGauges.total(BigDecimal.valueOf(40L * HOUR), 8L, lastAt, Instant.parse("2026-02-21T13:00:00Z"), HOUR);
+
+        assertThat(gbHours).isEqualTo(64L);
+        assertThat(UsageGauges.total(BigDecimal.ZERO, 8L, null, lastAt, HOUR)).isZero();
+        assertThat(UsageGauges.area(8L, lastAt, lastAt.minusSeconds(60))).isZero();
+    }
+
+    @Test
+    void shouldIntegrateByteSizedReadingsOverLongIntervalsWithoutOverflow() {
+        Instant from = Instant.parse("2025-02-21T00:00:00Z");
+        Instant to = Instant.parse("2026-02-21T00:00:00Z");
+        long terabyte = 1_000_000_000_000L;
+
+        // 1 TB in bytes for a year is about 3e22 byte-milliseconds, far past a long
+        BigDecimal area = UsageGauges.area(terabyte, from, to);
+
+        assertThat(area).isEqualTo(BigDecimal.valueOf(terabyte).multiply(BigDecimal.valueOf(365L * 24 * HOUR)));
+        assertThat(UsageGauges.total(area, terabyte, null, to, HOUR)).isEqualTo(terabyte * 365 * 24);
+    }
+}
@@ -0,0 +1,60 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageTopCustomer;
+import com.mustafabulu.billing.usageservice.domain.UsageTopCustomersResult;
+import com.mustafabulu.billing.usageservice.domain.UsageTopWindow;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+class UsageHeavyHittersTests {
+
+    private static final Instant NOW = Instant.parse("2026-02-21T16:30:00Z");
+
+    private final UsageHeavyHitters usageHeavyHitters = new UsageHeavyHitters(true, 256, 4, 8, 3_600_000, 6, 16);
+
+    @Test
+    void shouldFindHeavyHittersAmongLongTailWithBoundedError() {
+        for (int i = 0; i < 5_000; i++) {
+            usageHeavyHitters.record("tenant-1", "api_call", "tail-" + i, 1L, NOW);
+        }
+        for (int i = 0; i < 3; i++) {
+            usageHeavyHitters.record("tenant-1", "api_call", "whale-" + i, 1_000L * (i + 1), NOW);
+        }
+
+        UsageTopCustomersResult result = usageHeavyHitters.top("tenant-1", "api_call", UsageTopWindow.TOTAL, 3, NOW);
+
+        assertThat(result.customers()).extracting(UsageTopCustomer::customerId)
+                .containsExactly("whale-2", "whale-1", "whale-0");
+        for (UsageTopCustomer customer : result.customers()) {
+            long actual = 1_000L * (Long.parseLong(customer.customerId().substring(6)) + 1);
+            assertThat(customer.estimatedQuantity()).isBetween(actual, actual + result.maxOverestimate());
+        }
+        assertThat(usageHeavyHitters.top("tenant-1", "sms", UsageTopWindow.TOTAL, 3, NOW).customers()).isEmpty();
+    }
+
+    @Test
+    void shouldDropUsageOutsideSlidingWindow() {
+        usageHeavyHitters.record("tenant-1", "api_call", "customer-old", 500L, NOW.minusSeconds(3 * 3600));
+        usageHeavyHitters.record("tenant-1", "api_call", "customer-new", 20L, NOW.minusSeconds(600));
+        usageHeavyHitters.record("tenant-1", "api_call", "customer-new", 30L, NOW);
+
+        UsageTopCustomersResult sliding = usageHeavyHitters.top("tenant-1", "api_call", UsageTopWindow.SLIDING, 5, NOW);
+        UsageTopCustomersResult total = usageHeavyHitters.top("tenant-1", "api_call", UsageTopWindow.TOTAL, 5, NOW);
+
+        assertThat(sliding.customers()).containsExactly(new UsageTopCustomer("customer-new", 50L));
+        assertThat(sliding.since()).isEqualTo(Instant.parse("2026-02-21T15:40:00Z"));
+        assertThat(total.customers()).containsExactly(
+                new UsageTopCustomer("customer-old", 500L),
+                new UsageTopCustomer("customer-new", 50L));
+    }
+
+    @Test
+    void shouldRejectLimitAboveTrackedCandidates() {
+        assertThatThrownBy(() -> usageHeavyHitters.top("tenant-1", "api_call", UsageTopWindow.TOTAL, 9, NOW))
+                .isInstanceOf(DomainValidationException.class);
+    }
+}
@@ -0,0 +1,52 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class UsageHyperLogLogTests {
+
+    @Test
+    void shouldEstimateDistinctCountWithinConfiguredError() {
+        int precision = UsageHyperLogLog.precisionFor(0.02);
+        Map<Integer, Integer> registers = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            // every value is seen twice; duplicates must not move the estimate
+            add(registers, "user-" + (i % 25_000), precision);
+        }
+
+        assertThat(precision).isEqualTo(12);
+        assertThat(UsageHyperLogLog.estimate(registers, precision)).isBetween(23_500L, 26_500L);
+        assertThat(UsageHyperLogLog.estimate(Map.of(), precision)).isZero();
+    }
+
+    @Test
+    void shouldUnionSketchesStoredAtDifferentPrecisions() {
+        Map<Integer, Integer> first = new HashMap<>();
+        Map<Integer, Integer> second = new HashMap<>();
+        for (int i = 0; i < 6_000; i++) {
+            add(first, "user-" + i, 14);
+        }
+        for (int i = 3_000; i < 9_000; i++) {
+            add(second, "user-" + i, 10);
+        }
+
+        long union = UsageHyperLogLog.estimate(List.of(stored(first, 14), stored(second, 10)));
+
+        assertThat(union).isBetween(8_300L, 9_700L);
+    }
+
+    private static void add(Map<Integer, Integer> registers, String value, int precision) {
+        long hash = UsageHyperLogLog.hash(value);
+        registers.merge(UsageHyperLogLog.index(hash, precision), UsageHyperLogLog.rank(hash, precision), Math::max);
+    }
+
+    private static Map<String, Map<String, Integer>> stored(Map<Integer, Integer> registers, int precision) {
+        Map<String, Integer> byIndex = new HashMap<>();
+        registers.forEach((index, rank) -> byIndex.put(String.valueOf(index), rank));
+        return Map.of(String.valueOf(precision), byIndex);
+    }
+}
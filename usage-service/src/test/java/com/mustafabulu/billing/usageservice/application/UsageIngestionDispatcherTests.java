@@ -0,0 +1,162 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageIngestionDispatcherTests {
+
+    private static final Instant OCCURRED_AT = Instant.parse("2026-02-21T10:15:00Z");
+
+    private final UsageAggregateWriter usageAggregateWriter = Mockito.mock(UsageAggregateWriter.class);
+    private final UsageIngestionDispatcher usageIngestionDispatcher =
+            new UsageIngestionDispatcher(usageAggregateWriter, true, 4, 256);
+
+    @AfterEach
+    void tearDown() {
+        usageIngestionDispatcher.shutdown();
+    }
+
+    @Test
+    void shouldApplyConcurrentSameKeyDeltasWithoutOverlappingWrites() throws Exception {
+        Map<UsageAggregateKey, Long> applied = new ConcurrentHashMap<>();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            Map<UsageAggregateKey, Long> deltas = invocation.getArgument(0);
+            deltas.forEach((key, quantity) -> applied.merge(key, quantity, Long::sum));
+            inFlight.decrementAndGet();
+            return null;
+        }).when(usageAggregateWriter).incrementAll(anyMap());
+
+        UsageAggregateKey key = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<Future<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            calls.add(callers.submit(() -> {
+                start.await();
+                usageIngestionDispatcher.apply(Map.of(key, 2L), UsageAggregateWriter.rollupDeltas(key, 2L, OCCURRED_AT));
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> call : calls) {
+            call.get(10, TimeUnit.SECONDS);
+        }
+        callers.shutdown();
+
+        assertThat(applied).containsExactly(Map.entry(key, 400L));
+        assertThat(maxInFlight.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRouteRollupsToThePartitionOfTheirAggregateKey() {
+        Map<UsageAggregateKey, String> totalThreads = new ConcurrentHashMap<>();
+        Map<UsageAggregateKey, String> rollupThreads = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            Map<UsageAggregateKey, Long> deltas = invocation.getArgument(0);
+            deltas.keySet().forEach(key -> totalThreads.put(key, Thread.currentThread().getName()));
+            return null;
+        }).when(usageAggregateWriter).incrementAll(anyMap());
+        doAnswer(invocation -> {
+            Map<UsageRollupKey, Long> deltas = invocation.getArgument(0);
+            deltas.keySet().forEach(key -> rollupThreads.put(
+                    new UsageAggregateKey(key.tenantId(), key.customerId(), key.metricCode()), Thread.currentThread().getName()));
+            return null;
+        }).when(usageAggregateWriter).incrementRollups(anyMap());
+
+        for (int i = 0; i < 16; i++) {
+            UsageAggregateKey key = new UsageAggregateKey("tenant-1", "customer-" + i, "api_call");
+            usageIngestionDispatcher.apply(Map.of(key, 1L), UsageAggregateWriter.rollupDeltas(key, 1L, OCCURRED_AT));
+        }
+
+        assertThat(totalThreads).hasSize(16).isEqualTo(rollupThreads);
+        assertThat(totalThreads.values()).allMatch(name -> name.startsWith("usage-aggregate-partition-"));
+    }
+
+    @Test
+    void shouldRethrowWriteFailureToCaller() {
+        doThrow(new IllegalStateException("mongo unavailable")).when(usageAggregateWriter).incrementAll(anyMap());
+        UsageAggregateKey key = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+
+        assertThatThrownBy(() -> usageIngestionDispatcher.apply(Map.of(key, 1L), Map.of()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("mongo unavailable");
+    }
+
+    @Test
+    void shouldFailOnlyTheCallersWhoseTotalsTheCoalescedWriteLeftUnapplied() throws Exception {
+        UsageIngestionDispatcher single = new UsageIngestionDispatcher(usageAggregateWriter, true, 1, 256);
+        UsageAggregateKey gate = new UsageAggregateKey("tenant-1", "customer-0", "api_call");
+        UsageAggregateKey failed = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+        UsageAggregateKey applied = new UsageAggregateKey("tenant-1", "customer-2", "api_call");
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            Map<UsageAggregateKey, Long> deltas = invocation.getArgument(0);
+            if (deltas.containsKey(gate)) {
+                writing.countDown();
+                release.await();
+            } else if (deltas.containsKey(failed)) {
+                throw new UsageAggregateWriter.PartialWriteException(Set.of(failed), new IllegalStateException("bulk"));
+            }
+            return null;
+        }).when(usageAggregateWriter).incrementAll(anyMap());
+
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            Future<?> first = callers.submit(() -> single.apply(Map.of(gate, 1L), Map.of()));
+            writing.await(10, TimeUnit.SECONDS);
+            Object partition = ((Object[]) ReflectionTestUtils.getField(single, "partitions"))[0];
+            Collection<?> queue = (Collection<?>) ReflectionTestUtils.getField(partition, "queue");
+            Future<?> failing = callers.submit(() -> single.apply(Map.of(failed, 1L), Map.of()));
+            Future<?> succeeding = callers.submit(() -> single.apply(Map.of(applied, 1L), Map.of()));
+            while (queue.size() < 2) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            first.get(10, TimeUnit.SECONDS);
+            succeeding.get(10, TimeUnit.SECONDS);
+            assertThatThrownBy(() -> failing.get(10, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(UsageAggregateWriter.PartialWriteException.class);
+        } finally {
+            callers.shutdown();
+            single.shutdown();
+        }
+    }
+
+    @Test
+    void shouldRejectWorkAfterShutdown() {
+        usageIngestionDispatcher.shutdown();
+        UsageAggregateKey key = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+
+        assertThatThrownBy(() -> usageIngestionDispatcher.apply(Map.of(key, 1L), Map.of()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
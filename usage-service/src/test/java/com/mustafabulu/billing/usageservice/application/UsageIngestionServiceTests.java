@@ -1,31 +1,117 @@
 package com.mustafabulu.billing.usageservice.application;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.mongodb.client.result.UpdateResult;
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.events.UsageThresholdCrossedEvent;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
 import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchResult;
 import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.domain.UsageIngestionStatus;
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodStatus;
+import com.mustafabulu.billing.usageservice.domain.UsageTopCustomer;
+import com.mustafabulu.billing.usageservice.domain.UsageTopWindow;
 import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
 import com.mustafabulu.billing.usageservice.persistence.UsageAggregateRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionDictionaryDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageDimensionRollupDocument;
 import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
 import com.mustafabulu.billing.usageservice.persistence.UsageEventRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsageIdempotencyHash;
+import com.mustafabulu.billing.usageservice.persistence.UsageIdempotencyKeyMigration;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodAdjustmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsageWriteAheadLog;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
 
 class UsageIngestionServiceTests {
 
     private final UsageEventRepository usageEventRepository = Mockito.mock(UsageEventRepository.class);
     private final UsageAggregateRepository usageAggregateRepository = Mockito.mock(UsageAggregateRepository.class);
     private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final UsageTotalsCache usageTotalsCache = new UsageTotalsCache(Mockito.mock(KafkaTemplate.class), 100, 30_000);
+    private final UsageMetricAggregations usageMetricAggregations =
+            new UsageMetricAggregations("unique_user", 0.02, "bandwidth_mbps", 0.01, "disk_gb", Duration.ofHours(1));
+    private final UsageThresholdRuleRepository usageThresholdRuleRepository = Mockito.mock(UsageThresholdRuleRepository.class);
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = Mockito.mock(KafkaTemplate.class);
+    private final UsageThresholdAlerts usageThresholdAlerts =
+            new UsageThresholdAlerts(usageThresholdRuleRepository, mongoTemplate, kafkaTemplate, usageMetricAggregations, true,
+                    1000);
+    private final UsageAggregateWriter usageAggregateWriter = new UsageAggregateWriter(
+            mongoTemplate, usageTotalsCache, new UsageCounterShards(""), usageThresholdAlerts);
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer = new UsageAggregateWriteBuffer(usageAggregateWriter);
+    private final UsageIngestionDispatcher usageIngestionDispatcher =
+            new UsageIngestionDispatcher(usageAggregateWriter, false, 0, 256);
+    private final UsageHeavyHitters usageHeavyHitters = new UsageHeavyHitters(true, 256, 4, 8, 3_600_000, 6, 16);
+    private final IdempotencyKeyBloomFilter idempotencyKeyBloomFilter = new IdempotencyKeyBloomFilter();
+    private final UsageDimensionDictionary usageDimensionDictionary =
+            new UsageDimensionDictionary(mongoTemplate, 16, 1000, 64);
+    private final UsagePeriodRepository usagePeriodRepository = Mockito.mock(UsagePeriodRepository.class);
+    private final UsageClosedPeriods usageClosedPeriods =
+            new UsageClosedPeriods(mongoTemplate, usagePeriodRepository, usageMetricAggregations, true);
+    private final UsageEventPartitions usageEventPartitions =
+            new UsageEventPartitions(mongoTemplate, false, Duration.ofDays(35), Duration.ofDays(400));
+    private final UsageIdempotencyKeyMigration usageIdempotencyKeyMigration = Mockito.mock(UsageIdempotencyKeyMigration.class);
     private final UsageIngestionService usageIngestionService = new UsageIngestionService(
-            usageEventRepository, usageAggregateRepository, mongoTemplate);
+            usageEventRepository, usageEventPartitions, usageAggregateRepository, mongoTemplate, usageAggregateWriter,
+            usageAggregateWriteBuffer, usageIngestionDispatcher, new UsageWriteAheadLog(false, "", 0, 0), usageHeavyHitters,
+            usageMetricAggregations, idempotencyKeyBloomFilter, usageTotalsCache, usageDimensionDictionary,
+            usageClosedPeriods, usageIdempotencyKeyMigration);
+
+    @BeforeEach
+    void configureCollaborators() {
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(UsageRollupDocument.class)))
+                .thenReturn(Mockito.mock(BulkOperations.class));
+        ReflectionTestUtils.setField(idempotencyKeyBloomFilter, "expectedKeysPerTenant", 1000);
+        ReflectionTestUtils.setField(idempotencyKeyBloomFilter, "falsePositiveRate", 0.01);
+        ReflectionTestUtils.setField(idempotencyKeyBloomFilter, "maxTenants", 10);
+    }
 
     @Test
     void shouldReturnExistingEventWithoutWritingAgain() {
@@ -69,8 +155,8 @@ class UsageIngestionServiceTests {
 
     @Test
     void shouldReturnZeroWhenAggregateMissing() {
-        when(usageAggregateRepository.findByTenantIdAndCustomerIdAndMetricCode("tenant-2", "customer-2", "sms"))
-                .thenReturn(Optional.empty());
+        when(usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode("tenant-2", "customer-2", "sms"))
+                .thenReturn(List.of());
 
         long total = usageIngestionService.currentTotal("tenant-2", "customer-2", "sms");
 
@@ -81,16 +167,525 @@ class UsageIngestionServiceTests {
     void shouldReturnCurrentTotalWhenAggregateExists() {
         UsageAggregateDocument aggregate = new UsageAggregateDocument();
         aggregate.setTotalQuantity(99L);
-        when(usageAggregateRepository.findByTenantIdAndCustomerIdAndMetricCode("tenant-2", "customer-2", "sms"))
-                .thenReturn(Optional.of(aggregate));
+        when(usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode("tenant-2", "customer-2", "sms"))
+                .thenReturn(List.of(aggregate));
 
         long total = usageIngestionService.currentTotal("tenant-2", "customer-2", "sms");
 
         assertThat(total).isEqualTo(99L);
     }
 
+    @Test
+    void shouldSumAllCounterShardsForCurrentTotal() {
+        UsageAggregateDocument legacy = new UsageAggregateDocument();
+        legacy.setTotalQuantity(90L);
+        UsageAggregateDocument shard = new UsageAggregateDocument();
+        shard.setShard(2);
+        shard.setTotalQuantity(9L);
+        when(usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode("tenant-2", "customer-2", "sms"))
+                .thenReturn(List.of(legacy, shard));
+
+        assertThat(usageIngestionService.currentTotal("tenant-2", "customer-2", "sms")).isEqualTo(99L);
+    }
+
+    @Test
+    void shouldInsertNewBatchEventsAndCollapseAggregateUpserts() {
+        BulkOperations eventOperations = Mockito.mock(BulkOperations.class);
+        BulkOperations aggregateOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class)).thenReturn(eventOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class))
+                .thenReturn(aggregateOperations);
+        when(eventOperations.insert(anyList())).thenReturn(eventOperations);
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class)))
+                .thenReturn(List.of(document(request("tenant-1", "customer-1", "idem-known", "api_call", 1L), Instant.now())));
+
+        UsageBatchResult result = usageIngestionService.ingestBatch(List.of(
+                request("tenant-1", "customer-1", "idem-1", "api_call", 2L),
+                request("tenant-1", "customer-1", "idem-2", "api_call", 3L),
+                request("tenant-1", "customer-1", "idem-1", "api_call", 2L),
+                request("tenant-1", "customer-1", "idem-known", "api_call", 1L),
+                request("tenant-1", "customer-2", "idem-3", "sms", 4L)
+        ));
+
+        assertThat(result.accepted()).isEqualTo(3);
+        assertThat(result.duplicates()).isEqualTo(2);
+        assertThat(result.results()).extracting("status").containsExactly(
+                UsageIngestionStatus.ACCEPTED,
+                UsageIngestionStatus.ACCEPTED,
+                UsageIngestionStatus.DUPLICATE,
+                UsageIngestionStatus.DUPLICATE,
+                UsageIngestionStatus.ACCEPTED);
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(UsageEventDocument.class));
+        verify(aggregateOperations, times(2)).upsert(any(Query.class), any(Update.class));
+        verify(aggregateOperations).execute();
+        verify(usageEventRepository, never()).save(any(UsageEventDocument.class));
+        assertThat(usageHeavyHitters.top("tenant-1", "api_call", UsageTopWindow.TOTAL, 2).customers())
+                .containsExactly(new UsageTopCustomer("customer-1", 5L));
+    }
+
+    @Test
+    void shouldReportBatchEventsRejectedByUniqueIndexAsDuplicates() {
+        BulkOperations eventOperations = Mockito.mock(BulkOperations.class);
+        BulkOperations aggregateOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class)).thenReturn(eventOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class))
+                .thenReturn(aggregateOperations);
+        when(eventOperations.insert(anyList())).thenReturn(eventOperations);
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class))).thenReturn(List.of());
+        MongoBulkWriteException driverException = new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()),
+                List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1)),
+                null,
+                new ServerAddress(),
+                Set.of());
+        when(eventOperations.execute()).thenThrow(new BulkOperationException("dup", driverException));
+
+        UsageBatchResult result = usageIngestionService.ingestBatch(List.of(
+                request("tenant-1", "customer-1", "idem-1", "api_call", 2L),
+                request("tenant-1", "customer-1", "idem-2", "api_call", 3L)
+        ));
+
+        assertThat(result.accepted()).isEqualTo(1);
+        assertThat(result.results()).extracting("status")
+                .containsExactly(UsageIngestionStatus.ACCEPTED, UsageIngestionStatus.DUPLICATE);
+        verify(aggregateOperations, times(1)).upsert(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void shouldPublishThresholdCrossingOnlyFromIncrementThatCrossesIt() {
+        watch("tenant-1", "api_call", "customer-1", 100L, List.of(80, 100));
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey(eq("tenant-1"), any())).thenReturn(Optional.empty());
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenAnswer(i -> i.getArgument(0));
+        UsageAggregateDocument afterFirst = aggregate(95L);
+        afterFirst.setPublishedPercents(Map.of("thr-1", 80));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(), eq(UsageAggregateDocument.class)))
+                .thenReturn(aggregate(85L), afterFirst);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(UsageAggregateDocument.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        usageIngestionService.ingest(request("tenant-1", "customer-1", "idem-1", "api_call", 10L));
+        usageIngestionService.ingest(request("tenant-1", "customer-1", "idem-2", "api_call", 10L));
+
+        ArgumentCaptor<Object> event = ArgumentCaptor.forClass(Object.class);
+        verify(kafkaTemplate).send(eq(KafkaTopics.USAGE_THRESHOLD_CROSSED), eq("tenant-1/customer-1"), event.capture());
+        assertThat(event.getValue()).isInstanceOfSatisfying(UsageThresholdCrossedEvent.class, crossed -> {
+            assertThat(crossed.thresholdPercent()).isEqualTo(80);
+            assertThat(crossed.thresholdQuantity()).isEqualTo(80L);
+            assertThat(crossed.totalQuantity()).isEqualTo(85L);
+        });
+        verify(mongoTemplate, never()).upsert(any(), any(), eq(UsageAggregateDocument.class));
+    }
+
+    @Test
+    void shouldKeepUnwatchedBatchKeysOnBulkUpsertAndFindAndModifyWatchedOnes() {
+        watch("tenant-1", "api_call", null, 4L, List.of(100));
+        BulkOperations eventOperations = Mockito.mock(BulkOperations.class);
+        BulkOperations aggregateOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class)).thenReturn(eventOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class))
+                .thenReturn(aggregateOperations);
+        when(eventOperations.insert(anyList())).thenReturn(eventOperations);
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class))).thenReturn(List.of());
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(), eq(UsageAggregateDocument.class)))
+                .thenReturn(aggregate(5L));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(UsageAggregateDocument.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        usageIngestionService.ingestBatch(List.of(
+                request("tenant-1", "customer-1", "idem-1", "api_call", 2L),
+                request("tenant-1", "customer-1", "idem-2", "api_call", 3L),
+                request("tenant-1", "customer-2", "idem-3", "sms", 4L)
+        ));
+
+        verify(aggregateOperations, times(1)).upsert(any(Query.class), any(Update.class));
+        verify(mongoTemplate, times(1))
+                .findAndModify(any(Query.class), any(Update.class), any(), eq(UsageAggregateDocument.class));
+        verify(kafkaTemplate).send(eq(KafkaTopics.USAGE_THRESHOLD_CROSSED), eq("tenant-1/customer-1"), any());
+    }
+
+    @Test
+    void shouldBufferAggregateIncrementAndIncludeItInCurrentTotal() {
+        ReflectionTestUtils.setField(usageAggregateWriteBuffer, "enabled", true);
+        UsageEventRequest request = request("tenant-3", "customer-3", "idem-4", "api_call", 6L);
+        UsageAggregateDocument aggregate = new UsageAggregateDocument();
+        aggregate.setTotalQuantity(10L);
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-3", "idem-4")).thenReturn(Optional.empty());
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenAnswer(i -> i.getArgument(0));
+        when(usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode("tenant-3", "customer-3", "api_call"))
+                .thenReturn(List.of(aggregate));
+
+        usageIngestionService.ingest(request);
+
+        assertThat(usageIngestionService.currentTotal("tenant-3", "customer-3", "api_call")).isEqualTo(16L);
+        verify(mongoTemplate, never()).upsert(any(), any(), any(Class.class));
+    }
+
+    @Test
+    void shouldSkipLookupForUnseenKeyInInsertFirstMode() {
+        ReflectionTestUtils.setField(usageIngestionService, "insertFirstEnabled", true);
+        UsageEventRequest request = request("tenant-4", "customer-4", "idem-5", "api_call", 2L);
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenAnswer(i -> i.getArgument(0));
+
+        UsageEvent event = usageIngestionService.ingest(request);
+
+        assertThat(event.quantity()).isEqualTo(2L);
+        verify(usageEventRepository, never()).findByTenantIdAndIdempotencyKey(any(), any());
+        verify(mongoTemplate).upsert(any(), any(), any(Class.class));
+        assertThat(idempotencyKeyBloomFilter.mightContain("tenant-4", "idem-5")).isTrue();
+    }
+
+    @Test
+    void shouldResolveReplayThroughUniqueIndexInInsertFirstMode() {
+        ReflectionTestUtils.setField(usageIngestionService, "insertFirstEnabled", true);
+        UsageEventRequest request = request("tenant-4", "customer-4", "idem-6", "api_call", 2L);
+        UsageEventDocument existing = document(request, Instant.parse("2026-02-21T00:00:00Z"));
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenThrow(new DuplicateKeyException("dup"));
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-4", "idem-6")).thenReturn(Optional.of(existing));
+
+        UsageEvent event = usageIngestionService.ingest(request);
+
+        assertThat(event.idempotencyKey()).isEqualTo("idem-6");
+        verify(mongoTemplate, never()).upsert(any(), any(), any(Class.class));
+        verify(usageEventRepository, times(1)).findByTenantIdAndIdempotencyKey("tenant-4", "idem-6");
+    }
+
+    @Test
+    void shouldLookupFirstWhenBloomFilterMayHaveSeenKey() {
+        ReflectionTestUtils.setField(usageIngestionService, "insertFirstEnabled", true);
+        idempotencyKeyBloomFilter.put("tenant-4", "idem-7");
+        UsageEventRequest request = request("tenant-4", "customer-4", "idem-7", "api_call", 2L);
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-4", "idem-7"))
+                .thenReturn(Optional.of(document(request, Instant.parse("2026-02-21T00:00:00Z"))));
+
+        usageIngestionService.ingest(request);
+
+        verify(usageEventRepository, never()).save(any(UsageEventDocument.class));
+    }
+
+    @Test
+    void shouldResolveDuplicatesThroughCompactHashIndexInHashedMode() {
+        ReflectionTestUtils.setField(usageIngestionService, "hashedKeys", true);
+        UsageEventRequest request = request("tenant-5", "customer-5", "idem-8", "api_call", 2L);
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageEventDocument.class)))
+                .thenReturn(document(request, Instant.parse("2026-02-21T00:00:00Z")));
+
+        UsageEvent event = usageIngestionService.ingest(request);
+
+        assertThat(event.idempotencyKey()).isEqualTo("idem-8");
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findOne(captor.capture(), eq(UsageEventDocument.class));
+        assertThat(captor.getValue().getQueryObject().keySet()).containsExactly("idempotencyHash");
+        assertThat((byte[]) captor.getValue().getQueryObject().get("idempotencyHash"))
+                .isEqualTo(UsageIdempotencyHash.of("tenant-5", "idem-8"));
+        verify(usageEventRepository, never()).findByTenantIdAndIdempotencyKey(any(), any());
+        verify(usageEventRepository, never()).save(any(UsageEventDocument.class));
+    }
+
+    @Test
+    void shouldStoreHashAndFallBackToLegacyKeyForEventNotYetBackfilled() {
+        ReflectionTestUtils.setField(usageIngestionService, "hashedKeys", true);
+        UsageEventRequest request = request("tenant-5", "customer-5", "idem-9", "api_call", 2L);
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenThrow(new DuplicateKeyException("dup"));
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-5", "idem-9"))
+                .thenReturn(Optional.of(document(request, Instant.parse("2026-02-21T00:00:00Z"))));
+
+        UsageEvent event = usageIngestionService.ingest(request);
+
+        assertThat(event.idempotencyKey()).isEqualTo("idem-9");
+        ArgumentCaptor<UsageEventDocument> captor = ArgumentCaptor.forClass(UsageEventDocument.class);
+        verify(usageEventRepository).save(captor.capture());
+        assertThat(captor.getValue().getIdempotencyHash()).isEqualTo(UsageIdempotencyHash.of("tenant-5", "idem-9"));
+    }
+
+    @Test
+    void shouldCheckOnlyOlderPartitionsBeforeInsertingIntoTheMonthOfReceipt() {
+        UsageEventPartitions partitions = Mockito.mock(UsageEventPartitions.class);
+        UsageIngestionService partitionedIngestionService = new UsageIngestionService(
+                usageEventRepository, partitions, usageAggregateRepository, mongoTemplate, usageAggregateWriter,
+                usageAggregateWriteBuffer, usageIngestionDispatcher, new UsageWriteAheadLog(false, "", 0, 0), usageHeavyHitters,
+                usageMetricAggregations, idempotencyKeyBloomFilter, usageTotalsCache, usageDimensionDictionary,
+                usageClosedPeriods, usageIdempotencyKeyMigration);
+        ReflectionTestUtils.setField(partitionedIngestionService, "insertFirstEnabled", true);
+        when(partitions.isEnabled()).thenReturn(true);
+        when(partitions.dedupeCollections(any(Instant.class))).thenReturn(List.of("usage_events_202603", "usage_events_202602"));
+        when(partitions.writeCollection(any(Instant.class))).thenReturn("usage_events_202603");
+        when(partitions.findInDedupeWindow(any(Criteria.class), eq(List.of("usage_events_202602")))).thenReturn(List.of());
+        when(mongoTemplate.insert(any(UsageEventDocument.class), eq("usage_events_202603"))).thenAnswer(i -> i.getArgument(0));
+
+        UsageEvent event = partitionedIngestionService.ingest(request("tenant-7", "customer-7", "idem-p", "api_call", 6L));
+
+        assertThat(event.quantity()).isEqualTo(6L);
+        verify(partitions).findInDedupeWindow(any(Criteria.class), eq(List.of("usage_events_202602")));
+        verify(mongoTemplate).insert(any(UsageEventDocument.class), eq("usage_events_202603"));
+        verify(usageEventRepository, never()).save(any(UsageEventDocument.class));
+        verify(usageEventRepository, never()).findByTenantIdAndIdempotencyKey(any(), any());
+    }
+
+    @Test
+    void shouldAlsoMatchRawKeysInPartitionsTheHashBackfillHasNotWalkedYet() {
+        UsageEventPartitions partitions = Mockito.mock(UsageEventPartitions.class);
+        UsageIngestionService partitionedIngestionService = new UsageIngestionService(
+                usageEventRepository, partitions, usageAggregateRepository, mongoTemplate, usageAggregateWriter,
+                usageAggregateWriteBuffer, usageIngestionDispatcher, new UsageWriteAheadLog(false, "", 0, 0), usageHeavyHitters,
+                usageMetricAggregations, idempotencyKeyBloomFilter, usageTotalsCache, usageDimensionDictionary,
+                usageClosedPeriods, usageIdempotencyKeyMigration);
+        ReflectionTestUtils.setField(partitionedIngestionService, "insertFirstEnabled", true);
+        ReflectionTestUtils.setField(partitionedIngestionService, "hashedKeys", true);
+        when(usageIdempotencyKeyMigration.isBackfilled()).thenReturn(false);
+        when(partitions.isEnabled()).thenReturn(true);
+        when(partitions.dedupeCollections(any(Instant.class))).thenReturn(List.of("usage_events_202603", "usage_events_202602"));
+        UsageEventRequest request = request("tenant-7", "customer-7", "idem-q", "api_call", 6L);
+        when(partitions.findInDedupeWindow(any(Criteria.class), eq(List.of("usage_events_202602"))))
+                .thenReturn(List.of(document(request, Instant.parse("2026-02-21T00:00:00Z"))));
+
+        partitionedIngestionService.ingest(request);
+
+        ArgumentCaptor<Criteria> criteria = ArgumentCaptor.forClass(Criteria.class);
+        verify(partitions).findInDedupeWindow(criteria.capture(), eq(List.of("usage_events_202602")));
+        List<?> branches = criteria.getValue().getCriteriaObject().get("$or", List.class);
+        assertThat(branches).hasSize(2);
+        assertThat((Document) branches.get(1)).containsEntry("tenantId", "tenant-7").containsEntry("idempotencyKey", "idem-q");
+        verify(mongoTemplate, never()).insert(any(UsageEventDocument.class), anyString());
+    }
+
+    @Test
+    void shouldAcknowledgeFromWriteAheadLogAndApplyOnDrain(@TempDir Path walDirectory) {
+        UsageWriteAheadLog usageWriteAheadLog = new UsageWriteAheadLog(true, walDirectory.toString(), 1 << 16, 4);
+        UsageIngestionService walIngestionService = new UsageIngestionService(
+                usageEventRepository, usageEventPartitions, usageAggregateRepository, mongoTemplate, usageAggregateWriter,
+                usageAggregateWriteBuffer, usageIngestionDispatcher, usageWriteAheadLog, usageHeavyHitters,
+                usageMetricAggregations, idempotencyKeyBloomFilter, usageTotalsCache, usageDimensionDictionary,
+                usageClosedPeriods, usageIdempotencyKeyMigration);
+        BulkOperations eventOperations = Mockito.mock(BulkOperations.class);
+        BulkOperations aggregateOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class)).thenReturn(eventOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class))
+                .thenReturn(aggregateOperations);
+        when(eventOperations.insert(anyList())).thenReturn(eventOperations);
+
+        UsageEvent event = walIngestionService.ingest(request("tenant-6", "customer-6", "idem-wal", "api_call", 4L));
+
+        assertThat(event.quantity()).isEqualTo(4L);
+        assertThat(event.status()).isEqualTo(UsageIngestionStatus.PENDING);
+        assertThat(usageWriteAheadLog.pendingEvents()).isEqualTo(1L);
+        verify(usageEventRepository, never()).findByTenantIdAndIdempotencyKey(any(), any());
+        verify(usageEventRepository, never()).save(any(UsageEventDocument.class));
+
+        UsageWriteAheadLog.Batch batch = usageWriteAheadLog.read(100);
+        assertThat(walIngestionService.applyLogged(batch.entries())).isEqualTo(1);
+        usageWriteAheadLog.markApplied(batch);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UsageEventDocument>> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventOperations).insert(captor.capture());
+        assertThat(captor.getValue()).singleElement()
+                .satisfies(document -> assertThat(document.getIdempotencyKey()).isEqualTo("idem-wal"));
+        verify(aggregateOperations).upsert(any(Query.class), any(Update.class));
+        assertThat(usageWriteAheadLog.pendingEvents()).isZero();
+    }
+
+    @Test
+    void shouldMergeDistinctValuesAsRegisterMaximaAndEstimateFromThem() {
+        BulkOperations eventOperations = Mockito.mock(BulkOperations.class);
+        BulkOperations aggregateOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class))).thenReturn(List.of());
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class)).thenReturn(eventOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class))
+                .thenReturn(aggregateOperations);
+        when(eventOperations.insert(anyList())).thenReturn(eventOperations);
+
+        usageIngestionService.ingestBatch(List.of(
+                new UsageEventRequest("tenant-7", "customer-7", "idem-u1", "unique_user", 1L, null, "user-1"),
+                new UsageEventRequest("tenant-7", "customer-7", "idem-u2", "unique_user", 1L, null, "user-1")));
+
+        ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+        verify(aggregateOperations).upsert(any(Query.class), captor.capture());
+        assertThat(captor.getValue().getUpdateObject().get("$max", Document.class).keySet())
+                .singleElement()
+                .satisfies(field -> assertThat(field).startsWith("distinctRegisters.12."));
+        assertThat(usageHeavyHitters.top("tenant-7", "unique_user", UsageTopWindow.TOTAL, 1).customers()).isEmpty();
+
+        UsageAggregateDocument aggregate = new UsageAggregateDocument();
+        aggregate.setDistinctRegisters(Map.of("12", Map.of("7", 1, "9", 2)));
+        when(usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode("tenant-7", "customer-7", "unique_user"))
+                .thenReturn(List.of(aggregate));
+        assertThat(usageIngestionService.currentTotal("tenant-7", "customer-7", "unique_user")).isEqualTo(2L);
+    }
+
+    @Test
+    void shouldStoreDimensionCodesAndIncrementDimensionRollups() {
+        BulkOperations dimensionOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageDimensionRollupDocument.class))
+                .thenReturn(dimensionOperations);
+        UsageDimensionDictionaryDocument dictionary = new UsageDimensionDictionaryDocument();
+        dictionary.setValues(List.of("us-east-1", "eu-west-1"));
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageDimensionDictionaryDocument.class))).thenReturn(dictionary);
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-9", "idem-d1")).thenReturn(Optional.empty());
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenAnswer(i -> i.getArgument(0));
+
+        usageIngestionService.ingest(new UsageEventRequest("tenant-9", "customer-9", "idem-d1", "api_call", 4L,
+                Instant.parse("2026-02-21T10:15:00Z"), null, Map.of("region", "eu-west-1")));
+
+        ArgumentCaptor<UsageEventDocument> saved = ArgumentCaptor.forClass(UsageEventDocument.class);
+        verify(usageEventRepository).save(saved.capture());
+        assertThat(saved.getValue().getDimensions()).containsExactly(Map.entry("region", 1));
+        // one hourly and one daily bucket, keyed by the code rather than the value
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(dimensionOperations, times(2)).upsert(queries.capture(), any(Update.class));
+        assertThat(queries.getAllValues()).allSatisfy(query ->
+                assertThat(query.getQueryObject().get("valueCode")).isEqualTo(1));
+        verify(dimensionOperations).execute();
+        assertThatThrownBy(() -> usageIngestionService.ingest(new UsageEventRequest("tenant-9", "customer-9", "idem-d2",
+                "unique_user", 1L, null, "user-1", Map.of("region", "eu-west-1"))))
+                .isInstanceOf(DomainValidationException.class);
+    }
+
+    @Test
+    void shouldRecordSummedEventsReceivedAfterThePeriodCutoffAsAdjustments() {
+        UsagePeriodDocument period = new UsagePeriodDocument();
+        period.setId("period-1");
+        period.setTenantId("tenant-4");
+        period.setFrom(Instant.parse("2026-02-01T00:00:00Z"));
+        period.setTo(Instant.parse("2026-03-01T00:00:00Z"));
+        period.setCutoff(Instant.parse("2026-03-01T00:01:00Z"));
+        period.setStatus(UsagePeriodStatus.CLOSED);
+        when(usagePeriodRepository.findAll()).thenReturn(List.of(period));
+        usageClosedPeriods.refresh();
+        BulkOperations adjustmentOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsagePeriodAdjustmentDocument.class))
+                .thenReturn(adjustmentOperations);
+        BulkOperations eventOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class)).thenReturn(eventOperations);
+        when(eventOperations.insert(anyList())).thenReturn(eventOperations);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class))
+                .thenReturn(Mockito.mock(BulkOperations.class));
+
+        usageIngestionService.ingestBatch(List.of(
+                new UsageEventRequest("tenant-4", "customer-4", "idem-l1", "api_call", 5L,
+                        Instant.parse("2026-02-27T10:00:00Z"), null),
+                new UsageEventRequest("tenant-4", "customer-4", "idem-l2", "api_call", 2L,
+                        Instant.parse("2026-02-28T23:59:00Z"), null),
+                // after the period
+                new UsageEventRequest("tenant-4", "customer-4", "idem-l3", "api_call", 9L,
+                        Instant.parse("2026-03-02T00:00:00Z"), null)));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(adjustmentOperations).upsert(query.capture(), update.capture());
+        assertThat(query.getValue().getQueryObject()).containsEntry("periodId", "period-1")
+                .containsEntry("customerId", "customer-4")
+                .containsEntry("metricCode", "api_call");
+        assertThat(update.getValue().getUpdateObject().get("$inc", Document.class))
+                .containsEntry("quantity", 7L)
+                .containsEntry("events", 2L);
+        verify(adjustmentOperations).execute();
+    }
+
+    @Test
+    void shouldCountPercentileSampleInSketchBucketAndKeepSum() {
+        UsageEventRequest request = request("tenant-8", "customer-8", "idem-p1", "bandwidth_mbps", 870L);
+        BulkOperations aggregateOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageAggregateDocument.class))
+                .thenReturn(aggregateOperations);
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-8", "idem-p1")).thenReturn(Optional.empty());
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenAnswer(i -> i.getArgument(0));
+
+        usageIngestionService.ingest(request);
+
+        ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+        verify(aggregateOperations).upsert(any(Query.class), captor.capture());
+        int bucket = UsageQuantileSketch.index(870L, UsageQuantileSketch.gamma(0.01));
+        assertThat(captor.getValue().getUpdateObject().get("$inc", Document.class))
+                .containsEntry("quantileBuckets.100." + bucket, 1L);
+        verify(mongoTemplate).upsert(any(), any(), any(Class.class));
+    }
+
+    @Test
+    void shouldIntegrateGaugeReadingOverElapsedTimeSplitByRollupBuckets() {
+        UsageAggregateDocument previous = new UsageAggregateDocument();
+        previous.setGaugeValue(10L);
+        previous.setGaugeAt(Instant.parse("2026-02-20T23:30:00Z"));
+        BulkOperations rollupOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(UsageRollupDocument.class)))
+                .thenReturn(rollupOperations);
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageAggregateDocument.class))).thenReturn(previous);
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-9", "idem-g1")).thenReturn(Optional.empty());
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenAnswer(i -> i.getArgument(0));
+
+        usageIngestionService.ingest(request("tenant-9", "customer-9", "idem-g1", "disk_gb", 25L));
+
+        // 10 GB held from 23:30 until this 00:00 reading: half an hour, inside one hour and one day bucket; the area
+        // is credited by the same update that swaps in the reading, conditioned on the reading it was computed from
+        ArgumentCaptor<Query> swap = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(swap.capture(), captor.capture(), eq(UsageAggregateDocument.class));
+        assertThat(swap.getValue().getQueryObject()).containsEntry("gaugeAt", Instant.parse("2026-02-20T23:30:00Z"));
+        assertThat(captor.getValue().getUpdateObject().get("$inc", Document.class))
+                .containsEntry("gaugeArea", new Decimal128(BigDecimal.valueOf(10L * 1_800_000L)));
+        assertThat(captor.getValue().getUpdateObject().get("$set", Document.class))
+                .containsEntry("gaugeAt", Instant.parse("2026-02-21T00:00:00Z"));
+        verify(rollupOperations, times(2)).upsert(any(Query.class), any(Update.class));
+        assertThat(usageHeavyHitters.top("tenant-9", "disk_gb", UsageTopWindow.TOTAL, 1).customers()).isEmpty();
+
+        UsageAggregateDocument stored = new UsageAggregateDocument();
+        stored.setGaugeArea(BigDecimal.valueOf(10L * 1_800_000L));
+        stored.setGaugeValue(25L);
+        stored.setGaugeAt(Instant.now().minusSeconds(7_200));
+        when(usageAggregateRepository.findAllByTenantIdAndCustomerIdAndMetricCode("tenant-9", "customer-9", "disk_gb"))
+                .thenReturn(List.of(stored));
+        assertThat(usageIngestionService.currentTotal("tenant-9", "customer-9", "disk_gb")).isEqualTo(55L);
+    }
+
+    @Test
+    void shouldNotCreditIntervalForLateGaugeReading() {
+        UsageAggregateDocument older = new UsageAggregateDocument();
+        older.setGaugeValue(10L);
+        older.setGaugeAt(Instant.parse("2026-02-20T23:30:00Z"));
+        UsageAggregateDocument newer = new UsageAggregateDocument();
+        newer.setGaugeValue(30L);
+        newer.setGaugeAt(Instant.parse("2026-02-21T00:05:00Z"));
+        // a newer reading is swapped in between the read and the conditional update, so the retry sees it
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageAggregateDocument.class))).thenReturn(older, newer);
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(UsageAggregateDocument.class)))
+                .thenThrow(new DuplicateKeyException("newer reading stored"));
+        when(usageEventRepository.findByTenantIdAndIdempotencyKey("tenant-9", "idem-g2")).thenReturn(Optional.empty());
+        when(usageEventRepository.save(any(UsageEventDocument.class))).thenAnswer(i -> i.getArgument(0));
+
+        UsageEvent event = usageIngestionService.ingest(request("tenant-9", "customer-9", "idem-g2", "disk_gb", 25L));
+
+        assertThat(event.quantity()).isEqualTo(25L);
+        verify(mongoTemplate, times(2)).findOne(any(Query.class), eq(UsageAggregateDocument.class));
+        verify(mongoTemplate, times(1)).upsert(any(), any(), any(Class.class));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(UsageRollupDocument.class));
+    }
+
+    @Test
+    void shouldRejectDistinctMetricWithoutDistinctValue() {
+        assertThatThrownBy(() -> usageIngestionService.ingest(request("tenant-7", "customer-7", "idem-u3", "unique_user", 1L)))
+                .isInstanceOf(DomainValidationException.class);
+        verify(usageEventRepository, never()).save(any(UsageEventDocument.class));
+    }
+
+    private void watch(String tenantId, String metricCode, String customerId, long quota, List<Integer> percents) {
+        UsageThresholdRuleDocument rule = new UsageThresholdRuleDocument();
+        rule.setId("thr-1");
+        rule.setTenantId(tenantId);
+        rule.setMetricCode(metricCode);
+        rule.setCustomerId(customerId);
+        rule.setQuota(quota);
+        rule.setThresholdPercents(percents);
+        when(usageThresholdRuleRepository.findAll()).thenReturn(List.of(rule));
+        usageThresholdAlerts.refresh();
+    }
+
+    private static UsageAggregateDocument aggregate(long totalQuantity) {
+        UsageAggregateDocument aggregate = new UsageAggregateDocument();
+        aggregate.setTotalQuantity(totalQuantity);
+        return aggregate;
+    }
+
     private static UsageEventRequest request(String tenantId, String customerId, String idem, String metric, long quantity) {
-        return new UsageEventRequest(tenantId, customerId, idem, metric, quantity, Instant.parse("2026-02-21T00:00:00Z"));
+        return new UsageEventRequest(tenantId, customerId, idem, metric, quantity, Instant.parse("2026-02-21T00:00:00Z"), null);
     }
 
     private static UsageEventDocument document(UsageEventRequest request, Instant receivedAt) {
@@ -0,0 +1,83 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsagePercentilesResult;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsagePercentileServiceTests {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageMetricAggregations usageMetricAggregations =
+            new UsageMetricAggregations("", 0.02, "bandwidth_mbps", 0.01, "", Duration.ofHours(1));
+    private final UsageRollupService usageRollupService = new UsageRollupService(
+            mongoTemplate, new UsageAggregateWriteBuffer(Mockito.mock(UsageAggregateWriter.class)), usageMetricAggregations);
+    private final UsagePercentileService usagePercentileService =
+            new UsagePercentileService(mongoTemplate, usageRollupService, usageMetricAggregations);
+
+    @Test
+    void shouldMergeRollupSketchesOfThePeriod() {
+        ReflectionTestUtils.setField(usageRollupService, "maxRangeDays", 1096L);
+        UsageRollupDocument firstDay = new UsageRollupDocument();
+        firstDay.setQuantileBuckets(sketch(0, 100, 100));
+        UsageRollupDocument secondDay = new UsageRollupDocument();
+        secondDay.setQuantileBuckets(sketch(200, 1_000));
+        when(mongoTemplate.find(any(Query.class), eq(UsageRollupDocument.class))).thenReturn(List.of(firstDay, secondDay));
+
+        UsagePercentilesResult result = usagePercentileService.percentiles("tenant-1", "customer-1", "bandwidth_mbps",
+                List.of(50.0, 99.5), Instant.parse("2026-02-01T00:00:00Z"), Instant.parse("2026-02-03T00:00:00Z"));
+
+        assertThat(result.samples()).isEqualTo(5L);
+        assertThat(result.relativeAccuracy()).isEqualTo(0.01);
+        assertThat(result.percentiles()).containsOnlyKeys("p50", "p99.5");
+        assertThat(result.percentiles().get("p50")).isBetween(99L, 101L);
+        // lower quantile: rank floor(0.995 * 4) = 3 of the sorted samples
+        assertThat(result.percentiles().get("p99.5")).isBetween(198L, 202L);
+    }
+
+    @Test
+    void shouldRejectMetricsWithoutQuantileSketch() {
+        assertThatThrownBy(() -> usagePercentileService.percentiles("tenant-1", "customer-1", "api_call",
+                List.of(95.0), null, null))
+                .isInstanceOf(DomainValidationException.class);
+        assertThatThrownBy(() -> usagePercentileService.percentiles("tenant-1", "customer-1", "bandwidth_mbps",
+                List.of(0.0), null, null))
+                .isInstanceOf(DomainValidationException.class);
+    }
+
+    @Test
+    void shouldReturnZeroSamplesWhenNothingWasRecorded() {
+        when(mongoTemplate.find(any(Query.class), eq(UsageAggregateDocument.class))).thenReturn(List.of());
+
+        UsagePercentilesResult result = usagePercentileService.percentiles("tenant-1", "customer-1", "bandwidth_mbps",
+                List.of(95.0), null, null);
+
+        assertThat(result.samples()).isZero();
+        assertThat(result.percentiles()).containsEntry("p95", 0L);
+    }
+
+    private static Map<String, Map<String, Long>> sketch(long... samples) {
+        double gamma = UsageQuantileSketch.gamma(0.01);
+        Map<String, Long> buckets = new HashMap<>();
+        for (long sample : samples) {
+            buckets.merge(String.valueOf(UsageQuantileSketch.index(sample, gamma)), 1L, Long::sum);
+        }
+        return Map.of("100", buckets);
+    }
+}
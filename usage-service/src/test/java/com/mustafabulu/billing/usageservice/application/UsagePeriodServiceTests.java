@@ -0,0 +1,136 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.exception.ConflictException;
+import com.mustafabulu.billing.usageservice.api.dto.UsagePeriodCloseRequest;
+import com.mustafabulu.billing.usageservice.domain.UsagePeriodStatus;
+import com.mustafabulu.billing.usageservice.persistence.UsageArchiveSegmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodRepository;
+import com.mustafabulu.billing.usageservice.persistence.UsagePeriodSnapshotDocument;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsagePeriodServiceTests {
+
+    private static final Instant FROM = Instant.parse("2026-02-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2026-03-01T00:00:00Z");
+    private static final Instant CUTOFF = Instant.parse("2026-03-01T00:01:00Z");
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsagePeriodRepository usagePeriodRepository = Mockito.mock(UsagePeriodRepository.class);
+    private final UsageJobLeases usageJobLeases = Mockito.mock(UsageJobLeases.class);
+    private final UsageMetricAggregations usageMetricAggregations =
+            new UsageMetricAggregations("", 0.02, "", 0.01, "", Duration.ofHours(1));
+    private final UsageRollupService usageRollupService = new UsageRollupService(
+            mongoTemplate, new UsageAggregateWriteBuffer(Mockito.mock(UsageAggregateWriter.class)), usageMetricAggregations);
+    private final UsagePeriodService usagePeriodService = new UsagePeriodService(mongoTemplate, usagePeriodRepository,
+            usageRollupService, usageMetricAggregations,
+            new UsageEventPartitions(mongoTemplate, false, Duration.ofDays(35), Duration.ofDays(400)),
+            new UsageClosedPeriods(mongoTemplate, usagePeriodRepository, usageMetricAggregations, true), usageJobLeases, 1);
+
+    @Test
+    void shouldFreezeEventsReceivedBeforeTheCutoffInOneMergingPass() {
+        when(usagePeriodRepository.findById("period-1")).thenReturn(Optional.of(period(UsagePeriodStatus.CLOSING)));
+        when(mongoTemplate.getCollectionName(UsagePeriodSnapshotDocument.class)).thenReturn("usage_period_snapshots");
+        when(mongoTemplate.getCollectionName(UsageArchiveSegmentDocument.class)).thenReturn("usage_archive_segments");
+        when(mongoTemplate.getCollectionName(UsageEventBucketDocument.class)).thenReturn("usage_event_buckets");
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("usage_events"), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+        when(mongoTemplate.count(any(Query.class), eq(UsagePeriodSnapshotDocument.class))).thenReturn(42L);
+
+        usagePeriodService.execute("period-1");
+
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(aggregation.capture(), eq("usage_events"), eq(Document.class));
+        List<Document> pipeline = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        Document match = pipeline.get(0).get("$match", Document.class);
+        assertThat(match.get("receivedAt", Document.class)).containsEntry("$lt", CUTOFF);
+        assertThat(pipeline.get(1).get("$unionWith", Document.class)).containsEntry("coll", "usage_archive_segments");
+        Document buckets = pipeline.get(2).get("$unionWith", Document.class);
+        assertThat(buckets).containsEntry("coll", "usage_event_buckets");
+        assertThat(buckets.getList("pipeline", Document.class).get(0).get("$match", Document.class)
+                .get("lastReceivedAt", Document.class)).containsEntry("$lt", CUTOFF);
+        Document merge = pipeline.get(pipeline.size() - 1).get("$merge", Document.class);
+        assertThat(merge).containsEntry("into", "usage_period_snapshots").containsEntry("whenMatched", "keepExisting");
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(UsagePeriodDocument.class));
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+                .containsEntry("status", UsagePeriodStatus.CLOSED)
+                .containsEntry("snapshotKeys", 42L);
+    }
+
+    @Test
+    void shouldFinishClosingPeriodsWhoseSettleDelayPassedUnderTheRecoveryLease() {
+        when(usageJobLeases.tryAcquire(eq("usage-period-recovery"), anyLong())).thenReturn(true);
+        when(usagePeriodRepository.findAllByStatusAndCutoffLessThan(eq(UsagePeriodStatus.CLOSING), any(Instant.class)))
+                .thenReturn(List.of(period(UsagePeriodStatus.CLOSING)));
+        when(usagePeriodRepository.findById("period-1")).thenReturn(Optional.of(period(UsagePeriodStatus.CLOSED)));
+
+        usagePeriodService.recoverClosing();
+
+        verify(usagePeriodRepository).findById("period-1");
+        verify(usageJobLeases).release("usage-period-recovery");
+    }
+
+    @Test
+    void shouldLeaveTheSweepToTheLeaseHolder() {
+        when(usageJobLeases.tryAcquire(eq("usage-period-recovery"), anyLong())).thenReturn(false);
+
+        usagePeriodService.recoverClosing();
+
+        verify(usagePeriodRepository, never()).findAllByStatusAndCutoffLessThan(any(), any());
+    }
+
+    @Test
+    void shouldRejectPeriodsOverlappingAnotherPeriodOfTheTenant() {
+        ReflectionTestUtils.setField(usageRollupService, "maxRangeDays", 1096L);
+        UsagePeriodDocument existing = period(UsagePeriodStatus.CLOSED);
+        when(usagePeriodRepository.findAllByTenantIdAndFromLessThanAndToGreaterThan(
+                "tenant-1", TO.plus(Duration.ofDays(1)), FROM)).thenReturn(List.of(existing));
+        when(usagePeriodRepository.findAllByTenantIdAndFromLessThanAndToGreaterThan("tenant-1", TO, FROM))
+                .thenReturn(List.of(existing));
+
+        assertThatThrownBy(() -> usagePeriodService.close(
+                new UsagePeriodCloseRequest("tenant-1", FROM, TO.plus(Duration.ofDays(1)))))
+                .isInstanceOf(ConflictException.class);
+        assertThat(usagePeriodService.close(new UsagePeriodCloseRequest("tenant-1", FROM, TO)).status())
+                .isEqualTo(UsagePeriodStatus.CLOSED);
+        verify(mongoTemplate, never()).insert(any(UsagePeriodDocument.class));
+    }
+
+    private static UsagePeriodDocument period(UsagePeriodStatus status) {
+        UsagePeriodDocument period = new UsagePeriodDocument();
+        period.setId("period-1");
+        period.setTenantId("tenant-1");
+        period.setFrom(FROM);
+        period.setTo(TO);
+        period.setCutoff(CUTOFF);
+        period.setStatus(status);
+        period.setRequestedAt(TO);
+        return period;
+    }
+}
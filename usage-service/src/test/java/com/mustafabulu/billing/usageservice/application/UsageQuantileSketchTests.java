@@ -0,0 +1,78 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class UsageQuantileSketchTests {
+
+    private static final double ACCURACY = 0.01;
+
+    @Test
+    void shouldMatchExactPercentilesOfBurstySamplesWithinRelativeAccuracy() {
+        // a month of 5-minute bandwidth samples: a log-normal baseline with occasional bursts
+        Random random = new Random(42);
+        long[] samples = new long[8_640];
+        for (int i = 0; i < samples.length; i++) {
+            double baseline = Math.exp(6 + random.nextGaussian() * 0.5);
+            samples[i] = Math.round(random.nextDouble() < 0.03 ? baseline * 20 : baseline);
+        }
+
+        UsageQuantileSketch.Merged merged = UsageQuantileSketch.merge(List.of(stored(ACCURACY, samples)));
+
+        assertThat(merged.samples()).isEqualTo(samples.length);
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        for (double quantile : new double[] {0.5, 0.9, 0.95, 0.99, 1.0}) {
+            long exact = sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+            assertThat(merged.quantile(quantile)).isCloseTo(exact, within((long) Math.ceil(exact * ACCURACY) + 1));
+        }
+    }
+
+    @Test
+    void shouldMergeSketchesAsIfBuiltFromAllSamples() {
+        long[] first = {0, 0, 3, 10, 250, 999};
+        long[] second = {1, 7, 7, 4_000, 12_345};
+
+        UsageQuantileSketch.Merged split =
+                UsageQuantileSketch.merge(List.of(stored(ACCURACY, first), stored(ACCURACY, second)));
+        UsageQuantileSketch.Merged whole =
+                UsageQuantileSketch.merge(List.of(stored(ACCURACY, 0, 0, 3, 10, 250, 999, 1, 7, 7, 4_000, 12_345)));
+
+        assertThat(split.counts()).isEqualTo(whole.counts());
+        assertThat(split.quantile(0.1)).isZero();
+        assertThat(split.quantile(1.0)).isCloseTo(12_345L, within(124L));
+    }
+
+    @Test
+    void shouldMergeSketchesStoredAtDifferentAccuraciesAtTheCoarserOne() {
+        long[] samples = new long[2_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i + 1;
+        }
+        long[] low = Arrays.copyOfRange(samples, 0, 1_000);
+        long[] high = Arrays.copyOfRange(samples, 1_000, 2_000);
+
+        UsageQuantileSketch.Merged merged = UsageQuantileSketch.merge(List.of(stored(0.005, low), stored(0.02, high)));
+
+        assertThat(merged.accuracy()).isEqualTo(0.02);
+        assertThat(merged.samples()).isEqualTo(2_000L);
+        // re-bucketing stacks the two error bounds
+        assertThat(merged.quantile(0.95)).isCloseTo(1_900L, within(48L));
+    }
+
+    private static Map<String, Map<String, Long>> stored(double accuracy, long... samples) {
+        double gamma = UsageQuantileSketch.gamma(accuracy);
+        Map<String, Long> buckets = new HashMap<>();
+        for (long sample : samples) {
+            buckets.merge(String.valueOf(UsageQuantileSketch.index(sample, gamma)), 1L, Long::sum);
+        }
+        return Map.of(UsageQuantileSketch.key(accuracy), buckets);
+    }
+}
@@ -0,0 +1,203 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mustafabulu.billing.common.exception.ConflictException;
+import com.mustafabulu.billing.usageservice.api.dto.UsageReconciliationRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageReconciliationStatus;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageArchiveSegmentDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import com.mustafabulu.billing.usageservice.persistence.UsagePartitionTotalsDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageReconciliationCheckpointDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageReconciliationRunDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageReconciliationRunRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageReconciliationServiceTests {
+
+    private static final String RUN_ID = "recon-1";
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageReconciliationRunRepository runRepository = Mockito.mock(UsageReconciliationRunRepository.class);
+    private final UsageAggregateWriter usageAggregateWriter = Mockito.mock(UsageAggregateWriter.class);
+    private final UsageReconciliationService service =
+            new UsageReconciliationService(
+                    mongoTemplate, runRepository, usageAggregateWriter,
+                    new UsageMetricAggregations("", 0.02, "", 0.01, "", Duration.ofHours(1)),
+                    new UsageEventPartitions(mongoTemplate, false, Duration.ofDays(35), Duration.ofDays(400)));
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "parallelism", 2);
+        ReflectionTestUtils.setField(service, "pageEvents", 1000);
+        ReflectionTestUtils.setField(service, "maxEventsPerSecond", 0L);
+        ReflectionTestUtils.setField(service, "confirmDelayMs", 0L);
+        ReflectionTestUtils.setField(service, "leaseMs", 60_000L);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(UsageReconciliationRunDocument.class)))
+                .thenReturn(UpdateResult.acknowledged(1L, 1L, null));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageArchiveSegmentDocument.class), eq(Document.class)))
+                .thenReturn(results());
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageEventBucketDocument.class), eq(Document.class)))
+                .thenReturn(results());
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsagePartitionTotalsDocument.class), eq(Document.class)))
+                .thenReturn(results());
+    }
+
+    @Test
+    void shouldRepairConfirmedDriftWithMissingDelta() {
+        when(runRepository.findById(RUN_ID)).thenReturn(Optional.of(run(true)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("usage_events"), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 15L), row("customer-2", "api_call", 3L)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageAggregateDocument.class), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 10L), row("customer-2", "api_call", 3L)));
+
+        service.execute(RUN_ID);
+
+        verify(usageAggregateWriter).incrementAll(Map.of(new UsageAggregateKey("tenant-1", "customer-1", "api_call"), 5L));
+        ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, Mockito.atLeastOnce())
+                .updateFirst(any(Query.class), captor.capture(), eq(UsageReconciliationRunDocument.class));
+        Document finish = captor.getValue().getUpdateObject();
+        assertThat(finish.get("$set", Document.class).get("status"))
+                .isEqualTo(UsageReconciliationStatus.COMPLETED);
+    }
+
+    @Test
+    void shouldReportButNotRepairDriftThatIsStillMoving() {
+        when(runRepository.findById(RUN_ID)).thenReturn(Optional.of(run(true)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("usage_events"), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 15L)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageAggregateDocument.class), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 10L)), results(row("customer-1", "api_call", 15L)));
+
+        service.execute(RUN_ID);
+
+        verify(usageAggregateWriter, never()).incrementAll(anyMap());
+    }
+
+    @Test
+    void shouldCountArchivedEventsTowardsExpectedTotals() {
+        when(runRepository.findById(RUN_ID)).thenReturn(Optional.of(run(true)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("usage_events"), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 10L)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageArchiveSegmentDocument.class), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 5L)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageAggregateDocument.class), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 15L)));
+
+        service.execute(RUN_ID);
+
+        verify(usageAggregateWriter, never()).incrementAll(anyMap());
+    }
+
+    @Test
+    void shouldKeepTheTotalsOfAPartitionDroppedPastRetention() {
+        UsageEventPartitions partitions = new UsageEventPartitions(mongoTemplate, true, Duration.ofDays(35), Duration.ofDays(400));
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of("usage_events_202401"));
+        when(mongoTemplate.getCollectionName(UsagePartitionTotalsDocument.class)).thenReturn("usage_partition_totals");
+        when(mongoTemplate.getCollectionName(UsageEventBucketDocument.class)).thenReturn("usage_event_buckets");
+        when(mongoTemplate.remove(any(Query.class), eq(UsageEventBucketDocument.class))).thenReturn(DeleteResult.acknowledged(0L));
+
+        assertThat(partitions.dropExpired(Instant.parse("2026-03-10T12:00:00Z"))).isEqualTo(1);
+
+        InOrder order = Mockito.inOrder(mongoTemplate);
+        ArgumentCaptor<Aggregation> totals = ArgumentCaptor.forClass(Aggregation.class);
+        order.verify(mongoTemplate).aggregate(totals.capture(), eq("usage_events_202401"), eq(Document.class));
+        order.verify(mongoTemplate).dropCollection("usage_events_202401");
+        List<Document> pipeline = totals.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertThat(pipeline.get(pipeline.size() - 1).get("$merge", Document.class))
+                .containsEntry("into", "usage_partition_totals")
+                .containsEntry("whenMatched", "keepExisting");
+
+        // the 5 units that were in the dropped partition now come from its recorded totals
+        when(runRepository.findById(RUN_ID)).thenReturn(Optional.of(run(true)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("usage_events"), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 10L)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsagePartitionTotalsDocument.class), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 5L)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(UsageAggregateDocument.class), eq(Document.class)))
+                .thenReturn(results(row("customer-1", "api_call", 15L)));
+
+        service.execute(RUN_ID);
+
+        verify(usageAggregateWriter, never()).incrementAll(anyMap());
+    }
+
+    @Test
+    void shouldSkipTenantsAlreadyCompletedByCheckpoint() {
+        when(runRepository.findById(RUN_ID)).thenReturn(Optional.of(run(true)));
+        UsageReconciliationCheckpointDocument checkpoint = new UsageReconciliationCheckpointDocument();
+        checkpoint.setId(RUN_ID + ":tenant-1");
+        checkpoint.setCompleted(true);
+        when(mongoTemplate.findById(RUN_ID + ":tenant-1", UsageReconciliationCheckpointDocument.class)).thenReturn(checkpoint);
+
+        service.execute(RUN_ID);
+
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), eq("usage_events"), eq(Document.class));
+        verify(usageAggregateWriter, never()).incrementAll(anyMap());
+    }
+
+    @Test
+    void shouldRejectStartWhileAnotherReplicaHoldsTheLease() {
+        when(runRepository.findFirstByStatus(UsageReconciliationStatus.RUNNING)).thenReturn(Optional.of(run(false)));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(UsageReconciliationRunDocument.class))).thenReturn(null);
+
+        assertThatThrownBy(() -> service.start(new UsageReconciliationRequest(false, List.of())))
+                .isInstanceOf(ConflictException.class);
+        verify(mongoTemplate, never()).insert(any(UsageReconciliationRunDocument.class));
+        verify(mongoTemplate, never()).upsert(any(Query.class), any(Update.class), anyString());
+    }
+
+    private static UsageReconciliationRunDocument run(boolean repair) {
+        UsageReconciliationRunDocument run = new UsageReconciliationRunDocument();
+        run.setId(RUN_ID);
+        run.setStatus(UsageReconciliationStatus.RUNNING);
+        run.setRepair(repair);
+        run.setTenantIds(List.of("tenant-1"));
+        run.setStartedAt(Instant.parse("2026-02-21T16:30:00Z"));
+        return run;
+    }
+
+    private static Document row(String customerId, String metricCode, long total) {
+        return new Document("_id", new Document("customerId", customerId).append("metricCode", metricCode))
+                .append("total", total)
+                .append("events", 1);
+    }
+
+    private static AggregationResults<Document> results(Document... rows) {
+        return new AggregationResults<>(List.of(rows), new Document());
+    }
+}
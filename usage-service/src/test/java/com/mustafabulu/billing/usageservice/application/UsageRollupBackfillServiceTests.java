@@ -0,0 +1,95 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.usageservice.persistence.UsageEventBucketDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageEventPartitions;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupBackfillCheckpointDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageRollupBackfillServiceTests {
+
+    private static final Instant EPOCH = Instant.parse("2026-02-10T12:00:00Z");
+    private static final String EVENTS = UsageEventPartitions.BASE_COLLECTION;
+    private static final String PARTITION = "usage_events_202602";
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageJobLeases usageJobLeases = Mockito.mock(UsageJobLeases.class);
+    private final UsageRollupBackfillService service = new UsageRollupBackfillService(mongoTemplate, usageJobLeases,
+            new UsageEventPartitions(mongoTemplate, true, Duration.ofDays(35), Duration.ofDays(400)),
+            new UsageMetricAggregations("unique_user", 0.02, "", 0.01, "", Duration.ofHours(1)));
+
+    @Test
+    void shouldMergeEventsReceivedBeforeTheOldestRollupIntoBackfillShards() {
+        ReflectionTestUtils.setField(service, "configuredEpoch", "");
+        ReflectionTestUtils.setField(service, "leaseMs", 60_000L);
+        when(usageJobLeases.tryAcquire(eq("usage-rollup-backfill"), anyLong())).thenReturn(true);
+        when(mongoTemplate.getCollectionName(UsageRollupDocument.class)).thenReturn("usage_rollups");
+        when(mongoTemplate.getCollectionName(UsageEventBucketDocument.class)).thenReturn("usage_event_buckets");
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of(PARTITION));
+        UsageRollupDocument oldest = new UsageRollupDocument();
+        oldest.setId(new ObjectId("%08x0000000000000000".formatted(EPOCH.getEpochSecond())).toHexString());
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageRollupDocument.class))).thenReturn(oldest);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(EVENTS), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+        assertThat(service.backfill()).isTrue();
+
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate, times(2)).aggregate(aggregation.capture(), eq(EVENTS), eq(Document.class));
+        List<Document> hourly = aggregation.getAllValues().get(0).toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertThat(hourly.get(0).get("$match", Document.class).get("_id", Document.class))
+                .containsEntry("$lt", new ObjectId(oldest.getId()));
+        assertThat(hourly.get(1).get("$unionWith", Document.class)).containsEntry("coll", PARTITION);
+        assertThat(hourly.get(2).get("$unionWith", Document.class)).containsEntry("coll", "usage_event_buckets");
+        Document merge = hourly.get(hourly.size() - 1).get("$merge", Document.class);
+        assertThat(merge).containsEntry("into", "usage_rollups").containsEntry("whenMatched", "keepExisting");
+        assertThat(hourly.get(hourly.size() - 2).get("$project", Document.class).get("shard", Document.class))
+                .containsEntry("$literal", UsageRollupBackfillService.BACKFILL_SHARD);
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).upsert(any(Query.class), update.capture(),
+                eq(UsageRollupBackfillCheckpointDocument.class));
+        assertThat(update.getAllValues().get(0).getUpdateObject().get("$setOnInsert", Document.class))
+                .containsEntry("epoch", EPOCH);
+        assertThat(update.getAllValues().get(1).getUpdateObject().get("$set", Document.class))
+                .containsEntry("completed", true);
+        verify(usageJobLeases).release("usage-rollup-backfill");
+    }
+
+    @Test
+    void shouldNotRunAgainOnceCompleted() {
+        when(mongoTemplate.getCollectionName(UsageRollupDocument.class)).thenReturn("usage_rollups");
+        UsageRollupBackfillCheckpointDocument checkpoint = new UsageRollupBackfillCheckpointDocument();
+        checkpoint.setCompleted(true);
+        when(mongoTemplate.findById("usage_rollups", UsageRollupBackfillCheckpointDocument.class)).thenReturn(checkpoint);
+
+        assertThat(service.backfill()).isFalse();
+
+        verify(usageJobLeases, never()).tryAcquire(anyString(), anyLong());
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), anyString(), eq(Document.class));
+    }
+}
@@ -0,0 +1,99 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupGranularity;
+import com.mustafabulu.billing.usageservice.domain.UsageRollupKey;
+import com.mustafabulu.billing.usageservice.persistence.UsageRollupDocument;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageRollupServiceTests {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer =
+            new UsageAggregateWriteBuffer(Mockito.mock(UsageAggregateWriter.class));
+    private final UsageRollupService usageRollupService = new UsageRollupService(
+            mongoTemplate, usageAggregateWriteBuffer,
+            new UsageMetricAggregations("", 0.02, "", 0.01, "", Duration.ofHours(1)));
+
+    @BeforeEach
+    void configure() {
+        ReflectionTestUtils.setField(usageRollupService, "maxRangeDays", 1096L);
+    }
+
+    @Test
+    void shouldCoverMonthWithDailyBucketsOnly() {
+        List<UsageRollupKey> buckets = UsageRollupService.coveringBuckets("tenant-1", "customer-1", "api_call",
+                Instant.parse("2026-02-01T00:00:00Z"), Instant.parse("2026-03-01T00:00:00Z"));
+
+        assertThat(buckets).hasSize(28).allMatch(bucket -> bucket.granularity() == UsageRollupGranularity.DAY);
+    }
+
+    @Test
+    void shouldUseHourlyBucketsForPartialDaysAtBothEnds() {
+        List<UsageRollupKey> buckets = UsageRollupService.coveringBuckets("tenant-1", "customer-1", "api_call",
+                Instant.parse("2026-02-01T22:00:00Z"), Instant.parse("2026-02-04T03:00:00Z"));
+
+        assertThat(buckets).extracting(UsageRollupKey::granularity).containsExactly(
+                UsageRollupGranularity.HOUR, UsageRollupGranularity.HOUR,
+                UsageRollupGranularity.DAY, UsageRollupGranularity.DAY,
+                UsageRollupGranularity.HOUR, UsageRollupGranularity.HOUR, UsageRollupGranularity.HOUR);
+        assertThat(buckets.get(2).bucketStart()).isEqualTo(Instant.parse("2026-02-02T00:00:00Z"));
+    }
+
+    @Test
+    void shouldUseHourlyBucketsWithinSingleDay() {
+        List<UsageRollupKey> buckets = UsageRollupService.coveringBuckets("tenant-1", "customer-1", "api_call",
+                Instant.parse("2026-02-01T05:00:00Z"), Instant.parse("2026-02-01T09:00:00Z"));
+
+        assertThat(buckets).hasSize(4).allMatch(bucket -> bucket.granularity() == UsageRollupGranularity.HOUR);
+    }
+
+    @Test
+    void shouldSumMatchingRollupsWithSingleQuery() {
+        when(mongoTemplate.find(any(Query.class), eq(UsageRollupDocument.class)))
+                .thenReturn(List.of(rollup(40L), rollup(2L)));
+
+        long total = usageRollupService.periodTotal("tenant-1", "customer-1", "api_call",
+                Instant.parse("2026-02-01T22:00:00Z"), Instant.parse("2026-02-04T03:00:00Z"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(UsageRollupDocument.class));
+        assertThat(total).isEqualTo(42L);
+        assertThat(query.getValue().getQueryObject()).containsKey("$or");
+    }
+
+    @Test
+    void shouldRejectUnalignedOrInvertedRanges() {
+        assertThatThrownBy(() -> usageRollupService.periodTotal("tenant-1", "customer-1", "api_call",
+                Instant.parse("2026-02-01T00:30:00Z"), Instant.parse("2026-02-02T00:00:00Z")))
+                .isInstanceOf(DomainValidationException.class);
+        assertThatThrownBy(() -> usageRollupService.periodTotal("tenant-1", "customer-1", "api_call",
+                Instant.parse("2026-02-02T00:00:00Z"), Instant.parse("2026-02-01T00:00:00Z")))
+                .isInstanceOf(DomainValidationException.class);
+        assertThatThrownBy(() -> usageRollupService.periodTotal("tenant-1", "customer-1", "api_call",
+                Instant.parse("2026-02-02T00:00:00Z"), null))
+                .isInstanceOf(DomainValidationException.class);
+    }
+
+    private static UsageRollupDocument rollup(long quantity) {
+        UsageRollupDocument document = new UsageRollupDocument();
+        document.setTotalQuantity(quantity);
+        return document;
+    }
+}
@@ -0,0 +1,159 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageBatchResult;
+import com.mustafabulu.billing.usageservice.domain.UsageStreamChunkResult;
+import jakarta.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageStreamIngestionServiceTests {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+    private final UsageIngestionService usageIngestionService = Mockito.mock(UsageIngestionService.class);
+    private final UsageStreamIngestionService usageStreamIngestionService = new UsageStreamIngestionService(
+            usageIngestionService,
+            new UsageMetricAggregations("unique_user", 0.02, "", 0.01, "", Duration.ofHours(1)),
+            objectMapper,
+            Validation.buildDefaultValidatorFactory().getValidator()
+    );
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(usageStreamIngestionService, "chunkSize", 2);
+        when(usageIngestionService.ingestBatch(anyList()))
+                .thenAnswer(invocation -> new UsageBatchResult(invocation.<List<?>>getArgument(0).size(), 0, List.of()));
+    }
+
+    @Test
+    void shouldIngestRecordsInChunksAndReportResumeOffsets() throws Exception {
+        List<UsageStreamChunkResult> results = ingest(lines(5), 0L);
+
+        assertThat(results).extracting(UsageStreamChunkResult::nextOffset).containsExactly(2L, 4L, 5L);
+        assertThat(results).extracting(UsageStreamChunkResult::status).containsOnly("OK");
+        assertThat(results).extracting(UsageStreamChunkResult::accepted).containsExactly(2, 2, 1);
+        verify(usageIngestionService, times(3)).ingestBatch(anyList());
+    }
+
+    @Test
+    void shouldSkipRecordsBeforeStartOffset() throws Exception {
+        List<UsageStreamChunkResult> results = ingest(lines(5), 3L);
+
+        assertThat(results).singleElement().satisfies(result -> {
+            assertThat(result.fromOffset()).isEqualTo(3L);
+            assertThat(result.nextOffset()).isEqualTo(5L);
+        });
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UsageEventRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(usageIngestionService).ingestBatch(captor.capture());
+        assertThat(captor.getValue()).extracting(UsageEventRequest::idempotencyKey).containsExactly("evt-3", "evt-4");
+    }
+
+    @Test
+    void shouldStoreValidPrefixAndStopAtInvalidRecord() throws Exception {
+        String body = line(0) + "\n"
+                + "{\"tenantId\":\"tenant-1\",\"customerId\":\"customer-1\",\"idempotencyKey\":\"evt-1\","
+                + "\"metricCode\":\"api_call\",\"quantity\":-1}\n"
+                + line(2) + "\n";
+
+        List<UsageStreamChunkResult> results = ingest(body, 0L);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).status()).isEqualTo("OK");
+        assertThat(results.get(0).nextOffset()).isEqualTo(1L);
+        assertThat(results.get(1).status()).isEqualTo("FAILED");
+        assertThat(results.get(1).nextOffset()).isEqualTo(1L);
+        assertThat(results.get(1).error()).startsWith("record 1: quantity");
+    }
+
+    @Test
+    void shouldStopAtARecordItsMetricRejectsAfterStoringTheRecordsBeforeIt() throws Exception {
+        String body = line(0) + "\n"
+                + "{\"tenantId\":\"tenant-1\",\"customerId\":\"customer-1\",\"idempotencyKey\":\"evt-1\","
+                + "\"metricCode\":\"unique_user\",\"quantity\":1}\n"
+                + line(2) + "\n";
+
+        List<UsageStreamChunkResult> results = ingest(body, 0L);
+
+        assertThat(results).extracting(UsageStreamChunkResult::status).containsExactly("OK", "FAILED");
+        assertThat(results.get(0).nextOffset()).isEqualTo(1L);
+        assertThat(results.get(1).nextOffset()).isEqualTo(1L);
+        assertThat(results.get(1).error()).isEqualTo("record 1: distinctValue is required for DISTINCT metric unique_user");
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UsageEventRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(usageIngestionService).ingestBatch(captor.capture());
+        assertThat(captor.getValue()).extracting(UsageEventRequest::idempotencyKey).containsExactly("evt-0");
+    }
+
+    @Test
+    void shouldReportMalformedJsonWithResumeOffset() throws Exception {
+        List<UsageStreamChunkResult> results = ingest(lines(3) + "{\"tenantId\":", 0L);
+
+        assertThat(results).extracting(UsageStreamChunkResult::status).containsExactly("OK", "OK", "FAILED");
+        assertThat(results.get(2).nextOffset()).isEqualTo(3L);
+        assertThat(results.get(2).error()).isEqualTo("record 3: malformed JSON");
+    }
+
+    @Test
+    void shouldStopStreamWhenChunkWriteFails() throws Exception {
+        when(usageIngestionService.ingestBatch(anyList()))
+                .thenAnswer(invocation -> new UsageBatchResult(2, 0, List.of()))
+                .thenThrow(new IllegalStateException("mongo down"));
+
+        List<UsageStreamChunkResult> results = ingest(lines(6), 0L);
+
+        assertThat(results).extracting(UsageStreamChunkResult::status).containsExactly("OK", "FAILED");
+        assertThat(results.get(1).nextOffset()).isEqualTo(2L);
+        verify(usageIngestionService, times(2)).ingestBatch(anyList());
+    }
+
+    @Test
+    void shouldWriteNothingForEmptyBody() throws Exception {
+        assertThat(ingest("", 0L)).isEmpty();
+        verify(usageIngestionService, never()).ingestBatch(anyList());
+    }
+
+    private List<UsageStreamChunkResult> ingest(String body, long fromOffset) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        usageStreamIngestionService.ingest(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), output, fromOffset);
+        List<UsageStreamChunkResult> results = new ArrayList<>();
+        for (String resultLine : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!resultLine.isBlank()) {
+                results.add(objectMapper.readValue(resultLine, UsageStreamChunkResult.class));
+            }
+        }
+        return results;
+    }
+
+    private static String lines(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(UsageStreamIngestionServiceTests::line)
+                .collect(Collectors.joining("\n", "", "\n"));
+    }
+
+    private static String line(int index) {
+        return "{\"tenantId\":\"tenant-1\",\"customerId\":\"customer-1\",\"idempotencyKey\":\"evt-" + index
+                + "\",\"metricCode\":\"api_call\",\"quantity\":1,\"occurredAt\":\"2026-02-21T16:30:00Z\"}";
+    }
+}
@@ -0,0 +1,142 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.groups.Tuple.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.events.UsageThresholdCrossedEvent;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.api.dto.UsageThresholdRuleRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageThresholdRule;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleDocument;
+import com.mustafabulu.billing.usageservice.persistence.UsageThresholdRuleRepository;
+import com.mongodb.client.result.UpdateResult;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
+
+class UsageThresholdAlertsTests {
+
+    private final UsageThresholdRuleRepository usageThresholdRuleRepository = Mockito.mock(UsageThresholdRuleRepository.class);
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = Mockito.mock(KafkaTemplate.class);
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    // what the aggregate document holds: rule id -> highest percent published, moved by the conditional $max
+    private final Map<String, Integer> published = new HashMap<>();
+    private final UsageThresholdAlerts usageThresholdAlerts = new UsageThresholdAlerts(usageThresholdRuleRepository,
+            mongoTemplate, kafkaTemplate, new UsageMetricAggregations("unique_user", 0.02, "", 0.01, "", Duration.ofHours(1)), true, 2);
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(UsageAggregateDocument.class)))
+                .thenAnswer(invocation -> {
+                    Document max = invocation.getArgument(1, Update.class).getUpdateObject().get("$max", Document.class);
+                    String ruleId = max.keySet().iterator().next().substring("publishedPercents.".length());
+                    int percent = max.getInteger("publishedPercents." + ruleId);
+                    boolean moved = published.getOrDefault(ruleId, 0) < percent;
+                    published.merge(ruleId, percent, Math::max);
+                    return UpdateResult.acknowledged(moved ? 1 : 0, moved ? 1L : 0L, null);
+                });
+    }
+
+    @Test
+    void shouldPublishEachThresholdOnceOnTheIncrementThatCrossesIt() {
+        when(usageThresholdRuleRepository.findAll()).thenReturn(List.of(
+                rule("thr-customer", "customer-1", 1_000L, List.of(80, 100)),
+                rule("thr-all", null, 500L, List.of(100))));
+        usageThresholdAlerts.refresh();
+        UsageAggregateKey key = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+
+        // 790 -> 810 -> 1200 -> 1300: each threshold fires on the first increment that sees the total past it
+        for (long total : List.of(790L, 810L, 1_200L, 1_300L)) {
+            usageThresholdAlerts.onIncrement(key, total, Map.copyOf(published));
+        }
+
+        assertThat(publishedEvents())
+                .extracting(UsageThresholdCrossedEvent::ruleId, UsageThresholdCrossedEvent::thresholdQuantity,
+                        UsageThresholdCrossedEvent::totalQuantity)
+                .containsExactly(
+                        tuple("thr-all", 500L, 790L),
+                        tuple("thr-customer", 800L, 810L),
+                        tuple("thr-customer", 1_000L, 1_200L));
+    }
+
+    @Test
+    void shouldPublishAThresholdCrossedBeforeTheKeyWasWatchedAndOnlyFromTheReplicaThatClaimsIt() {
+        when(usageThresholdRuleRepository.findAll()).thenReturn(List.of(rule("thr-1", "customer-1", 1_000L, List.of(80, 100))));
+        usageThresholdAlerts.refresh();
+        UsageAggregateKey key = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+        Map<String, Integer> staleView = Map.of();
+
+        // replicas with stale rules took the total to 850 unseen; two replicas then read it without any claim
+        usageThresholdAlerts.onIncrement(key, 860L, staleView);
+        usageThresholdAlerts.onIncrement(key, 870L, staleView);
+
+        assertThat(publishedEvents()).singleElement().satisfies(event -> {
+            assertThat(event.thresholdPercent()).isEqualTo(80);
+            assertThat(event.totalQuantity()).isEqualTo(860L);
+        });
+    }
+
+    @Test
+    void shouldOnlyWatchKeysCoveredByARule() {
+        when(usageThresholdRuleRepository.findAll()).thenReturn(List.of(rule("thr-1", "customer-1", 100L, List.of(100))));
+        usageThresholdAlerts.refresh();
+
+        assertThat(usageThresholdAlerts.watches(new UsageAggregateKey("tenant-1", "customer-1", "api_call"))).isTrue();
+        assertThat(usageThresholdAlerts.watches(new UsageAggregateKey("tenant-1", "customer-2", "api_call"))).isFalse();
+        assertThat(usageThresholdAlerts.watches(new UsageAggregateKey("tenant-1", "customer-1", "sms"))).isFalse();
+        usageThresholdAlerts.onIncrement(new UsageAggregateKey("tenant-1", "customer-2", "api_call"), 500L, Map.of());
+        verify(kafkaTemplate, never()).send(any(), any(), any());
+    }
+
+    @Test
+    void shouldDefaultToEightyAndHundredPercentAndRejectDistinctMetrics() {
+        when(usageThresholdRuleRepository.save(any(UsageThresholdRuleDocument.class))).thenAnswer(i -> i.getArgument(0));
+
+        UsageThresholdRule rule = usageThresholdAlerts.create(
+                new UsageThresholdRuleRequest("tenant-1", "api_call", " ", 1_000L, null));
+
+        assertThat(rule.customerId()).isNull();
+        assertThat(rule.thresholdPercents()).containsExactly(80, 100);
+        assertThatThrownBy(() -> usageThresholdAlerts.create(
+                new UsageThresholdRuleRequest("tenant-1", "unique_user", null, 1_000L, List.of(100))))
+                .isInstanceOf(DomainValidationException.class);
+    }
+
+    private List<UsageThresholdCrossedEvent> publishedEvents() {
+        ArgumentCaptor<Object> events = ArgumentCaptor.forClass(Object.class);
+        verify(kafkaTemplate, Mockito.atLeast(0)).send(eq(KafkaTopics.USAGE_THRESHOLD_CROSSED), eq("tenant-1/customer-1"),
+                events.capture());
+        return events.getAllValues().stream().map(UsageThresholdCrossedEvent.class::cast).toList();
+    }
+
+    private static UsageThresholdRuleDocument rule(String id, String customerId, long quota, List<Integer> percents) {
+        UsageThresholdRuleDocument document = new UsageThresholdRuleDocument();
+        document.setId(id);
+        document.setTenantId("tenant-1");
+        document.setMetricCode("api_call");
+        document.setCustomerId(customerId);
+        document.setQuota(quota);
+        document.setThresholdPercents(percents);
+        return document;
+    }
+}
@@ -0,0 +1,124 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.events.UsageTotalsInvalidatedEvent;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageTotalsCacheTests {
+
+    private static final UsageAggregateKey KEY = new UsageAggregateKey("tenant-1", "customer-1", "api_call");
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = Mockito.mock(KafkaTemplate.class);
+    private final UsageTotalsCache cache = new UsageTotalsCache(kafkaTemplate, 100, 30_000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void enableCache() {
+        ReflectionTestUtils.setField(cache, "enabled", true);
+    }
+
+    @Test
+    void shouldServeRepeatedReadsFromCache() {
+        assertThat(cache.get(KEY, () -> load(10L))).isEqualTo(10L);
+        assertThat(cache.get(KEY, () -> load(99L))).isEqualTo(10L);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldApplyLocalIncrementInPlace() {
+        cache.get(KEY, () -> load(10L));
+
+        long sequence = cache.beginWrite(KEY);
+        cache.completeWrite(KEY, 5L, sequence);
+
+        assertThat(cache.get(KEY, () -> load(99L))).isEqualTo(15L);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldNotCacheLoadThatRacedWithWrite() {
+        long loaded = cache.get(KEY, () -> {
+            cache.completeWrite(KEY, 5L, cache.beginWrite(KEY));
+            return load(10L);
+        });
+
+        assertThat(loaded).isEqualTo(10L);
+        assertThat(cache.get(KEY, () -> load(15L))).isEqualTo(15L);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldDropEntryLoadedWhileWriteWasInFlight() {
+        long sequence = cache.beginWrite(KEY);
+        cache.get(KEY, () -> load(15L));
+
+        cache.completeWrite(KEY, 5L, sequence);
+
+        assertThat(cache.get(KEY, () -> load(15L))).isEqualTo(15L);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldBroadcastChangedKeysAndIgnoreOwnBroadcast() {
+        cache.get(KEY, () -> load(10L));
+        cache.completeWrite(KEY, 1L, cache.beginWrite(KEY));
+
+        cache.broadcastChanges();
+
+        ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        verify(kafkaTemplate).send(eq(KafkaTopics.USAGE_TOTALS_INVALIDATED), anyString(), captor.capture());
+        UsageTotalsInvalidatedEvent event = (UsageTotalsInvalidatedEvent) captor.getValue();
+        assertThat(event.keys()).containsExactly(new UsageTotalsInvalidatedEvent.Key("tenant-1", "customer-1", "api_call"));
+
+        cache.onTotalsInvalidated(event);
+        assertThat(cache.get(KEY, () -> load(99L))).isEqualTo(11L);
+
+        Mockito.clearInvocations(kafkaTemplate);
+        cache.broadcastChanges();
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any());
+    }
+
+    @Test
+    void shouldInvalidateOnBroadcastFromOtherReplica() {
+        cache.get(KEY, () -> load(10L));
+
+        cache.onTotalsInvalidated(new UsageTotalsInvalidatedEvent("EVT-1", "other-replica",
+                List.of(new UsageTotalsInvalidatedEvent.Key("tenant-1", "customer-1", "api_call")),
+                Instant.parse("2026-02-21T16:30:00Z")));
+
+        assertThat(cache.get(KEY, () -> load(12L))).isEqualTo(12L);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldBypassCacheWhenDisabled() {
+        ReflectionTestUtils.setField(cache, "enabled", false);
+
+        cache.get(KEY, () -> load(10L));
+        cache.get(KEY, () -> load(10L));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    private long load(long total) {
+        loads.incrementAndGet();
+        return total;
+    }
+}
@@ -0,0 +1,97 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import com.mustafabulu.billing.usageservice.api.dto.UsageTotalsQueryItem;
+import com.mustafabulu.billing.usageservice.api.dto.UsageTotalsQueryRequest;
+import com.mustafabulu.billing.usageservice.domain.UsageAggregateKey;
+import com.mustafabulu.billing.usageservice.domain.UsageTotalsQueryResult;
+import com.mustafabulu.billing.usageservice.persistence.UsageAggregateDocument;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageTotalsQueryServiceTests {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageAggregateWriteBuffer usageAggregateWriteBuffer =
+            new UsageAggregateWriteBuffer(Mockito.mock(UsageAggregateWriter.class));
+    private final UsageTotalsQueryService usageTotalsQueryService =
+            new UsageTotalsQueryService(
+                    mongoTemplate, usageAggregateWriteBuffer,
+                    new UsageMetricAggregations("", 0.02, "", 0.01, "", Duration.ofHours(1)));
+
+    @Test
+    void shouldResolvePairsWithSingleQueryAndDefaultMissingToZero() {
+        when(mongoTemplate.find(any(Query.class), eq(UsageAggregateDocument.class))).thenReturn(List.of(
+                aggregate("customer-1", "api_call", 10L),
+                aggregate("customer-1", "storage_gb", 99L),
+                aggregate("customer-2", "storage_gb", 4L)
+        ));
+
+        UsageTotalsQueryResult result = usageTotalsQueryService.totals(new UsageTotalsQueryRequest("tenant-1", null, List.of(
+                new UsageTotalsQueryItem("customer-1", "api_call"),
+                new UsageTotalsQueryItem("customer-2", "storage_gb"),
+                new UsageTotalsQueryItem("customer-2", "api_call")
+        )));
+
+        assertThat(result.totals()).isEqualTo(Map.of(
+                "customer-1", Map.of("api_call", 10L),
+                "customer-2", Map.of("api_call", 0L, "storage_gb", 4L)
+        ));
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(captor.capture(), eq(UsageAggregateDocument.class));
+        assertThat(captor.getValue().getQueryObject().get("customerId").toString()).contains("$in");
+        assertThat(captor.getValue().getQueryObject().get("metricCode").toString()).contains("$in");
+    }
+
+    @Test
+    void shouldReturnAllMetricsForCustomerIncludingPendingIncrements() {
+        ReflectionTestUtils.setField(usageAggregateWriteBuffer, "enabled", true);
+        ReflectionTestUtils.setField(usageAggregateWriteBuffer, "maxPendingKeys", 100);
+        Instant occurredAt = Instant.parse("2026-02-21T16:30:00Z");
+        usageAggregateWriteBuffer.add(new UsageAggregateKey("tenant-1", "customer-1", "api_call"), 5L, occurredAt);
+        usageAggregateWriteBuffer.add(new UsageAggregateKey("tenant-1", "customer-1", "egress_gb"), 2L, occurredAt);
+        usageAggregateWriteBuffer.add(new UsageAggregateKey("tenant-1", "customer-2", "api_call"), 7L, occurredAt);
+        when(mongoTemplate.find(any(Query.class), eq(UsageAggregateDocument.class)))
+                .thenReturn(List.of(aggregate("customer-1", "api_call", 10L)));
+
+        UsageTotalsQueryResult result = usageTotalsQueryService.totals(
+                new UsageTotalsQueryRequest("tenant-1", "customer-1", null));
+
+        assertThat(result.totals()).isEqualTo(Map.of("customer-1", Map.of("api_call", 15L, "egress_gb", 2L)));
+    }
+
+    @Test
+    void shouldRejectAmbiguousQuery() {
+        assertThatThrownBy(() -> usageTotalsQueryService.totals(new UsageTotalsQueryRequest("tenant-1", "customer-1",
+                List.of(new UsageTotalsQueryItem("customer-1", "api_call")))))
+                .isInstanceOf(DomainValidationException.class);
+        assertThatThrownBy(() -> usageTotalsQueryService.totals(new UsageTotalsQueryRequest("tenant-1", null, List.of())))
+                .isInstanceOf(DomainValidationException.class);
+        verify(mongoTemplate, never()).find(any(Query.class), eq(UsageAggregateDocument.class));
+    }
+
+    private static UsageAggregateDocument aggregate(String customerId, String metricCode, long total) {
+        UsageAggregateDocument document = new UsageAggregateDocument();
+        document.setTenantId("tenant-1");
+        document.setCustomerId(customerId);
+        document.setMetricCode(metricCode);
+        document.setTotalQuantity(total);
+        return document;
+    }
+}
@@ -0,0 +1,69 @@
+package com.mustafabulu.billing.usageservice.application;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.usageservice.domain.UsageEvent;
+import com.mustafabulu.billing.usageservice.persistence.UsageWriteAheadLog;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageWalDrainerTests {
+
+    private static final Instant RECEIVED_AT = Instant.parse("2026-02-21T16:30:00Z");
+
+    @TempDir
+    Path directory;
+
+    private final UsageIngestionService usageIngestionService = Mockito.mock(UsageIngestionService.class);
+
+    @Test
+    void shouldQuarantineARecordThatCannotBeStoredAndDrainTheRest() throws Exception {
+        UsageWriteAheadLog wal = log("usage-evt-0", "usage-evt-poison", "usage-evt-2");
+        when(usageIngestionService.applyLogged(anyList())).thenAnswer(invocation -> {
+            List<UsageWriteAheadLog.Entry> entries = invocation.getArgument(0);
+            if (entries.stream().anyMatch(entry -> entry.event().idempotencyKey().equals("usage-evt-poison"))) {
+                throw new IllegalArgumentException("unreadable metric");
+            }
+            return entries.size();
+        });
+
+        drainer(wal).drain();
+
+        assertThat(wal.pendingEvents()).isZero();
+        assertThat(Files.size(directory.resolve("wal-quarantine.log"))).isPositive();
+    }
+
+    @Test
+    void shouldKeepTheBatchInTheLogWhenMongoIsUnavailable() {
+        UsageWriteAheadLog wal = log("usage-evt-0", "usage-evt-1");
+        when(usageIngestionService.applyLogged(anyList())).thenThrow(new DataAccessResourceFailureException("mongo down"));
+
+        drainer(wal).drain();
+
+        assertThat(wal.pendingEvents()).isEqualTo(2L);
+        assertThat(directory.resolve("wal-quarantine.log")).doesNotExist();
+    }
+
+    private UsageWalDrainer drainer(UsageWriteAheadLog wal) {
+        UsageWalDrainer drainer = new UsageWalDrainer(wal, usageIngestionService);
+        ReflectionTestUtils.setField(drainer, "drainBatchSize", 100);
+        return drainer;
+    }
+
+    private UsageWriteAheadLog log(String... idempotencyKeys) {
+        UsageWriteAheadLog wal = new UsageWriteAheadLog(true, directory.toString(), 4096, 4);
+        for (String idempotencyKey : idempotencyKeys) {
+            wal.append(new UsageEvent("tenant-1", "customer-1", idempotencyKey, "api_call", 1L, RECEIVED_AT), RECEIVED_AT);
+        }
+        return wal;
+    }
+}
@@ -0,0 +1,94 @@
+package com.mustafabulu.billing.usageservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mustafabulu.billing.common.codec.SmileCodec;
+import com.mustafabulu.billing.usageservice.api.dto.UsageEventBatchRequest;
+import com.mustafabulu.billing.usageservice.api.dto.UsageEventRequest;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+// parse + bind cost per event of a 500-event batch, JSON vs Smile, with the JSON converter's mapper and a Smile one built
+// the same way. Smile with or without shared string values has measured slower than JSON here and only wins on bytes,
+// which is why ingestion accepts JSON only
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsageEventEncodingBenchmark {
+    static final int BATCH_SIZE = 500;
+
+    private final ObjectMapper jsonMapper = new Jackson2ObjectMapperBuilder().build();
+    private final ObjectMapper smileMapper = new Jackson2ObjectMapperBuilder().smile().build();
+    private byte[] json;
+    private byte[] smile;
+    private byte[] smileUnshared;
+
+    @Setup
+    public void encode() throws IOException {
+        UsageEventBatchRequest batch = batch();
+        json = jsonMapper.writeValueAsBytes(batch);
+        smile = new SmileCodec().encode(batch);
+        smileUnshared = new SmileCodec(false).encode(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public UsageEventBatchRequest parseJson() throws IOException {
+        return jsonMapper.readValue(json, UsageEventBatchRequest.class);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public UsageEventBatchRequest parseSmile() throws IOException {
+        return smileMapper.readValue(smile, UsageEventBatchRequest.class);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public UsageEventBatchRequest parseSmileUnshared() throws IOException {
+        return smileMapper.readValue(smileUnshared, UsageEventBatchRequest.class);
+    }
+
+    static UsageEventBatchRequest batch() {
+        Instant start = Instant.parse("2026-02-21T16:30:00Z");
+        return new UsageEventBatchRequest(IntStream.range(0, BATCH_SIZE)
+                .mapToObj(i -> new UsageEventRequest(
+                        "acme-tr",
+                        "cust-" + (1000 + i % 50),
+                        "usage-evt-" + i,
+                        i % 3 == 0 ? "storage_gb" : "api_call",
+                        1 + i % 200,
+                        start.plusMillis(i * 37L),
+                        null))
+                .toList());
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        UsageEventEncodingBenchmark sizes = new UsageEventEncodingBenchmark();
+        sizes.encode();
+        System.out.printf("bytes/event json=%.1f smile=%.1f smileUnshared=%.1f%n",
+                sizes.json.length / (double) BATCH_SIZE, sizes.smile.length / (double) BATCH_SIZE,
+                sizes.smileUnshared.length / (double) BATCH_SIZE);
+        new Runner(new OptionsBuilder().include(UsageEventEncodingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,58 @@
+package com.mustafabulu.billing.usageservice.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.common.events.KafkaTopics;
+import com.mustafabulu.billing.common.exception.DomainValidationException;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+class UsageKafkaConfigTests {
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = Mockito.mock(KafkaTemplate.class);
+    private final DefaultErrorHandler errorHandler = new UsageKafkaConfig().usageBatchErrorHandler(kafkaTemplate, 0L, 3L);
+    private final Consumer<?, ?> consumer = Mockito.mock(Consumer.class);
+    private final MessageListenerContainer container = Mockito.mock(MessageListenerContainer.class);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldDeadLetterAnEventItsMetricRejectsWithoutRetrying() {
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+        ConsumerRecord<String, Object> consumerRecord = new ConsumerRecord<>(KafkaTopics.USAGE_INGESTED, 0, 7L, "key", "value");
+
+        boolean recovered = errorHandler.handleOne(new DomainValidationException("rejected"), consumerRecord, consumer,
+                container);
+
+        assertThat(recovered).isTrue();
+        ArgumentCaptor<ProducerRecord<String, Object>> published = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(published.capture());
+        assertThat(published.getValue().topic()).isEqualTo(KafkaTopics.DEAD_LETTER);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRetryStorageFailuresAndDropExhaustedInvalidationsWithoutDeadLettering() {
+        ConsumerRecord<String, Object> consumerRecord =
+                new ConsumerRecord<>(KafkaTopics.USAGE_TOTALS_INVALIDATED, 0, 7L, "key", "value");
+        IllegalStateException failure = new IllegalStateException("mongo down");
+
+        assertThat(errorHandler.handleOne(failure, consumerRecord, consumer, container)).isFalse();
+        assertThat(errorHandler.handleOne(failure, consumerRecord, consumer, container)).isFalse();
+        assertThat(errorHandler.handleOne(failure, consumerRecord, consumer, container)).isFalse();
+        assertThat(errorHandler.handleOne(failure, consumerRecord, consumer, container)).isTrue();
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    }
+}
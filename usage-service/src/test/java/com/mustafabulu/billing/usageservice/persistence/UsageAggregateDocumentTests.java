@@ -16,6 +16,7 @@ class UsageAggregateDocumentTests {
         document.setTenantId("tenant-1");
         document.setCustomerId("customer-1");
         document.setMetricCode("api_call");
+        document.setShard(3);
         document.setTotalQuantity(42L);
         document.setUpdatedAt(updatedAt);
 
@@ -23,6 +24,7 @@ class UsageAggregateDocumentTests {
         assertThat(document.getTenantId()).isEqualTo("tenant-1");
         assertThat(document.getCustomerId()).isEqualTo("customer-1");
         assertThat(document.getMetricCode()).isEqualTo("api_call");
+        assertThat(document.getShard()).isEqualTo(3);
         assertThat(document.getTotalQuantity()).isEqualTo(42L);
         assertThat(document.getUpdatedAt()).isEqualTo(updatedAt);
     }
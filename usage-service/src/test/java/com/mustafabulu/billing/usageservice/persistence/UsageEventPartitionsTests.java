@@ -0,0 +1,111 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.result.DeleteResult;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageEventPartitionsTests {
+
+    private static final Instant NOW = Instant.parse("2026-03-10T12:00:00Z");
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageEventPartitions usageEventPartitions =
+            new UsageEventPartitions(mongoTemplate, true, Duration.ofDays(35), Duration.ofDays(400));
+
+    @Test
+    void shouldWriteToTheMonthOfReceiptAndDedupeAcrossTheWindow() {
+        IndexOperations indexOperations = Mockito.mock(IndexOperations.class);
+        MongoConverter converter = Mockito.mock(MongoConverter.class);
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        doReturn(mappingContext).when(converter).getMappingContext();
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.indexOps("usage_events_202603")).thenReturn(indexOperations);
+        UsageEventDocument newest = new UsageEventDocument();
+        newest.setId(new ObjectId(Date.from(NOW.minus(Duration.ofDays(20)))).toHexString());
+        when(mongoTemplate.findOne(any(Query.class), eq(UsageEventDocument.class), eq("usage_events"))).thenReturn(newest);
+
+        assertThat(usageEventPartitions.writeCollection(NOW)).isEqualTo("usage_events_202603");
+        assertThat(usageEventPartitions.writeCollection(NOW.plusSeconds(60))).isEqualTo("usage_events_202603");
+        // a window reaching back into February, and the unpartitioned collection still received events inside it
+        assertThat(usageEventPartitions.dedupeCollections(NOW))
+                .containsExactly("usage_events_202603", "usage_events_202602", "usage_events");
+        assertThat(usageEventPartitions.dedupeCollections(NOW.plus(Duration.ofDays(30))))
+                .containsExactly("usage_events_202604", "usage_events_202603");
+        verify(mongoTemplate).indexOps("usage_events_202603");
+        verify(indexOperations, Mockito.atLeastOnce()).ensureIndex(any(IndexDefinition.class));
+    }
+
+    @Test
+    void shouldDropOnlyPartitionsPastRetentionAndKeepUnarchivedOnes() {
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of("usage_events", "usage_events_202401",
+                "usage_events_202501", "usage_events_202502", "usage_events_202603", "usage_aggregates"));
+
+        assertThat(usageEventPartitions.all()).containsExactly(
+                "usage_events", "usage_events_202401", "usage_events_202501", "usage_events_202502", "usage_events_202603");
+
+        ReflectionTestUtils.setField(usageEventPartitions, "archiveEnabled", true);
+        when(mongoTemplate.exists(any(Query.class), eq("usage_events_202401"))).thenReturn(true);
+
+        assertThat(usageEventPartitions.dropExpired(NOW)).isEqualTo(1);
+        verify(mongoTemplate).dropCollection("usage_events_202501");
+        verify(mongoTemplate, never()).dropCollection("usage_events_202401");
+        verify(mongoTemplate, never()).dropCollection("usage_events_202502");
+        verify(mongoTemplate, never()).dropCollection("usage_events");
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(UsageEventBucketDocument.class));
+    }
+
+    @Test
+    void shouldDeleteCompactedBucketsReceivedInExpiredMonths() {
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of("usage_events", "usage_events_202501"));
+        when(mongoTemplate.getCollectionName(UsagePartitionTotalsDocument.class)).thenReturn("usage_partition_totals");
+        when(mongoTemplate.getCollectionName(UsageEventBucketDocument.class)).thenReturn("usage_event_buckets");
+        when(mongoTemplate.remove(any(Query.class), eq(UsageEventBucketDocument.class)))
+                .thenReturn(DeleteResult.acknowledged(3L));
+
+        usageEventPartitions.dropExpired(NOW);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(query.capture(), eq(UsageEventBucketDocument.class));
+        // 400 days before 2026-03-10 falls in February 2025, the first month that is kept
+        assertThat(query.getValue().getQueryObject().get("slice", Document.class))
+                .containsEntry("$lt", Instant.parse("2025-02-01T00:00:00Z"));
+        // their totals are recorded first, like the dropped partition's
+        InOrder order = Mockito.inOrder(mongoTemplate);
+        ArgumentCaptor<Aggregation> totals = ArgumentCaptor.forClass(Aggregation.class);
+        order.verify(mongoTemplate).aggregate(totals.capture(), eq("usage_event_buckets"), eq(Document.class));
+        order.verify(mongoTemplate).remove(any(Query.class), eq(UsageEventBucketDocument.class));
+        List<Document> pipeline = totals.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertThat(pipeline.get(1).get("$project", Document.class).get("partition", Document.class))
+                .containsKey("$concat");
+        assertThat(pipeline.get(pipeline.size() - 1).get("$merge", Document.class))
+                .containsEntry("into", "usage_partition_totals");
+        verify(mongoTemplate).aggregate(any(Aggregation.class), eq("usage_events_202501"), eq(Document.class));
+    }
+}
@@ -0,0 +1,18 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class UsageIdempotencyHashTests {
+
+    @Test
+    void shouldProduceFixedWidthHashScopedByTenant() {
+        byte[] hash = UsageIdempotencyHash.of("tenant-1", "order-2024-" + "x".repeat(200));
+
+        assertThat(hash).hasSize(UsageIdempotencyHash.LENGTH);
+        assertThat(UsageIdempotencyHash.of("tenant-1", "idem-1")).isEqualTo(UsageIdempotencyHash.of("tenant-1", "idem-1"));
+        assertThat(UsageIdempotencyHash.of("tenant-1", "idem-1")).isNotEqualTo(UsageIdempotencyHash.of("tenant-2", "idem-1"));
+        assertThat(UsageIdempotencyHash.of("ab", "c")).isNotEqualTo(UsageIdempotencyHash.of("a", "bc"));
+    }
+}
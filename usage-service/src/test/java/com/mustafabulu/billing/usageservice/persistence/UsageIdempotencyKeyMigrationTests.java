@@ -0,0 +1,163 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mustafabulu.billing.usageservice.application.UsageJobLeases;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UsageIdempotencyKeyMigrationTests {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final UsageJobLeases usageJobLeases = Mockito.mock(UsageJobLeases.class);
+    private final UsageIdempotencyKeyMigration migration = new UsageIdempotencyKeyMigration(mongoTemplate, usageJobLeases,
+            new UsageEventPartitions(mongoTemplate, true, Duration.ofDays(35), Duration.ofDays(400)));
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(migration, "hashedKeys", true);
+        ReflectionTestUtils.setField(migration, "autoIndexCreation", true);
+        ReflectionTestUtils.setField(migration, "backfillBatchSize", 2);
+        ReflectionTestUtils.setField(migration, "leaseMs", 60_000L);
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of("usage_events", "usage_events_202602"));
+    }
+
+    @Test
+    void shouldResumeFromTheStoredCursorAndAdvanceIt() {
+        when(usageJobLeases.tryAcquire(eq("usage-idempotency-backfill"), anyLong())).thenReturn(true);
+        UsageIdempotencyBackfillCheckpointDocument checkpoint = new UsageIdempotencyBackfillCheckpointDocument();
+        checkpoint.setLastBackfilledId("665f00000000000000000002");
+        when(mongoTemplate.findById("usage_events", UsageIdempotencyBackfillCheckpointDocument.class)).thenReturn(checkpoint);
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), anyString()))
+                .thenReturn(List.of(event("665f00000000000000000003"), event("665f00000000000000000004")));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class, "usage_events"))
+                .thenReturn(Mockito.mock(BulkOperations.class));
+
+        migration.backfillHashes();
+
+        ArgumentCaptor<Query> page = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(page.capture(), eq(UsageEventDocument.class), anyString());
+        assertThat(page.getValue().getQueryObject().get("_id", Document.class))
+                .containsEntry("$gt", "665f00000000000000000002");
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(any(Query.class), update.capture(), eq(UsageIdempotencyBackfillCheckpointDocument.class));
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+                .containsEntry("lastBackfilledId", "665f00000000000000000004");
+        verify(usageJobLeases, never()).release(anyString());
+    }
+
+    @Test
+    void shouldLeaveTheWalkAndTheLegacyIndexToTheLeaseHolder() {
+        when(usageJobLeases.tryAcquire(eq("usage-idempotency-backfill"), anyLong())).thenReturn(false);
+
+        migration.backfillHashes();
+
+        verify(mongoTemplate, never()).find(any(Query.class), eq(UsageEventDocument.class), anyString());
+        verify(mongoTemplate, never()).indexOps(anyString());
+    }
+
+    @Test
+    void shouldWalkEachPartitionAfterTheBaseCollectionBeforeCompleting() {
+        when(usageJobLeases.tryAcquire(eq("usage-idempotency-backfill"), anyLong())).thenReturn(true);
+        when(mongoTemplate.findById("usage_events", UsageIdempotencyBackfillCheckpointDocument.class)).thenReturn(completed());
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), eq("usage_events_202602")))
+                .thenReturn(List.of(event("665f00000000000000000003")));
+        BulkOperations bulk = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class, "usage_events_202602"))
+                .thenReturn(bulk);
+
+        migration.backfillHashes();
+
+        verify(bulk).updateOne(any(Query.class), any(Update.class));
+        verify(bulk).execute();
+        ArgumentCaptor<Query> checkpoint = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).upsert(checkpoint.capture(), any(Update.class), eq(UsageIdempotencyBackfillCheckpointDocument.class));
+        assertThat(checkpoint.getValue().getQueryObject()).containsEntry("_id", "usage_events_202602");
+        assertThat(migration.isBackfilled()).isFalse();
+        verify(usageJobLeases, never()).release(anyString());
+    }
+
+    @Test
+    void shouldRecordCompletionButKeepTheLegacyIndexUntilItsDropIsEnabled() {
+        when(usageJobLeases.tryAcquire(eq("usage-idempotency-backfill"), anyLong())).thenReturn(true);
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), anyString())).thenReturn(List.of());
+
+        migration.backfillHashes();
+        when(mongoTemplate.findById(anyString(), eq(UsageIdempotencyBackfillCheckpointDocument.class))).thenReturn(completed());
+        migration.backfillHashes();
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(any(Query.class), update.capture(), eq(UsageIdempotencyBackfillCheckpointDocument.class));
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class)).containsEntry("completed", true);
+        verify(mongoTemplate, never()).indexOps(anyString());
+        assertThat(migration.isBackfilled()).isTrue();
+        verify(usageJobLeases).release("usage-idempotency-backfill");
+    }
+
+    @Test
+    void shouldHashEventsWrittenBehindTheCursorBeforeDroppingTheLegacyIndexes() {
+        ReflectionTestUtils.setField(migration, "dropLegacyIndex", true);
+        when(usageJobLeases.tryAcquire(eq("usage-idempotency-backfill"), anyLong())).thenReturn(true);
+        when(mongoTemplate.findById(anyString(), eq(UsageIdempotencyBackfillCheckpointDocument.class))).thenReturn(completed());
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), anyString())).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(UsageEventDocument.class), eq("usage_events_202602")))
+                .thenReturn(List.of(event("665f00000000000000000009")))
+                .thenReturn(List.of());
+        BulkOperations bulk = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageEventDocument.class, "usage_events_202602"))
+                .thenReturn(bulk);
+        IndexOperations indexOperations = Mockito.mock(IndexOperations.class);
+        when(mongoTemplate.indexOps(anyString())).thenReturn(indexOperations);
+        when(indexOperations.getIndexInfo()).thenReturn(List.of(
+                new IndexInfo(List.of(), UsageIdempotencyKeyMigration.LEGACY_INDEX, true, false, "")));
+
+        migration.backfillHashes();
+
+        verify(bulk).execute();
+        verify(indexOperations, never()).dropIndex(anyString());
+        assertThat(migration.isBackfilled()).isFalse();
+
+        migration.backfillHashes();
+
+        ArgumentCaptor<Query> rescan = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, Mockito.atLeastOnce()).find(rescan.capture(), eq(UsageEventDocument.class), anyString());
+        assertThat(rescan.getValue().getQueryObject().get("idempotencyHash", Document.class)).containsEntry("$exists", false);
+        verify(indexOperations, Mockito.times(2)).dropIndex(UsageIdempotencyKeyMigration.LEGACY_INDEX);
+        assertThat(migration.isBackfilled()).isTrue();
+        verify(usageJobLeases).release("usage-idempotency-backfill");
+    }
+
+    private static UsageIdempotencyBackfillCheckpointDocument completed() {
+        UsageIdempotencyBackfillCheckpointDocument checkpoint = new UsageIdempotencyBackfillCheckpointDocument();
+        checkpoint.setCompleted(true);
+        return checkpoint;
+    }
+
+    private static UsageEventDocument event(String id) {
+        UsageEventDocument event = new UsageEventDocument();
+        event.setId(id);
+        event.setTenantId("tenant-1");
+        event.setIdempotencyKey("idem-" + id);
+        return event;
+    }
+}
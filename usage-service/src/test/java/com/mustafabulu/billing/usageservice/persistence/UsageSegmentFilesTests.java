@@ -0,0 +1,93 @@
+package com.mustafabulu.billing.usageservice.persistence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UsageSegmentFilesTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRoundTripEventsThroughMappedSegment() throws IOException {
+        Instant start = Instant.parse("2025-01-10T00:00:00Z");
+        List<UsageEventDocument> events = List.of(
+                event("evt-1", "customer-1", "api_call", "usage-evt-0001", 5L, start, start.plusSeconds(2)),
+                event("evt-2", "customer-2", "storage_gb", "usage-evt-0002", 0L, start.plusMillis(10), null),
+                event("evt-3", "customer-1", "api_call", "usage-évt-0001-retry", 1_000_000_000_000L, start.plusSeconds(60),
+                        start.plusSeconds(61)));
+        Path file = directory.resolve("tenant-1/2025/01/10/seg-1.usg");
+
+        long size = UsageSegmentWriter.write(file, "tenant-1", events);
+
+        assertThat(Files.size(file)).isEqualTo(size);
+        try (UsageSegmentReader reader = UsageSegmentReader.open(file)) {
+            assertThat(reader.tenantId()).isEqualTo("tenant-1");
+            assertThat(reader.eventCount()).isEqualTo(3);
+            assertThat(reader.minOccurredAt()).isEqualTo(start);
+            assertThat(reader.maxOccurredAt()).isEqualTo(start.plusSeconds(60));
+
+            List<String> rows = new ArrayList<>();
+            UsageSegmentReader.Cursor cursor = reader.cursor();
+            while (cursor.next()) {
+                rows.add(String.join("|", cursor.id(), cursor.customerId(), cursor.metricCode(), cursor.idempotencyKey(),
+                        String.valueOf(cursor.quantity()), cursor.occurredAt().toString(), cursor.receivedAt().toString()));
+            }
+            assertThat(rows).containsExactly(
+                    "evt-1|customer-1|api_call|usage-evt-0001|5|2025-01-10T00:00:00Z|2025-01-10T00:00:02Z",
+                    "evt-2|customer-2|storage_gb|usage-evt-0002|0|2025-01-10T00:00:00.010Z|2025-01-10T00:00:00.010Z",
+                    "evt-3|customer-1|api_call|usage-évt-0001-retry|1000000000000|2025-01-10T00:01:00Z|2025-01-10T00:01:01Z");
+        }
+    }
+
+    @Test
+    void shouldRejectCorruptedSegment() throws IOException {
+        Instant start = Instant.parse("2025-01-10T00:00:00Z");
+        Path file = directory.resolve("seg-2.usg");
+        UsageSegmentWriter.write(file, "tenant-1",
+                List.of(event("evt-1", "customer-1", "api_call", "usage-evt-0001", 5L, start, start)));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(file, bytes);
+
+        assertThatThrownBy(() -> UsageSegmentReader.open(file)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void shouldRejectEventsOfOtherTenants() {
+        Instant start = Instant.parse("2025-01-10T00:00:00Z");
+        UsageEventDocument foreign = event("evt-1", "customer-1", "api_call", "usage-evt-0001", 5L, start, start);
+        foreign.setTenantId("tenant-2");
+
+        assertThatThrownBy(() -> UsageSegmentWriter.write(directory.resolve("seg-3.usg"), "tenant-1", List.of(foreign)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static UsageEventDocument event(String id,
+                                            String customerId,
+                                            String metricCode,
+                                            String idempotencyKey,
+                                            long quantity,
+                                            Instant occurredAt,
+                                            Instant receivedAt) {
+        UsageEventDocument document = new UsageEventDocument();
+        document.setId(id);
+        document.setTenantId("tenant-1");
+        document.setCustomerId(customerId);
+        document.setMetricCode(metricCode);
+        document.setIdempotencyKey(idempotencyKey);
+        document.setQuantity(quantity);
+        document.setOccurredAt(occurredAt);
+        document.setReceivedAt(receivedAt);
+        return document;
+    }
+}